@@ -22,6 +22,15 @@ public class Aggregations {
     return retVal != null ? retVal.intValue() : 0;
   }
 
+  /**
+   * Adds all of the other aggregations' values to these.
+   */
+  public void addAll(Aggregations other) {
+    for (Map.Entry<AggregationOf, MutableInt> entry : other.aggregations.entrySet()) {
+      add(entry.getKey(), entry.getValue().intValue());
+    }
+  }
+
   private MutableInt assureAgg(AggregationOf aggregationOf) {
     MutableInt retVal = aggregations.get(aggregationOf);
     if (retVal == null) {
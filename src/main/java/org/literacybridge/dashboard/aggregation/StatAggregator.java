@@ -1,5 +1,6 @@
 package org.literacybridge.dashboard.aggregation;
 
+import org.literacybridge.stats.formats.logFile.ContentIdDictionary;
 import org.literacybridge.stats.model.DeploymentId;
 
 import java.util.HashMap;
@@ -17,6 +18,11 @@ public class StatAggregator {
     return assureUpdate(update).add(aggregationOf, contentId, village, talkingBook, valsToAdd);
   }
 
+  public int add(DeploymentId update, AggregationOf aggregationOf, int contentId, ContentIdDictionary contentIds,
+                 String village, String talkingBook, int valsToAdd) {
+    return assureUpdate(update).add(aggregationOf, contentId, contentIds, village, talkingBook, valsToAdd);
+  }
+
   public void clear() {
     perUpdateAggregations.clear();
   }
@@ -1,20 +1,34 @@
 package org.literacybridge.dashboard.aggregation;
 
+import org.literacybridge.stats.formats.logFile.ContentIdDictionary;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
 /**
  * Created by willpugh on 2/9/14.
+ * <p/>
+ * Content can be added either by its content ID, or by its int ID from a {@link ContentIdDictionary}.  The ones
+ * added by int are kept in a list indexed by the int, and are only put in the content ID map (and their content
+ * IDs looked up) when that is asked for.
  */
 public class UpdateAggregations {
-  public final Map<String, Aggregations> contentAggregations = new TreeMap<>();
+  private final Map<String, Aggregations> contentAggregations = new TreeMap<>();
   public final Map<String, Aggregations> perVillageAggregations = new TreeMap<>();
   public final Map<String, Aggregations> perTBAggregations = new TreeMap<>();
 
+  private final List<Aggregations> aggregationsByContentId = new ArrayList<>();
+  //Which of aggregationsByContentId are already in contentAggregations
+  private final BitSet             inContentAggregations   = new BitSet();
+  private ContentIdDictionary      contentIds;
+
   public Map<String, Aggregations> getAggregationMap(Grouping grouping) {
     switch (grouping) {
       case contentId:
-        return contentAggregations;
+        return getContentAggregations();
       case village:
         return perVillageAggregations;
       case talkingBook:
@@ -24,6 +38,30 @@ public class UpdateAggregations {
     }
   }
 
+  /**
+   * @return the aggregations for each content ID, including the ones added by int ID.
+   */
+  public Map<String, Aggregations> getContentAggregations() {
+    for (int id = 0; id < aggregationsByContentId.size(); id++) {
+      final Aggregations aggregations = aggregationsByContentId.get(id);
+      if (aggregations == null || inContentAggregations.get(id)) {
+        continue;
+      }
+
+      final String contentId = contentIds.get(id);
+      final Aggregations existing = contentAggregations.get(contentId);
+      if (existing == null) {
+        contentAggregations.put(contentId, aggregations);
+      } else {
+        //Also added by content ID.  Use the one instance from now on.
+        existing.addAll(aggregations);
+        aggregationsByContentId.set(id, existing);
+      }
+      inContentAggregations.set(id);
+    }
+    return contentAggregations;
+  }
+
   public int add(AggregationOf aggregationOf, String contentId, String village, String talkingBook, int valsToAdd) {
 
     assureAggregations(perVillageAggregations, village).add(aggregationOf, valsToAdd);
@@ -32,6 +70,33 @@ public class UpdateAggregations {
     return assureAggregations(contentAggregations, contentId).add(aggregationOf, valsToAdd);
   }
 
+  /**
+   * Same as {@link #add(AggregationOf, String, String, String, int)}, but the content is given by its ID in
+   * contentIds.
+   */
+  public int add(AggregationOf aggregationOf, int contentId, ContentIdDictionary contentIds, String village,
+                 String talkingBook, int valsToAdd) {
+    if (this.contentIds == null) {
+      this.contentIds = contentIds;
+    } else if (this.contentIds != contentIds) {
+      //The ints of two dictionaries can't be mixed, so fall back to the content ID.
+      return add(aggregationOf, contentIds.get(contentId), village, talkingBook, valsToAdd);
+    }
+
+    assureAggregations(perVillageAggregations, village).add(aggregationOf, valsToAdd);
+    assureAggregations(perTBAggregations, talkingBook).add(aggregationOf, valsToAdd);
+
+    while (aggregationsByContentId.size() <= contentId) {
+      aggregationsByContentId.add(null);
+    }
+    Aggregations aggregations = aggregationsByContentId.get(contentId);
+    if (aggregations == null) {
+      aggregations = new Aggregations();
+      aggregationsByContentId.set(contentId, aggregations);
+    }
+    return aggregations.add(aggregationOf, valsToAdd);
+  }
+
   private static Aggregations assureAggregations(Map<String, Aggregations> map, String id) {
     Aggregations aggregations = map.get(id);
     if (aggregations == null) {
@@ -31,10 +31,10 @@ abstract public class Event implements Serializable {
     event.setVillage(context.context.village);
     event.setPackageId(context.context.contentPackage);
 
-    if (context.logLineInfo != null) {
-      event.setMaxVolts(context.logLineInfo.maxVolts);
-      event.setMinVolts(context.logLineInfo.minVolts);
-      event.setSteadyStateVolts(context.logLineInfo.steadyStateVolts);
+    if (context.hasLogLineInfo()) {
+      event.setMaxVolts(context.getMaxVolts());
+      event.setMinVolts(context.getMinVolts());
+      event.setSteadyStateVolts(context.getSteadyStateVolts());
     }
 
   }
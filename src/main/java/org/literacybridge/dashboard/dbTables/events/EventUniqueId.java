@@ -39,19 +39,19 @@ public class EventUniqueId implements Serializable {
     id.year = context.context.deploymentId.year;
     id.updateInYear = context.context.deploymentId.update;
 
-    if (context.logLineInfo == null) {
+    if (!context.hasLogLineInfo()) {
       return id;
     }
 
-    id.setHouseholdRotation(context.logLineInfo.householdRotation);
-    id.setCycle(context.logLineInfo.cycle);
-    id.setPeriod(context.logLineInfo.period);
-    id.setDayInPeriod(context.logLineInfo.dayOfPeriod);
-    id.setTimeInDay(new Time(context.logLineInfo.timeInPeriod.getMillisOfDay()));
+    id.setHouseholdRotation(context.getHouseholdRotation());
+    id.setCycle(context.getCycle());
+    id.setPeriod(context.getPeriod());
+    id.setDayInPeriod(context.getDayOfPeriod());
+    //Its own Time, since a Time can be changed, and it is part of the id.
+    id.setTimeInDay(new Time(context.getSecondOfDay() * 1000L));
     return id;
   }
 
-
   public String getTalkingBookId() {
     return talkingBookId;
   }
@@ -0,0 +1,43 @@
+package org.literacybridge.dashboard.dbTables.syncOperations;
+
+import javax.persistence.Column;
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import java.util.Date;
+
+/**
+ * An archived log file that has been ingested, so that its events aren't written out again when it turns up in a
+ * later sync or upload.
+ */
+@Entity(name = "IngestedLogFile")
+public class IngestedLogFile {
+
+  @EmbeddedId UniqueIngestedLogFile uniqueIngestedLogFile;
+  @Column(nullable = false) Date    ingestedTime;
+  // The update that ingested it.
+  @Column(nullable = true)  String  s3Id;
+
+  public UniqueIngestedLogFile getUniqueIngestedLogFile() {
+    return uniqueIngestedLogFile;
+  }
+
+  public void setUniqueIngestedLogFile(UniqueIngestedLogFile uniqueIngestedLogFile) {
+    this.uniqueIngestedLogFile = uniqueIngestedLogFile;
+  }
+
+  public Date getIngestedTime() {
+    return ingestedTime;
+  }
+
+  public void setIngestedTime(Date ingestedTime) {
+    this.ingestedTime = ingestedTime;
+  }
+
+  public String getS3Id() {
+    return s3Id;
+  }
+
+  public void setS3Id(String s3Id) {
+    this.s3Id = s3Id;
+  }
+}
@@ -0,0 +1,59 @@
+package org.literacybridge.dashboard.dbTables.syncOperations;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import java.io.Serializable;
+
+/**
+ * An archived log file of a Talking Book, by the SHA-256 of its contents.
+ */
+@Embeddable
+public class UniqueIngestedLogFile implements Serializable {
+  @Column(nullable = false) String talkingBook;
+  @Column(nullable = false, length = 64) String sha256;
+
+  public UniqueIngestedLogFile() {
+  }
+
+  public UniqueIngestedLogFile(String talkingBook, String sha256) {
+    this.talkingBook = talkingBook;
+    this.sha256 = sha256;
+  }
+
+  public String getTalkingBook() {
+    return talkingBook;
+  }
+
+  public void setTalkingBook(String talkingBook) {
+    this.talkingBook = talkingBook;
+  }
+
+  public String getSha256() {
+    return sha256;
+  }
+
+  public void setSha256(String sha256) {
+    this.sha256 = sha256;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o)
+      return true;
+    if (o == null || getClass() != o.getClass())
+      return false;
+
+    UniqueIngestedLogFile that = (UniqueIngestedLogFile) o;
+
+    if (!talkingBook.equals(that.talkingBook))
+      return false;
+    return sha256.equals(that.sha256);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = talkingBook.hashCode();
+    result = 31 * result + sha256.hashCode();
+    return result;
+  }
+}
@@ -1,5 +1,7 @@
 package org.literacybridge.dashboard.dbTables.syncOperations;
 
+import org.hibernate.annotations.Index;
+
 import javax.persistence.*;
 import java.util.Date;
 
@@ -25,6 +27,7 @@ public class UsageUpdateRecord {
   String externalId;
 
   @Column(nullable = true)
+  @Index(name = "updaterecord_s3id")
   String s3Id;
 
   @Column(nullable = true, columnDefinition = "TEXT")
@@ -2,8 +2,10 @@ package org.literacybridge.dashboard.processes;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
 import com.google.common.hash.HashingInputStream;
 import com.google.common.io.CountingInputStream;
+import com.google.common.io.Files;
 import org.apache.commons.io.FileCleaningTracker;
 import org.apache.commons.io.FileDeleteStrategy;
 import org.apache.commons.io.FileUtils;
@@ -15,20 +17,32 @@ import org.literacybridge.dashboard.dbTables.syncOperations.UpdateProcessingStat
 import org.literacybridge.dashboard.dbTables.syncOperations.UsageUpdateRecord;
 import org.literacybridge.dashboard.dbTables.syncOperations.ValidationParameters;
 import org.literacybridge.dashboard.processors.AggregationProcessor;
+import org.literacybridge.dashboard.processors.DbIngestedLogRegistry;
 import org.literacybridge.dashboard.processors.DbPersistenceProcessor;
 import org.literacybridge.dashboard.processors.FlatPersistenceProcessor;
 import org.literacybridge.dashboard.processors.FlatStatsWriter;
+import org.literacybridge.dashboard.services.IngestedLogFileService;
 import org.literacybridge.dashboard.services.S3Service;
 import org.literacybridge.dashboard.services.SyncherService;
 import org.literacybridge.dashboard.services.UpdateRecordWriterService;
 import org.literacybridge.main.FullSyncher;
 import org.literacybridge.main.ProcessingResult;
+import org.literacybridge.stats.ArchiveIndex;
 import org.literacybridge.stats.DirectoryIterator;
+import org.literacybridge.stats.ZipManifestBuilder;
+import org.literacybridge.stats.api.IngestedLogRegistry;
 import org.literacybridge.stats.api.TalkingBookDataProcessor;
+import org.literacybridge.stats.formats.logFile.ContentIdDictionary;
+import org.literacybridge.stats.formats.logFile.AbstractIngestedLogRegistry;
+import org.literacybridge.stats.formats.logFile.FileIngestedLogRegistry;
+import org.literacybridge.stats.formats.tbData.TbDataCache;
 import org.literacybridge.stats.model.DirectoryFormat;
 import org.literacybridge.stats.model.validation.ValidationError;
 import org.literacybridge.stats.processors.ValidatingProcessor;
+import org.literacybridge.utils.FileTree;
 import org.literacybridge.utils.FsUtils;
+import org.literacybridge.utils.LocalFileTree;
+import org.literacybridge.utils.ZipFileTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -38,9 +52,10 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Pattern;
 
-import static org.apache.commons.io.FileUtils.copyFile;
 import static org.literacybridge.main.FullSyncher.MIN_SECONDS_FOR_MIN_PLAY;
 
 /**
@@ -62,6 +77,10 @@ public class ContentUsageUpdateProcess {
     @Autowired
     private UpdateRecordWriterService updateRecordWriterService;
 
+    // autowired to an instance of IngestedLogFileService
+    @Autowired
+    private IngestedLogFileService ingestedLogFileService;
+
     private File globalDataLogsDir;
     private Map<String, PrintStream> globalFiles = new HashMap<>();
 
@@ -79,10 +98,182 @@ public class ContentUsageUpdateProcess {
         return writeToSql;
     }
 
+    /**
+     * Where to remember the archived log files that have been ingested, when not writing to the database.  With
+     * neither, every archived log is parsed each time it is seen.
+     */
+    File ingestedLogFile;
+    public void setIngestedLogFile(File ingestedLogFile) {
+        this.ingestedLogFile = ingestedLogFile;
+    }
+
+    /**
+     * How many threads to parse Talking Book log files on. With more than one, the log files of a sync
+     * directory are parsed in parallel, and their events are delivered to the processors in the same order
+     * as when parsed one at a time.
+     */
+    int logParsingThreads = 1;
+    public void setLogParsingThreads(int logParsingThreads) {
+        if (logParsingThreads < 1) {
+            throw new IllegalArgumentException("logParsingThreads must be at least 1");
+        }
+        this.logParsingThreads = logParsingThreads;
+    }
+
+    /**
+     * How many threads to iterate over an update on. With more than one, the Talking Books are processed in
+     * parallel, each on its own fork of the processor, and joined back in the order they would have been
+     * processed in one at a time.  The tbData files of the TB-Loaders are parsed in parallel as well, and
+     * delivered in their usual order.
+     */
+    int traversalThreads = 1;
+    public void setTraversalThreads(int traversalThreads) {
+        if (traversalThreads < 1) {
+            throw new IllegalArgumentException("traversalThreads must be at least 1");
+        }
+        this.traversalThreads = traversalThreads;
+    }
+
+    /**
+     * How many threads to unzip uploads on.
+     */
+    int unzipThreads = 1;
+    public void setUnzipThreads(int unzipThreads) {
+        if (unzipThreads < 1) {
+            throw new IllegalArgumentException("unzipThreads must be at least 1");
+        }
+        this.unzipThreads = unzipThreads;
+    }
+
+    /**
+     * How many Talking Books ahead of the one being processed to expand the sync dir zips of, in the
+     * background, and how many bytes of zips may be expanded ahead at once.  With a lookahead of 0, each
+     * Talking Book's zips are expanded when it is reached.
+     */
+    int syncZipLookahead = 0;
+    long syncZipPrefetchBytes = 256L * 1024 * 1024;
+    public void setSyncZipLookahead(int syncZipLookahead) {
+        if (syncZipLookahead < 0) {
+            throw new IllegalArgumentException("syncZipLookahead must not be negative");
+        }
+        this.syncZipLookahead = syncZipLookahead;
+    }
+    public void setSyncZipPrefetchBytes(long syncZipPrefetchBytes) {
+        if (syncZipPrefetchBytes < 0) {
+            throw new IllegalArgumentException("syncZipPrefetchBytes must not be negative");
+        }
+        this.syncZipPrefetchBytes = syncZipPrefetchBytes;
+    }
+
+    /**
+     * About how much of the heap the parsed tbData files of an import may take up, before they are spilled to temp
+     * files.
+     */
+    long tbDataCacheBytes = 64L * 1024 * 1024;
+    public void setTbDataCacheBytes(long tbDataCacheBytes) {
+        if (tbDataCacheBytes < 0) {
+            throw new IllegalArgumentException("tbDataCacheBytes must not be negative");
+        }
+        this.tbDataCacheBytes = tbDataCacheBytes;
+    }
+
+    /**
+     * Whether to read the uploaded zip in place, rather than unzipping it into the temp directory first.  In
+     * zip-native mode the Talking Book sync zips inside it are read in place as well, after being copied out
+     * (still compressed) to the temp directory.
+     */
+    boolean zipNative = false;
+    public void setZipNative(boolean zipNative) {
+        this.zipNative = zipNative;
+    }
+
+    // The states of the updates already in the db, by s3Id (the SHA-256 of the uploaded zip).  Loaded on first use,
+    // and kept up to date by this process, so a batch of imports can skip the zips it already imported without
+    // copying them.  Updates imported since by another process aren't in it, so an s3Id it doesn't have is still
+    // looked up in the db.
+    private Map<String, UpdateProcessingState> knownS3Ids;
+
+    // The states of an update whose data is already in the db.
+    private static final EnumSet<UpdateProcessingState> IMPORTED_STATES = EnumSet.of(
+        UpdateProcessingState.uploadedToDb, UpdateProcessingState.aggegated, UpdateProcessingState.done);
+
+    private synchronized Map<String, UpdateProcessingState> knownS3Ids() {
+        if (knownS3Ids == null) {
+            knownS3Ids = updateRecordWriterService.findStatesByS3Id();
+        }
+        return knownS3Ids;
+    }
+
+    @Nullable
+    private synchronized UpdateProcessingState knownState(String s3Id) {
+        return knownS3Ids().get(s3Id);
+    }
+
+    private synchronized void rememberState(UsageUpdateRecord updateRecord) {
+        if (knownS3Ids != null && updateRecord.getS3Id() != null) {
+            knownS3Ids.put(updateRecord.getS3Id(), updateRecord.getState());
+        }
+    }
+
+    /**
+     * @return the record of the update with this s3Id that hasn't been deleted, or null if there isn't one.
+     */
+    @Nullable
+    private UsageUpdateRecord findExistingRecord(String s3Id) {
+        UsageUpdateRecord existingRecord = updateRecordWriterService.findByS3Id(s3Id);
+        if (existingRecord != null) {
+            rememberState(existingRecord);
+        }
+        return existingRecord;
+    }
+
+    /**
+     * Like {@link #createInitialContext(InputStream, File, String, String, FileCleaningTracker, ProcessingResult)},
+     * but when writing to the db, a zip that has already been imported is recognized by its SHA-256 before it is
+     * copied anywhere.  Its context then has the existing update record, and {@link #process} leaves it be.  The
+     * zip is hashed only once either way.
+     */
+    public UpdateUsageContext createInitialContext(File zipFile, File tempDir, String deviceName,
+                                                  String updateName,
+                                                  FileCleaningTracker fileCleaningTracker,
+                                                  ProcessingResult result) throws IOException {
+        String sha256 = null;
+        if (writeToSql && hasImportedUpdates()) {
+            sha256 = Files.hash(zipFile, Hashing.sha256()).toString();
+            if (IMPORTED_STATES.contains(knownState(sha256))) {
+                UsageUpdateRecord existingRecord = findExistingRecord(sha256);
+                if (existingRecord != null && IMPORTED_STATES.contains(existingRecord.getState())) {
+                    UpdateUsageContext context = new UpdateUsageContext(tempDir, fileCleaningTracker, result);
+                    context.setUpdateRecord(existingRecord);
+                    context.alreadyImported = true;
+                    return context;
+                }
+            }
+        }
+        try (InputStream is = FileUtils.openInputStream(zipFile)) {
+            return createInitialContext(is, sha256, tempDir, deviceName, updateName, fileCleaningTracker, result);
+        }
+    }
+
+    // Whether there are any imported updates at all; if not, there's no need to hash the zip first.
+    private synchronized boolean hasImportedUpdates() {
+        return !Collections.disjoint(knownS3Ids().values(), IMPORTED_STATES);
+    }
+
     public UpdateUsageContext createInitialContext(InputStream is, File tempDir, String deviceName,
                                                   String updateName,
                                                   FileCleaningTracker fileCleaningTracker,
                                                   ProcessingResult result) throws IOException {
+        return createInitialContext(is, null, tempDir, deviceName, updateName, fileCleaningTracker, result);
+    }
+
+    /**
+     * @param sha256 the SHA-256 of the zip, if it is already known.  Otherwise it is worked out as the zip is copied.
+     */
+    private UpdateUsageContext createInitialContext(InputStream is, @Nullable String sha256, File tempDir,
+                                                   String deviceName, String updateName,
+                                                   FileCleaningTracker fileCleaningTracker,
+                                                   ProcessingResult result) throws IOException {
 
         //First create our empty context
         UpdateUsageContext context = new UpdateUsageContext(tempDir, fileCleaningTracker, result);
@@ -90,13 +281,15 @@ public class ContentUsageUpdateProcess {
         //First put this down on temp storage
         File initialFile = context.createTempFile(TempFileType.initialFile);
         FileOutputStream fos = new FileOutputStream(initialFile);
-        HashingInputStream shaIs = FsUtils.createSHAStream(is);
-        CountingInputStream countingIs = FsUtils.createCountingStream(shaIs);
+        HashingInputStream shaIs = sha256 == null ? FsUtils.createSHAStream(is) : null;
+        CountingInputStream countingIs = FsUtils.createCountingStream(shaIs != null ? shaIs : is);
 
         try {
             IOUtils.copy(countingIs, fos);
 
-            String sha256 = shaIs.hash().toString();
+            if (sha256 == null) {
+                sha256 = shaIs.hash().toString();
+            }
             UsageUpdateRecord updateRecord = createInitialUpdateRecord(sha256, deviceName,
                                                                        updateName);
             context.setUpdateRecord(updateRecord);
@@ -111,6 +304,10 @@ public class ContentUsageUpdateProcess {
     public UpdateUsageContext process(@Nonnull UpdateUsageContext context,
                                       ValidationParameters validationParameters) throws Exception {
 
+        if (context.alreadyImported) {
+            System.out.println("...Already uploaded");
+            return context;
+        }
         UpdateProcessingState state = context.getUpdateRecord().getState();
         if (state != UpdateProcessingState.initialized) {
             throw new IllegalStateException("Initial state of context must be 'initialized'.");
@@ -161,6 +358,7 @@ public class ContentUsageUpdateProcess {
 
         File initialFile = context.tempFileMap.get(TempFileType.initialFile);
         File explodedDir = context.tempFileMap.get(TempFileType.expandedDir);
+        context.closeFileTree();
         initialFile.delete();
         try {
             FileUtils.deleteDirectory(explodedDir);
@@ -202,8 +400,7 @@ public class ContentUsageUpdateProcess {
             //update the state accordingly.  Namely, if this was an upload that caused an error, re-do it only if
             //the isForced flag is set.
             if (writeToSql) {
-                UsageUpdateRecord existingRecord = updateRecordWriterService.findByS3Id(
-                        updateRecord.getS3Id());
+                UsageUpdateRecord existingRecord = findExistingRecord(updateRecord.getS3Id());
                 if (existingRecord != null) {
                     context.setUpdateRecord(existingRecord);
 
@@ -243,6 +440,7 @@ public class ContentUsageUpdateProcess {
         //Now save out results
         if (isWriteToSql()) {
             updateRecordWriterService.writeWithErrors(updateRecord, validationErrors);
+            rememberState(updateRecord);
         }
         return context;
     }
@@ -270,7 +468,7 @@ public class ContentUsageUpdateProcess {
                                                    boolean isStrict) throws Exception {
 
         File explodedDir = context.createTempFile(TempFileType.expandedDir);
-        FsUtils.unzip(context.tempFileMap.get(TempFileType.initialFile), explodedDir);
+        expand(context, context.tempFileMap.get(TempFileType.initialFile), explodedDir);
 
 
         DirectoryIterator iterator = new DirectoryIterator(explodedDir, format, isStrict,
@@ -331,12 +529,30 @@ public class ContentUsageUpdateProcess {
             }
 
             retVal = context.createTempFile(TempFileType.expandedDir);
-            FsUtils.unzip(initialFile, retVal);
+            expand(context, initialFile, retVal);
         }
 
         return retVal;
     }
 
+    /**
+     * Unzips the upload into the expanded dir or, in zip-native mode, mounts it there in a ZipFileTree that
+     * the rest of the processing reads it through.
+     */
+    private void expand(@Nonnull UpdateUsageContext context, File initialFile, File expandedDir) throws IOException {
+        context.closeFileTree();
+        long start = System.nanoTime();
+        context.zipManifests = ZipManifestBuilder.fromZip(initialFile, expandedDir);
+        logger.info("Read the manifests of " + initialFile.getName() + " from its entries in "
+                            + (System.nanoTime() - start) / 1000000 + " ms");
+        if (zipNative) {
+            context.setFileTree(new ZipFileTree(initialFile, expandedDir, context.tempDirRoot));
+        } else {
+            FsUtils.UnzipStats stats = FsUtils.unzip(initialFile, expandedDir, unzipThreads);
+            logger.info("Unzipped " + initialFile.getName() + ": " + stats);
+        }
+    }
+
     /**
      * Performs the actual work of parsing, processing, and persisting the statistics.
      * @param context for the stats processing
@@ -371,15 +587,44 @@ public class ContentUsageUpdateProcess {
         AggregationProcessor aggregationProcessor = new AggregationProcessor(MIN_SECONDS_FOR_MIN_PLAY);
         processors.add(aggregationProcessor);
 
+        AbstractIngestedLogRegistry ingestedLogs = null;
+        if (isWriteToSql()) {
+            ingestedLogs = new DbIngestedLogRegistry(ingestedLogFileService, context.getUpdateRecord().getS3Id());
+        } else if (ingestedLogFile != null) {
+            ingestedLogs = new FileIngestedLogRegistry(ingestedLogFile);
+        }
+        if (ingestedLogs != null) {
+            // A forced import writes out the events of every log again.
+            ingestedLogs.setReingest(validationParameters.isForce());
+        }
+        context.setIngestedLogs(ingestedLogs);
+
         FullSyncher fullSyncher = new FullSyncher(.1,
                                                   writers, processors, context);
-        fullSyncher.processData(explodedDir, validationParameters.getFormat(),
-                                validationParameters.isStrict());
+        ExecutorService logParsingPool = null;
+        if (logParsingThreads > 1) {
+            logParsingPool = Executors.newFixedThreadPool(logParsingThreads);
+            // Enough files in flight to keep every thread busy while the earliest one is replayed.
+            fullSyncher.setLogParsingPool(logParsingPool, 2 * logParsingThreads);
+        }
+        try {
+            fullSyncher.processData(explodedDir, validationParameters.getFormat(),
+                                    validationParameters.isStrict());
+        } finally {
+            if (logParsingPool != null) {
+                logParsingPool.shutdownNow();
+            }
+        }
         fullSyncher.doConsistencyCheck();
+        if (ingestedLogs != null) {
+            // Only now that the import has succeeded will its archived logs be skipped by later ones.
+            ingestedLogs.commit();
+        }
         long end = System.currentTimeMillis() / 1000;
         context.getUpdateRecord().setState(UpdateProcessingState.uploadedToDb);
         if (isWriteToSql()) {
             updateRecordWriterService.write(context.getUpdateRecord());
+            rememberState(context.getUpdateRecord());
         }
         long elapsedSec = end - start;
         System.out.println("Time: " + elapsedSec + " seconds.");
@@ -435,14 +680,19 @@ public class ContentUsageUpdateProcess {
      * @throws IOException if the file can't be written.
      */
     private void appendOperationalLog(
-        File logsDir, Pattern filter, String fileName,
+        FileTree tree, File logsDir, Pattern filter, String fileName,
         MutableInt count) throws IOException {
         PrintStream accumulator = getGlobalOutputStream(fileName);
 
-        File[] list = logsDir.listFiles((FilenameFilter) new RegexFileFilter(filter));
+        File[] list = tree.list(logsDir, new RegexFileFilter(filter));
         if (list != null) {
             for (File f : list) {
-                copyFile(f, accumulator);
+                InputStream is = tree.open(f);
+                try {
+                    IOUtils.copy(is, accumulator);
+                } finally {
+                    IOUtils.closeQuietly(is);
+                }
                 // Files should end with a new line, but in case they don't, add one.
                 accumulator.write("\n".getBytes());
                 count.increment();
@@ -460,15 +710,16 @@ public class ContentUsageUpdateProcess {
     private static final String DEPLOYMENTS_LOG = "deploymentsAll.kvp";
     /**
      * Given an OperationalData directory, append any contained .log files.
+     * @param tree the logs are in.
      * @param logsDir that may have data.
      * @throws IOException if any data can't be written.
      */
-    private int appendOperationalLogs(File logsDir) throws IOException {
+    private int appendOperationalLogs(FileTree tree, File logsDir) throws IOException {
         MutableInt count = new MutableInt(0);
         if (globalDataLogsDir != null) {
-            appendOperationalLog(logsDir, TB_DATA_LOGS, TB_DATA_LOG, count);
-            appendOperationalLog(logsDir, STATS_DATA_LOGS, STATS_DATA_LOG, count);
-            appendOperationalLog(logsDir, DEPLOYMENTS_LOGS, DEPLOYMENTS_LOG, count);
+            appendOperationalLog(tree, logsDir, TB_DATA_LOGS, TB_DATA_LOG, count);
+            appendOperationalLog(tree, logsDir, STATS_DATA_LOGS, STATS_DATA_LOG, count);
+            appendOperationalLog(tree, logsDir, DEPLOYMENTS_LOGS, DEPLOYMENTS_LOG, count);
         }
         return count.intValue();
     }
@@ -512,6 +763,29 @@ public class ContentUsageUpdateProcess {
 
         UsageUpdateRecord updateRecord;
 
+        // Content IDs seen in the logs of this import.
+        final ContentIdDictionary contentIds = new ContentIdDictionary();
+
+        // What the expanded dir is read through.
+        FileTree fileTree = LocalFileTree.withPathCache();
+
+        // What is in the expanded dir, once a DirectoryIterator has walked it.  Validation and writing to the
+        // db both iterate over it, so the second one reuses the index the first one built.
+        ArchiveIndex archiveIndex;
+
+        // The manifests of the projects in the expanded dir, as far as they can be told from the upload's zip
+        // entries.  Used for the projects that don't have a manifest, instead of walking them to generate one.
+        ZipManifestBuilder zipManifests;
+
+        // The archived logs already ingested, which writing to the db skips.  Null to parse them all.
+        IngestedLogRegistry ingestedLogs;
+
+        // Whether the upload was recognized as already imported, before it was copied or unzipped.
+        boolean alreadyImported;
+
+        // The tbData files of the expanded dir, parsed once for both validation and writing to the db.
+        TbDataCache tbDataCache;
+
         public UpdateUsageContext(File tempDirRoot, FileCleaningTracker fileCleaningTracker,
                                   ProcessingResult result) {
             this.tempDirRoot = tempDirRoot;
@@ -527,6 +801,59 @@ public class ContentUsageUpdateProcess {
             this.updateRecord = updateRecord;
         }
 
+        public ContentIdDictionary getContentIds() {
+            return contentIds;
+        }
+
+        public FileTree getFileTree() {
+            return fileTree;
+        }
+
+        public void setFileTree(FileTree fileTree) {
+            this.fileTree = fileTree;
+        }
+
+        public ArchiveIndex getArchiveIndex() {
+            return archiveIndex;
+        }
+
+        public void setArchiveIndex(ArchiveIndex archiveIndex) {
+            this.archiveIndex = archiveIndex;
+        }
+
+        public IngestedLogRegistry getIngestedLogs() {
+            return ingestedLogs;
+        }
+
+        public void setIngestedLogs(IngestedLogRegistry ingestedLogs) {
+            this.ingestedLogs = ingestedLogs;
+        }
+
+        public ZipManifestBuilder getZipManifests() {
+            return zipManifests;
+        }
+
+        public void setZipManifests(ZipManifestBuilder zipManifests) {
+            this.zipManifests = zipManifests;
+        }
+
+        public synchronized TbDataCache getTbDataCache() {
+            if (tbDataCache == null) {
+                tbDataCache = new TbDataCache(tempDirRoot, tbDataCacheBytes);
+            }
+            return tbDataCache;
+        }
+
+        void closeFileTree() {
+            IOUtils.closeQuietly(fileTree);
+            fileTree = LocalFileTree.withPathCache();
+            archiveIndex = null;
+            if (tbDataCache != null) {
+                tbDataCache.close();
+                tbDataCache = null;
+            }
+        }
+
         File createTempFile(TempFileType type) throws IOException {
             final File retVal = File.createTempFile(type.toString(), type.suffix, tempDirRoot);
             if (type.isDir) {
@@ -551,9 +878,21 @@ public class ContentUsageUpdateProcess {
             return true;
         }
 
+        public int getTraversalThreads() {
+            return traversalThreads;
+        }
+
+        public int getSyncZipLookahead() {
+            return syncZipLookahead;
+        }
+
+        public long getSyncZipPrefetchBytes() {
+            return syncZipPrefetchBytes;
+        }
+
         public int appendOperationalLogs(File logsDir) throws IOException {
             // Defer to containing object.
-            return ContentUsageUpdateProcess.this.appendOperationalLogs(logsDir);
+            return ContentUsageUpdateProcess.this.appendOperationalLogs(fileTree, logsDir);
         }
 
         public PrintStream getGlobalFileOutputStream(String name) throws IOException {
@@ -1,9 +1,11 @@
 package org.literacybridge.dashboard.processors;
 
-import org.literacybridge.stats.api.TalkingBookDataProcessor;
+import org.literacybridge.stats.api.ContentIdProcessor;
+import org.literacybridge.stats.api.LogSubscriber;
 import org.literacybridge.stats.formats.flashData.FlashData;
 import org.literacybridge.stats.formats.logFile.LogAction;
 import org.literacybridge.stats.formats.logFile.LogLineContext;
+import org.literacybridge.stats.formats.logFile.LogSubscription;
 import org.literacybridge.stats.formats.statsFile.StatsFile;
 import org.literacybridge.stats.model.ProcessingContext;
 import org.literacybridge.stats.model.SyncProcessingContext;
@@ -13,8 +15,19 @@ import java.io.IOException;
 
 /**
  * Created by willpugh on 2/7/14.
+ * <p/>
+ * The int content ID callbacks look the content ID up and call the String versions, so subclasses only need to
+ * override the ones they care about, unless they want to work with the ints directly.
+ * <p/>
+ * Subscribes to all of the log events.  Subclasses that only use some of them should narrow that, so the log
+ * parser can skip the rest.
  */
-abstract public class AbstractLogProcessor implements TalkingBookDataProcessor {
+abstract public class AbstractLogProcessor implements ContentIdProcessor, LogSubscriber {
+
+  @Override
+  public LogSubscription getLogSubscription() {
+    return LogSubscription.ALL;
+  }
 
   @Override
   public void onTalkingBookStart(ProcessingContext context) {
@@ -80,6 +93,43 @@ abstract public class AbstractLogProcessor implements TalkingBookDataProcessor {
   @Override
   public void onSurveyCompleted(LogLineContext context, String contentId, boolean useful) {
 
+  }
+
+  @Override
+  public void onPlay(LogLineContext context, int contentId, int volume, double voltage) {
+    onPlay(context, context.getContentIds().get(contentId), volume, voltage);
+  }
+
+  @Override
+  public void onPlayed(LogLineContext context, int contentId, short secondsPlayed, short secondsSomething,
+                       int volume, double voltage, boolean ended) {
+    onPlayed(context, context.getContentIds().get(contentId), secondsPlayed, secondsSomething, volume, voltage,
+      ended);
+  }
+
+  @Override
+  public void onRecord(LogLineContext context, int contentId, int unknownNumber) {
+    onRecord(context, context.getContentIds().get(contentId), unknownNumber);
+  }
+
+  @Override
+  public void onPause(LogLineContext context, int contentId) {
+    onPause(context, context.getContentIds().get(contentId));
+  }
+
+  @Override
+  public void onUnPause(LogLineContext context, int contentId) {
+    onUnPause(context, context.getContentIds().get(contentId));
+  }
+
+  @Override
+  public void onSurvey(LogLineContext context, int contentId) {
+    onSurvey(context, context.getContentIds().get(contentId));
+  }
+
+  @Override
+  public void onSurveyCompleted(LogLineContext context, int contentId, boolean useful) {
+    onSurveyCompleted(context, context.getContentIds().get(contentId), useful);
   }
 
     @Override
@@ -12,8 +12,13 @@ import org.literacybridge.dashboard.dbTables.events.PlayedEvent;
 import org.literacybridge.dashboard.dbTables.events.RecordEvent;
 import org.literacybridge.dashboard.dbTables.events.SlowerEvent;
 import org.literacybridge.dashboard.dbTables.events.SurveyEvent;
+import org.literacybridge.stats.api.BatchTalkingBookDataProcessor;
+import org.literacybridge.stats.api.IngestedLogProcessor;
+import org.literacybridge.stats.formats.logFile.ContentIdDictionary;
+import org.literacybridge.stats.formats.logFile.EventBatch;
 import org.literacybridge.stats.formats.logFile.LogAction;
 import org.literacybridge.stats.formats.logFile.LogLineContext;
+import org.literacybridge.stats.formats.logFile.LogSubscription;
 import org.literacybridge.stats.model.ProcessingContext;
 import org.literacybridge.stats.model.SyncProcessingContext;
 import org.slf4j.Logger;
@@ -21,11 +26,21 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 
 /**
  * @author willpugh
+ * <p/>
+ * Takes the log events in batches.  {@link #onEventBatch(EventBatch)} does the same as the per-event callbacks,
+ * without going through them, so a subclass that overrides any of those must override onEventBatch as well.
+ * The same goes for {@link #getLogSubscription()}, if it wants events this doesn't.
+ * <p/>
+ * The events of a log file an earlier import already ingested are aggregated like any other, but aren't written
+ * out again.
  */
-public class AbstractPersistenceProcessor extends AbstractLogProcessor {
+public class AbstractPersistenceProcessor extends AbstractLogProcessor
+  implements BatchTalkingBookDataProcessor, IngestedLogProcessor {
 
   static protected final Logger logger = LoggerFactory.getLogger(AbstractPersistenceProcessor.class);
 
@@ -47,6 +62,17 @@ public class AbstractPersistenceProcessor extends AbstractLogProcessor {
   //Track content aggregations through log files, in case there is no flashdata
   protected LogAggregationProcessor logAggregations    = new LogAggregationProcessor();
 
+  //Whether the events of the current log file were already written out by an earlier import.
+  private boolean alreadyIngested = false;
+
+  //Everything that is written out, or that sets the state above, with where it happened.  Paused and unpaused
+  //don't write anything, but do set currentContext.
+  private static final LogSubscription SUBSCRIPTION = LogSubscription.of(
+    EnumSet.of(LogAction.play, LogAction.played, LogAction.category, LogAction.record, LogAction.time_recorded,
+               LogAction.paused, LogAction.unpaused, LogAction.survey, LogAction.jump_time, LogAction.faster,
+               LogAction.slower),
+    LogSubscription.LINE_INFO | LogSubscription.CONTENT_IDS);
+
     public AbstractPersistenceProcessor(Collection<TalkingBookSyncWriter> writers) {
     this.writers = writers;
   }
@@ -78,11 +104,77 @@ public class AbstractPersistenceProcessor extends AbstractLogProcessor {
 
     }
 
+  @Override
+  public LogSubscription getLogSubscription() {
+    return SUBSCRIPTION;
+  }
+
+  @Override
+  public void onEventBatch(EventBatch batch) {
+    logAggregations.onEventBatch(batch);
+
+    final ContentIdDictionary contentIds = batch.getContentIds();
+    final byte[] types = batch.types;
+    final int size = batch.size();
+    for (int i = 0; i < size; i++) {
+      switch (types[i]) {
+        case EventBatch.PLAY:
+          currentContext = batch.context;
+          rememberPlay(batch.lineContext(i), contentIds.get(batch.contentIds[i]));
+          break;
+        case EventBatch.PLAYED:
+          currentContext = batch.context;
+          writePlayed(batch.lineContext(i), contentIds.get(batch.contentIds[i]), (short) batch.seconds[i],
+                      (short) batch.totalSeconds[i], batch.volumes[i], batch.flags[i]);
+          break;
+        case EventBatch.CATEGORY:
+          currentContext = batch.context;
+          category = batch.categories[i];
+          break;
+        case EventBatch.RECORD:
+          currentContext = batch.context;
+          recordedContentId = contentIds.get(batch.contentIds[i]);
+          break;
+        case EventBatch.RECORDED:
+          currentContext = batch.context;
+          writeRecorded(batch.lineContext(i), batch.seconds[i]);
+          break;
+        case EventBatch.PAUSE:
+        case EventBatch.UNPAUSE:
+          currentContext = batch.context;
+          break;
+        case EventBatch.SURVEY:
+          currentContext = batch.context;
+          writeSurvey(batch.lineContext(i), contentIds.get(batch.contentIds[i]));
+          break;
+        case EventBatch.SURVEY_COMPLETED:
+          currentContext = batch.context;
+          writeSurveyCompleted(batch.lineContext(i), contentIds.get(batch.contentIds[i]), batch.flags[i]);
+          break;
+        case EventBatch.JUMP_TIME:
+          writeJumpTime(batch.lineContext(i), batch.seconds[i], batch.totalSeconds[i]);
+          break;
+        case EventBatch.FASTER:
+          writeFaster(batch.lineContext(i));
+          break;
+        case EventBatch.SLOWER:
+          writeSlower(batch.lineContext(i));
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
   @Override
   public void onPlay(LogLineContext context, String contentId, int volume, double voltage) {
     currentContext = context.context;
+    rememberPlay(context, contentId);
+  }
+
+  private void rememberPlay(LogLineContext context, String contentId) {
     playContentId = contentId;
-    playLogLineContext = context;
+    playLogLineContext = context.snapshot();
   }
 
   @Override
@@ -90,12 +182,24 @@ public class AbstractPersistenceProcessor extends AbstractLogProcessor {
                        int volume, double voltage, boolean ended) {
     currentContext = context.context;
     logAggregations.onPlayed(context, contentId, secondsPlayed, secondsSomething, volume, voltage, ended);
+    writePlayed(context, contentId, secondsPlayed, secondsSomething, volume, ended);
+  }
+
+  @Override
+  public void onPlayed(LogLineContext context, int contentId, short secondsPlayed, short secondsSomething,
+                       int volume, double voltage, boolean ended) {
+    currentContext = context.context;
+    logAggregations.onPlayed(context, contentId, secondsPlayed, secondsSomething, volume, voltage, ended);
+    writePlayed(context, context.getContentIds().get(contentId), secondsPlayed, secondsSomething, volume, ended);
+  }
 
-    if (context.logLineInfo == null) {
+  private void writePlayed(LogLineContext context, String contentId, short secondsPlayed, short secondsSomething,
+                           int volume, boolean ended) {
+    if (!context.hasLogLineInfo()) {
       logAggregations.aggregator.add(context.context.deploymentId, AggregationOf.corruptedFiles,
                                                contentId, context.context.village, context.context.talkingBookId, 1);
-      logger.trace(String.format("Corrupted log line info for file %s:%d", context.logFilePosition.loggingFileName(),
-                                 context.logFilePosition.lineNumber));
+      logger.trace(String.format("Corrupted log line info for file %s:%d", context.loggingFileName(),
+                                 context.getLineNumber()));
       return;
     }
 
@@ -110,7 +214,7 @@ public class AbstractPersistenceProcessor extends AbstractLogProcessor {
     event.setFinished(ended);
 
 
-    for (EventWriter writer : writers) {
+    for (EventWriter writer : eventWriters()) {
       try {
         writer.writePlayEvent(event, context);
       } catch (IOException e) {
@@ -141,10 +245,13 @@ public class AbstractPersistenceProcessor extends AbstractLogProcessor {
   public void onRecorded(LogLineContext context, int secondsRecorded) {
     currentContext = context.context;
     logAggregations.onRecorded(context, secondsRecorded);
+    writeRecorded(context, secondsRecorded);
+  }
 
-    if (context.logLineInfo == null) {
-      logger.trace(String.format("Corrupted log line info for file %s:%d", context.logFilePosition.loggingFileName(),
-                                 context.logFilePosition.lineNumber));
+  private void writeRecorded(LogLineContext context, int secondsRecorded) {
+    if (!context.hasLogLineInfo()) {
+      logger.trace(String.format("Corrupted log line info for file %s:%d", context.loggingFileName(),
+                                 context.getLineNumber()));
       return;
     }
 
@@ -154,7 +261,7 @@ public class AbstractPersistenceProcessor extends AbstractLogProcessor {
       event.setContentId(recordedContentId);
       event.setSecondsRecorded(secondsRecorded);
 
-      for (EventWriter writer : writers) {
+      for (EventWriter writer : eventWriters()) {
         try {
           writer.writeRecordEvent(event, context);
         } catch (IOException e) {
@@ -181,7 +288,17 @@ public class AbstractPersistenceProcessor extends AbstractLogProcessor {
   public void onSurvey(LogLineContext context, String contentId) {
     currentContext = context.context;
     logAggregations.onSurvey(context, contentId);
+    writeSurvey(context, contentId);
+  }
+
+  @Override
+  public void onSurvey(LogLineContext context, int contentId) {
+    currentContext = context.context;
+    logAggregations.onSurvey(context, contentId);
+    writeSurvey(context, context.getContentIds().get(contentId));
+  }
 
+  private void writeSurvey(LogLineContext context, String contentId) {
     // Note: the comment below almost certainly should say "is NOT null", because that's the
     // (only) way to have another survey that wasn't completed. (Didn't correct it because I
     // wanted to leave this as intact as possible, to give, ahem, context to the notes in the
@@ -195,11 +312,11 @@ public class AbstractPersistenceProcessor extends AbstractLogProcessor {
       event.setContentId(surveyContentId);
       event.setIsUseful(null);
 
-      // Note: changed the line below from 'context.logLineInfo', because this section of code is
+      // Note: changed the line below from 'context', because this section of code is
       // concerned with a survey event that was not closed out, so it is the previous event that's
       // being logged.
-      if (surveyLogLineContext.logLineInfo != null) {
-        for (EventWriter writer : writers) {
+      if (surveyLogLineContext.hasLogLineInfo()) {
+        for (EventWriter writer : eventWriters()) {
           try {
             writer.writeSurveyEvent(event, context);
           } catch (IOException e) {
@@ -210,14 +327,14 @@ public class AbstractPersistenceProcessor extends AbstractLogProcessor {
           }
         }
       } else {
-        logger.trace(String.format("Corrupted log line info for file %s:%d", context.logFilePosition.loggingFileName(),
-                                   context.logFilePosition.lineNumber));
+        logger.trace(String.format("Corrupted log line info for file %s:%d", context.loggingFileName(),
+                                   context.getLineNumber()));
 
       }
     }
 
     surveyContentId = contentId;
-    surveyLogLineContext = context;
+    surveyLogLineContext = context.snapshot();
 
   }
 
@@ -225,7 +342,17 @@ public class AbstractPersistenceProcessor extends AbstractLogProcessor {
   public void onSurveyCompleted(LogLineContext context, String contentId, boolean useful) {
     currentContext = context.context;
     logAggregations.onSurveyCompleted(context, contentId, useful);
+    writeSurveyCompleted(context, contentId, useful);
+  }
+
+  @Override
+  public void onSurveyCompleted(LogLineContext context, int contentId, boolean useful) {
+    currentContext = context.context;
+    logAggregations.onSurveyCompleted(context, contentId, useful);
+    writeSurveyCompleted(context, context.getContentIds().get(contentId), useful);
+  }
 
+  private void writeSurveyCompleted(LogLineContext context, String contentId, boolean useful) {
     // Note: It is a mystery why this logic is so similar to that above. It is a mystery why we
     // mix-and-match contentId from this call and context from the onSurvey call. It shouldn't
     // matter much; it is valid to have an onSurvey without onSurveyCompleted by simply going
@@ -244,8 +371,8 @@ public class AbstractPersistenceProcessor extends AbstractLogProcessor {
       event.setIsUseful(useful);
 
 
-      if (context.logLineInfo != null) {
-        for (EventWriter writer : writers) {
+      if (context.hasLogLineInfo()) {
+        for (EventWriter writer : eventWriters()) {
           try {
             writer.writeSurveyEvent(event, context);
           } catch (Exception e) {
@@ -253,8 +380,8 @@ public class AbstractPersistenceProcessor extends AbstractLogProcessor {
           }
         }
       } else {
-        logger.trace(String.format("Corrupted log line info for file %s:%d", context.logFilePosition.loggingFileName(),
-                                   context.logFilePosition.lineNumber));
+        logger.trace(String.format("Corrupted log line info for file %s:%d", context.loggingFileName(),
+                                   context.getLineNumber()));
       }
     }
 
@@ -265,14 +392,17 @@ public class AbstractPersistenceProcessor extends AbstractLogProcessor {
     @Override
     public void onJumpTime(LogLineContext logLineContext, int timeFrom, int timeTo) {
         logAggregations.onJumpTime(logLineContext, timeFrom, timeTo);
+        writeJumpTime(logLineContext, timeFrom, timeTo);
+    }
 
+    private void writeJumpTime(LogLineContext logLineContext, int timeFrom, int timeTo) {
         if (playLogLineContext != null && playContentId != null) {
             JumpEvent jumpEvent = new JumpEvent();
             Event.populateEvent(playLogLineContext, jumpEvent);
             jumpEvent.setContentId(playContentId);
             jumpEvent.setSeconds(timeFrom, timeTo);
 
-            for (EventWriter writer : writers) {
+            for (EventWriter writer : eventWriters()) {
                 try {
                     writer.writeJumpEvent(jumpEvent, logLineContext);
                 } catch (IOException e) {
@@ -284,10 +414,14 @@ public class AbstractPersistenceProcessor extends AbstractLogProcessor {
 
   @Override
   public void onFaster(LogLineContext logLineContext) {
+    writeFaster(logLineContext);
+  }
+
+  private void writeFaster(LogLineContext logLineContext) {
     if (playLogLineContext != null && playContentId != null) {
       FasterEvent fasterEvent = new FasterEvent();
       Event.populateEvent(playLogLineContext, fasterEvent);
-      for (EventWriter writer : writers) {
+      for (EventWriter writer : eventWriters()) {
         try {
           writer.writeFasterEvent(fasterEvent, logLineContext);
         } catch (IOException e) {
@@ -299,10 +433,14 @@ public class AbstractPersistenceProcessor extends AbstractLogProcessor {
 
   @Override
   public void onSlower(LogLineContext logLineContext) {
+    writeSlower(logLineContext);
+  }
+
+  private void writeSlower(LogLineContext logLineContext) {
     if (playLogLineContext != null && playContentId != null) {
       SlowerEvent slowerEvent = new SlowerEvent();
       Event.populateEvent(playLogLineContext, slowerEvent);
-      for (EventWriter writer : writers) {
+      for (EventWriter writer : eventWriters()) {
         try {
           writer.writeSlowerEvent(slowerEvent, logLineContext);
         } catch (IOException e) {
@@ -323,6 +461,18 @@ public class AbstractPersistenceProcessor extends AbstractLogProcessor {
     logAggregations.onVoltageDrop(context, action, voltageDropped, time);
   }
 
+  @Override
+  public void onLogFileChecked(boolean alreadyIngested) {
+    this.alreadyIngested = alreadyIngested;
+  }
+
+  /**
+   * @return the writers to write the events of the current log file to, none if they were already written.
+   */
+  private Collection<? extends EventWriter> eventWriters() {
+    return alreadyIngested ? Collections.<EventWriter>emptyList() : writers;
+  }
+
   @Override
   public void onLogFileStart(String fileName) {
     logAggregations.onLogFileStart(fileName);
@@ -2,6 +2,11 @@ package org.literacybridge.dashboard.processors;
 
 import org.literacybridge.dashboard.aggregation.AggregationOf;
 import org.literacybridge.dashboard.aggregation.StatAggregator;
+import org.literacybridge.stats.api.BatchTalkingBookDataProcessor;
+import org.literacybridge.stats.formats.logFile.ContentIdDictionary;
+import org.literacybridge.stats.formats.logFile.EventBatch;
+import org.literacybridge.stats.formats.logFile.LogAction;
+import org.literacybridge.stats.formats.logFile.LogSubscription;
 import org.literacybridge.stats.model.SyncProcessingContext;
 import org.literacybridge.stats.formats.flashData.FlashData;
 import org.literacybridge.stats.formats.flashData.NORmsgStats;
@@ -10,10 +15,12 @@ import org.literacybridge.stats.formats.statsFile.StatsFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.EnumSet;
+
 /**
  * @author willpugh
  */
-public class AggregationProcessor extends AbstractLogProcessor {
+public class AggregationProcessor extends AbstractLogProcessor implements BatchTalkingBookDataProcessor {
 
   static protected final Logger logger = LoggerFactory.getLogger(AggregationProcessor.class);
 
@@ -24,66 +31,133 @@ public class AggregationProcessor extends AbstractLogProcessor {
 
   final int minPlayedToBeCounted;
 
+  private static final int NO_INDEX = -1;
+
+  //Only the played and survey events count towards the aggregations, and only which content and sync they were for.
+  private static final LogSubscription SUBSCRIPTION =
+    LogSubscription.of(EnumSet.of(LogAction.played, LogAction.survey), LogSubscription.CONTENT_IDS);
+
   public AggregationProcessor(int minPlayedToBeCounted) {
     this.minPlayedToBeCounted = minPlayedToBeCounted;
   }
 
+  @Override
+  public LogSubscription getLogSubscription() {
+    return SUBSCRIPTION;
+  }
+
   @Override
   public void onPlayed(LogLineContext context, String contentId, short secondsPlayed, short secondsSomething,
                        int volume, double voltage, boolean ended) {
+    aggregatePlayed(context.context, null, contentId, NO_INDEX, secondsPlayed, secondsSomething, ended);
+  }
+
+  @Override
+  public void onPlayed(LogLineContext context, int contentId, short secondsPlayed, short secondsSomething,
+                       int volume, double voltage, boolean ended) {
+    aggregatePlayed(context.context, context.getContentIds(), null, contentId, secondsPlayed, secondsSomething,
+                    ended);
+  }
+
+  @Override
+  public void onSurvey(LogLineContext context, String contentId) {
+    add(context.context, null, AggregationOf.surveyTaken, contentId, NO_INDEX, 1);
+  }
+
+  @Override
+  public void onSurvey(LogLineContext context, int contentId) {
+    add(context.context, context.getContentIds(), AggregationOf.surveyTaken, null, contentId, 1);
+  }
+
+  @Override
+  public void onSurveyCompleted(LogLineContext context, String contentId, boolean useful) {
+    aggregateSurveyCompleted(context.context, null, contentId, NO_INDEX, useful);
+  }
+
+  @Override
+  public void onSurveyCompleted(LogLineContext context, int contentId, boolean useful) {
+    aggregateSurveyCompleted(context.context, context.getContentIds(), null, contentId, useful);
+  }
+
+  @Override
+  public void onEventBatch(EventBatch batch) {
+    final SyncProcessingContext context = batch.context;
+    final ContentIdDictionary contentIds = batch.getContentIds();
+    final byte[] types = batch.types;
+    final int[] contentIdIndexes = batch.contentIds;
+    final int size = batch.size();
+
+    for (int i = 0; i < size; i++) {
+      switch (types[i]) {
+        case EventBatch.PLAYED:
+          aggregatePlayed(context, contentIds, null, contentIdIndexes[i], (short) batch.seconds[i],
+                          (short) batch.totalSeconds[i], batch.flags[i]);
+          break;
+        case EventBatch.SURVEY:
+          add(context, contentIds, AggregationOf.surveyTaken, null, contentIdIndexes[i], 1);
+          break;
+        case EventBatch.SURVEY_COMPLETED:
+          aggregateSurveyCompleted(context, contentIds, null, contentIdIndexes[i], batch.flags[i]);
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  /**
+   * Adds to the log aggregations of the content, which is given either by contentId or, if that is null, by its
+   * index in contentIds.
+   */
+  private void add(SyncProcessingContext context, ContentIdDictionary contentIds, AggregationOf aggregationOf,
+                   String contentId, int contentIdIndex, int valsToAdd) {
+    if (contentId != null) {
+      logAggregator.add(context.deploymentId, aggregationOf, contentId, context.village, context.talkingBookId,
+                        valsToAdd);
+    } else {
+      logAggregator.add(context.deploymentId, aggregationOf, contentIdIndex, contentIds, context.village,
+                        context.talkingBookId, valsToAdd);
+    }
+  }
+
+  private void aggregatePlayed(SyncProcessingContext context, ContentIdDictionary contentIds, String contentId,
+                               int contentIdIndex, short secondsPlayed, short secondsSomething, boolean ended) {
 
     //There are a number of aggregations, and unfortunately different stats from both stats files (which log 10 second plays)
     //and FlashData files, which have it set up in quarter play, half play, three quarters play, etc.
 
     if (ended) {
-      logAggregator.add(context.context.deploymentId, AggregationOf.tenSecondPlays, contentId, context.context.village,
-                     context.context.talkingBookId, 1);
-      logAggregator.add(context.context.deploymentId, AggregationOf.finishedPlays, contentId, context.context.village,
-                     context.context.talkingBookId, 1);
+      add(context, contentIds, AggregationOf.tenSecondPlays, contentId, contentIdIndex, 1);
+      add(context, contentIds, AggregationOf.finishedPlays, contentId, contentIdIndex, 1);
     } else if (secondsPlayed >= minPlayedToBeCounted) {
-      logAggregator.add(context.context.deploymentId, AggregationOf.tenSecondPlays, contentId, context.context.village,
-                     context.context.talkingBookId, 1);
+      add(context, contentIds, AggregationOf.tenSecondPlays, contentId, contentIdIndex, 1);
     }
 
     //Now do FlashData style aggregations for quarter, half and three-quarters plays.
     double fractionPlayed = ((double)secondsPlayed)/((double)secondsSomething);
     if (fractionPlayed >= .25) {
-      logAggregator.add(context.context.deploymentId, AggregationOf.quarterPlays, contentId, context.context.village,
-                     context.context.talkingBookId, 1);
+      add(context, contentIds, AggregationOf.quarterPlays, contentId, contentIdIndex, 1);
     }
 
     if (fractionPlayed >= .50) {
-      logAggregator.add(context.context.deploymentId, AggregationOf.halfPlays, contentId, context.context.village,
-                     context.context.talkingBookId, 1);
+      add(context, contentIds, AggregationOf.halfPlays, contentId, contentIdIndex, 1);
     }
 
     if (fractionPlayed >= .75) {
-      logAggregator.add(context.context.deploymentId, AggregationOf.threeQuartersPlays, contentId,
-                     context.context.village,
-                     context.context.talkingBookId, 1);
+      add(context, contentIds, AggregationOf.threeQuartersPlays, contentId, contentIdIndex, 1);
     }
 
-    logAggregator.add(context.context.deploymentId, AggregationOf.totalTimePlayed, contentId, context.context.village,
-                   context.context.talkingBookId, secondsPlayed);
+    add(context, contentIds, AggregationOf.totalTimePlayed, contentId, contentIdIndex, secondsPlayed);
 
 
   }
 
-  @Override
-  public void onSurvey(LogLineContext context, String contentId) {
-    logAggregator.add(context.context.deploymentId, AggregationOf.surveyTaken, contentId, context.context.village,
-                   context.context.talkingBookId, 1);
-  }
-
-  @Override
-  public void onSurveyCompleted(LogLineContext context, String contentId, boolean useful) {
-
+  private void aggregateSurveyCompleted(SyncProcessingContext context, ContentIdDictionary contentIds,
+                                        String contentId, int contentIdIndex, boolean useful) {
     if (useful) {
-      logAggregator.add(context.context.deploymentId, AggregationOf.surveyApplied, contentId, context.context.village,
-                     context.context.talkingBookId, 1);
+      add(context, contentIds, AggregationOf.surveyApplied, contentId, contentIdIndex, 1);
     } else {
-      logAggregator.add(context.context.deploymentId, AggregationOf.surveyUseless, contentId, context.context.village,
-                     context.context.talkingBookId, 1);
+      add(context, contentIds, AggregationOf.surveyUseless, contentId, contentIdIndex, 1);
     }
   }
 
@@ -0,0 +1,35 @@
+package org.literacybridge.dashboard.processors;
+
+import org.literacybridge.dashboard.services.IngestedLogFileService;
+import org.literacybridge.stats.formats.logFile.AbstractIngestedLogRegistry;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers the ingested archived logs in the database.  The hashes of a Talking Book's logs are queried the first
+ * time it is asked about, and new ones are written in one transaction on commit, with the update that ingested
+ * them, so that they are forgotten if it is deleted.
+ */
+public class DbIngestedLogRegistry extends AbstractIngestedLogRegistry {
+
+  private final IngestedLogFileService ingestedLogFileService;
+  private final String                 s3Id;
+
+  public DbIngestedLogRegistry(IngestedLogFileService ingestedLogFileService, String s3Id) {
+    this.ingestedLogFileService = ingestedLogFileService;
+    this.s3Id = s3Id;
+  }
+
+  @Override
+  protected Set<String> load(String talkingBook) {
+    return new HashSet<>(ingestedLogFileService.findHashes(talkingBook));
+  }
+
+  @Override
+  protected void persist(Map<String, Set<String>> logs) throws IOException {
+    ingestedLogFileService.write(logs, s3Id);
+  }
+}
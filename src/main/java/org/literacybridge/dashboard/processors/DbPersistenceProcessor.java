@@ -54,7 +54,7 @@ public class DbPersistenceProcessor extends AbstractPersistenceProcessor {
 
 
     int corruptLines = 0;
-    final Map<String, Aggregations> contentAggregations = updateAggregations.contentAggregations;
+    final Map<String, Aggregations> contentAggregations = updateAggregations.getContentAggregations();
 
     for (String contentId : contentAggregations.keySet()) {
       final Aggregations contentAggregation = contentAggregations.get(contentId);
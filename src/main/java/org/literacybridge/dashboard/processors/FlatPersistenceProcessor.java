@@ -8,7 +8,6 @@ import org.literacybridge.dashboard.dbTables.contentUsage.ContentSyncUniqueId;
 import org.literacybridge.dashboard.dbTables.contentUsage.SyncAggregation;
 import org.literacybridge.stats.formats.flashData.FlashData;
 import org.literacybridge.stats.formats.flashData.NORmsgStats;
-import org.literacybridge.stats.formats.logFile.LogLineContext;
 import org.literacybridge.stats.formats.statsFile.StatsFile;
 import org.literacybridge.stats.model.SyncProcessingContext;
 import org.slf4j.Logger;
@@ -94,7 +93,7 @@ public class FlatPersistenceProcessor extends AbstractPersistenceProcessor {
         final UpdateAggregations updateAggregations = logAggregations.aggregator.perUpdateAggregations
             .get(context.deploymentId);
         if (updateAggregations != null) {
-            final Map<String, Aggregations> contentAggregations = updateAggregations.contentAggregations;
+            final Map<String, Aggregations> contentAggregations = updateAggregations.getContentAggregations();
             for (String contentId : contentAggregations.keySet()) {
                 final Aggregations ca = contentAggregations.get(contentId);
                 // If there aren't any interesting stats for this content, skip it.
@@ -192,21 +191,4 @@ public class FlatPersistenceProcessor extends AbstractPersistenceProcessor {
         stats.setCountCompleted(maxer(statsFile.completionCount, stats.getCountCompleted()));
     }
 
-    @Override
-    public void onPlay(LogLineContext context, String contentId, int volume, double voltage) {
-        super.onPlay(context, contentId, volume, voltage);
-    }
-
-    @Override
-    public void onPlayed(LogLineContext context,
-        String contentId,
-        short secondsPlayed,
-        short secondsSomething,
-        int volume,
-        double voltage,
-        boolean ended)
-    {
-        super.onPlayed(context, contentId, secondsPlayed, secondsSomething, volume, voltage, ended);
-    }
-
 }
@@ -2,7 +2,15 @@ package org.literacybridge.dashboard.processors;
 
 import org.literacybridge.dashboard.aggregation.AggregationOf;
 import org.literacybridge.dashboard.aggregation.StatAggregator;
+import org.literacybridge.stats.api.BatchTalkingBookDataProcessor;
+import org.literacybridge.stats.formats.logFile.ContentIdDictionary;
+import org.literacybridge.stats.formats.logFile.EventBatch;
+import org.literacybridge.stats.formats.logFile.LogAction;
 import org.literacybridge.stats.formats.logFile.LogLineContext;
+import org.literacybridge.stats.formats.logFile.LogSubscription;
+import org.literacybridge.stats.model.SyncProcessingContext;
+
+import java.util.EnumSet;
 
 /**
  * Creates aggregations similiar to the ones found in the flashdata.bin files from the logs.
@@ -21,7 +29,7 @@ import org.literacybridge.stats.formats.logFile.LogLineContext;
  *    It is important to note that this is a histogram, NOT an aggregation.  So a content play that goes for 1/2 of the
  *    length, will NOT register as a 1/4 play in addition to a 1/2 play.
  */
-public class LogAggregationProcessor extends AbstractLogProcessor {
+public class LogAggregationProcessor extends AbstractLogProcessor implements BatchTalkingBookDataProcessor {
 
   final public StatAggregator aggregator = new StatAggregator();
 
@@ -31,9 +39,20 @@ public class LogAggregationProcessor extends AbstractLogProcessor {
   // Playing within this much of the end is considered finishing the message.
   static final int maxSecondsRemainingToConsiderFinished = 2;
 
+  private static final int NO_INDEX = -1;
+
+  //Only the played and survey events count towards the aggregations, and only which content and sync they were for.
+  private static final LogSubscription SUBSCRIPTION =
+    LogSubscription.of(EnumSet.of(LogAction.played, LogAction.survey), LogSubscription.CONTENT_IDS);
+
   public LogAggregationProcessor() {
   }
 
+  @Override
+  public LogSubscription getLogSubscription() {
+    return SUBSCRIPTION;
+  }
+
   public void clear() {
     aggregator.clear();
   }
@@ -41,6 +60,79 @@ public class LogAggregationProcessor extends AbstractLogProcessor {
   @Override
   public void onPlayed(LogLineContext context, String contentId, short secondsPlayed, short secondsSomething,
                        int volume, double voltage, boolean ended) {
+    aggregatePlayed(context.context, null, contentId, NO_INDEX, secondsPlayed, secondsSomething, ended);
+  }
+
+  @Override
+  public void onPlayed(LogLineContext context, int contentId, short secondsPlayed, short secondsSomething,
+                       int volume, double voltage, boolean ended) {
+    aggregatePlayed(context.context, context.getContentIds(), null, contentId, secondsPlayed, secondsSomething,
+                    ended);
+  }
+
+  @Override
+  public void onSurvey(LogLineContext context, String contentId) {
+    aggregateSurvey(context.context, null, contentId, NO_INDEX);
+  }
+
+  @Override
+  public void onSurvey(LogLineContext context, int contentId) {
+    aggregateSurvey(context.context, context.getContentIds(), null, contentId);
+  }
+
+  @Override
+  public void onSurveyCompleted(LogLineContext context, String contentId, boolean useful) {
+    aggregateSurveyCompleted(context.context, null, contentId, NO_INDEX, useful);
+  }
+
+  @Override
+  public void onSurveyCompleted(LogLineContext context, int contentId, boolean useful) {
+    aggregateSurveyCompleted(context.context, context.getContentIds(), null, contentId, useful);
+  }
+
+  @Override
+  public void onEventBatch(EventBatch batch) {
+    final SyncProcessingContext context = batch.context;
+    final ContentIdDictionary contentIds = batch.getContentIds();
+    final byte[] types = batch.types;
+    final int[] contentIdIndexes = batch.contentIds;
+    final int size = batch.size();
+
+    for (int i = 0; i < size; i++) {
+      switch (types[i]) {
+        case EventBatch.PLAYED:
+          aggregatePlayed(context, contentIds, null, contentIdIndexes[i], (short) batch.seconds[i],
+                          (short) batch.totalSeconds[i], batch.flags[i]);
+          break;
+        case EventBatch.SURVEY:
+          aggregateSurvey(context, contentIds, null, contentIdIndexes[i]);
+          break;
+        case EventBatch.SURVEY_COMPLETED:
+          aggregateSurveyCompleted(context, contentIds, null, contentIdIndexes[i], batch.flags[i]);
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  /**
+   * Adds to the aggregations of the content, which is given either by contentId or, if that is null, by its
+   * index in contentIds.
+   */
+  private void add(SyncProcessingContext context, ContentIdDictionary contentIds, AggregationOf aggregationOf,
+                   String contentId, int contentIdIndex, int valsToAdd) {
+    if (contentId != null) {
+      aggregator.add(context.deploymentId, aggregationOf, contentId, context.village, context.talkingBookId,
+                     valsToAdd);
+    } else {
+      aggregator.add(context.deploymentId, aggregationOf, contentIdIndex, contentIds, context.village,
+                     context.talkingBookId, valsToAdd);
+    }
+  }
+
+  private void aggregatePlayed(SyncProcessingContext context, ContentIdDictionary contentIds, String contentId,
+                               int contentIdIndex, short secondsPlayed, short secondsSomething, boolean ended) {
 
     //There are a number of aggregations, and unfortunately different stats from both stats files (which log 10 second plays)
     //and FlashData files, which have it set up in quarter play, half play, three quarters play, etc.
@@ -74,43 +166,33 @@ public class LogAggregationProcessor extends AbstractLogProcessor {
     double fractionPlayed = ((double)secondsPlayed)/((double)secondsSomething);
     boolean nearlyFinished = (secondsSomething - secondsPlayed) <= maxSecondsRemainingToConsiderFinished;
     if (ended || nearlyFinished) {
-      aggregator.add(context.context.deploymentId, AggregationOf.finishedPlays, contentId, context.context.village,
-                     context.context.talkingBookId, 1);
+      add(context, contentIds, AggregationOf.finishedPlays, contentId, contentIdIndex, 1);
     } else if (fractionPlayed >= .75) {
-      aggregator.add(context.context.deploymentId, AggregationOf.threeQuartersPlays, contentId, context.context.village,
-                     context.context.talkingBookId, 1);
+      add(context, contentIds, AggregationOf.threeQuartersPlays, contentId, contentIdIndex, 1);
     } else if (fractionPlayed >= .50) {
-      aggregator.add(context.context.deploymentId, AggregationOf.halfPlays, contentId, context.context.village,
-                     context.context.talkingBookId, 1);
+      add(context, contentIds, AggregationOf.halfPlays, contentId, contentIdIndex, 1);
     } else if (fractionPlayed >= .25) {
-      aggregator.add(context.context.deploymentId, AggregationOf.quarterPlays, contentId, context.context.village,
-                     context.context.talkingBookId, 1);
+      add(context, contentIds, AggregationOf.quarterPlays, contentId, contentIdIndex, 1);
     } else if (secondsPlayed >= minSecondsPlayedToConsiderPlaying) {
-      aggregator.add(context.context.deploymentId, AggregationOf.tenSecondPlays, contentId, context.context.village,
-                     context.context.talkingBookId, 1);
+      add(context, contentIds, AggregationOf.tenSecondPlays, contentId, contentIdIndex, 1);
     }
 
     if (secondsPlayed >= minSecondsPlayedToConsiderPlaying) {
-      aggregator.add(context.context.deploymentId, AggregationOf.totalTimePlayed, contentId, context.context.village,
-                     context.context.talkingBookId, secondsPlayed);
+      add(context, contentIds, AggregationOf.totalTimePlayed, contentId, contentIdIndex, secondsPlayed);
     }
   }
 
-  @Override
-  public void onSurvey(LogLineContext context, String contentId) {
-    aggregator.add(context.context.deploymentId, AggregationOf.surveyTaken, contentId, context.context.village,
-                   context.context.talkingBookId, 1);
+  private void aggregateSurvey(SyncProcessingContext context, ContentIdDictionary contentIds, String contentId,
+                               int contentIdIndex) {
+    add(context, contentIds, AggregationOf.surveyTaken, contentId, contentIdIndex, 1);
   }
 
-  @Override
-  public void onSurveyCompleted(LogLineContext context, String contentId, boolean useful) {
-
+  private void aggregateSurveyCompleted(SyncProcessingContext context, ContentIdDictionary contentIds,
+                                        String contentId, int contentIdIndex, boolean useful) {
     if (useful) {
-      aggregator.add(context.context.deploymentId, AggregationOf.surveyApplied, contentId, context.context.village,
-                     context.context.talkingBookId, 1);
+      add(context, contentIds, AggregationOf.surveyApplied, contentId, contentIdIndex, 1);
     } else {
-      aggregator.add(context.context.deploymentId, AggregationOf.surveyUseless, contentId, context.context.village,
-                     context.context.talkingBookId, 1);
+      add(context, contentIds, AggregationOf.surveyUseless, contentId, contentIdIndex, 1);
     }
   }
 
@@ -0,0 +1,61 @@
+package org.literacybridge.dashboard.services;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.literacybridge.dashboard.dbTables.syncOperations.IngestedLogFile;
+import org.literacybridge.dashboard.dbTables.syncOperations.UniqueIngestedLogFile;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The archived log files that have been ingested, by Talking Book.  Those ingested by an update that has since been
+ * deleted no longer count, as its events went with it.
+ */
+@Repository("ingestedLogFileService")
+public class IngestedLogFileService {
+
+  @Resource
+  private SessionFactory sessionFactory;
+
+  @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+  @SuppressWarnings({"unchecked"})
+  public List<String> findHashes(String talkingBook) {
+    // An update that hasn't been deleted has the default deletedTime, or none at all.
+    final String hqlResult = "select il.uniqueIngestedLogFile.sha256 from IngestedLogFile il"
+                             + " where il.uniqueIngestedLogFile.talkingBook=:talkingBook"
+                             + " AND (il.s3Id is null OR exists (select ur.id from UsageUpdateRecord ur"
+                             + " where ur.s3Id=il.s3Id AND (ur.deletedTime is null OR ur.deletedTime = '1974-1-1')))";
+    final Query hqlQuery = sessionFactory.getCurrentSession().createQuery(hqlResult)
+                                         .setString("talkingBook", talkingBook);
+    return (List<String>) hqlQuery.list();
+  }
+
+  /**
+   * Writes the hashes of newly ingested logs, by Talking Book, in one transaction.
+   *
+   * @param s3Id the update that ingested them, or null if it has none
+   */
+  @Transactional(propagation = Propagation.REQUIRED, readOnly = false)
+  public void write(Map<String, Set<String>> logs, String s3Id) throws IOException {
+    final Session session = sessionFactory.getCurrentSession();
+    final Date now = new Date();
+    for (Map.Entry<String, Set<String>> entry : logs.entrySet()) {
+      for (String sha256 : entry.getValue()) {
+        IngestedLogFile log = new IngestedLogFile();
+        log.setUniqueIngestedLogFile(new UniqueIngestedLogFile(entry.getKey(), sha256));
+        log.setIngestedTime(now);
+        log.setS3Id(s3Id);
+        session.saveOrUpdate(log);
+      }
+    }
+  }
+}
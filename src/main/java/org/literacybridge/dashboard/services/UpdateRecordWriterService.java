@@ -3,6 +3,7 @@ package org.literacybridge.dashboard.services;
 import org.hibernate.Query;
 import org.hibernate.SessionFactory;
 import org.joda.time.DateTime;
+import org.literacybridge.dashboard.dbTables.syncOperations.UpdateProcessingState;
 import org.literacybridge.dashboard.dbTables.syncOperations.UsageUpdateRecord;
 import org.literacybridge.dashboard.dbTables.syncOperations.UpdateValidationError;
 import org.literacybridge.stats.model.validation.ValidationError;
@@ -16,7 +17,9 @@ import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  */
@@ -76,6 +79,22 @@ public class UpdateRecordWriterService {
     return (UsageUpdateRecord) hqlQuery.uniqueResult();
   }
 
+  /**
+   * @return the state of every update that hasn't been deleted, by its s3Id, so that a batch of imports can tell
+   * which of its archives are already known without a query for each of them.
+   */
+  @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+  @SuppressWarnings({"unchecked"})
+  public Map<String, UpdateProcessingState> findStatesByS3Id() {
+    final String hqlResult = "select ur.s3Id, ur.state from UsageUpdateRecord ur where ur.deletedTime != '1974-1-1' AND ur.s3Id is not null";
+    final Query  hqlQuery = sessionFactory.getCurrentSession().createQuery(hqlResult);
+    final Map<String, UpdateProcessingState> states = new HashMap<>();
+    for (Object[] row : (List<Object[]>) hqlQuery.list()) {
+      states.put((String) row[0], (UpdateProcessingState) row[1]);
+    }
+    return states;
+  }
+
   @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
   public UsageUpdateRecord findByExternalId(String externalId) {
     final String hqlResult = "from UsageUpdateRecord ur where ur.externalId=:externalId";
@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Created by willpugh on 2/10/14.
@@ -64,12 +65,19 @@ public class FullSyncher {
         this.context = context;
     }
 
+  /**
+   * Parses the log files of each sync directory on the given pool.  See DirectoryProcessor.setLogParsingPool.
+   */
+  public void setLogParsingPool(ExecutorService logParsingPool, int maxBufferedLogFiles) {
+    directoryProcessor.setLogParsingPool(logParsingPool, maxBufferedLogFiles);
+  }
+
   public void processData(File syncRoot) throws Exception {
     processData(syncRoot, null, false);
   }
 
   public void processData(File syncRoot, DirectoryFormat format, boolean strict) throws Exception {
-      if (!syncRoot.isDirectory()) {
+      if (!context.getFileTree().isDirectory(syncRoot)) {
           throw new IllegalArgumentException("SyncRoot MUST be a directory.");
       }
 
@@ -13,6 +13,29 @@ public class ProcessingResult extends ResultTree {
         addAttribute("Zip File", zipFileName);
     }
 
+    private ProcessingResult(String containingDirectory) {
+        super(containingDirectory);
+    }
+
+    /**
+     * Creates an empty result to accumulate part of an import in, on another thread, to be merged back into
+     * this one with {@link #merge(ProcessingResult)}.
+     *
+     * @return The new, empty, result.
+     */
+    public ProcessingResult newFork() {
+        return new ProcessingResult(name);
+    }
+
+    /**
+     * Merges a result created by {@link #newFork()} back into this one.
+     *
+     * @param fork The result to merge.
+     */
+    public void merge(ProcessingResult fork) {
+        super.merge(fork);
+    }
+
     @Override
     protected String reportClass() {
         return "import-stats";
@@ -238,6 +261,26 @@ public class ProcessingResult extends ResultTree {
                 numLogFileErrors.toString());
     }
 
+    /**
+     * This records the count of archived log files skipped because they had already been ingested, from a
+     * single sync of a Talking Book.
+     *
+     * @param project     The project
+     * @param tbLoaderId  The tbloader device that performed the TB update operation.
+     * @param deployment  The outDeployment from the op data
+     * @param village     The outVillage from the op data
+     * @param talkingBook The outTalkingBook from the opData
+     * @param numLogFilesAlreadyIngested The number of archived log files skipped
+     */
+    public void addCountLogFilesAlreadyIngested(String project, String tbLoaderId, String deployment,
+                                                String village, String talkingBook,
+                                                Integer numLogFilesAlreadyIngested) {
+        if (numLogFilesAlreadyIngested == 0) return;
+        addAttribute(
+                Arrays.asList(project, tbLoaderId, deployment, village, talkingBook), "NumLogFilesAlreadyIngested",
+                numLogFilesAlreadyIngested.toString());
+    }
+
     /**
      * This records the count of log files with errors, from a single Talking Book.
      *
@@ -84,6 +84,24 @@ public class ResultTree {
         addChild(path).addAttribute(key, value);
     }
 
+    /**
+     * Adds the attributes and children of another tree to this one, as if everything that was added to the
+     * other tree had been added to this one, in the same order, after what is already here.
+     * @param other The tree to merge in. Its name is ignored.
+     */
+    protected void merge(ResultTree other) {
+        if (other.attributes != null) {
+            for (Map.Entry<String, String> e : other.attributes.entrySet()) {
+                addAttribute(e.getKey(), e.getValue());
+            }
+        }
+        if (other.children != null) {
+            for (ResultTree child : other.children.values()) {
+                addChild(child.name).merge(child);
+            }
+        }
+    }
+
     /**
      * Retrieves a value previously set in a node.
      * @param path List of names of the node with the attribute.
@@ -5,7 +5,6 @@ import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.PosixParser;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.SuffixFileFilter;
 import org.apache.commons.lang.StringUtils;
 import org.literacybridge.dashboard.dbTables.syncOperations.UpdateProcessingState;
@@ -18,7 +17,6 @@ import org.springframework.context.support.ClassPathXmlApplicationContext;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Properties;
 import java.util.logging.Level;
@@ -55,10 +53,16 @@ public class TbData2 {
             "Directory into which to accumulate various key:value log files (as *.kvp).");
 
         options.addOption("x", false, "Do not write to SQL db.");
+        options.addOption("i", true, "File to remember ingested archived logs in, so they are skipped when seen again (with -x).");
 
         options.addOption("o", false, "Directory format is using the older format");
         options.addOption("f", false, "Force update, even if there are errors.");
         options.addOption("s", false, "Do strict format checks.");
+        options.addOption("p", true, "Number of threads to parse Talking Book log files on (default 1).");
+        options.addOption("u", true, "Number of threads to unzip the upload on (default 1).");
+        options.addOption("t", true, "Number of threads to process Talking Books on (default 1).");
+        options.addOption("k", true, "Number of Talking Books ahead to unzip sync directories for, in the background (default 0).");
+        options.addOption("n", false, "Read the zip file in place, without unzipping it to the temp directory.");
 
     }
 
@@ -77,12 +81,11 @@ public class TbData2 {
         ValidationParameters validationParameters,
         ProcessingResult result) throws Exception {
 
-        InputStream is = FileUtils.openInputStream(zipFile);
         File tempDir = new File(System.getProperty("java.io.tmpdir"));
 
         ContentUsageUpdateProcess.UpdateUsageContext context;
         context = contentUsageUpdateProcess.createInitialContext(
-            is,
+            zipFile,
             tempDir,
             "Commandline Tool",
             "Non Specific",
@@ -142,6 +145,24 @@ public class TbData2 {
         if (cmd.hasOption("x")) {
             contentUsageUpdateProcess.setNoSql();
         }
+        if (cmd.hasOption("i")) {
+            contentUsageUpdateProcess.setIngestedLogFile(new File(cmd.getOptionValue("i")));
+        }
+        if (cmd.hasOption("p")) {
+            contentUsageUpdateProcess.setLogParsingThreads(Integer.parseInt(cmd.getOptionValue("p")));
+        }
+        if (cmd.hasOption("u")) {
+            contentUsageUpdateProcess.setUnzipThreads(Integer.parseInt(cmd.getOptionValue("u")));
+        }
+        if (cmd.hasOption("t")) {
+            contentUsageUpdateProcess.setTraversalThreads(Integer.parseInt(cmd.getOptionValue("t")));
+        }
+        if (cmd.hasOption("k")) {
+            contentUsageUpdateProcess.setSyncZipLookahead(Integer.parseInt(cmd.getOptionValue("k")));
+        }
+        if (cmd.hasOption("n")) {
+            contentUsageUpdateProcess.setZipNative(true);
+        }
 
         final File zipFile = new File(cmd.getOptionValue("z", "."));
         File[] filesToProcess;
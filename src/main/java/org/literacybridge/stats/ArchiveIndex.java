@@ -0,0 +1,298 @@
+package org.literacybridge.stats;
+
+import org.apache.commons.io.filefilter.RegexFileFilter;
+import org.literacybridge.stats.model.DeploymentId;
+import org.literacybridge.stats.model.DeploymentPerDevice;
+import org.literacybridge.stats.model.DirectoryFormat;
+import org.literacybridge.stats.model.StatsPackageManifest;
+import org.literacybridge.stats.model.SyncDirId;
+import org.literacybridge.utils.FileTree;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Everything a {@link DirectoryIterator} needs to know about a stats update package, found in one walk of it: the
+ * projects, their operational data, devices and deployments, villages, Talking Books and sync directories, and the
+ * log and stats files in the sync directories.  The sync dirs of a Talking Book are added when its nested sync dir
+ * zips are expanded, the first time it is iterated over.
+ * <p/>
+ * Iterating over a package, whether to generate its manifest, validate it, or process it, replays the index to
+ * the callbacks instead of walking the directories again.  The index is kept on the UpdateUsageContext, so the
+ * validation and processing of an update share one.
+ */
+public final class ArchiveIndex {
+
+  private static final Pattern ARCHIVED_LOG_PATTERN = Pattern.compile("log_(.*).txt");
+  //Stats files don't have any "."s in them (because they have no file extensions) (other than ".stat", you mean?)
+  private static final Pattern STATS_FILE_PATTERN   = Pattern.compile("(.*)\\.stat");
+
+  private static final FilenameFilter ARCHIVED_LOG_FILTER = new RegexFileFilter(ARCHIVED_LOG_PATTERN);
+  private static final FilenameFilter STATS_FILE_FILTER   = new RegexFileFilter(STATS_FILE_PATTERN);
+
+  /**
+   * A file, and its size when it was indexed.
+   */
+  public static final class IndexedFile {
+    public final File file;
+    public final long size;
+
+    IndexedFile(File file, long size) {
+      this.file = file;
+      this.size = size;
+    }
+
+    static List<IndexedFile> of(FileTree tree, File[] files) {
+      List<IndexedFile> indexed = new ArrayList<>(files.length);
+      for (File file : files) {
+        indexed.add(new IndexedFile(file, tree.length(file)));
+      }
+      return indexed;
+    }
+  }
+
+  /**
+   * A project: one of the roots of the package.
+   */
+  public static final class Project {
+    public final File                 root;
+    public final DirectoryFormat      format;
+    // The manifest in the package, or null if there isn't one.
+    public final StatsPackageManifest manifest;
+    public final boolean              exists;
+
+    final List<DeviceOperationalData> operationalData = new ArrayList<>();
+    final List<Deployment>            deployments     = new ArrayList<>();
+    StatsPackageManifest generatedManifest;
+    boolean              operationalLogsAppended;
+    // Why the project couldn't be indexed, if it couldn't.
+    Exception            failure;
+
+    Project(File root, DirectoryFormat format, StatsPackageManifest manifest, boolean exists) {
+      this.root = root;
+      this.format = format;
+      this.manifest = manifest;
+      this.exists = exists;
+    }
+
+    public List<DeviceOperationalData> getOperationalData() {
+      return Collections.unmodifiableList(operationalData);
+    }
+
+    public List<Deployment> getDeployments() {
+      return Collections.unmodifiableList(deployments);
+    }
+  }
+
+  /**
+   * The tbData files of a device.
+   */
+  public static final class DeviceOperationalData {
+    public final String            device;
+    public final boolean           includesHeaders;
+    // Null if the device has no tbData directory.
+    public final List<IndexedFile> tbDataFiles;
+
+    DeviceOperationalData(String device, boolean includesHeaders, List<IndexedFile> tbDataFiles) {
+      this.device = device;
+      this.includesHeaders = includesHeaders;
+      this.tbDataFiles = tbDataFiles;
+    }
+  }
+
+  public static final class Deployment {
+    public final DeploymentPerDevice deploymentPerDevice;
+    public final DeploymentId        deploymentId;
+    public final File                dir;
+    final List<Village> villages = new ArrayList<>();
+
+    Deployment(DeploymentPerDevice deploymentPerDevice, DeploymentId deploymentId, File dir) {
+      this.deploymentPerDevice = deploymentPerDevice;
+      this.deploymentId = deploymentId;
+      this.dir = dir;
+    }
+
+    public List<Village> getVillages() {
+      return Collections.unmodifiableList(villages);
+    }
+  }
+
+  public static final class Village {
+    public final File dir;
+    final List<TalkingBook> talkingBooks = new ArrayList<>();
+
+    Village(File dir) {
+      this.dir = dir;
+    }
+
+    public List<TalkingBook> getTalkingBooks() {
+      return Collections.unmodifiableList(talkingBooks);
+    }
+  }
+
+  /**
+   * A Talking Book.  Its sync dirs are only looked at once the sync dir zips in it have been expanded, which is
+   * done when the Talking Book is first iterated over, or ahead of that by a SyncZipPrefetcher.
+   */
+  public static final class TalkingBook {
+    public final File              dir;
+    public final String            project;
+    public final Deployment        deployment;
+    public final String            village;
+    // The zips that were in the directory when it was indexed.
+    public final List<IndexedFile> syncZips;
+
+    int                       position;
+    // The expansion of the zips in the background, if they are being prefetched.
+    Future<List<File>>        expansion;
+    // Only the sync dirs whose name has a time in it.  Null until the zips have been expanded.
+    List<SyncDir>             syncDirs;
+
+    TalkingBook(File dir, String project, Deployment deployment, String village, List<IndexedFile> syncZips) {
+      this.dir = dir;
+      this.project = project;
+      this.deployment = deployment;
+      this.village = village;
+      this.syncZips = syncZips;
+    }
+
+    public long getSyncZipBytes() {
+      long bytes = 0;
+      for (IndexedFile syncZip : syncZips) {
+        bytes += syncZip.size;
+      }
+      return bytes;
+    }
+
+    /**
+     * @return the sync dirs, or null if the zips haven't been expanded yet.
+     */
+    @Nullable
+    public List<SyncDir> getSyncDirs() {
+      return syncDirs != null ? Collections.unmodifiableList(syncDirs) : null;
+    }
+  }
+
+  /**
+   * A sync directory, and the files in it that get processed.
+   */
+  public static final class SyncDir {
+    public final SyncDirId         id;
+    public final File              dir;
+    public final boolean           empty;
+    // log/log.txt, or null if there isn't one.
+    public final IndexedFile       currentLog;
+    public final List<IndexedFile> archivedLogs;
+    public final boolean           statisticsExists;
+    // The statistics/*.stat files, or null if statistics isn't a directory.
+    public final List<IndexedFile> statsFiles;
+
+    private SyncDir(SyncDirId id, File dir, boolean empty, IndexedFile currentLog, List<IndexedFile> archivedLogs,
+                    boolean statisticsExists, List<IndexedFile> statsFiles) {
+      this.id = id;
+      this.dir = dir;
+      this.empty = empty;
+      this.currentLog = currentLog;
+      this.archivedLogs = archivedLogs;
+      this.statisticsExists = statisticsExists;
+      this.statsFiles = statsFiles;
+    }
+
+    /**
+     * Looks at what is in a sync directory.
+     *
+     * @param id the id of the directory, if it is known.
+     */
+    public static SyncDir scan(FileTree tree, @Nullable SyncDirId id, File dir) {
+      File[] children = tree.list(dir, null);
+
+      IndexedFile currentLog = null;
+      final File logFile = new File(new File(dir, "log"), "log.txt");
+      if (tree.exists(logFile)) {
+        currentLog = new IndexedFile(logFile, tree.length(logFile));
+      }
+
+      List<IndexedFile> archivedLogs = Collections.emptyList();
+      final File logArchives = new File(dir, "log-archive");
+      if (tree.isDirectory(logArchives)) {
+        archivedLogs = IndexedFile.of(tree, tree.listFiles(logArchives, ARCHIVED_LOG_FILTER));
+      }
+
+      final File statDir = new File(dir, "statistics");
+      List<IndexedFile> statsFiles = null;
+      if (tree.isDirectory(statDir)) {
+        statsFiles = IndexedFile.of(tree, tree.listFiles(statDir, STATS_FILE_FILTER));
+      }
+
+      return new SyncDir(id, dir, children == null || children.length == 0, currentLog, archivedLogs,
+                         tree.exists(statDir), statsFiles);
+    }
+  }
+
+  private final File            root;
+  private final DirectoryFormat format;
+  private final boolean         strict;
+  private final List<Project>   projects = new ArrayList<>();
+  // Every Talking Book, in the order they are iterated over.
+  private final List<TalkingBook>    talkingBooks = new ArrayList<>();
+  // Added to by the traversal threads of a parallel iteration.
+  private final Map<String, SyncDir> syncDirs     = new ConcurrentHashMap<>();
+
+  ArchiveIndex(File root, DirectoryFormat format, boolean strict) {
+    this.root = root;
+    this.format = format;
+    this.strict = strict;
+  }
+
+  /**
+   * @return true if this is the index a DirectoryIterator with these arguments would build.
+   */
+  public boolean isFor(File root, DirectoryFormat format, boolean strict) {
+    return this.root.equals(root) && this.format == format && this.strict == strict;
+  }
+
+  public File getRoot() {
+    return root;
+  }
+
+  public List<Project> getProjects() {
+    return Collections.unmodifiableList(projects);
+  }
+
+  /**
+   * @return the sync directory, or null if it isn't in the index.
+   */
+  @Nullable
+  public SyncDir getSyncDir(File dir) {
+    return syncDirs.get(dir.getPath());
+  }
+
+  void add(Project project) {
+    projects.add(project);
+  }
+
+  public List<TalkingBook> getTalkingBooks() {
+    return Collections.unmodifiableList(talkingBooks);
+  }
+
+  void add(Village village, TalkingBook talkingBook) {
+    talkingBook.position = talkingBooks.size();
+    talkingBooks.add(talkingBook);
+    village.talkingBooks.add(talkingBook);
+  }
+
+  void setSyncDirs(TalkingBook talkingBook, List<SyncDir> syncDirs) {
+    for (SyncDir syncDir : syncDirs) {
+      this.syncDirs.put(syncDir.dir.getPath(), syncDir);
+    }
+    talkingBook.syncDirs = syncDirs;
+  }
+}
@@ -1,14 +1,16 @@
 package org.literacybridge.stats;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.DirectoryFileFilter;
+import com.google.common.base.Throwables;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.filefilter.RegexFileFilter;
-import org.apache.commons.io.filefilter.WildcardFileFilter;
+import org.apache.commons.io.filefilter.SuffixFileFilter;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.joda.time.LocalDateTime;
 import org.literacybridge.main.ProcessingResult;
 import org.literacybridge.dashboard.processes.ContentUsageUpdateProcess;
 import org.literacybridge.stats.api.DirectoryCallbacks;
+import org.literacybridge.stats.api.ForkableDirectoryCallbacks;
+import org.literacybridge.stats.formats.tbData.TbDataCache;
 import org.literacybridge.stats.formats.tbData.TbDataParser;
 import org.literacybridge.stats.model.DeploymentId;
 import org.literacybridge.stats.model.DeploymentPerDevice;
@@ -16,21 +18,35 @@ import org.literacybridge.stats.model.DirectoryFormat;
 import org.literacybridge.stats.model.StatsPackageManifest;
 import org.literacybridge.stats.model.SyncDirId;
 import org.literacybridge.stats.processors.ManifestCreationCallbacks;
-import org.literacybridge.utils.FsUtils;
+import org.literacybridge.utils.FileTree;
+import org.literacybridge.utils.LocalFileTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Set;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipException;
@@ -52,6 +68,11 @@ public class DirectoryIterator {
 
     private static final String MANIFEST_FILE_NAME = "StatsPackageManifest.json";
 
+    // The file name filters, compiled once.
+    private static final FilenameFilter TBDATA_FILTER    = new RegexFileFilter(TBDATA_PATTERN);
+    private static final FilenameFilter TBDATA_V2_FILTER = new RegexFileFilter(TbDataParser.TBDATA_PATTERN_V2);
+    private static final FilenameFilter SYNC_ZIP_FILTER  = new SuffixFileFilter(".zip");
+
     //tbData-v00-2014y05m02d-9d8839de.csv
 
     private static final String TBLOADER_LOG_DIR = "logs";
@@ -63,8 +84,14 @@ public class DirectoryIterator {
     protected static final Logger logger = LoggerFactory.getLogger(DirectoryIterator.class);
     private final boolean strict;
     private final File root;
-    private final File[] rootFiles;
+    private final FileTree tree;
+    private final DirectoryFormat requestedFormat;
     private DirectoryFormat format;
+    private ArchiveIndex index;
+    private SyncZipPrefetcher prefetcher;
+    private ForkJoinPool traversalPool;
+    // The Talking Books forked to the traversal pool that haven't been joined yet, in the order they were forked.
+    private final Deque<TalkingBookTask> pendingForks = new ArrayDeque<>();
     private ProcessingResult result;
     ContentUsageUpdateProcess.UpdateUsageContext context;
 
@@ -82,25 +109,13 @@ public class DirectoryIterator {
         return null;
     }
 
-    // This is a horrible hack. We want to run appendOperationalLogs() once per input .zip file,
-    // but the code's control flow is such that there is no good place to do so. The
-    // directory tree is iterated FOUR TIMES. (No wonder this is so slow!) And all the parts
-    // of the code are incredibly tightly coupled, so breaking it apart is very difficult.
-    // (In fairness, the multiple directory structures that are supported are completely abstracted
-    // out, so the logic need not care about which version of directory structure is being
-    // processed.)
-    //
-    // So, we keep a map of directories that we've visited.
-    //
-    // Hopefully we can replace this entire monster with something a little more flexible and
-    // maintainable. But, for now, it works.
-    private static Set<String> visitedRoots = new TreeSet<>();
 
 
     public DirectoryIterator(File root, DirectoryFormat format, boolean strict, ContentUsageUpdateProcess.UpdateUsageContext context) {
         this.root = root;
-        this.rootFiles = rootInFunnyZip(root);
+        this.tree = context.getFileTree();
         this.strict = strict;
+        this.requestedFormat = format;
         this.format = format;
         this.result = context.result;
         this.context = context;
@@ -121,28 +136,35 @@ public class DirectoryIterator {
      * @return the proper root directory to use for processing
      */
     public static File[] rootInFunnyZip(File zipRoot) {
+        return rootInFunnyZip(LocalFileTree.INSTANCE, zipRoot);
+    }
+
+    /**
+     * Same as {@link #rootInFunnyZip(File)}, for a zip root in the given tree.
+     */
+    public static File[] rootInFunnyZip(final FileTree tree, File zipRoot) {
 
         File root = zipRoot;
         File collectedDataFile = new File(root, UPDATE_ROOT_V1);
-        if (collectedDataFile.exists())
+        if (tree.exists(collectedDataFile))
             root = collectedDataFile;
         else {
-            File[] dbAccounts = root.listFiles();
+            File[] dbAccounts = tree.list(root, null);
             File dropboxAccount = null;
             for (File f : dbAccounts) {
-                if (f.isDirectory() && !f.isHidden() && !f.getName().startsWith("_") && !f.getName()
+                if (tree.isDirectory(f) && !tree.isHidden(f) && !f.getName().startsWith("_") && !f.getName()
                         .startsWith(".")) { // avoid folders like __MACOSX
                     dropboxAccount = f;
                     break;
                 }
             }
-            if (dropboxAccount != null && dropboxAccount.exists()) {
+            if (dropboxAccount != null && tree.exists(dropboxAccount)) {
                 File altCollectedDataFile = new File(dropboxAccount, UPDATE_ROOT_V1);
-                if (altCollectedDataFile.exists()) {
-                    File[] projects = altCollectedDataFile.listFiles();
+                if (tree.exists(altCollectedDataFile)) {
+                    File[] projects = tree.list(altCollectedDataFile, null);
                     File project = null;
                     for (File f : projects) {
-                        if (f.isDirectory() && !f.isHidden() && !f.getName().startsWith("_") && !f.getName().startsWith(".")) { // avoid folders like __MACOSX
+                        if (tree.isDirectory(f) && !tree.isHidden(f) && !f.getName().startsWith("_") && !f.getName().startsWith(".")) { // avoid folders like __MACOSX
                             // only one directory should match; if more than one, then this is the old style without a project dir
                             if (project == null) {
                                 project = f;
@@ -152,7 +174,7 @@ public class DirectoryIterator {
                             }
                         }
                     }
-                    if (project != null && project.exists()) {
+                    if (project != null && tree.exists(project)) {
                         System.out.println("   project directory listed");
                         root = project;
                     } else {
@@ -166,12 +188,13 @@ public class DirectoryIterator {
         File[] processingRoots = new File[] { root };
 
         //If there is no talkingbookdata, then there are multiple roots
-        File talkingbookdata = FsUtils.FileIgnoreCase(root, TALKING_BOOK_ROOT_V2);
-        if (!talkingbookdata.exists()) {
-            processingRoots = root.listFiles(new FileFilter() {
+        File talkingbookdata = tree.fileIgnoreCase(root, TALKING_BOOK_ROOT_V2);
+        if (!tree.exists(talkingbookdata)) {
+            processingRoots = tree.list(root, new FilenameFilter() {
                 @Override
-                public boolean accept(File pathname) {
-                    if (pathname.isDirectory() && !pathname.isHidden() && !pathname.getName().startsWith("_") && !pathname.getName().startsWith(
+                public boolean accept(File dir, String name) {
+                    File pathname = new File(dir, name);
+                    if (tree.isDirectory(pathname) && !tree.isHidden(pathname) && !name.startsWith("_") && !name.startsWith(
                             ".")) // avoid folders like __MACOSX
                         return true;
                     else
@@ -181,11 +204,18 @@ public class DirectoryIterator {
         }
         final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss'Z'");
         sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
-        System.out.println(String.format("Size: %s, Start Time: %s", getBytesString(FileUtils.sizeOfDirectory(root)),
+        System.out.println(String.format("Size: %s, Start Time: %s", getBytesString(tree.sizeOfDirectory(root)),
                                          sdf.format(Calendar.getInstance().getTime())));
         return processingRoots;
     }
 
+    /**
+     * @return true if a directory under TalkingBookData is named like a deployment.
+     */
+    static boolean isDeploymentDir(String name) {
+        return UPDATE_PATTERN.matcher(name).matches() || name.equalsIgnoreCase("UNKNOWN");
+    }
+
     private static String getBytesString(long bytes) {
         String[] quantifiers = new String[] { "KiB", "MiB", "GiB", "TiB" };
         double sizeNum = bytes;
@@ -204,27 +234,31 @@ public class DirectoryIterator {
         return new File(root, MANIFEST_FILE_NAME);
     }
 
-    private static File getTbDataDir(File root, String device, DirectoryFormat format) {
+    private static File getTbDataDir(FileTree tree, File root, String device, DirectoryFormat format) {
         File retVal;
 
         if (format == DirectoryFormat.Sync) {
-            retVal = FsUtils.FileIgnoreCase(root, device, UPDATE_ROOT_V1);
+            retVal = tree.fileIgnoreCase(root, device, UPDATE_ROOT_V1);
         } else {
-            retVal = FsUtils.FileIgnoreCase(root, DEVICE_OPERATIONS_DIR_ARCHIVE_V2, device,
-                                            TBDATA_DIR_V2);
+            retVal = tree.fileIgnoreCase(root, DEVICE_OPERATIONS_DIR_ARCHIVE_V2, device,
+                                         TBDATA_DIR_V2);
         }
 
         return retVal;
     }
 
     public static File getTbLoaderLogFileDir(File root, String device, DirectoryFormat format) {
+        return getTbLoaderLogFileDir(LocalFileTree.INSTANCE, root, device, format);
+    }
+
+    public static File getTbLoaderLogFileDir(FileTree tree, File root, String device, DirectoryFormat format) {
         File retVal;
 
         if (format == DirectoryFormat.Sync) {
-            retVal = FsUtils.FileIgnoreCase(root, device, UPDATE_ROOT_V1, TBLOADER_LOG_DIR);
+            retVal = tree.fileIgnoreCase(root, device, UPDATE_ROOT_V1, TBLOADER_LOG_DIR);
         } else {
-            retVal = FsUtils.FileIgnoreCase(root, DEVICE_OPERATIONS_DIR_ARCHIVE_V2, device,
-                                            TBLOADER_LOG_DIR);
+            retVal = tree.fileIgnoreCase(root, DEVICE_OPERATIONS_DIR_ARCHIVE_V2, device,
+                                         TBLOADER_LOG_DIR);
         }
 
         return retVal;
@@ -232,16 +266,23 @@ public class DirectoryIterator {
 
     /**
      * Reads a manifest from a StatsPackageManifest.json file.
+     * @param tree The tree the manifest is in.
      * @param manifestFile File with JSON
      * @param format Optional, DirectoryFormat.Sync (very old) or DirectoryFormat.Archive.
      * @param strict If this DirectoryIterator was created with "strict"
      * @return The deserialized StatsPackageManifest file.
      * @throws IOException if the manifest can't be read.
      */
-    private static StatsPackageManifest readManifestFile(File manifestFile, DirectoryFormat format,
+    private static StatsPackageManifest readManifestFile(FileTree tree, File manifestFile, DirectoryFormat format,
                                                        boolean strict) throws IOException {
 
-        StatsPackageManifest manifest = mapper.readValue(manifestFile, StatsPackageManifest.class);
+        StatsPackageManifest manifest;
+        InputStream is = tree.open(manifestFile);
+        try {
+            manifest = mapper.readValue(is, StatsPackageManifest.class);
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
         DirectoryFormat manifestFormat = DirectoryFormat.fromVersion(manifest.formatVersion);
         if (format != null && format != manifestFormat) {
             String errorMessage = "Format is set as " + manifestFormat
@@ -257,133 +298,141 @@ public class DirectoryIterator {
         return manifest;
     }
 
+    /**
+     * Iterates over the package.  With more than one traversal thread in the context, ForkableDirectoryCallbacks
+     * over a local tree have their Talking Books processed in parallel, each on a fork of the callbacks (see
+     * {@link ForkableDirectoryCallbacks}).
+     */
     public void process(DirectoryCallbacks callbacks) throws Exception {
-        for (File currRoot : rootFiles) {
-            logger.debug(String.format("project: %s", currRoot.getName()));
-            try {
-                process(currRoot, callbacks);
-            } catch (NoTalkingBookDataException e) {
-                result.addProjectHasMissingDirectory(currRoot.getName(), e.getParent(), e.getMissingDirectory());
+        ArchiveIndex index = index();
+        // A ZipFileTree can only be changed while nothing else is reading it, so only a local tree is expanded by
+        // more than one thread.  The traversal threads expand the zips of the Talking Books they process, so there
+        // is nothing for a prefetcher to do.
+        if (context.getTraversalThreads() > 1 && callbacks instanceof ForkableDirectoryCallbacks
+            && tree instanceof LocalFileTree) {
+            traversalPool = new ForkJoinPool(context.getTraversalThreads());
+        } else if (context.getSyncZipLookahead() > 0 && tree instanceof LocalFileTree) {
+            prefetcher = new SyncZipPrefetcher(tree, index, context.getSyncZipLookahead(),
+                                               context.getSyncZipPrefetchBytes());
+        }
+        try {
+            for (ArchiveIndex.Project project : index.getProjects()) {
+                logger.debug(String.format("project: %s", project.root.getName()));
+                try {
+                    process(project, callbacks);
+                } catch (NoTalkingBookDataException e) {
+                    result.addProjectHasMissingDirectory(project.root.getName(), e.getParent(), e.getMissingDirectory());
+                }
+            }
+        } finally {
+            if (prefetcher != null) {
+                prefetcher.close();
+                prefetcher = null;
+            }
+            if (traversalPool != null) {
+                // Only left over if processing failed; their results are dropped with them.
+                pendingForks.clear();
+                traversalPool.shutdownNow();
+                traversalPool = null;
             }
         }
     }
 
-    private void process(final File root, DirectoryCallbacks callbacks) throws Exception {
-        StatsPackageManifest manifest = null;
-        File manifestFile = getManifestFile(root);
-        if (manifestFile.exists()) {
-            manifest = readManifestFile(manifestFile, format, strict);
-            format = DirectoryFormat.fromVersion(manifest.formatVersion);
-        } else {
-            if (format == null) {
-                if (strict) {
-                    throw new IllegalArgumentException(
-                            "No Manifest is set, and no directory format is set.");
-                }
-
-                format = DirectoryFormat.Sync;
-            }
+    private void process(ArchiveIndex.Project project, DirectoryCallbacks callbacks) throws Exception {
+        if (project.failure != null) {
+            throw project.failure;
+        }
+        format = project.format;
 
-            callbacks.creatingManifest(root);
-            manifest = generateManifest(root, format);
+        StatsPackageManifest manifest = project.manifest;
+        if (manifest == null) {
+            callbacks.creatingManifest(project.root);
+            manifest = generateManifest(project);
             callbacks.createdManifest();
-
         }
 
-        process(root, manifest, callbacks);
+        process(project, manifest, callbacks);
     }
 
     /**
-     * Walks the directory to generate a manifest.
-     * @param root
-     * @param format
-     * @return
-     * @throws Exception
+     * Replays the project to a ManifestCreationCallbacks to generate a manifest for it, unless the context has
+     * one that was built from the zip the package came in.  The manifest is kept in the index, so this is only
+     * done once per project.
      */
-    private StatsPackageManifest generateManifest(File root, DirectoryFormat format)
+    private StatsPackageManifest generateManifest(ArchiveIndex.Project project)
             throws Exception {
-        this.format = format;
-
-        logger.debug("Generating manifest");
-        ManifestCreationCallbacks manifestCreationCallbacks = new ManifestCreationCallbacks(context);
-        process(root, null, manifestCreationCallbacks);
-        StatsPackageManifest result = manifestCreationCallbacks.generateManifest(format);
-        logger.debug("---------"); //
-        logger.debug(String.format("Continue with generated manifest: %s", root.getName()));
-        return result;
+        ZipManifestBuilder zipManifests = context.getZipManifests();
+        if (project.generatedManifest == null && zipManifests != null) {
+            project.generatedManifest = zipManifests.manifestFor(project.root, project.format);
+        }
+        if (project.generatedManifest == null) {
+            logger.debug("Generating manifest");
+            ManifestCreationCallbacks manifestCreationCallbacks = new ManifestCreationCallbacks(context);
+            process(project, null, manifestCreationCallbacks);
+            project.generatedManifest = manifestCreationCallbacks.generateManifest(project.format);
+            logger.debug("---------"); //
+            logger.debug(String.format("Continue with generated manifest: %s", project.root.getName()));
+        }
+        return project.generatedManifest;
     }
 
     public void process(@Nonnull File root, @Nullable StatsPackageManifest manifest, @Nonnull DirectoryCallbacks callbacks) throws Exception {
+        ArchiveIndex.Project project = null;
+        for (ArchiveIndex.Project candidate : index().getProjects()) {
+            if (candidate.root.equals(root)) {
+                project = candidate;
+            }
+        }
+        if (project == null) {
+            //Not one of the roots of the package, so it isn't in the index.
+            project = indexProject(index(), root, format, manifest);
+        }
+        process(project, manifest, callbacks);
+    }
 
-        if (!root.exists()) {
+    private void process(@Nonnull ArchiveIndex.Project project, @Nullable StatsPackageManifest manifest,
+                         @Nonnull DirectoryCallbacks callbacks) throws Exception {
+        final File root = project.root;
+        if (!project.exists) {
             throw new IllegalArgumentException("Root directory does not exist: " + root.getCanonicalPath());
         }
 
         if (callbacks.startProcessing(root, manifest, format)) {
 
-            if (manifest != null && !visitedRoots.contains(root.getAbsolutePath())) {
+            if (manifest != null && !project.operationalLogsAppended) {
                 appendOperationalLogs(root);
-                visitedRoots.add(root.getAbsolutePath());
+                project.operationalLogsAppended = true;
             }
 
-            TreeSet<DeploymentPerDevice> deploymentPerDevices = loadDeviceAndDeployments(root);
-
-            if (deploymentPerDevices.isEmpty()) {
+            if (project.getDeployments().isEmpty()) {
                 String relativeDataPath = root.getAbsolutePath().substring(this.root.getAbsolutePath().length()+1);
                 throw new NoTalkingBookDataException(relativeDataPath, TALKING_BOOK_ROOT_V2);
-            } else {
-                String tbLoaderDevice = null;
-                boolean tbDataForTbLoaderProcessed = false;
-                boolean processTbLoaderDevice = false;
-
-                // This code is broken in that is implicitly assumes that all entries for a given
-                // tb loader id will be returned together. It only works because there will only be
-                // data for a given tb loader in a single zip file.
-
-                // First load the operational data for the tb loader.
-                for (DeploymentPerDevice deploymentPerDevice : deploymentPerDevices) {
-                    logger.debug(String.format("  device: %s, deployment: %s", deploymentPerDevice.device,
-                                               deploymentPerDevice.deployment));
-                    if (!deploymentPerDevice.device.equalsIgnoreCase(tbLoaderDevice)) {
-
-                        // Were we already processing a tb loader?
-                        if (processTbLoaderDevice) {
-                            // Yes, end the process.
-                            callbacks.endDeviceOperationalData();
-                        }
-
-                        tbLoaderDevice = deploymentPerDevice.device;
-                        tbDataForTbLoaderProcessed = false;
-                        processTbLoaderDevice = callbacks.startDeviceOperationalData(tbLoaderDevice);
-                    }
+            }
 
-                    if (processTbLoaderDevice) {
-                        File tbdataDir = getTbDataDir(root, tbLoaderDevice, format);
-                        //
-                        if (!tbDataForTbLoaderProcessed && tbdataDir.exists()) {
-
-                            if (format == DirectoryFormat.Sync) {
-                                for (File potential : tbdataDir.listFiles((FilenameFilter) new RegexFileFilter(TBDATA_PATTERN))) {
-                                    callbacks.processTbDataFile(potential, false);
-                                }
-                                for (File potential : tbdataDir.listFiles((FilenameFilter) new RegexFileFilter(
-                                    TbDataParser.TBDATA_PATTERN_V2))) {
-                                    callbacks.processTbDataFile(potential, false);
-                                }
-                            } else {
-                                for (File potential : tbdataDir.listFiles((FilenameFilter) new RegexFileFilter(
-                                    TbDataParser.TBDATA_PATTERN_V2))) {
-                                    logger.debug(String.format("    operational data: %s", potential.getName()));
-                                    callbacks.processTbDataFile(potential, true);
-                                }
+            // First load the operational data for the tb loaders.  With more than one traversal thread, the
+            // tbData files of all of them are parsed at once, and each is delivered, in order, when it is ready.
+            ExecutorService tbDataPool = null;
+            Map<File, Future<?>> tbDataParses = Collections.emptyMap();
+            if (context.getTraversalThreads() > 1) {
+                tbDataPool = Executors.newFixedThreadPool(context.getTraversalThreads());
+                tbDataParses = parseTbDataFiles(project, tbDataPool);
+            }
+            try {
+                for (ArchiveIndex.DeviceOperationalData operationalData : project.getOperationalData()) {
+                    if (callbacks.startDeviceOperationalData(operationalData.device)) {
+                        if (operationalData.tbDataFiles != null) {
+                            for (ArchiveIndex.IndexedFile tbDataFile : operationalData.tbDataFiles) {
+                                logger.debug(String.format("    operational data: %s", tbDataFile.file.getName()));
+                                awaitTbDataParse(tbDataFile.file, tbDataParses.get(tbDataFile.file));
+                                callbacks.processTbDataFile(tbDataFile.file, operationalData.includesHeaders);
                             }
-                            tbDataForTbLoaderProcessed = true;
                         }
+                        callbacks.endDeviceOperationalData();
                     }
                 }
-
-                if (processTbLoaderDevice) {
-                    callbacks.endDeviceOperationalData();
+            } finally {
+                if (tbDataPool != null) {
+                    tbDataPool.shutdownNow();
                 }
             }
 
@@ -392,91 +441,371 @@ public class DirectoryIterator {
             //      for each talking book,
             //          process the statistics & files captured from the Talking Book.
 
-
-            for (DeploymentPerDevice deploymentPerDevice : deploymentPerDevices) {
-                DeploymentId deploymentId = DeploymentId.parseContentUpdate(deploymentPerDevice.deployment);
-                if (deploymentId.year == 0 && strict) {
-                    throw new IllegalArgumentException("Illegal deployment: " + deploymentId);
+            for (ArchiveIndex.Deployment deployment : project.getDeployments()) {
+                if (deployment.deploymentId.year == 0 && strict) {
+                    throw new IllegalArgumentException("Illegal deployment: " + deployment.deploymentId);
                 }
 
-                if (callbacks.startDeviceAndDeployment(deploymentPerDevice)) {
-                    processDeviceAndDeployment(root, deploymentPerDevice.device, deploymentId,
-                                            deploymentPerDevice.getRoot(root, format), callbacks);
+                if (callbacks.startDeviceAndDeployment(deployment.deploymentPerDevice)) {
+                    processDeviceAndDeployment(deployment, callbacks);
                     callbacks.endDeviceAndDeployment();
                 }
             }
+            while (!pendingForks.isEmpty()) {
+                joinNextFork();
+            }
             callbacks.endProcessing();
         }
     }
 
-    private void processDeviceAndDeployment(File root, String device, DeploymentId deploymentId, File deviceAndDeploymentDir, DirectoryCallbacks callbacks)
+    /**
+     * Starts parsing every tbData file of a project into the context's TbDataCache, so that handing them to the
+     * callbacks is only a replay of the parsed lines.
+     *
+     * @return the parse of each file.
+     */
+    private Map<File, Future<?>> parseTbDataFiles(ArchiveIndex.Project project, ExecutorService pool) {
+        final TbDataCache cache = context.getTbDataCache();
+        Map<File, Future<?>> parses = new HashMap<>();
+        for (final ArchiveIndex.DeviceOperationalData operationalData : project.getOperationalData()) {
+            if (operationalData.tbDataFiles == null) {
+                continue;
+            }
+            for (final ArchiveIndex.IndexedFile tbDataFile : operationalData.tbDataFiles) {
+                parses.put(tbDataFile.file, pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        // Validating and writing to the db both read them as if they might have headers.
+                        cache.preload(tree, tbDataFile.file, true, new TbDataParser());
+                        return null;
+                    }
+                }));
+            }
+        }
+        return parses;
+    }
+
+    /**
+     * Waits for a tbData file to be parsed into the cache.  If the parse failed, the failure is logged, and the file
+     * is left to be parsed again when it is delivered, so the callbacks see and count the failure as they would have
+     * without the parallel parse.
+     */
+    private static void awaitTbDataParse(File tbDataFile, @Nullable Future<?> parse) throws InterruptedException {
+        if (parse == null) {
+            return;
+        }
+        try {
+            parse.get();
+        } catch (ExecutionException e) {
+            logger.warn(String.format("Parsing %s ahead failed, it will be parsed again", tbDataFile.getName()),
+                        e.getCause());
+        }
+    }
+
+    private void processDeviceAndDeployment(ArchiveIndex.Deployment deployment, DirectoryCallbacks callbacks)
             throws Exception {
-        logger.debug(String.format("    device: %s, deployment: %s", deviceAndDeploymentDir.getName(),
-                                   deploymentId));
-        for (File villageDir : deviceAndDeploymentDir.listFiles((FileFilter) DirectoryFileFilter.DIRECTORY)) {
-            if (callbacks.startVillage(villageDir.getName().trim())) {
-                processVillage(root, device, deploymentId, villageDir, callbacks);
+        logger.debug(String.format("    device: %s, deployment: %s", deployment.dir.getName(),
+                                   deployment.deploymentId));
+        for (ArchiveIndex.Village village : deployment.getVillages()) {
+            if (callbacks.startVillage(village.dir.getName().trim())) {
+                processVillage(village, callbacks);
                 callbacks.endVillage();
             }
         }
     }
 
-    private void processVillage(File root, String device, DeploymentId deploymentId, File villageDir,
-                                DirectoryCallbacks callbacks) throws Exception {
-        logger.debug(String.format("      village: %s", villageDir.getName()));
-        for (File talkingBookDir : villageDir.listFiles((FileFilter) DirectoryFileFilter.DIRECTORY)) {
-            if (callbacks.startTalkingBook(talkingBookDir.getName().trim())) {
-                processTalkingBook(root, device, deploymentId, villageDir.getName(), talkingBookDir,
-                                   callbacks);
+    private void processVillage(ArchiveIndex.Village village, DirectoryCallbacks callbacks) throws Exception {
+        logger.debug(String.format("      village: %s", village.dir.getName()));
+        for (ArchiveIndex.TalkingBook talkingBook : village.getTalkingBooks()) {
+            if (traversalPool != null && callbacks instanceof ForkableDirectoryCallbacks) {
+                forkTalkingBook(talkingBook, (ForkableDirectoryCallbacks) callbacks);
+            } else if (callbacks.startTalkingBook(talkingBook.dir.getName().trim())) {
+                processTalkingBook(talkingBook, syncDirs(talkingBook), callbacks);
                 callbacks.endTalkingBook();
+            } else if (prefetcher != null) {
+                // Whatever was expanded for it is kept for the next iteration, but no longer counts against the
+                // budget.
+                prefetcher.done(talkingBook);
+                prefetcher.prefetchAfter(talkingBook);
             }
         }
     }
 
-    private void processTalkingBook(File root, String device, DeploymentId deploymentId, String village, File talkingBookDir,
+    private void processTalkingBook(ArchiveIndex.TalkingBook talkingBook, List<ArchiveIndex.SyncDir> syncDirs,
                                     DirectoryCallbacks callbacks) throws Exception {
-        logger.debug(String.format("        tb: %s", talkingBookDir.getName()));
-        FileFilter fileFilter = new WildcardFileFilter("*.zip");
-        File[] files = talkingBookDir.listFiles(fileFilter);
-        for (File syncZip : files) {
-            String filename = syncZip.getName().substring(0, syncZip.getName().length() - 4);
-            File folder = new File(talkingBookDir, filename);
-            if (folder.exists() && folder.isDirectory()) {
-                FileUtils.deleteDirectory(folder);
+        logger.debug(String.format("        tb: %s", talkingBook.dir.getName()));
+        for (ArchiveIndex.SyncDir syncDir : syncDirs) {
+            if (format == DirectoryFormat.Archive && syncDir.id.version == 1 && strict) {
+                throw new IllegalArgumentException(
+                        "Directory structure is the newer 'Archive' structure, but the sync directory is using the old format : "
+                                + syncDir.dir.getName());
             }
+
+            callbacks.processSyncDir(syncDir.id, syncDir.dir);
+        }
+    }
+
+    /**
+     * Hands a Talking Book to the traversal pool, to be processed on a fork of the callbacks.  Only so many are
+     * left in flight, to keep every thread busy without holding on to the events of the whole package: past
+     * that, the earliest are joined first.
+     */
+    private void forkTalkingBook(ArchiveIndex.TalkingBook talkingBook, ForkableDirectoryCallbacks callbacks)
+            throws Exception {
+        TalkingBookTask task = new TalkingBookTask(talkingBook, callbacks);
+        traversalPool.execute(task);
+        pendingForks.addLast(task);
+        while (pendingForks.size() > 2 * traversalPool.getParallelism()) {
+            joinNextFork();
+        }
+    }
+
+    /**
+     * Joins the earliest forked Talking Book into the callbacks it was forked from, reporting its corrupt zips
+     * first, as processing it on this thread would have.
+     */
+    private void joinNextFork() throws Exception {
+        TalkingBookTask task = pendingForks.removeFirst();
+        task.join();
+        if (task.failure != null) {
+            throw task.failure;
+        }
+        reportCorruptZips(task.talkingBook, task.corruptZips);
+        task.callbacks.join(task.fork);
+    }
+
+    /**
+     * A Talking Book, processed on a pool thread against its own fork of the callbacks.  Anything thrown is kept
+     * for the iterating thread to throw when the Talking Book is joined.
+     */
+    private final class TalkingBookTask extends RecursiveAction {
+        final ArchiveIndex.TalkingBook   talkingBook;
+        final ForkableDirectoryCallbacks callbacks;
+        final DirectoryCallbacks         fork;
+        List<File> corruptZips = Collections.emptyList();
+        Exception  failure;
+
+        TalkingBookTask(ArchiveIndex.TalkingBook talkingBook, ForkableDirectoryCallbacks callbacks) {
+            this.talkingBook = talkingBook;
+            this.callbacks = callbacks;
+            this.fork = callbacks.fork();
+        }
+
+        @Override
+        protected void compute() {
             try {
-                FsUtils.unzip(syncZip, talkingBookDir);
-            } catch (ZipException e) {
-                result.addCorruptedTalkingBookZip(root.getName(), device, deploymentId.id, village,
-                                                  talkingBookDir.getName(), syncZip.getName());
-                logger.error("Couldn't unzip synchdir " + syncZip.getName() + "(" + e.getMessage() + ")");
+                if (fork.startTalkingBook(talkingBook.dir.getName().trim())) {
+                    if (talkingBook.syncDirs == null) {
+                        corruptZips = expandSyncZips(tree, talkingBook);
+                        index().setSyncDirs(talkingBook, scanSyncDirs(talkingBook));
+                    }
+                    processTalkingBook(talkingBook, talkingBook.syncDirs, fork);
+                    fork.endTalkingBook();
+                }
+            } catch (Exception e) {
+                failure = e;
             }
-            syncZip.delete();
+        }
+    }
+
+    /**
+     * @return the sync dirs of a Talking Book, expanding its zips first if that hasn't been done yet.
+     */
+    private List<ArchiveIndex.SyncDir> syncDirs(ArchiveIndex.TalkingBook talkingBook) throws Exception {
+        if (talkingBook.syncDirs == null) {
+            List<File> corruptZips;
+            if (talkingBook.expansion != null) {
+                try {
+                    corruptZips = talkingBook.expansion.get();
+                } catch (ExecutionException e) {
+                    Throwables.propagateIfPossible(e.getCause(), Exception.class);
+                    throw e;
+                }
+            } else {
+                corruptZips = expandSyncZips(tree, talkingBook);
+            }
+            if (prefetcher != null) {
+                prefetcher.done(talkingBook);
+            }
+
+            reportCorruptZips(talkingBook, corruptZips);
+            index().setSyncDirs(talkingBook, scanSyncDirs(talkingBook));
         }
 
-        for (File syncDir : talkingBookDir.listFiles((FileFilter) DirectoryFileFilter.DIRECTORY)) {
-            SyncDirId syncDirId = SyncDirId.parseSyncDir(deploymentId, syncDir.getName().trim());
+        if (prefetcher != null) {
+            prefetcher.prefetchAfter(talkingBook);
+        }
+        return talkingBook.syncDirs;
+    }
+
+    private void reportCorruptZips(ArchiveIndex.TalkingBook talkingBook, List<File> corruptZips) {
+        for (File syncZip : corruptZips) {
+            result.addCorruptedTalkingBookZip(talkingBook.project, talkingBook.deployment.deploymentPerDevice.device,
+                                              talkingBook.deployment.deploymentId.id, talkingBook.village,
+                                              talkingBook.dir.getName(), syncZip.getName());
+        }
+    }
+
+    /**
+     * @return the sync dirs of a Talking Book whose zips have been expanded.
+     */
+    private List<ArchiveIndex.SyncDir> scanSyncDirs(ArchiveIndex.TalkingBook talkingBook) {
+        List<ArchiveIndex.SyncDir> syncDirs = new ArrayList<>();
+        for (File syncDir : tree.listDirectories(talkingBook.dir)) {
+            SyncDirId syncDirId = SyncDirId.parseSyncDir(talkingBook.deployment.deploymentId,
+                                                         syncDir.getName().trim());
             if (syncDirId.dateTime != null) {
-                if (format == DirectoryFormat.Archive && syncDirId.version == 1 && strict) {
-                    throw new IllegalArgumentException(
-                            "Directory structure is the newer 'Archive' structure, but the sync directory is using the old format : "
-                                    + syncDir.getName());
+                syncDirs.add(ArchiveIndex.SyncDir.scan(tree, syncDirId, syncDir));
+            }
+        }
+        return syncDirs;
+    }
+
+    /**
+     * @return the index of the package, from the context if it has already been built for this iterator's
+     * arguments, otherwise built now and left in the context.
+     */
+    private ArchiveIndex index() throws Exception {
+        if (index == null) {
+            ArchiveIndex cached = context.getArchiveIndex();
+            if (cached != null && cached.isFor(root, requestedFormat, strict)) {
+                index = cached;
+            } else {
+                index = buildIndex();
+                context.setArchiveIndex(index);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Walks the package once, finding the format and manifest of each of its roots, and indexing what is in
+     * them.  The sync dir zips are left for when their Talking Books are iterated over.
+     * <p/>
+     * If a root can't be indexed, because its manifest can't be read or it doesn't have one when one is
+     * required, the roots after it are not looked at.  The error is kept in the index, and thrown when the
+     * root is processed, after the roots before it have been.
+     */
+    private ArchiveIndex buildIndex() {
+        ArchiveIndex index = new ArchiveIndex(root, requestedFormat, strict);
+        DirectoryFormat format = requestedFormat;
+        for (File currRoot : rootInFunnyZip(tree, root)) {
+            try {
+                StatsPackageManifest manifest = null;
+                File manifestFile = getManifestFile(currRoot);
+                if (tree.exists(manifestFile)) {
+                    manifest = readManifestFile(tree, manifestFile, format, strict);
+                    format = DirectoryFormat.fromVersion(manifest.formatVersion);
+                } else if (format == null) {
+                    if (strict) {
+                        throw new IllegalArgumentException(
+                                "No Manifest is set, and no directory format is set.");
+                    }
+
+                    format = DirectoryFormat.Sync;
+                }
+                index.add(indexProject(index, currRoot, format, manifest));
+            } catch (Exception e) {
+                ArchiveIndex.Project failed = new ArchiveIndex.Project(currRoot, format, null, false);
+                failed.failure = e;
+                index.add(failed);
+                break;
+            }
+        }
+        return index;
+    }
+
+    private ArchiveIndex.Project indexProject(ArchiveIndex index, File root, DirectoryFormat format,
+                                              @Nullable StatsPackageManifest manifest) throws IOException {
+        ArchiveIndex.Project project = new ArchiveIndex.Project(root, format, manifest, tree.exists(root));
+        if (!project.exists) {
+            return project;
+        }
+
+        TreeSet<DeploymentPerDevice> deploymentPerDevices = loadDeviceAndDeployments(root, format);
+
+        // This code is broken in that is implicitly assumes that all entries for a given
+        // tb loader id will be returned together. It only works because there will only be
+        // data for a given tb loader in a single zip file.
+        String tbLoaderDevice = null;
+        for (DeploymentPerDevice deploymentPerDevice : deploymentPerDevices) {
+            if (!deploymentPerDevice.device.equalsIgnoreCase(tbLoaderDevice)) {
+                tbLoaderDevice = deploymentPerDevice.device;
+                project.operationalData.add(new ArchiveIndex.DeviceOperationalData(
+                        tbLoaderDevice, format != DirectoryFormat.Sync,
+                        indexTbDataFiles(root, tbLoaderDevice, format)));
+            }
+        }
+
+        for (DeploymentPerDevice deploymentPerDevice : deploymentPerDevices) {
+            DeploymentId deploymentId = DeploymentId.parseContentUpdate(deploymentPerDevice.deployment);
+            ArchiveIndex.Deployment deployment = new ArchiveIndex.Deployment(
+                    deploymentPerDevice, deploymentId, deploymentPerDevice.getRoot(tree, root, format));
+            for (File villageDir : tree.listDirectories(deployment.dir)) {
+                ArchiveIndex.Village village = new ArchiveIndex.Village(villageDir);
+                for (File talkingBookDir : tree.listDirectories(villageDir)) {
+                    index.add(village, new ArchiveIndex.TalkingBook(
+                            talkingBookDir, root.getName(), deployment, villageDir.getName(),
+                            ArchiveIndex.IndexedFile.of(tree, tree.listFiles(talkingBookDir, SYNC_ZIP_FILTER))));
                 }
+                deployment.villages.add(village);
+            }
+            project.deployments.add(deployment);
+        }
+        return project;
+    }
+
+    /**
+     * @return the tbData files of a device, or null if it has no tbData directory.
+     */
+    private List<ArchiveIndex.IndexedFile> indexTbDataFiles(File root, String device, DirectoryFormat format) {
+        File tbdataDir = getTbDataDir(tree, root, device, format);
+        if (!tree.exists(tbdataDir)) {
+            return null;
+        }
+
+        List<File> tbDataFiles = new ArrayList<>();
+        if (format == DirectoryFormat.Sync) {
+            addAll(tbDataFiles, tree.list(tbdataDir, TBDATA_FILTER));
+        }
+        addAll(tbDataFiles, tree.list(tbdataDir, TBDATA_V2_FILTER));
+        return ArchiveIndex.IndexedFile.of(tree, tbDataFiles.toArray(new File[tbDataFiles.size()]));
+    }
 
-                callbacks.processSyncDir(syncDirId, syncDir);
+    private static void addAll(List<File> files, @Nullable File[] toAdd) {
+        if (toAdd != null) {
+            Collections.addAll(files, toAdd);
+        }
+    }
+
+    /**
+     * Expands the sync dir zips of a Talking Book, deleting them once they have been.
+     *
+     * @return the zips that were corrupt.
+     */
+    static List<File> expandSyncZips(FileTree tree, ArchiveIndex.TalkingBook talkingBook) throws IOException {
+        List<File> corruptZips = new ArrayList<>();
+        for (ArchiveIndex.IndexedFile syncZip : talkingBook.syncZips) {
+            try {
+                tree.expandZip(syncZip.file);
+            } catch (ZipException e) {
+                corruptZips.add(syncZip.file);
+                logger.error("Couldn't unzip synchdir " + syncZip.file.getName() + "(" + e.getMessage() + ")");
             }
+            tree.delete(syncZip.file);
         }
+        return corruptZips;
     }
 
-    private TreeSet<DeploymentPerDevice> loadDeviceAndDeployments(final File root) {
+    private TreeSet<DeploymentPerDevice> loadDeviceAndDeployments(final File root, DirectoryFormat format) {
 
         TreeSet<DeploymentPerDevice> retVal = new TreeSet<DeploymentPerDevice>(DeploymentPerDevice.ORDER_BY_DEVICE);
 
         if (format == DirectoryFormat.Sync) {
-            for (File candidateDevice : root.listFiles((FileFilter) DirectoryFileFilter.DIRECTORY)) {
+            for (File candidateDevice : tree.listDirectories(root)) {
                 File collectedData = new File(candidateDevice, UPDATE_ROOT_V1);
-                if (collectedData.exists() && collectedData.isDirectory()) {
-                    for (File deploymentDir : collectedData.listFiles((FileFilter) DirectoryFileFilter.DIRECTORY)) {
+                if (tree.isDirectory(collectedData)) {
+                    for (File deploymentDir : tree.listDirectories(collectedData)) {
                         if (UPDATE_PATTERN.matcher(deploymentDir.getName()).matches()) {
                             retVal.add(new DeploymentPerDevice(deploymentDir.getName(),
                                                                candidateDevice.getName()));
@@ -485,11 +814,11 @@ public class DirectoryIterator {
                 }
             }
         } else {
-            File talkingBookData = FsUtils.FileIgnoreCase(root, TALKING_BOOK_ROOT_V2);
-            if (talkingBookData.exists()) {  // in some cases, there may just be an OperationalData dir but no TalkingBookData
-                for (File deploymentDir : talkingBookData.listFiles((FileFilter) DirectoryFileFilter.DIRECTORY)) {
-                    if (UPDATE_PATTERN.matcher(deploymentDir.getName()).matches() || deploymentDir.getName().equalsIgnoreCase("UNKNOWN")) {
-                        for (File device : deploymentDir.listFiles((FileFilter) DirectoryFileFilter.DIRECTORY)) {
+            File talkingBookData = tree.fileIgnoreCase(root, TALKING_BOOK_ROOT_V2);
+            if (tree.exists(talkingBookData)) {  // in some cases, there may just be an OperationalData dir but no TalkingBookData
+                for (File deploymentDir : tree.listDirectories(talkingBookData)) {
+                    if (isDeploymentDir(deploymentDir.getName())) {
+                        for (File device : tree.listDirectories(deploymentDir)) {
                             retVal.add(new DeploymentPerDevice(deploymentDir.getName(), device.getName()));
                         }
                     }
@@ -505,13 +834,13 @@ public class DirectoryIterator {
         // Only this "format" of TB data has the operational logs.
         if (format == DirectoryFormat.Archive) {
             // See if OperationalData directory exists.
-            File operationalData = FsUtils.FileIgnoreCase(root, DEVICE_OPERATIONS_DIR_ARCHIVE_V2);
-            if (operationalData.exists() && operationalData.isDirectory()) {
+            File operationalData = tree.fileIgnoreCase(root, DEVICE_OPERATIONS_DIR_ARCHIVE_V2);
+            if (tree.isDirectory(operationalData)) {
                 // Enumerate the device sub-dirs.
-                for (File device : operationalData.listFiles()) {
-                    File tbDataDir = FsUtils.FileIgnoreCase(device, TBDATA_DIR_V2);
+                for (File device : tree.list(operationalData, null)) {
+                    File tbDataDir = tree.fileIgnoreCase(device, TBDATA_DIR_V2);
                     // If those are directories, look for any log files.
-                    if (tbDataDir.exists() && tbDataDir.isDirectory()) {
+                    if (tree.isDirectory(tbDataDir)) {
                         try {
                             int count = context.appendOperationalLogs(tbDataDir);
                             result.addOperationalLogsAppended(root.getName(), device.getName(), count);
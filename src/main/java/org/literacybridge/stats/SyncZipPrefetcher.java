@@ -0,0 +1,125 @@
+package org.literacybridge.stats;
+
+import org.literacybridge.utils.FileTree;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expands the sync dir zips of the next few Talking Books in the background, while the DirectoryIterator's
+ * callbacks are busy with the current one.
+ * <p/>
+ * At most {@code lookahead} Talking Books past the current one are expanded ahead, and no more are started once
+ * the zips of those that have been started but not yet used add up to {@code maxBytes}.  The expanded
+ * directories take more space than that on disk, but in proportion to it.
+ */
+final class SyncZipPrefetcher implements Closeable {
+
+  private final FileTree                       tree;
+  private final List<ArchiveIndex.TalkingBook> talkingBooks;
+  private final int                            lookahead;
+  private final long                           maxBytes;
+  private final ExecutorService                pool;
+
+  // Started here, and not yet done with.  Only touched on the iterating thread.
+  private final Set<ArchiveIndex.TalkingBook> outstanding = new HashSet<>();
+  private long outstandingBytes;
+  // Everything started here, for close() to check on.
+  private final List<ArchiveIndex.TalkingBook> started = new ArrayList<>();
+
+  SyncZipPrefetcher(FileTree tree, ArchiveIndex index, int lookahead, long maxBytes) {
+    this.tree = tree;
+    this.talkingBooks = index.getTalkingBooks();
+    this.lookahead = lookahead;
+    this.maxBytes = maxBytes;
+    this.pool = Executors.newFixedThreadPool(Math.min(lookahead, Runtime.getRuntime().availableProcessors()));
+  }
+
+  /**
+   * Starts expanding the zips of the Talking Books after this one, as far as the lookahead and budget allow.
+   */
+  void prefetchAfter(ArchiveIndex.TalkingBook current) {
+    int last = Math.min(talkingBooks.size() - 1, current.position + lookahead);
+    for (int i = current.position + 1; i <= last; i++) {
+      final ArchiveIndex.TalkingBook next = talkingBooks.get(i);
+      if (next.syncDirs != null || next.expansion != null || next.syncZips.isEmpty()) {
+        continue;
+      }
+
+      long bytes = next.getSyncZipBytes();
+      if (!outstanding.isEmpty() && outstandingBytes + bytes > maxBytes) {
+        break;
+      }
+      outstanding.add(next);
+      outstandingBytes += bytes;
+      started.add(next);
+      next.expansion = pool.submit(new Callable<List<File>>() {
+        @Override
+        public List<File> call() throws Exception {
+          return DirectoryIterator.expandSyncZips(tree, next);
+        }
+      });
+    }
+  }
+
+  /**
+   * Called once the iterator is done with a Talking Book, whether its expanded zips were used or the callbacks
+   * skipped it, to free up its part of the budget.
+   */
+  void done(ArchiveIndex.TalkingBook talkingBook) {
+    if (outstanding.remove(talkingBook)) {
+      outstandingBytes -= talkingBook.getSyncZipBytes();
+    }
+  }
+
+  /**
+   * Stops the expansions, and waits for those that are running to stop, so nothing writes to the tree once this
+   * returns.  Those that finished are used whenever their Talking Book is next iterated over; the others are
+   * left for the zips to be expanded then.
+   */
+  @Override
+  public void close() {
+    pool.shutdownNow();
+    try {
+      while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+        // Expanding a zip doesn't check for interrupts, so wait for the one in progress to finish.
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    for (ArchiveIndex.TalkingBook talkingBook : started) {
+      if (talkingBook.syncDirs == null && !expanded(talkingBook.expansion)) {
+        talkingBook.expansion = null;
+      }
+    }
+    started.clear();
+    outstanding.clear();
+    outstandingBytes = 0;
+  }
+
+  /**
+   * @return whether an expansion ran to the end, rather than never starting or being stopped part way.
+   */
+  private static boolean expanded(Future<List<File>> expansion) {
+    if (expansion == null || !expansion.isDone() || expansion.isCancelled()) {
+      return false;
+    }
+    try {
+      expansion.get();
+      return true;
+    } catch (InterruptedException | ExecutionException e) {
+      return false;
+    }
+  }
+}
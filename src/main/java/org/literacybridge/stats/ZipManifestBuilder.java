@@ -0,0 +1,158 @@
+package org.literacybridge.stats;
+
+import org.joda.time.LocalDateTime;
+import org.literacybridge.stats.model.DeploymentId;
+import org.literacybridge.stats.model.DirectoryFormat;
+import org.literacybridge.stats.model.StatsPackageManifest;
+import org.literacybridge.stats.model.SyncDirId;
+import org.literacybridge.stats.processors.ManifestCreationCallbacks;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Builds the manifests of the projects in an Archive format update package from the names of the entries in its
+ * zip, without expanding it.  The earliest and latest sync of each device are found from the entries under
+ * {@code <project>/TalkingBookData/<deployment>/<device>/<village>/<tb>/<syncdir>}, and for the sync dir zips in
+ * a Talking Book, from the name of the zip, which is the name of the sync dir in it (see FileTree.expandZip).
+ * <p/>
+ * The result is the manifest a {@link ManifestCreationCallbacks} would have generated by iterating over the
+ * expanded package, without the walk.
+ */
+public final class ZipManifestBuilder {
+
+  private static final String SYNC_ZIP_SUFFIX = ".zip";
+
+  /**
+   * The earliest and latest syncs of the devices in one project.
+   */
+  private static final class SyncTimes {
+    final Map<String, LocalDateTime> earliestSyncs = new HashMap<>();
+    final Map<String, LocalDateTime> latestSyncs   = new HashMap<>();
+
+    void add(String device, LocalDateTime dateTime) {
+      LocalDateTime latestSync = latestSyncs.get(device);
+      if (latestSync == null || dateTime.isAfter(latestSync)) {
+        latestSyncs.put(device, dateTime);
+      }
+
+      LocalDateTime earliestSync = earliestSyncs.get(device);
+      if (earliestSync == null || dateTime.isBefore(earliestSync)) {
+        earliestSyncs.put(device, dateTime);
+      }
+    }
+  }
+
+  private final File                   expandedDir;
+  // By the path of the project in the zip, "" for the root of the zip.
+  private final Map<String, SyncTimes> projects = new HashMap<>();
+
+  /**
+   * @param expandedDir where the zip is, or will be, expanded to, which the project roots are under.
+   */
+  public ZipManifestBuilder(File expandedDir) {
+    this.expandedDir = expandedDir;
+  }
+
+  /**
+   * Reads the entries of a zip, from its central directory.
+   */
+  public static ZipManifestBuilder fromZip(File zip, File expandedDir) throws IOException {
+    ZipManifestBuilder builder = new ZipManifestBuilder(expandedDir);
+    try (ZipFile zipFile = new ZipFile(zip)) {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        builder.addEntry(entries.nextElement().getName());
+      }
+    }
+    return builder;
+  }
+
+  /**
+   * Adds the sync dir an entry is in, if it is in one.
+   *
+   * @param name the name of the entry, with '/' separated path elements.
+   */
+  public void addEntry(String name) {
+    String[] path = name.split("/");
+    boolean isDirectory = name.endsWith("/");
+
+    int talkingBookData = 0;
+    while (talkingBookData < path.length
+           && !path[talkingBookData].equalsIgnoreCase(DirectoryIterator.TALKING_BOOK_ROOT_V2)) {
+      talkingBookData++;
+    }
+
+    // TalkingBookData/<deployment>/<device>/<village>/<tb>/<syncdir>
+    int syncDirIndex = talkingBookData + 5;
+    if (syncDirIndex >= path.length) {
+      return;
+    }
+    String deployment = path[talkingBookData + 1];
+    if (!DirectoryIterator.isDeploymentDir(deployment)) {
+      return;
+    }
+
+    String syncDirName = path[syncDirIndex];
+    if (syncDirIndex == path.length - 1 && !isDirectory) {
+      // A file in the Talking Book; only a sync dir zip stands for a sync dir.
+      if (!syncDirName.endsWith(SYNC_ZIP_SUFFIX)) {
+        return;
+      }
+      syncDirName = syncDirName.substring(0, syncDirName.length() - SYNC_ZIP_SUFFIX.length());
+    }
+
+    SyncDirId syncDirId = SyncDirId.parseSyncDir(DeploymentId.parseContentUpdate(deployment), syncDirName.trim());
+    if (syncDirId.dateTime == null) {
+      return;
+    }
+
+    StringBuilder project = new StringBuilder();
+    for (int i = 0; i < talkingBookData; i++) {
+      if (i > 0) {
+        project.append('/');
+      }
+      project.append(path[i]);
+    }
+    SyncTimes syncTimes = projects.get(project.toString());
+    if (syncTimes == null) {
+      syncTimes = new SyncTimes();
+      projects.put(project.toString(), syncTimes);
+    }
+    syncTimes.add(path[talkingBookData + 2], syncDirId.dateTime);
+  }
+
+  /**
+   * @return the manifest of the project at root, or null if it can't be built from the zip: the project isn't
+   * under the expanded dir, or isn't in the Archive format.
+   */
+  @Nullable
+  public StatsPackageManifest manifestFor(File root, DirectoryFormat format) {
+    if (format != DirectoryFormat.Archive) {
+      return null;
+    }
+
+    String project;
+    String expandedPath = expandedDir.getAbsolutePath();
+    String rootPath = root.getAbsolutePath();
+    if (rootPath.equals(expandedPath)) {
+      project = "";
+    } else if (rootPath.startsWith(expandedPath + File.separator)) {
+      project = rootPath.substring(expandedPath.length() + 1).replace(File.separatorChar, '/');
+    } else {
+      return null;
+    }
+
+    SyncTimes syncTimes = projects.get(project);
+    if (syncTimes == null) {
+      syncTimes = new SyncTimes();
+    }
+    return ManifestCreationCallbacks.toManifest(format, syncTimes.earliestSyncs, syncTimes.latestSyncs);
+  }
+}
@@ -0,0 +1,19 @@
+package org.literacybridge.stats.api;
+
+import org.literacybridge.stats.formats.logFile.EventBatch;
+
+/**
+ * Optional extension of {@link TalkingBookDataProcessor} for processors that would rather get the events of a log
+ * file a few thousand at a time than one callback at a time.  For a processor that implements this, the log file
+ * parser calls onEventBatch instead of any of the per-event log callbacks (onPlay through onSlower, and the int
+ * versions in {@link ContentIdProcessor}).  onLogFileStart and onLogFileEnd are still called around the batches
+ * of each file.
+ * <p/>
+ * Processors that don't implement this get the same events one callback at a time, through
+ * {@link EventBatch#replay(TalkingBookDataProcessor)}.
+ */
+public interface BatchTalkingBookDataProcessor extends TalkingBookDataProcessor {
+
+  // The batch is reused by the parser once this returns.  Call copy() on it to keep it.
+  void onEventBatch(EventBatch batch);
+}
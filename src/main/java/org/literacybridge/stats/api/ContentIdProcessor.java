@@ -0,0 +1,31 @@
+package org.literacybridge.stats.api;
+
+import org.literacybridge.stats.formats.logFile.ContentIdDictionary;
+import org.literacybridge.stats.formats.logFile.LogLineContext;
+
+/**
+ * Optional extension of {@link TalkingBookDataProcessor} for processors that would rather get content IDs as
+ * ints from the import's {@link ContentIdDictionary} than as Strings.  For a processor that implements this, the
+ * log file parser calls these instead of the String versions of the same callbacks (never both).  The String for
+ * an ID can be had from {@code context.getContentIds().get(contentId)}.
+ *
+ * @see org.literacybridge.dashboard.processors.AbstractLogProcessor for an implementation that turns these back
+ * into the String callbacks.
+ */
+public interface ContentIdProcessor extends TalkingBookDataProcessor {
+
+  void onPlay(LogLineContext context, int contentId, int volume, double voltage);
+
+  void onPlayed(LogLineContext context, int contentId, short secondsPlayed, short secondsSomething, int volume,
+                double voltage, boolean ended);
+
+  void onRecord(LogLineContext context, int contentId, int unknownNumber);
+
+  void onPause(LogLineContext context, int contentId);
+
+  void onUnPause(LogLineContext context, int contentId);
+
+  void onSurvey(LogLineContext context, int contentId);
+
+  void onSurveyCompleted(LogLineContext context, int contentId, boolean useful);
+}
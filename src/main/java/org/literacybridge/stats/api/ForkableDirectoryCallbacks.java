@@ -0,0 +1,31 @@
+package org.literacybridge.stats.api;
+
+/**
+ * DirectoryCallbacks that can process Talking Books in parallel.  When a DirectoryIterator is run with more than
+ * one traversal thread, it forks the callbacks for each Talking Book, once startVillage has been called for the
+ * Talking Book's village, and runs the Talking Book on a pool thread against the fork:
+ * <p/>
+ * startTalkingBook, processSyncDir for each sync dir, then endTalkingBook.
+ * <p/>
+ * Forks are joined back on the iterating thread, in the order the Talking Books would have been processed in,
+ * and all of a project's forks are joined before its endProcessing is called.  So a processor that does the
+ * same in join as it would have done while processing the Talking Book gives the same results either way.
+ */
+public interface ForkableDirectoryCallbacks extends DirectoryCallbacks {
+
+  /**
+   * Creates the callbacks for one Talking Book.  The fork has the same root, manifest, format, device,
+   * deployment and village as this one has now, which it keeps, and is only used by the thread it is handed to.
+   * It must not change anything that this, or other forks, use.
+   *
+   * @return the callbacks for the Talking Book.
+   */
+  DirectoryCallbacks fork();
+
+  /**
+   * Merges what a fork made of its Talking Book into this one: its results, errors, aggregates and events.
+   *
+   * @param fork a fork of this, whose Talking Book has been processed.
+   */
+  void join(DirectoryCallbacks fork) throws Exception;
+}
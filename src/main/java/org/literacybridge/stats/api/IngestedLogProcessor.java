@@ -0,0 +1,17 @@
+package org.literacybridge.stats.api;
+
+/**
+ * Optional extension of {@link TalkingBookDataProcessor} for processors that write something out for each log
+ * event.  An archived log that an earlier import already ingested is still parsed, and its events still go to every
+ * processor, so that totals over a Talking Book's or a sync's logs are whole.  But what was written out for each of
+ * its events was written out then, so a processor that implements this can leave that be.
+ */
+public interface IngestedLogProcessor extends TalkingBookDataProcessor {
+
+  /**
+   * Called before onLogFileStart, for every log file.
+   *
+   * @param alreadyIngested whether the events of the file were already written out by an earlier import.
+   */
+  void onLogFileChecked(boolean alreadyIngested);
+}
@@ -0,0 +1,23 @@
+package org.literacybridge.stats.api;
+
+import java.io.IOException;
+
+/**
+ * Remembers the archived log files that have been ingested, by Talking Book and the SHA-256 of their contents.  A
+ * Talking Book carries its log-archive forward, so the same archived log turns up again in each of its later syncs,
+ * and in later uploads; once it has been ingested, its events needn't be written out again.
+ * <p/>
+ * Logs marked as ingested count as ingested straight away, but are only remembered beyond this import once
+ * {@link #commit()} is called, after the import has succeeded.  Implementations must be thread safe.
+ */
+public interface IngestedLogRegistry {
+
+  boolean isIngested(String talkingBook, String sha256) throws IOException;
+
+  void markIngested(String talkingBook, String sha256);
+
+  /**
+   * Remembers the logs marked as ingested since the last commit.
+   */
+  void commit() throws IOException;
+}
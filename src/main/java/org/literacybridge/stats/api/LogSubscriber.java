@@ -0,0 +1,16 @@
+package org.literacybridge.stats.api;
+
+import org.literacybridge.stats.formats.logFile.LogSubscription;
+
+/**
+ * Optional extension of {@link TalkingBookDataProcessor} for processors that only use some of the log events.
+ * A log file parser works out what all of its processors subscribe to when it is created, and skips decoding
+ * and raising everything else.  Processors that don't implement this are taken to want everything.
+ * <p/>
+ * A processor can still get events it didn't subscribe to, if another processor of the same parser wants them.
+ */
+public interface LogSubscriber extends TalkingBookDataProcessor {
+
+  // Called once, when the parser is created.
+  LogSubscription getLogSubscription();
+}
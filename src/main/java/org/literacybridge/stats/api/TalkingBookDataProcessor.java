@@ -24,6 +24,8 @@ public interface TalkingBookDataProcessor {
   void onSyncProcessingEnd(SyncProcessingContext context);
 
   //+++++++++++++++Processing Log Files ++++++++++++++++++//
+  // The LogLineContext passed to these is reused by the parser for the next line.  Call snapshot() on it
+  // to keep it past the callback.
   void onPlay(LogLineContext context, String contentId, int volume, double voltage);
 
   void onPlayed(LogLineContext context, String contentId, short secondsPlayed, short secondsSomething, int volume,
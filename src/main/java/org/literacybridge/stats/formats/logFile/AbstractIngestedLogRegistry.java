@@ -0,0 +1,99 @@
+package org.literacybridge.stats.formats.logFile;
+
+import com.google.common.collect.Sets;
+import org.literacybridge.stats.api.IngestedLogRegistry;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An IngestedLogRegistry that loads what is remembered about a Talking Book the first time it is asked about, and
+ * keeps the logs marked since the last commit for the store to persist.
+ */
+public abstract class AbstractIngestedLogRegistry implements IngestedLogRegistry {
+
+  // By Talking Book, the hashes of the logs the store remembers, and of those marked since the last commit.
+  private final ConcurrentMap<String, Set<String>> stored  = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Set<String>> pending = new ConcurrentHashMap<>();
+  private volatile boolean reingest = false;
+
+  /**
+   * Whether the logs the store remembers count as not yet ingested, for a forced re-import, which writes out all
+   * their events again.  Logs marked since are still ingested, and are remembered again on commit.
+   */
+  public void setReingest(boolean reingest) {
+    this.reingest = reingest;
+  }
+
+  /**
+   * @return the hashes of the logs of a Talking Book that the store remembers.
+   */
+  protected abstract Set<String> load(String talkingBook) throws IOException;
+
+  /**
+   * Stores the hashes of newly ingested logs, by Talking Book.
+   */
+  protected abstract void persist(Map<String, Set<String>> logs) throws IOException;
+
+  @Override
+  public boolean isIngested(String talkingBook, String sha256) throws IOException {
+    Set<String> marked = pending.get(talkingBook);
+    return (marked != null && marked.contains(sha256)) || (!reingest && stored(talkingBook).contains(sha256));
+  }
+
+  @Override
+  public void markIngested(String talkingBook, String sha256) {
+    Set<String> hashes = stored.get(talkingBook);
+    if (reingest || hashes == null || !hashes.contains(sha256)) {
+      concurrentSet(pending, talkingBook).add(sha256);
+    }
+  }
+
+  @Override
+  public synchronized void commit() throws IOException {
+    Map<String, Set<String>> logs = new HashMap<>();
+    for (Map.Entry<String, Set<String>> entry : pending.entrySet()) {
+      if (!entry.getValue().isEmpty()) {
+        logs.put(entry.getKey(), new HashSet<>(entry.getValue()));
+      }
+    }
+    if (logs.isEmpty()) {
+      return;
+    }
+    persist(logs);
+    for (Map.Entry<String, Set<String>> entry : logs.entrySet()) {
+      Set<String> hashes = stored.get(entry.getKey());
+      if (hashes != null) {
+        hashes.addAll(entry.getValue());
+      }
+      pending.get(entry.getKey()).removeAll(entry.getValue());
+    }
+  }
+
+  private Set<String> stored(String talkingBook) throws IOException {
+    Set<String> hashes = stored.get(talkingBook);
+    if (hashes == null) {
+      Set<String> loaded = load(talkingBook);
+      hashes = concurrentSet(stored, talkingBook);
+      hashes.addAll(loaded);
+    }
+    return hashes;
+  }
+
+  private static Set<String> concurrentSet(ConcurrentMap<String, Set<String>> sets, String talkingBook) {
+    Set<String> set = sets.get(talkingBook);
+    if (set == null) {
+      Set<String> created = Sets.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+      set = sets.putIfAbsent(talkingBook, created);
+      if (set == null) {
+        set = created;
+      }
+    }
+    return set;
+  }
+}
@@ -0,0 +1,55 @@
+package org.literacybridge.stats.formats.logFile;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A CharSequence view of one line of a log file that is still sitting in a ByteBuffer.  Talking Book logs
+ * are plain ASCII, so a byte is a char, and nothing has to be decoded or copied until somebody asks for
+ * a piece of the line as a String (e.g. a content ID that is passed on to a callback).
+ * <p/>
+ * Only use this for lines that are known to be 7-bit ASCII; anything else has to go through a real
+ * decoder to get the same result as reading the file through an InputStreamReader.
+ * <p/>
+ * The instance is reused for every line of a file, so it must not be kept past the line it was set to.
+ */
+final class ByteLine implements CharSequence {
+
+  private ByteBuffer buffer;
+  private int        start;
+  private int        length;
+
+  ByteLine set(ByteBuffer buffer, int start, int end) {
+    this.buffer = buffer;
+    this.start = start;
+    this.length = end - start;
+    return this;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    return (char) (buffer.get(start + index) & 0xff);
+  }
+
+  /**
+   * Unlike most CharSequences, this copies the bytes out, since the buffer is about to move on to the
+   * next line.
+   */
+  @Override
+  public CharSequence subSequence(int from, int to) {
+    final char[] chars = new char[to - from];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = charAt(from + i);
+    }
+    return new String(chars);
+  }
+
+  @Override
+  public String toString() {
+    return subSequence(0, length).toString();
+  }
+}
@@ -0,0 +1,166 @@
+package org.literacybridge.stats.formats.logFile;
+
+import java.util.Arrays;
+
+/**
+ * Gives every distinct content ID seen during an import a small int, starting at 0.  The same handful of content
+ * IDs show up on millions of PLAY/PLAYED/survey lines, so rather than cutting a new String out of every line (and
+ * hashing and comparing it again in every aggregation), the parser looks the ID up here straight from the
+ * characters of the line and hands the int to processors that implement
+ * {@link org.literacybridge.stats.api.ContentIdProcessor}.  The String for an ID is only needed where it is
+ * written out, and then it is always the same instance.
+ * <p/>
+ * The empty string, which is what the parser reports as the last content played before anything has been played,
+ * is always ID {@link #EMPTY}.
+ * <p/>
+ * One dictionary is shared by all the parsers of an import, which may be on different threads, so this is thread
+ * safe.  Looking up an ID that is already there takes no lock: the table is never changed once it has been
+ * published, and adding an ID publishes a new copy of it.  New IDs are rare after the first few lines, so the
+ * copying costs much less than locking every lookup would.  (A ConcurrentHashMap would need a String to look
+ * up, which is what this is here to avoid making.)
+ */
+public final class ContentIdDictionary {
+
+  public static final int EMPTY = 0;
+
+  private static final int INITIAL_CAPACITY = 256;
+
+  private volatile Table table = new Table(new int[INITIAL_CAPACITY * 2], new int[0], new String[0]);
+
+  public ContentIdDictionary() {
+    idOf("");
+  }
+
+  /**
+   * @return the ID of the content ID, adding it if this is the first time it has been seen.
+   */
+  public int idOf(String contentId) {
+    return idOf(contentId, 0, contentId.length());
+  }
+
+  /**
+   * Same as {@code idOf(chars.subSequence(start, end).toString())}, but only makes a String the first time the
+   * content ID is seen.
+   */
+  public int idOf(CharSequence chars, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + chars.charAt(i);
+    }
+
+    final int id = table.find(hash, chars, start, end);
+    return id >= 0 ? id : add(hash, chars, start, end);
+  }
+
+  /**
+   * @return the content ID for an ID handed out by this dictionary.
+   */
+  public String get(int id) {
+    final String[] strings = table.contentIds;
+    if (id < 0 || id >= strings.length) {
+      throw new IllegalArgumentException("Unknown content ID index " + id);
+    }
+    return strings[id];
+  }
+
+  public int size() {
+    return table.contentIds.length;
+  }
+
+  private synchronized int add(int hash, CharSequence chars, int start, int end) {
+    final Table current = table;
+    //Another parser may have added it since it was looked up
+    final int found = current.find(hash, chars, start, end);
+    if (found >= 0) {
+      return found;
+    }
+
+    table = current.with(chars.subSequence(start, end).toString(), hash);
+    return current.contentIds.length;
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean contentEquals(String s, CharSequence chars, int start, int end) {
+    if (s.length() != end - start) {
+      return false;
+    }
+    for (int i = 0; i < s.length(); i++) {
+      if (s.charAt(i) != chars.charAt(start + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The IDs, in an open addressed hash table of (ID + 1), with 0 for an empty slot.  Never changed once published.
+   */
+  private static final class Table {
+    //Its length is a power of two, at least twice the number of IDs.
+    final int[]    slots;
+    final int[]    hashes;
+    final String[] contentIds;
+
+    Table(int[] slots, int[] hashes, String[] contentIds) {
+      this.slots = slots;
+      this.hashes = hashes;
+      this.contentIds = contentIds;
+    }
+
+    /**
+     * @return the ID of the content ID, or -1 if it isn't in the table.
+     */
+    int find(int hash, CharSequence chars, int start, int end) {
+      final int mask = slots.length - 1;
+      int slot = spread(hash) & mask;
+      for (int entry = slots[slot]; entry != 0; entry = slots[slot]) {
+        final int id = entry - 1;
+        if (hashes[id] == hash && contentEquals(contentIds[id], chars, start, end)) {
+          return id;
+        }
+        slot = (slot + 1) & mask;
+      }
+      return -1;
+    }
+
+    /**
+     * @return a copy of this table with one more content ID, which gets the next ID.
+     */
+    Table with(String contentId, int hash) {
+      final int id = contentIds.length;
+      final int[] newHashes = Arrays.copyOf(hashes, id + 1);
+      final String[] newContentIds = Arrays.copyOf(contentIds, id + 1);
+      newHashes[id] = hash;
+      newContentIds[id] = contentId;
+
+      //Keep the table at most half full
+      int length = slots.length;
+      while ((id + 1) * 2 > length) {
+        length *= 2;
+      }
+      final int[] newSlots;
+      if (length == slots.length) {
+        newSlots = slots.clone();
+        insert(newSlots, newHashes, id);
+      } else {
+        newSlots = new int[length];
+        for (int i = 0; i <= id; i++) {
+          insert(newSlots, newHashes, i);
+        }
+      }
+      return new Table(newSlots, newHashes, newContentIds);
+    }
+
+    private static void insert(int[] slots, int[] hashes, int id) {
+      final int mask = slots.length - 1;
+      int slot = spread(hashes[id]) & mask;
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = id + 1;
+    }
+  }
+}
@@ -0,0 +1,374 @@
+package org.literacybridge.stats.formats.logFile;
+
+import org.literacybridge.stats.api.BatchTalkingBookDataProcessor;
+import org.literacybridge.stats.api.ContentIdProcessor;
+import org.literacybridge.stats.api.TalkingBookDataProcessor;
+import org.literacybridge.stats.model.SyncProcessingContext;
+
+import java.util.Arrays;
+
+/**
+ * The events from some of the lines of one log file, stored column by column: the event at index i is made up of
+ * types[i], actions[i], contentIds[i] and so on, for i from 0 to size() - 1.  A LogFileParser fills one of these
+ * and hands it to the {@link BatchTalkingBookDataProcessor}s every few thousand events, so that they can work
+ * through a loop over plain arrays rather than taking a callback per event.
+ * <p/>
+ * Which of the event columns mean something depends on the type:
+ * <table>
+ * <tr><th>type</th><th>contentIds</th><th>seconds</th><th>totalSeconds</th><th>volumes</th><th>voltages</th>
+ * <th>flags</th></tr>
+ * <tr><td>PLAY</td><td>content</td><td/><td/><td>volume</td><td>voltage</td><td/></tr>
+ * <tr><td>PLAYED</td><td>content</td><td>seconds played</td><td>content length</td><td>volume</td>
+ * <td>voltage</td><td>ended</td></tr>
+ * <tr><td>RECORD</td><td>content</td><td>number logged after it</td><td/><td/><td/><td/></tr>
+ * <tr><td>RECORDED</td><td/><td>seconds recorded</td><td/><td/><td/><td/></tr>
+ * <tr><td>PAUSE, UNPAUSE, SURVEY</td><td>content last played</td><td/><td/><td/><td/><td/></tr>
+ * <tr><td>SURVEY_COMPLETED</td><td>content last played</td><td/><td/><td/><td/><td>useful</td></tr>
+ * <tr><td>VOLTAGE_DROP</td><td/><td>seconds it dropped over</td><td/><td/><td>volts dropped</td><td/></tr>
+ * <tr><td>JUMP_TIME</td><td/><td>time from</td><td>time to</td><td/><td/><td/></tr>
+ * </table>
+ * CATEGORY events have their category ID in categories, and VOLTAGE_DROP events the action the drop was logged
+ * on in actions.  Both are null for every other type.
+ * <p/>
+ * The rest of the columns are the {@link LogLineContext} of each event; {@link #lineContext(int)} puts them back
+ * together.  Content IDs are ints from {@link #getContentIds()}.
+ * <p/>
+ * The columns are only to be read.  The parser reuses its batch once the processors have been called, so a
+ * processor that wants to keep one must {@link #copy()} it.
+ */
+public final class EventBatch {
+
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  public static final byte PLAY             = 0;
+  public static final byte PLAYED           = 1;
+  public static final byte CATEGORY         = 2;
+  public static final byte RECORD           = 3;
+  public static final byte RECORDED         = 4;
+  public static final byte PAUSE            = 5;
+  public static final byte UNPAUSE          = 6;
+  public static final byte SURVEY           = 7;
+  public static final byte SURVEY_COMPLETED = 8;
+  public static final byte SHUTTING_DOWN    = 9;
+  public static final byte VOLTAGE_DROP     = 10;
+  public static final byte JUMP_TIME        = 11;
+  public static final byte FASTER           = 12;
+  public static final byte SLOWER           = 13;
+
+  public final SyncProcessingContext context;
+
+  public final byte[]      types;
+  public final LogAction[] actions;
+  public final int[]       contentIds;
+  public final String[]    categories;
+  public final int[]       seconds;
+  public final int[]       totalSeconds;
+  public final int[]       volumes;
+  public final double[]    voltages;
+  public final boolean[]   flags;
+
+  public final int[]     lineNumbers;
+  public final boolean[] hasLogLineInfo;
+  public final short[]   householdRotations;
+  public final short[]   cycles;
+  public final short[]   periods;
+  public final short[]   daysOfPeriod;
+  public final int[]     secondsOfDay;
+  public final double[]  maxVolts;
+  public final double[]  steadyStateVolts;
+  public final double[]  minVolts;
+
+  private final ContentIdDictionary contentIdDictionary;
+  //Handed to the per-event callbacks by replay, and returned by lineContext.
+  private final LogLineContext      lineContext;
+
+  private String fileName;
+  private int    size;
+
+  public EventBatch(SyncProcessingContext context, ContentIdDictionary contentIds, int capacity) {
+    this.context = context;
+    this.contentIdDictionary = contentIds;
+    this.lineContext = LogLineContext.createReusable(context, contentIds);
+
+    types = new byte[capacity];
+    actions = new LogAction[capacity];
+    this.contentIds = new int[capacity];
+    categories = new String[capacity];
+    seconds = new int[capacity];
+    totalSeconds = new int[capacity];
+    volumes = new int[capacity];
+    voltages = new double[capacity];
+    flags = new boolean[capacity];
+
+    lineNumbers = new int[capacity];
+    hasLogLineInfo = new boolean[capacity];
+    householdRotations = new short[capacity];
+    cycles = new short[capacity];
+    periods = new short[capacity];
+    daysOfPeriod = new short[capacity];
+    secondsOfDay = new int[capacity];
+    maxVolts = new double[capacity];
+    steadyStateVolts = new double[capacity];
+    minVolts = new double[capacity];
+  }
+
+  /**
+   * @return a batch holding just this one's events, that this one being reused won't change.
+   */
+  public EventBatch copy() {
+    final EventBatch copy = new EventBatch(context, contentIdDictionary, size);
+    copy.fileName = fileName;
+    copy.size = size;
+
+    System.arraycopy(types, 0, copy.types, 0, size);
+    System.arraycopy(actions, 0, copy.actions, 0, size);
+    System.arraycopy(contentIds, 0, copy.contentIds, 0, size);
+    System.arraycopy(categories, 0, copy.categories, 0, size);
+    System.arraycopy(seconds, 0, copy.seconds, 0, size);
+    System.arraycopy(totalSeconds, 0, copy.totalSeconds, 0, size);
+    System.arraycopy(volumes, 0, copy.volumes, 0, size);
+    System.arraycopy(voltages, 0, copy.voltages, 0, size);
+    System.arraycopy(flags, 0, copy.flags, 0, size);
+
+    System.arraycopy(lineNumbers, 0, copy.lineNumbers, 0, size);
+    System.arraycopy(hasLogLineInfo, 0, copy.hasLogLineInfo, 0, size);
+    System.arraycopy(householdRotations, 0, copy.householdRotations, 0, size);
+    System.arraycopy(cycles, 0, copy.cycles, 0, size);
+    System.arraycopy(periods, 0, copy.periods, 0, size);
+    System.arraycopy(daysOfPeriod, 0, copy.daysOfPeriod, 0, size);
+    System.arraycopy(secondsOfDay, 0, copy.secondsOfDay, 0, size);
+    System.arraycopy(maxVolts, 0, copy.maxVolts, 0, size);
+    System.arraycopy(steadyStateVolts, 0, copy.steadyStateVolts, 0, size);
+    System.arraycopy(minVolts, 0, copy.minVolts, 0, size);
+    return copy;
+  }
+
+  /**
+   * Empties the batch, ready for the events of the given file.
+   */
+  public void reset(String fileName) {
+    this.fileName = fileName;
+    clear();
+  }
+
+  public void clear() {
+    //Don't hold on to the category Strings of earlier batches.
+    Arrays.fill(categories, 0, size, null);
+    size = 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean isFull() {
+    return size == types.length;
+  }
+
+  public String getFileName() {
+    return fileName;
+  }
+
+  /**
+   * @return the dictionary the ints in contentIds are from.
+   */
+  public ContentIdDictionary getContentIds() {
+    return contentIdDictionary;
+  }
+
+  /**
+   * @return the context of the event at index i.  This is the same object for every index, so it is only good
+   * until the next call; call snapshot() on it to keep it.
+   */
+  public LogLineContext lineContext(int i) {
+    lineContext.setPosition(fileName, lineNumbers[i]);
+    if (hasLogLineInfo[i]) {
+      lineContext.setLogLineInfo(householdRotations[i], cycles[i], periods[i], daysOfPeriod[i], secondsOfDay[i],
+        maxVolts[i], steadyStateVolts[i], minVolts[i]);
+    }
+    return lineContext;
+  }
+
+  /**
+   * Gives the events to a processor: all at once if it is a {@link BatchTalkingBookDataProcessor}, otherwise
+   * through {@link #replay(TalkingBookDataProcessor)}.
+   */
+  public void deliverTo(TalkingBookDataProcessor processor) {
+    if (processor instanceof BatchTalkingBookDataProcessor) {
+      ((BatchTalkingBookDataProcessor) processor).onEventBatch(this);
+    } else {
+      replay(processor);
+    }
+  }
+
+  /**
+   * Makes the per-event callback for each event, in order, just as the parser would have for a processor that
+   * doesn't take batches.  Content IDs go to the int callbacks of a {@link ContentIdProcessor}, and to the String
+   * ones of any other processor.
+   */
+  public void replay(TalkingBookDataProcessor processor) {
+    final ContentIdProcessor byId = processor instanceof ContentIdProcessor ? (ContentIdProcessor) processor : null;
+
+    for (int i = 0; i < size; i++) {
+      final LogLineContext context = lineContext(i);
+      switch (types[i]) {
+        case PLAY:
+          if (byId != null) {
+            byId.onPlay(context, contentIds[i], volumes[i], voltages[i]);
+          } else {
+            processor.onPlay(context, contentIdDictionary.get(contentIds[i]), volumes[i], voltages[i]);
+          }
+          break;
+        case PLAYED:
+          if (byId != null) {
+            byId.onPlayed(context, contentIds[i], (short) seconds[i], (short) totalSeconds[i], volumes[i],
+              voltages[i], flags[i]);
+          } else {
+            processor.onPlayed(context, contentIdDictionary.get(contentIds[i]), (short) seconds[i],
+              (short) totalSeconds[i], volumes[i], voltages[i], flags[i]);
+          }
+          break;
+        case CATEGORY:
+          processor.onCategory(context, categories[i]);
+          break;
+        case RECORD:
+          if (byId != null) {
+            byId.onRecord(context, contentIds[i], seconds[i]);
+          } else {
+            processor.onRecord(context, contentIdDictionary.get(contentIds[i]), seconds[i]);
+          }
+          break;
+        case RECORDED:
+          processor.onRecorded(context, seconds[i]);
+          break;
+        case PAUSE:
+          if (byId != null) {
+            byId.onPause(context, contentIds[i]);
+          } else {
+            processor.onPause(context, contentIdDictionary.get(contentIds[i]));
+          }
+          break;
+        case UNPAUSE:
+          if (byId != null) {
+            byId.onUnPause(context, contentIds[i]);
+          } else {
+            processor.onUnPause(context, contentIdDictionary.get(contentIds[i]));
+          }
+          break;
+        case SURVEY:
+          if (byId != null) {
+            byId.onSurvey(context, contentIds[i]);
+          } else {
+            processor.onSurvey(context, contentIdDictionary.get(contentIds[i]));
+          }
+          break;
+        case SURVEY_COMPLETED:
+          if (byId != null) {
+            byId.onSurveyCompleted(context, contentIds[i], flags[i]);
+          } else {
+            processor.onSurveyCompleted(context, contentIdDictionary.get(contentIds[i]), flags[i]);
+          }
+          break;
+        case SHUTTING_DOWN:
+          processor.onShuttingDown(context);
+          break;
+        case VOLTAGE_DROP:
+          processor.onVoltageDrop(context, actions[i], voltages[i], seconds[i]);
+          break;
+        case JUMP_TIME:
+          processor.onJumpTime(context, seconds[i], totalSeconds[i]);
+          break;
+        case FASTER:
+          processor.onFaster(context);
+          break;
+        case SLOWER:
+          processor.onSlower(context);
+          break;
+        default:
+          throw new IllegalStateException("Unknown event type " + types[i]);
+      }
+    }
+  }
+
+  //+++++++++++++++Filled in by the LogFileParser ++++++++++++++++++//
+
+  void addPlay(LogLineContext line, int contentId, int volume, double voltage) {
+    add(PLAY, line, null, contentId, null, 0, 0, volume, voltage, false);
+  }
+
+  void addPlayed(LogLineContext line, int contentId, short secondsPlayed, short secondsSomething,
+                 int volume, double voltage, boolean ended) {
+    add(PLAYED, line, null, contentId, null, secondsPlayed, secondsSomething, volume, voltage, ended);
+  }
+
+  void addCategory(LogLineContext line, String categoryId) {
+    add(CATEGORY, line, null, ContentIdDictionary.EMPTY, categoryId, 0, 0, 0, 0, false);
+  }
+
+  void addRecord(LogLineContext line, int contentId, int unknownNumber) {
+    add(RECORD, line, null, contentId, null, unknownNumber, 0, 0, 0, false);
+  }
+
+  void addRecorded(LogLineContext line, int secondsRecorded) {
+    add(RECORDED, line, null, ContentIdDictionary.EMPTY, null, secondsRecorded, 0, 0, 0, false);
+  }
+
+  /**
+   * For the events that only have the content last played: PAUSE, UNPAUSE and SURVEY.
+   */
+  void addContentEvent(byte type, LogLineContext line, int contentLastPlayed) {
+    add(type, line, null, contentLastPlayed, null, 0, 0, 0, 0, false);
+  }
+
+  void addSurveyCompleted(LogLineContext line, int contentLastPlayed, boolean useful) {
+    add(SURVEY_COMPLETED, line, null, contentLastPlayed, null, 0, 0, 0, 0, useful);
+  }
+
+  void addVoltageDrop(LogLineContext line, LogAction action, double voltsDropped, int time) {
+    add(VOLTAGE_DROP, line, action, ContentIdDictionary.EMPTY, null, time, 0, 0, voltsDropped, false);
+  }
+
+  void addJumpTime(LogLineContext line, int timeFrom, int timeTo) {
+    add(JUMP_TIME, line, null, ContentIdDictionary.EMPTY, null, timeFrom, timeTo, 0, 0, false);
+  }
+
+  /**
+   * For the events with nothing but their context: SHUTTING_DOWN, FASTER and SLOWER.
+   */
+  void addEvent(byte type, LogLineContext line) {
+    add(type, line, null, ContentIdDictionary.EMPTY, null, 0, 0, 0, 0, false);
+  }
+
+  private void add(byte type, LogLineContext line, LogAction action, int contentId, String category, int first,
+                   int second, int volume, double voltage, boolean flag) {
+    if (size == types.length) {
+      throw new IllegalStateException("The batch is full");
+    }
+
+    final int i = size++;
+    types[i] = type;
+    actions[i] = action;
+    contentIds[i] = contentId;
+    categories[i] = category;
+    seconds[i] = first;
+    totalSeconds[i] = second;
+    volumes[i] = volume;
+    voltages[i] = voltage;
+    flags[i] = flag;
+
+    lineNumbers[i] = line.getLineNumber();
+    hasLogLineInfo[i] = line.hasLogLineInfo();
+    householdRotations[i] = line.getHouseholdRotation();
+    cycles[i] = line.getCycle();
+    periods[i] = line.getPeriod();
+    daysOfPeriod[i] = line.getDayOfPeriod();
+    secondsOfDay[i] = line.getSecondOfDay();
+    maxVolts[i] = line.getMaxVolts();
+    steadyStateVolts[i] = line.getSteadyStateVolts();
+    minVolts[i] = line.getMinVolts();
+  }
+}
@@ -0,0 +1,59 @@
+package org.literacybridge.stats.formats.logFile;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers the ingested archived logs in a local file, for imports that don't write to the database.  Each line of
+ * the file is a Talking Book and the SHA-256 of one of its logs, separated by a tab.  The file is read when the
+ * registry is made, and appended to on each commit.
+ */
+public class FileIngestedLogRegistry extends AbstractIngestedLogRegistry {
+
+  private static final char SEPARATOR = '\t';
+
+  private final File                        file;
+  private final SetMultimap<String, String> remembered = HashMultimap.create();
+
+  public FileIngestedLogRegistry(File file) throws IOException {
+    this.file = file;
+    if (file.exists()) {
+      for (String line : Files.readLines(file, Charsets.UTF_8)) {
+        int separator = line.lastIndexOf(SEPARATOR);
+        if (separator > 0) {
+          remembered.put(line.substring(0, separator), line.substring(separator + 1).trim());
+        }
+      }
+    }
+  }
+
+  @Override
+  protected synchronized Set<String> load(String talkingBook) {
+    return new HashSet<>(remembered.get(talkingBook));
+  }
+
+  @Override
+  protected synchronized void persist(Map<String, Set<String>> logs) throws IOException {
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), Charsets.UTF_8)) {
+      for (Map.Entry<String, Set<String>> entry : logs.entrySet()) {
+        for (String sha256 : entry.getValue()) {
+          writer.write(entry.getKey() + SEPARATOR + sha256 + "\n");
+        }
+      }
+    }
+    for (Map.Entry<String, Set<String>> entry : logs.entrySet()) {
+      remembered.putAll(entry.getKey(), entry.getValue());
+    }
+  }
+}
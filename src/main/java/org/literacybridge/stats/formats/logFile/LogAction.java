@@ -30,16 +30,77 @@ public enum LogAction {
     this.actionName = actionName;
   }
 
+  //Every action, hashed on its length and its first two characters.  Open addressing, so an action is found by
+  //checking the slot it hashes to and the ones after it, up to the first empty slot.
+  private static final LogAction[] DISPATCH_TABLE = new LogAction[32];
+  private static final int         MIN_LENGTH;
+  private static final int         MAX_LENGTH;
+
+  static {
+    int minLength = Integer.MAX_VALUE;
+    int maxLength = 0;
+    for (LogAction action : values()) {
+      final String name = action.actionName;
+      int slot = slot(name.length(), name.charAt(0), name.charAt(1));
+      while (DISPATCH_TABLE[slot] != null) {
+        slot = (slot + 1) & (DISPATCH_TABLE.length - 1);
+      }
+      DISPATCH_TABLE[slot] = action;
+      minLength = Math.min(minLength, name.length());
+      maxLength = Math.max(maxLength, name.length());
+    }
+    MIN_LENGTH = minLength;
+    MAX_LENGTH = maxLength;
+  }
+
+  private static int slot(int length, char first, char second) {
+    final int hash = (length * 31 + first) * 31 + second;
+    return (hash ^ (hash >>> 5)) & (DISPATCH_TABLE.length - 1);
+  }
+
+  /**
+   * Finds the action, ignoring case.  The action names are all ASCII, and so are the actions the parser pulls out
+   * of a line (LOG_LINE_PATTERN only takes word characters), so ASCII case folding is all that is needed.
+   */
   static LogAction lookup(final String actionName) {
+    final LogAction action = lookup(actionName, 0, actionName.length());
+    if (action == null && logger.isTraceEnabled()) {
+      logger.trace("Tried to find " + actionName + " but did not match.");
+    }
+    return action;
+  }
 
-    for (LogAction action : LogAction.values()) {
-      if (action.actionName.equalsIgnoreCase(actionName)) {
+  /**
+   * Same as {@link #lookup(String)}, but for a region of a line, so that the action does not have to be
+   * turned into a String first.
+   */
+  static LogAction lookup(final CharSequence line, final int start, final int end) {
+    final int length = end - start;
+    if (length < MIN_LENGTH || length > MAX_LENGTH) {
+      return null;
+    }
+
+    int slot = slot(length, LogLineTokenizer.toLowerAscii(line.charAt(start)),
+      LogLineTokenizer.toLowerAscii(line.charAt(start + 1)));
+    for (LogAction action = DISPATCH_TABLE[slot]; action != null; action = DISPATCH_TABLE[slot]) {
+      if (action.matches(line, start, end)) {
         return action;
       }
+      slot = (slot + 1) & (DISPATCH_TABLE.length - 1);
     }
-
-    logger.trace("Tried to find " + actionName + " but did not match.");
     return null;
   }
 
+  private boolean matches(final CharSequence line, final int start, final int end) {
+    if (end - start != actionName.length()) {
+      return false;
+    }
+    for (int i = 0; i < actionName.length(); i++) {
+      if (LogLineTokenizer.toLowerAscii(line.charAt(start + i)) != actionName.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
 }
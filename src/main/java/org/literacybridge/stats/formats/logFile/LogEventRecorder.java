@@ -0,0 +1,398 @@
+package org.literacybridge.stats.formats.logFile;
+
+import org.literacybridge.dashboard.dbTables.TbDataLine;
+import org.literacybridge.stats.api.BatchTalkingBookDataProcessor;
+import org.literacybridge.stats.api.IngestedLogProcessor;
+import org.literacybridge.stats.api.LogSubscriber;
+import org.literacybridge.stats.api.TalkingBookDataProcessor;
+import org.literacybridge.stats.formats.flashData.FlashData;
+import org.literacybridge.stats.formats.statsFile.StatsFile;
+import org.literacybridge.stats.model.ProcessingContext;
+import org.literacybridge.stats.model.SyncProcessingContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Records the callbacks a LogFileParser makes for a log file, so the file can be parsed on one thread and the
+ * events handed to the real processors later, on another.  Processors are generally not thread safe and depend
+ * on seeing the files of a Talking Book in order, so the events of each file are replayed in one go, in the
+ * same order the parser made them.
+ * <p/>
+ * The events are kept as copies of the parser's {@link EventBatch}es, and replayed the same way the parser
+ * would have handed them out: as batches to {@link BatchTalkingBookDataProcessor}s, and one callback at a time
+ * to the others.
+ * <p/>
+ * A recorder subscribes to whatever it is given, which should be what the processors it is going to be
+ * replayed to subscribe to, so the parser doesn't decode anything for it that none of them want.
+ * <p/>
+ * The directory, flash data, stats and tbData callbacks are recorded too, so that everything a DirectoryProcessor
+ * makes of a Talking Book can be recorded on one thread and replayed on another, along with whether each log file
+ * was already ingested, for the {@link IngestedLogProcessor}s.  So are the per-event
+ * callbacks, which a LogFileParser doesn't make to a recorder, but anything else driving it as a plain
+ * TalkingBookDataProcessor may; they are replayed in order with the batches.
+ */
+public final class LogEventRecorder implements BatchTalkingBookDataProcessor, IngestedLogProcessor, LogSubscriber {
+
+  /**
+   * One recorded callback.
+   */
+  private abstract static class Entry {
+    abstract void replay(TalkingBookDataProcessor processor) throws IOException;
+  }
+
+  /**
+   * One of: the start of a log file, a batch of its events, or the end of it.
+   */
+  private static final class LogFileEntry extends Entry {
+    final String     fileName;
+    final EventBatch batch;
+    final boolean    end;
+
+    LogFileEntry(String fileName, EventBatch batch, boolean end) {
+      this.fileName = fileName;
+      this.batch = batch;
+      this.end = end;
+    }
+
+    @Override
+    void replay(TalkingBookDataProcessor processor) {
+      if (batch != null) {
+        batch.deliverTo(processor);
+      } else if (end) {
+        processor.onLogFileEnd();
+      } else {
+        processor.onLogFileStart(fileName);
+      }
+    }
+  }
+
+  private final LogSubscription subscription;
+  private final List<Entry>     entries = new ArrayList<>();
+  private int numEvents;
+
+  public LogEventRecorder() {
+    this(LogSubscription.ALL);
+  }
+
+  public LogEventRecorder(LogSubscription subscription) {
+    this.subscription = subscription;
+  }
+
+  @Override
+  public LogSubscription getLogSubscription() {
+    return subscription;
+  }
+
+  /**
+   * @return the number of events recorded so far.
+   */
+  public int size() {
+    return numEvents;
+  }
+
+  /**
+   * Replays everything recorded, in order, to each of the processors.  As with the parser, each batch goes to
+   * all of the processors before the next one is replayed.
+   */
+  public void replay(Collection<TalkingBookDataProcessor> processors) throws IOException {
+    for (Entry entry : entries) {
+      for (TalkingBookDataProcessor processor : processors) {
+        entry.replay(processor);
+      }
+    }
+  }
+
+  public void clear() {
+    entries.clear();
+    numEvents = 0;
+  }
+
+  @Override
+  public void onLogFileChecked(final boolean alreadyIngested) {
+    entries.add(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        if (processor instanceof IngestedLogProcessor) {
+          ((IngestedLogProcessor) processor).onLogFileChecked(alreadyIngested);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void onLogFileStart(String fileName) {
+    entries.add(new LogFileEntry(fileName, null, false));
+  }
+
+  @Override
+  public void onEventBatch(EventBatch batch) {
+    //The parser reuses its batch, so keep a copy of it.
+    entries.add(new LogFileEntry(null, batch.copy(), false));
+    numEvents += batch.size();
+  }
+
+  @Override
+  public void onLogFileEnd() {
+    entries.add(new LogFileEntry(null, null, true));
+  }
+
+  //+++++++++++++++One event at a time ++++++++++++++++++//
+  //A LogFileParser hands a recorder its events in batches, but anything else may make these callbacks.
+  @Override
+  public void onPlay(LogLineContext context, final String contentId, final int volume, final double voltage) {
+    final LogLineContext snapshot = context.snapshot();
+    recordEvent(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.onPlay(snapshot, contentId, volume, voltage);
+      }
+    });
+  }
+
+  @Override
+  public void onPlayed(LogLineContext context, final String contentId, final short secondsPlayed,
+                       final short secondsSomething, final int volume, final double voltage, final boolean ended) {
+    final LogLineContext snapshot = context.snapshot();
+    recordEvent(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.onPlayed(snapshot, contentId, secondsPlayed, secondsSomething, volume, voltage, ended);
+      }
+    });
+  }
+
+  @Override
+  public void onCategory(LogLineContext context, final String categoryId) {
+    final LogLineContext snapshot = context.snapshot();
+    recordEvent(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.onCategory(snapshot, categoryId);
+      }
+    });
+  }
+
+  @Override
+  public void onRecord(LogLineContext context, final String contentId, final int unknownNumber) {
+    final LogLineContext snapshot = context.snapshot();
+    recordEvent(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.onRecord(snapshot, contentId, unknownNumber);
+      }
+    });
+  }
+
+  @Override
+  public void onRecorded(LogLineContext context, final int secondsRecorded) {
+    final LogLineContext snapshot = context.snapshot();
+    recordEvent(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.onRecorded(snapshot, secondsRecorded);
+      }
+    });
+  }
+
+  @Override
+  public void onPause(LogLineContext context, final String contentId) {
+    final LogLineContext snapshot = context.snapshot();
+    recordEvent(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.onPause(snapshot, contentId);
+      }
+    });
+  }
+
+  @Override
+  public void onUnPause(LogLineContext context, final String contentId) {
+    final LogLineContext snapshot = context.snapshot();
+    recordEvent(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.onUnPause(snapshot, contentId);
+      }
+    });
+  }
+
+  @Override
+  public void onSurvey(LogLineContext context, final String contentId) {
+    final LogLineContext snapshot = context.snapshot();
+    recordEvent(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.onSurvey(snapshot, contentId);
+      }
+    });
+  }
+
+  @Override
+  public void onSurveyCompleted(LogLineContext context, final String contentId, final boolean useful) {
+    final LogLineContext snapshot = context.snapshot();
+    recordEvent(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.onSurveyCompleted(snapshot, contentId, useful);
+      }
+    });
+  }
+
+  @Override
+  public void onShuttingDown(LogLineContext context) {
+    final LogLineContext snapshot = context.snapshot();
+    recordEvent(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.onShuttingDown(snapshot);
+      }
+    });
+  }
+
+  @Override
+  public void onVoltageDrop(LogLineContext context, final LogAction action, final double voltageDropped,
+                            final int time) {
+    final LogLineContext snapshot = context.snapshot();
+    recordEvent(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.onVoltageDrop(snapshot, action, voltageDropped, time);
+      }
+    });
+  }
+
+  @Override
+  public void onJumpTime(LogLineContext logLineContext, final int timeFrom, final int timeTo) {
+    final LogLineContext snapshot = logLineContext.snapshot();
+    recordEvent(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.onJumpTime(snapshot, timeFrom, timeTo);
+      }
+    });
+  }
+
+  @Override
+  public void onFaster(LogLineContext logLineContext) {
+    final LogLineContext snapshot = logLineContext.snapshot();
+    recordEvent(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.onFaster(snapshot);
+      }
+    });
+  }
+
+  @Override
+  public void onSlower(LogLineContext logLineContext) {
+    final LogLineContext snapshot = logLineContext.snapshot();
+    recordEvent(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.onSlower(snapshot);
+      }
+    });
+  }
+
+  private void recordEvent(Entry entry) {
+    entries.add(entry);
+    numEvents++;
+  }
+
+  //+++++++++++++++Directory, flash data and stats ++++++++++++++++++//
+  @Override
+  public void onTalkingBookStart(final ProcessingContext context) {
+    entries.add(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.onTalkingBookStart(context);
+      }
+    });
+  }
+
+  @Override
+  public void onTalkingBookEnd(final ProcessingContext context) {
+    entries.add(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.onTalkingBookEnd(context);
+      }
+    });
+  }
+
+  @Override
+  public void onSyncProcessingStart(final SyncProcessingContext context) {
+    entries.add(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.onSyncProcessingStart(context);
+      }
+    });
+  }
+
+  @Override
+  public void onSyncProcessingEnd(final SyncProcessingContext context) {
+    entries.add(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.onSyncProcessingEnd(context);
+      }
+    });
+  }
+
+  @Override
+  public void processFlashData(final SyncProcessingContext context, final FlashData flashData) {
+    entries.add(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) throws IOException {
+        processor.processFlashData(context, flashData);
+      }
+    });
+  }
+
+  @Override
+  public void processCorruptFlashData(final SyncProcessingContext context, final String flashDataPath,
+                                      final String errorMessage) {
+    entries.add(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.processCorruptFlashData(context, flashDataPath, errorMessage);
+      }
+    });
+  }
+
+  @Override
+  public void processStatsFile(final SyncProcessingContext context, final String contentId,
+                               final StatsFile statsFile) {
+    entries.add(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.processStatsFile(context, contentId, statsFile);
+      }
+    });
+  }
+
+  @Override
+  public void markStatsFileAsCorrupted(final SyncProcessingContext context, final String contentId,
+                                       final String errorMessage) {
+    entries.add(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.markStatsFileAsCorrupted(context, contentId, errorMessage);
+      }
+    });
+  }
+
+  @Override
+  public void processTbDataLine(final TbDataLine tbDataLine) {
+    entries.add(new Entry() {
+      @Override
+      void replay(TalkingBookDataProcessor processor) {
+        processor.processTbDataLine(tbDataLine);
+      }
+    });
+  }
+}
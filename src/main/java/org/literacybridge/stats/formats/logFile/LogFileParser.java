@@ -11,7 +11,12 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Collection;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -121,36 +126,87 @@ public class LogFileParser {
    * VOLTAGE DROP: [0.02]v in [0003] sec
    */
   private static final Pattern VOLTAGE_DROP = Pattern.compile("VOLTAGE DROP:\\s*([0-9.]+)v\\s*in\\s*(\\d+)\\s+sec");
+  private static final String VOLTAGE_DROP_PREFIX = "VOLTAGE DROP:";
   static protected final Logger logger = LoggerFactory.getLogger(LogFileParser.class);
+  /**
+   * {@link #parse(Path)} keeps a buffer of up to this size to read log files into, from file to file.  Bigger files get a
+   * buffer of their own, which isn't kept, so one odd file doesn't hold on to that much of the heap.
+   */
+  private static final int READ_BUFFER_SIZE = 256 * 1024;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
   private final Collection<TalkingBookDataProcessor> eventProcessors;
   private final SyncProcessingContext context;
-
-  //Last piece of content played
-  private String contentLastPlayed = "";
+  private final LogLineTokenizer tokenizer = new LogLineTokenizer();
+  private final ByteLine byteLine = new ByteLine();
+  //Passed to the callbacks for every line.  Processors must snapshot() it if they want to keep it.
+  private final LogLineContext lineContext;
+  private final ContentIdDictionary contentIds;
+  //Events are collected here, and handed to the processors when it fills up and at the end of each file.
+  private final EventBatch batch;
+  //What the processors want.  Lines are still checked for errors in full, but nothing else is done for the rest.
+  private final LogSubscription subscription;
+  private final boolean wantsLineInfo;
+  private final boolean wantsContentIds;
+  private final boolean wantsVoltageDrops;
+  private ByteBuffer readBuffer;
+
+  //Last piece of content played, as an ID from contentIds
+  private int contentLastPlayed = ContentIdDictionary.EMPTY;
     private String currentRawLine;
     private String currentAction;
     private String currentParams;
 
     public LogFileParser(TalkingBookDataProcessor eventProcessors, SyncProcessingContext context) {
-    this.eventProcessors = Lists.newArrayList(eventProcessors);
-    this.context = context;
+    this(Lists.newArrayList(eventProcessors), context);
   }
 
   public LogFileParser(
       Collection<TalkingBookDataProcessor> eventProcessors,
       SyncProcessingContext context) {
+    this(eventProcessors, context, new ContentIdDictionary());
+  }
+
+  public LogFileParser(TalkingBookDataProcessor eventProcessors, SyncProcessingContext context,
+                       ContentIdDictionary contentIds) {
+    this(Lists.newArrayList(eventProcessors), context, contentIds);
+  }
+
+  /**
+   * @param eventProcessors the processors to raise events to.  Only the events and fields that at least one of
+   *                        them subscribes to (see {@link LogSubscription}) are decoded and raised.
+   * @param contentIds the dictionary to look content IDs up in.  Share one between all the parsers of an import,
+   *                   so that an ID means the same content in all of them.
+   */
+  public LogFileParser(
+      Collection<TalkingBookDataProcessor> eventProcessors,
+      SyncProcessingContext context,
+      ContentIdDictionary contentIds) {
     this.eventProcessors = eventProcessors;
     this.context = context;
+    this.contentIds = contentIds;
+    this.lineContext = LogLineContext.createReusable(context, contentIds);
+    this.batch = new EventBatch(context, contentIds, EventBatch.DEFAULT_CAPACITY);
+    this.subscription = LogSubscription.of(eventProcessors);
+    this.wantsLineInfo = subscription.wantsFields(LogSubscription.LINE_INFO);
+    this.wantsContentIds = subscription.wantsFields(LogSubscription.CONTENT_IDS);
+    this.wantsVoltageDrops = subscription.wantsFields(LogSubscription.VOLTAGE_DROPS);
+  }
+
+  /**
+   * @return what this parser decodes and raises: everything that any of its processors subscribes to.
+   */
+  public LogSubscription getSubscription() {
+    return subscription;
   }
 
-  private static boolean checkForMatch(String action, String args, LogFilePosition filePosition,
+  private static boolean checkForMatch(String action, String args, LogLineContext logLineContext,
                                        Matcher matcher) {
     if (!matcher.matches()) {
 
       //If this is not a feedback message, mark as being an error
-      if (!"Feedback".equalsIgnoreCase(args)) {
+      if (!"Feedback".equalsIgnoreCase(args) && logger.isTraceEnabled()) {
         final String errorString = String.format("%s : %d - Cannot match arguments in %s action. Args=%s",
-          filePosition.loggingFileName(), filePosition.lineNumber, action, args);
+          logLineContext.loggingFileName(), logLineContext.getLineNumber(), action, args);
         logger.trace(errorString);
       }
 
@@ -160,11 +216,14 @@ public class LogFileParser {
   }
 
   private void clearParseState() {
-    contentLastPlayed = "";
+    contentLastPlayed = ContentIdDictionary.EMPTY;
   }
 
+  /**
+   * @return the last content played, or "" if none of the processors subscribe to content IDs.
+   */
   public String getContentLastPlayed() {
-    return contentLastPlayed;
+    return contentIds.get(contentLastPlayed);
   }
 
   public int parse(final String fileName, final InputStream is) throws IOException {
@@ -173,50 +232,217 @@ public class LogFileParser {
     final BufferedReader br = new BufferedReader(new InputStreamReader(is, Charset.forName("UTF-8")));
 
     clearParseState();
+    batch.reset(fileName);
     for (TalkingBookDataProcessor eventProcessor : eventProcessors) {
       eventProcessor.onLogFileStart(fileName);
     }
 
     try {
-        while ((currentRawLine = br.readLine()) != null) {
+        String line;
+        while ((line = br.readLine()) != null) {
+        if (!parseLine(fileName, lineNumber, line)) {
+          numErrors++;
+        }
+        lineNumber++;
+      }
+    } finally {
+      endLogFile();
+    }
+    return numErrors;
+  }
 
-        final Matcher fullLineMatcher = LOG_LINE_PATTERN.matcher(currentRawLine);
-        if (fullLineMatcher.matches()) {
+  /**
+   * Parses a log file straight from its bytes.  The file is read into a buffer that is reused from file to file,
+   * unless it is bigger than READ_BUFFER_SIZE.  Files aren't memory mapped, since the mappings would stay until they
+   * were garbage collected, and on Windows the unzipped files couldn't be deleted before then.
+   *
+   * @param path the log file.  Its absolute path is the file name passed to onLogFileStart.
+   * @return the number of lines with errors, same as {@link #parse(String, InputStream)}
+   */
+  public int parse(final Path path) throws IOException {
+    final String fileName = path.toAbsolutePath().toString();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        //Can't buffer this in one piece.  Not a real TB log, but let the stream path deal with it.
+        return parse(fileName, Channels.newInputStream(channel));
+      }
+      return parse(fileName, read(channel));
+    }
+  }
 
-          final String preludeString = fullLineMatcher.group(1);
-          currentAction = fullLineMatcher.group(2);
-          currentParams = fullLineMatcher.group(3);
+  /**
+   * Reads a log file the way {@link #parse(Path)} does, for a caller that needs its bytes before parsing them
+   * with {@link #parse(String, ByteBuffer)}.
+   *
+   * @return the file's contents, between the buffer's position and limit.  The buffer may be reused by the next
+   * read or parse, so it is only good until then.
+   */
+  public ByteBuffer read(final Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException(path + " is too big to read into memory");
+      }
+      return read(channel);
+    }
+  }
+
+  private ByteBuffer read(final FileChannel channel) throws IOException {
+    final long size = channel.size();
+    final ByteBuffer buffer;
+    if (size > READ_BUFFER_SIZE) {
+      buffer = ByteBuffer.allocate((int) size);
+    } else {
+      if (readBuffer == null || readBuffer.capacity() < size) {
+        readBuffer = ByteBuffer.allocate((int) Math.max(size, READ_BUFFER_SIZE / 4));
+      }
+      buffer = readBuffer;
+    }
+    buffer.clear();
+    buffer.limit((int) size);
+    while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+      //keep reading
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Parses a log file from the bytes between the buffer's position and limit, finding lines and fields
+   * directly in the bytes.  Lines are split the same way BufferedReader.readLine does, and any line that
+   * is not plain ASCII is decoded as UTF-8 first, so the callbacks are exactly the same as for
+   * {@link #parse(String, InputStream)}.
+   *
+   * @param fileName the name to report to onLogFileStart and in the LogLineContexts
+   * @param buffer   the contents of the file.  The buffer's position is not changed.
+   * @return the number of lines with errors
+   */
+  public int parse(final String fileName, final ByteBuffer buffer) {
+    int numErrors = 0;
+    int lineNumber = 1;
+    final int limit = buffer.limit();
+
+    clearParseState();
+    batch.reset(fileName);
+    for (TalkingBookDataProcessor eventProcessor : eventProcessors) {
+      eventProcessor.onLogFileStart(fileName);
+    }
 
-          if (!parseAction(fileName, lineNumber, preludeString, currentAction, currentParams,
-                           currentRawLine)) {
-              numErrors++;
+    try {
+      int lineStart = buffer.position();
+      boolean ascii = true;
+      for (int i = lineStart; i < limit; i++) {
+        final byte b = buffer.get(i);
+        if (b == '\n' || b == '\r') {
+          if (!parseLine(fileName, lineNumber, lineAt(buffer, lineStart, i, ascii))) {
+            numErrors++;
+          }
+          lineNumber++;
+          if (b == '\r' && i + 1 < limit && buffer.get(i + 1) == '\n') {
+            i++;
           }
+          lineStart = i + 1;
+          ascii = true;
+        } else if (b < 0) {
+          ascii = false;
         }
-
-        lineNumber++;
       }
+      if (lineStart < limit) {
+        if (!parseLine(fileName, lineNumber, lineAt(buffer, lineStart, limit, ascii))) {
+          numErrors++;
+        }
+      }
+    } finally {
+      endLogFile();
+    }
+    return numErrors;
+  }
+
+  private void endLogFile() {
+    try {
+      flushEvents();
     } finally {
       for (TalkingBookDataProcessor eventProcessor : eventProcessors) {
         eventProcessor.onLogFileEnd();
       }
     }
-    return numErrors;
   }
 
-  private LogLineContext parseLogLineContext(String fileName, int lineNumber, String line) {
+  /**
+   * Hands the events collected so far to the processors, as a batch to the ones that take batches and one
+   * callback at a time to the rest.
+   */
+  private void flushEvents() {
+    if (batch.isEmpty()) {
+      return;
+    }
+    try {
+      for (TalkingBookDataProcessor eventProcessor : eventProcessors) {
+        batch.deliverTo(eventProcessor);
+      }
+    } finally {
+      batch.clear();
+    }
+  }
 
-    final LogFilePosition logFilePosition = new LogFilePosition(fileName, lineNumber);
+  private void eventAdded() {
+    if (batch.isFull()) {
+      flushEvents();
+    }
+  }
+
+  private CharSequence lineAt(ByteBuffer buffer, int start, int end, boolean ascii) {
+    if (ascii) {
+      return byteLine.set(buffer, start, end);
+    }
+    final byte[] bytes = new byte[end - start];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = buffer.get(start + i);
+    }
+    return new String(bytes, UTF_8);
+  }
 
-    LogLineInfo logLineInfo = null;
+  /**
+   * Parses one line, first with the tokenizer and, if that can't handle it, with the regular expressions.
+   *
+   * @return false if the line had an error
+   */
+  private boolean parseLine(final String fileName, final int lineNumber, final CharSequence line) {
+    if (parseLineFast(fileName, lineNumber, line)) {
+      return true;
+    }
+
+    currentRawLine = line.toString();
+    final Matcher fullLineMatcher = LOG_LINE_PATTERN.matcher(currentRawLine);
+    if (fullLineMatcher.matches()) {
+
+      final String preludeString = fullLineMatcher.group(1);
+      currentAction = fullLineMatcher.group(2);
+      currentParams = fullLineMatcher.group(3);
+
+      return parseAction(fileName, lineNumber, preludeString, currentAction, currentParams, currentRawLine);
+    }
+    return true;
+  }
+
+  private LogLineContext parseLogLineContext(String fileName, int lineNumber, String line) {
+
+    lineContext.setPosition(fileName, lineNumber);
     try {
-      logLineInfo = parseLogLineInfo(line);
+      final LogLineInfo logLineInfo = parseLogLineInfo(line);
+      if (logLineInfo != null) {
+        lineContext.setLogLineInfo(logLineInfo.householdRotation, logLineInfo.cycle, logLineInfo.period,
+          logLineInfo.dayOfPeriod, logLineInfo.timeInPeriod.getMillisOfDay() / 1000, logLineInfo.maxVolts,
+          logLineInfo.steadyStateVolts, logLineInfo.minVolts);
+      }
     } catch (NumberFormatException e) {
-      final String errorString = String.format("%s : %d - Invalid number in log info. Line=%s, Error=%s", fileName,
-        lineNumber, line, e.getMessage());
-      logger.trace(errorString);
+      if (logger.isTraceEnabled()) {
+        final String errorString = String.format("%s : %d - Invalid number in log info. Line=%s, Error=%s",
+          fileName, lineNumber, line, e.getMessage());
+        logger.trace(errorString);
+      }
     }
 
-    return new LogLineContext(logLineInfo, logFilePosition, context);
+    return lineContext;
   }
 
   public LogLineInfo parseLogLineInfo(String line) throws NumberFormatException {
@@ -249,6 +475,14 @@ public class LogFileParser {
     final double steadyStateVoltage = Double.parseDouble(matcher.group(10)) / 100;
     final double lowestVoltage = Double.parseDouble(matcher.group(11)) / 100;
 
+    return createLogLineInfo(rotation, cycle, period, dayOfPeriod, hourOfPeriod, minuteOfPeriod, secondOfPeriod,
+      highestVoltage, steadyStateVoltage, lowestVoltage);
+  }
+
+  private static LogLineInfo createLogLineInfo(short rotation, short cycle, short period, short dayOfPeriod,
+                                               int hourOfPeriod, int minuteOfPeriod, int secondOfPeriod,
+                                               double highestVoltage, double steadyStateVoltage,
+                                               double lowestVoltage) {
     //Somehow, there appear to be log messages with hour of day > 24 and minutes > 60
 
     minuteOfPeriod += secondOfPeriod / 60;
@@ -264,24 +498,334 @@ public class LogFileParser {
       lowestVoltage);
   }
 
+  /**
+   * Tries to handle a line with the {@link LogLineTokenizer}, which does in one pass what LOG_LINE_PATTERN,
+   * LOG_LINE_START_PATTERN, VOLTAGE_DROP and the REST_OF_* patterns do.  It only takes lines it can decode
+   * completely and without error; everything else (corrupt preludes, bad arguments, numbers that do not fit)
+   * is left to the regex path, so that error counts and the events raised for odd lines do not change.
+   *
+   * @return true if the line was fully handled, false if the caller must run the regex path on it.
+   */
+  private boolean parseLineFast(final String fileName, final int lineNumber, final CharSequence line) {
+    final LogLineTokenizer t = tokenizer;
+    if (!t.reset(line)) {
+      return false;
+    }
+
+    final LogAction logAction = LogAction.lookup(line, t.actionStart, t.actionEnd);
+    if (logAction == null) {
+      //Same as in parseAction, this is not considered an error.
+      if (logger.isTraceEnabled()) {
+        logger.trace(String.format("Invalid action '%s'", t.action()));
+      }
+      return true;
+    }
+
+    if (t.hasVoltageDrop()) {
+      if (!t.decodeVoltageDrop()) {
+        return false;
+      }
+      if (!wantsVoltageDrops) {
+        //Still has to be told apart from a drop that is an error, but without parsing it.
+        return t.voltageDropIsNumber();
+      }
+      if (wantsLineInfo && !t.decodePrelude()) {
+        return false;
+      }
+      final double voltsDropped;
+      try {
+        voltsDropped = Double.parseDouble(t.voltageDropText());
+      } catch (NumberFormatException e) {
+        return false;
+      }
+      fireVoltageDrop(createLogLineContext(fileName, lineNumber), logAction, voltsDropped, t.firstNumber);
+      return true;
+    }
+
+    //Actions nobody subscribes to are decoded only as far as it takes to find out if they are errors.
+    final boolean raise = subscription.wants(logAction);
+    if (raise && wantsLineInfo && !t.decodePrelude()) {
+      return false;
+    }
+
+    switch (logAction) {
+      case play:
+        if (!t.decodePlay()) {
+          return false;
+        }
+        if (wantsContentIds) {
+          contentLastPlayed = contentIds.idOf(line, t.tokenStart, t.tokenEnd);
+        }
+        if (raise) {
+          firePlay(createLogLineContext(fileName, lineNumber), contentLastPlayed, t.volume,
+                   (double) t.voltage / 100);
+        }
+        break;
+
+      case playing:
+        break;
+
+      case played:
+        if (!t.decodePlayed()) {
+          return false;
+        }
+        if (wantsContentIds) {
+          contentLastPlayed = contentIds.idOf(line, t.tokenStart, t.tokenEnd);
+        }
+        if (raise) {
+          firePlayed(createLogLineContext(fileName, lineNumber), contentLastPlayed, (short) t.firstNumber,
+                     (short) t.secondNumber, t.volume, (double) t.voltage / 100, t.ended);
+        }
+        break;
+
+      case category:
+        if (raise) {
+          processCategory(createLogLineContext(fileName, lineNumber), t.args());
+        }
+        break;
+
+      case paused:
+        if (raise) {
+          firePause(createLogLineContext(fileName, lineNumber));
+        }
+        break;
+
+      case unpaused:
+        if (raise) {
+          fireUnPause(createLogLineContext(fileName, lineNumber));
+        }
+        break;
+
+      case record:
+        if (t.actionIs("Record")) {
+          break;
+        }
+        if (!t.decodeRecord()) {
+          return false;
+        }
+        if (raise) {
+          fireRecord(createLogLineContext(fileName, lineNumber),
+                     wantsContentIds ? contentIds.idOf(line, t.tokenStart, t.tokenEnd) : ContentIdDictionary.EMPTY,
+                     t.firstNumber);
+        }
+        break;
+
+      case time_recorded:
+        if (!t.decodeRecorded()) {
+          return false;
+        }
+        if (raise) {
+          fireRecorded(createLogLineContext(fileName, lineNumber), t.firstNumber);
+        }
+        break;
+
+      case survey:
+        if (t.argsEqualIgnoreCase("taken")) {
+          if (raise) {
+            fireSurvey(createLogLineContext(fileName, lineNumber));
+          }
+        } else if (t.argsEqualIgnoreCase("apply")) {
+          if (raise) {
+            fireSurveyCompleted(createLogLineContext(fileName, lineNumber), true);
+          }
+        } else if (t.argsEqualIgnoreCase("useless")) {
+          if (raise) {
+            fireSurveyCompleted(createLogLineContext(fileName, lineNumber), false);
+          }
+        } else {
+          return false;
+        }
+        break;
+
+      case shuttingDown:
+        if (raise) {
+          fireShuttingDown(createLogLineContext(fileName, lineNumber));
+        }
+        break;
+
+      case jump_time:
+        if (!t.decodeJumpTime()) {
+          return false;
+        }
+        if (raise) {
+          fireJumpTime(createLogLineContext(fileName, lineNumber), t.firstNumber, t.secondNumber);
+        }
+        break;
+
+      case faster:
+        if (raise) {
+          processFaster(createLogLineContext(fileName, lineNumber));
+        }
+        break;
+
+      case slower:
+        if (raise) {
+          processSlower(createLogLineContext(fileName, lineNumber));
+        }
+        break;
+
+      default:
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Points the reused context at a line whose prelude has been decoded by the tokenizer.  The time is
+   * normalized the same way createLogLineInfo does it, just without building a LocalTime.  If nobody wants the
+   * line info, the prelude was never decoded and the context only gets the position.
+   */
+  private LogLineContext createLogLineContext(String fileName, int lineNumber) {
+    if (!wantsLineInfo) {
+      lineContext.setPosition(fileName, lineNumber);
+      return lineContext;
+    }
+
+    final LogLineTokenizer t = tokenizer;
+
+    int secondOfPeriod = t.secondOfPeriod;
+    int minuteOfPeriod = t.minuteOfPeriod + secondOfPeriod / 60;
+    secondOfPeriod = secondOfPeriod % 60;
+    int hourOfPeriod = t.hourOfPeriod + minuteOfPeriod / 60;
+    minuteOfPeriod = minuteOfPeriod % 60;
+    short dayOfPeriod = t.dayOfPeriod;
+    dayOfPeriod += hourOfPeriod / 24;
+    hourOfPeriod = hourOfPeriod % 24;
+
+    lineContext.setPosition(fileName, lineNumber);
+    lineContext.setLogLineInfo(t.householdRotation, t.cycle, t.period, dayOfPeriod,
+      hourOfPeriod * 3600 + minuteOfPeriod * 60 + secondOfPeriod, (double) t.maxVolts / 100,
+      (double) t.steadyStateVolts / 100, (double) t.minVolts / 100);
+    return lineContext;
+  }
+
+  //The events are collected in the batch rather than going straight to the processors.  Content IDs are kept as
+  //ints from contentIds; EventBatch.replay turns them back into Strings for processors that want those.  Events
+  //that none of the processors subscribe to are dropped here.
+
+  private void firePlay(LogLineContext logLineContext, int contentId, int volume, double voltage) {
+    if (!subscription.wants(LogAction.play)) {
+      return;
+    }
+    batch.addPlay(logLineContext, contentId, volume, voltage);
+    eventAdded();
+  }
+
+  private void firePlayed(LogLineContext logLineContext, int contentId, short timePlayed, short timeSomething,
+                          int volume, double voltage, boolean isEnded) {
+    if (!subscription.wants(LogAction.played)) {
+      return;
+    }
+    batch.addPlayed(logLineContext, contentId, timePlayed, timeSomething, volume, voltage, isEnded);
+    eventAdded();
+  }
+
+  private void firePause(LogLineContext logLineContext) {
+    if (!subscription.wants(LogAction.paused)) {
+      return;
+    }
+    batch.addContentEvent(EventBatch.PAUSE, logLineContext, contentLastPlayed);
+    eventAdded();
+  }
+
+  private void fireUnPause(LogLineContext logLineContext) {
+    if (!subscription.wants(LogAction.unpaused)) {
+      return;
+    }
+    batch.addContentEvent(EventBatch.UNPAUSE, logLineContext, contentLastPlayed);
+    eventAdded();
+  }
+
+  private void fireRecord(LogLineContext logLineContext, int contentId, int meaningless) {
+    if (!subscription.wants(LogAction.record)) {
+      return;
+    }
+    batch.addRecord(logLineContext, contentId, meaningless);
+    eventAdded();
+  }
+
+  private void fireRecorded(LogLineContext logLineContext, int time) {
+    if (!subscription.wants(LogAction.time_recorded)) {
+      return;
+    }
+    batch.addRecorded(logLineContext, time);
+    eventAdded();
+  }
+
+  private void fireSurvey(LogLineContext logLineContext) {
+    if (!subscription.wants(LogAction.survey)) {
+      return;
+    }
+    batch.addContentEvent(EventBatch.SURVEY, logLineContext, contentLastPlayed);
+    eventAdded();
+  }
+
+  private void fireSurveyCompleted(LogLineContext logLineContext, boolean useful) {
+    if (!subscription.wants(LogAction.survey)) {
+      return;
+    }
+    batch.addSurveyCompleted(logLineContext, contentLastPlayed, useful);
+    eventAdded();
+  }
+
+  private void fireShuttingDown(LogLineContext logLineContext) {
+    if (!subscription.wants(LogAction.shuttingDown)) {
+      return;
+    }
+    batch.addEvent(EventBatch.SHUTTING_DOWN, logLineContext);
+    eventAdded();
+  }
+
+  private void fireJumpTime(LogLineContext logLineContext, int timeFrom, int timeTo) {
+    if (!subscription.wants(LogAction.jump_time)) {
+      return;
+    }
+    batch.addJumpTime(logLineContext, timeFrom, timeTo);
+    eventAdded();
+  }
+
+  private void fireVoltageDrop(LogLineContext logLineContext, LogAction logAction, double voltsDropped, int time) {
+    if (!wantsVoltageDrops) {
+      return;
+    }
+    batch.addVoltageDrop(logLineContext, logAction, voltsDropped, time);
+    eventAdded();
+  }
+
   private boolean parseAction(final String fileName, final int lineNumber,
                               final String preludeString, final String action,
                               final String actionParams, final String rawLine) {
 
-    final LogLineContext logLineContext = parseLogLineContext(fileName, lineNumber, preludeString);
-    final Matcher voltageMatcher = VOLTAGE_DROP.matcher(actionParams);
-    final boolean isVoltageDrop = voltageMatcher.matches();
     final LogAction logAction = LogAction.lookup(action);
 
     if (logAction == null) {
         // There are thousands of these. The logs from the talking books are extremely noisy and
         // full of corruption, as well as log lines that legitimately do not match.
-        logger.trace(String.format("Invalid action '%s'", action));
+        if (logger.isTraceEnabled()) {
+          logger.trace(String.format("Invalid action '%s'", action));
+        }
         // If we call everything that isn't a good action "corrupt", every file will be corrupt.
         return true;
     }
+
+    // Only bother with the regex if the arguments could be a voltage drop.
+    Matcher voltageMatcher = null;
+    if (actionParams.startsWith(VOLTAGE_DROP_PREFIX)) {
+      voltageMatcher = VOLTAGE_DROP.matcher(actionParams);
+    }
+    final boolean isVoltageDrop = voltageMatcher != null && voltageMatcher.matches();
     boolean result = true;
 
+    // The fire methods drop the events nobody subscribes to, so don't bother with the prelude for those.
+    final boolean raise = isVoltageDrop ? wantsVoltageDrops : subscription.wants(logAction);
+    final LogLineContext logLineContext;
+    if (raise && wantsLineInfo) {
+      logLineContext = parseLogLineContext(fileName, lineNumber, preludeString);
+    } else {
+      lineContext.setPosition(fileName, lineNumber);
+      logLineContext = lineContext;
+    }
+
     if (!isVoltageDrop) {
 
       switch (logAction) {
@@ -303,15 +847,11 @@ public class LogFileParser {
           break;
 
         case paused:
-          for (TalkingBookDataProcessor eventProcessor : eventProcessors) {
-            eventProcessor.onPause(logLineContext, contentLastPlayed);
-          }
+          firePause(logLineContext);
           break;
 
         case unpaused:
-          for (TalkingBookDataProcessor eventProcessor : eventProcessors) {
-            eventProcessor.onUnPause(logLineContext, contentLastPlayed);
-          }
+          fireUnPause(logLineContext);
           break;
 
         case record:
@@ -327,9 +867,7 @@ public class LogFileParser {
           break;
 
         case shuttingDown:
-          for (TalkingBookDataProcessor eventProcessor : eventProcessors) {
-            eventProcessor.onShuttingDown(logLineContext);
-          }
+          fireShuttingDown(logLineContext);
           break;
 
         case jump_time:
@@ -354,9 +892,7 @@ public class LogFileParser {
         try {
             final double voltsDropped = Double.parseDouble(voltageMatcher.group(1));
             final int time = Integer.parseInt(voltageMatcher.group(2));
-            for (TalkingBookDataProcessor eventProcessor : eventProcessors) {
-                eventProcessor.onVoltageDrop(logLineContext, logAction, voltsDropped, time);
-            }
+            fireVoltageDrop(logLineContext, logAction, voltsDropped, time);
         } catch (NumberFormatException e) {
             result = false;
         }
@@ -366,24 +902,22 @@ public class LogFileParser {
 
   protected boolean processPlay(LogLineContext logLineContext, String args) {
     final Matcher matcher = REST_OF_PLAY.matcher(args);
-    if (!checkForMatch("Play", args, logLineContext.logFilePosition, matcher)) {
+    if (!checkForMatch("Play", args, logLineContext, matcher)) {
       return false;
     }
 
 
-    final String contentId = matcher.group(1);
+    final int contentId = wantsContentIds ? contentIds.idOf(matcher.group(1)) : ContentIdDictionary.EMPTY;
     contentLastPlayed = contentId;
 
     try {
       final int volume = Integer.parseInt(matcher.group(2));
       final double voltage = Double.parseDouble(matcher.group(3)) / 100;
-      for (TalkingBookDataProcessor eventProcessor : eventProcessors) {
-        eventProcessor.onPlay(logLineContext, contentId, volume, voltage);
-      }
+      firePlay(logLineContext, contentId, volume, voltage);
     } catch (NumberFormatException e) {
       final String errorString = String.format("%s : %d - Invalid number in Play action. Args=%s, Error=%s",
-        logLineContext.logFilePosition.loggingFileName(),
-        logLineContext.logFilePosition.lineNumber, args, e.getMessage());
+        logLineContext.loggingFileName(),
+        logLineContext.getLineNumber(), args, e.getMessage());
       logger.trace(errorString);
       return false;
     }
@@ -392,12 +926,12 @@ public class LogFileParser {
 
   protected boolean processPlayed(LogLineContext logLineContext, String args) {
     final Matcher matcher = REST_OF_PLAYED.matcher(args);
-    if (!checkForMatch("Played", args, logLineContext.logFilePosition, matcher)) {
+    if (!checkForMatch("Played", args, logLineContext, matcher)) {
       return false;
     }
 
 
-    final String contentId = matcher.group(1);
+    final int contentId = wantsContentIds ? contentIds.idOf(matcher.group(1)) : ContentIdDictionary.EMPTY;
     contentLastPlayed = contentId;
 
     try {
@@ -410,13 +944,11 @@ public class LogFileParser {
       final double voltage = Double.parseDouble(voltageParts[0]) / 100;
       final boolean isEnded = (voltageParts.length == 2) && (voltageParts[1].equalsIgnoreCase("ended"));
 
-      for (TalkingBookDataProcessor eventProcessor : eventProcessors) {
-        eventProcessor.onPlayed(logLineContext, contentId, timePlayed, timeSomething, volume, voltage, isEnded);
-      }
+      firePlayed(logLineContext, contentId, timePlayed, timeSomething, volume, voltage, isEnded);
     } catch (NumberFormatException e) {
       final String errorString = String.format("%s : %d - Invalid number in Played action. Args=%s, Error=%s",
-        logLineContext.logFilePosition.loggingFileName(),
-        logLineContext.logFilePosition.lineNumber, args, e.getMessage());
+        logLineContext.loggingFileName(),
+        logLineContext.getLineNumber(), args, e.getMessage());
       logger.trace(errorString);
       return false;
     }
@@ -424,9 +956,11 @@ public class LogFileParser {
   }
 
   protected boolean processCategory(final LogLineContext logLineContext, final String categoryId) {
-    for (TalkingBookDataProcessor eventProcessor : eventProcessors) {
-      eventProcessor.onCategory(logLineContext, categoryId);
+    if (!subscription.wants(LogAction.category)) {
+      return true;
     }
+    batch.addCategory(logLineContext, categoryId);
+    eventAdded();
     return true;
   }
 
@@ -444,12 +978,12 @@ public class LogFileParser {
     }
 
     final Matcher matcher = REST_OF_RECORD.matcher(args);
-    if (!checkForMatch("Record", args, logLineContext.logFilePosition, matcher)) {
+    if (!checkForMatch("Record", args, logLineContext, matcher)) {
       return false;
     }
 
 
-    final String contentId = matcher.group(1);
+    final int contentId = wantsContentIds ? contentIds.idOf(matcher.group(1)) : ContentIdDictionary.EMPTY;
 
     try {
       // This code parses the category as an integer, and then passes that value on. At best,
@@ -462,13 +996,11 @@ public class LogFileParser {
       } catch (Exception ex) {
           // Ignore.
       }
-      for (TalkingBookDataProcessor eventProcessor : eventProcessors) {
-        eventProcessor.onRecord(logLineContext, contentId, meaningless);
-      }
+      fireRecord(logLineContext, contentId, meaningless);
     } catch (NumberFormatException e) {
       final String errorString = String.format("%s : %d - Invalid number in Record action. Args=%s, Error=%s",
-        logLineContext.logFilePosition.loggingFileName(),
-        logLineContext.logFilePosition.lineNumber, args, e.getMessage());
+        logLineContext.loggingFileName(),
+        logLineContext.getLineNumber(), args, e.getMessage());
       logger.trace(errorString);
       return false;
     }
@@ -477,19 +1009,17 @@ public class LogFileParser {
 
   protected boolean processRecorded(LogLineContext logLineContext, String args) {
     final Matcher matcher = REST_OF_RECORDED.matcher(args);
-    if (!checkForMatch("Recorded", args, logLineContext.logFilePosition, matcher)) {
+    if (!checkForMatch("Recorded", args, logLineContext, matcher)) {
       return false;
     }
 
     try {
       final int time = Integer.parseInt(matcher.group(1));
-      for (TalkingBookDataProcessor eventProcessor : eventProcessors) {
-        eventProcessor.onRecorded(logLineContext, time);
-      }
+      fireRecorded(logLineContext, time);
     } catch (NumberFormatException e) {
       final String errorString = String.format("%s : %d - Invalid number in Record action. Args=%s, Error=%s",
-        logLineContext.logFilePosition.loggingFileName(),
-        logLineContext.logFilePosition.lineNumber, args, e.getMessage());
+        logLineContext.loggingFileName(),
+        logLineContext.getLineNumber(), args, e.getMessage());
       logger.trace(errorString);
       return false;
     }
@@ -498,20 +1028,18 @@ public class LogFileParser {
 
     protected boolean processJumpTime(LogLineContext logLineContext, String args) {
         final Matcher matcher = REST_OF_JUMP_TIME.matcher(args);
-        if (!checkForMatch("Jump_time", args, logLineContext.logFilePosition, matcher)) {
+        if (!checkForMatch("Jump_time", args, logLineContext, matcher)) {
             return false;
         }
 
         try {
             final int timeFrom = Integer.parseInt(matcher.group(1));
             final int timeTo = Integer.parseInt(matcher.group(2));
-            for (TalkingBookDataProcessor eventProcessor : eventProcessors) {
-                eventProcessor.onJumpTime(logLineContext, timeFrom, timeTo);
-            }
+            fireJumpTime(logLineContext, timeFrom, timeTo);
         } catch (NumberFormatException e) {
             final String errorString = String.format("%s : %d - Invalid number in JUMP_TIME action. Args=%s, Error=%s",
-                logLineContext.logFilePosition.loggingFileName(),
-                logLineContext.logFilePosition.lineNumber, args, e.getMessage());
+                logLineContext.loggingFileName(),
+                logLineContext.getLineNumber(), args, e.getMessage());
             logger.trace(errorString);
             return false;
         }
@@ -519,44 +1047,42 @@ public class LogFileParser {
     }
 
   protected boolean processFaster(final LogLineContext logLineContext) {
-    for (TalkingBookDataProcessor eventProcessor : eventProcessors) {
-      eventProcessor.onFaster(logLineContext);
+    if (!subscription.wants(LogAction.faster)) {
+      return true;
     }
+    batch.addEvent(EventBatch.FASTER, logLineContext);
+    eventAdded();
     return true;
   }
 
   protected boolean processSlower(final LogLineContext logLineContext) {
-    for (TalkingBookDataProcessor eventProcessor : eventProcessors) {
-      eventProcessor.onSlower(logLineContext);
+    if (!subscription.wants(LogAction.slower)) {
+      return true;
     }
+    batch.addEvent(EventBatch.SLOWER, logLineContext);
+    eventAdded();
     return true;
   }
 
   protected boolean processSurvey(LogLineContext logLineContext, String args) {
     if (args == null) {
       final String errorString = String.format("%s : %d - No argument for Survey action.",
-        logLineContext.logFilePosition.loggingFileName(),
-        logLineContext.logFilePosition.lineNumber);
+        logLineContext.loggingFileName(),
+        logLineContext.getLineNumber());
       logger.trace(errorString);
       return false;
     }
 
     if ("taken".equalsIgnoreCase(args)) {
-      for (TalkingBookDataProcessor eventProcessor : eventProcessors) {
-        eventProcessor.onSurvey(logLineContext, getContentLastPlayed());
-      }
+      fireSurvey(logLineContext);
     } else if ("apply".equalsIgnoreCase(args)) {
-      for (TalkingBookDataProcessor eventProcessor : eventProcessors) {
-        eventProcessor.onSurveyCompleted(logLineContext, getContentLastPlayed(), true);
-      }
+      fireSurveyCompleted(logLineContext, true);
     } else if ("useless".equalsIgnoreCase(args)) {
-      for (TalkingBookDataProcessor eventProcessor : eventProcessors) {
-        eventProcessor.onSurveyCompleted(logLineContext, getContentLastPlayed(), false);
-      }
+      fireSurveyCompleted(logLineContext, false);
     } else {
       final String errorString = String.format("%s : %d - Invalid argument for Surveyaction. Args=%s",
-        logLineContext.logFilePosition.loggingFileName(),
-        logLineContext.logFilePosition.lineNumber, args);
+        logLineContext.loggingFileName(),
+        logLineContext.getLineNumber(), args);
       logger.trace(errorString);
       return false;
     }
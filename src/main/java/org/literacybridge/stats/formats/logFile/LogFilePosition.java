@@ -34,9 +34,13 @@ public class LogFilePosition {
   }
 
   public String loggingFileName() {
+      return loggingFileName(fileName);
+  }
+
+  static String loggingFileName(String fileName) {
       String [] parts = fileName.split("/");
       StringBuilder sb = new StringBuilder();
-      for (int ix=parts.length-9; ix<parts.length; ix++) {
+      for (int ix=Math.max(0, parts.length-9); ix<parts.length; ix++) {
           if (sb.length()>0) { sb.append('/'); }
           sb.append(parts[ix]);
       }
@@ -1,25 +1,184 @@
 package org.literacybridge.stats.formats.logFile;
 
+import org.joda.time.LocalTime;
 import org.literacybridge.stats.model.SyncProcessingContext;
 
 /**
  * This is the context for a single line being parsed.  In include location info, to all errors to better
  * represent where the occured as well as the general log information that is consistent for all events.
  * <p/>
- * logLineInfo can be null if there was some error when parsing the file.
+ * The log line info (the {@code 2r0096c008p023d18h18m49s357/314/314V} prefix of the line) can be missing if
+ * there was some error when parsing it; see {@link #hasLogLineInfo()}.
+ * <p/>
+ * To avoid allocating for every line, a LogFileParser reuses one LogLineContext for all the lines of a file,
+ * and just updates its fields as it goes.  So the context passed to a callback is only valid for the duration
+ * of that callback.  A processor that wants to hold on to it (e.g. to pair a survey with a later survey
+ * result) must keep a {@link #snapshot()} instead.
  *
  * @author willpugh
  */
 public class LogLineContext {
 
-  public final LogLineInfo logLineInfo;
-  public final LogFilePosition logFilePosition;
   public final SyncProcessingContext context;
 
+  private final boolean             reusable;
+  private final ContentIdDictionary contentIds;
+
+  private String fileName;
+  private int    lineNumber;
+
+  private boolean hasLogLineInfo;
+  private short   householdRotation;
+  private short   cycle;
+  private short   period;
+  private short   dayOfPeriod;
+  private int     secondOfDay;
+  private double  maxVolts;
+  private double  steadyStateVolts;
+  private double  minVolts;
+
   public LogLineContext(LogLineInfo logLineInfo, LogFilePosition logFilePosition, SyncProcessingContext context) {
-    this.logLineInfo = logLineInfo;
-    this.logFilePosition = logFilePosition;
+    this(context, null, false);
+    setPosition(logFilePosition.fileName, logFilePosition.lineNumber);
+    if (logLineInfo != null) {
+      setLogLineInfo(logLineInfo.householdRotation, logLineInfo.cycle, logLineInfo.period, logLineInfo.dayOfPeriod,
+        logLineInfo.timeInPeriod.getMillisOfDay() / 1000, logLineInfo.maxVolts, logLineInfo.steadyStateVolts,
+        logLineInfo.minVolts);
+    }
+  }
+
+  private LogLineContext(SyncProcessingContext context, ContentIdDictionary contentIds, boolean reusable) {
     this.context = context;
+    this.contentIds = contentIds;
+    this.reusable = reusable;
+  }
+
+  /**
+   * Creates the context that a parser reuses for every line it parses.
+   */
+  static LogLineContext createReusable(SyncProcessingContext context, ContentIdDictionary contentIds) {
+    return new LogLineContext(context, contentIds, true);
+  }
+
+  void setPosition(String fileName, int lineNumber) {
+    this.fileName = fileName;
+    this.lineNumber = lineNumber;
+    this.hasLogLineInfo = false;
+  }
+
+  void setLogLineInfo(short householdRotation, short cycle, short period, short dayOfPeriod, int secondOfDay,
+                      double maxVolts, double steadyStateVolts, double minVolts) {
+    this.hasLogLineInfo = true;
+    this.householdRotation = householdRotation;
+    this.cycle = cycle;
+    this.period = period;
+    this.dayOfPeriod = dayOfPeriod;
+    this.secondOfDay = secondOfDay;
+    this.maxVolts = maxVolts;
+    this.steadyStateVolts = steadyStateVolts;
+    this.minVolts = minVolts;
+  }
+
+  /**
+   * @return this context if it is already immutable, otherwise an immutable copy of its current values.
+   */
+  public LogLineContext snapshot() {
+    if (!reusable) {
+      return this;
+    }
+
+    final LogLineContext copy = new LogLineContext(context, contentIds, false);
+    copy.setPosition(fileName, lineNumber);
+    if (hasLogLineInfo) {
+      copy.setLogLineInfo(householdRotation, cycle, period, dayOfPeriod, secondOfDay, maxVolts, steadyStateVolts,
+        minVolts);
+    }
+    return copy;
+  }
+
+  /**
+   * @return the dictionary of the parser that made this context, which the int content IDs passed to a
+   * {@link org.literacybridge.stats.api.ContentIdProcessor} come from.  Null for a context made with the public
+   * constructor.
+   */
+  public ContentIdDictionary getContentIds() {
+    return contentIds;
+  }
+
+  public String getFileName() {
+    return fileName;
+  }
+
+  public int getLineNumber() {
+    return lineNumber;
+  }
+
+  /**
+   * @return the last few components of the file name, which is plenty to find the file in log messages.
+   */
+  public String loggingFileName() {
+    return LogFilePosition.loggingFileName(fileName);
+  }
+
+  /**
+   * @return false if the info at the start of the line could not be parsed, in which case the getters for it
+   * all return 0.
+   */
+  public boolean hasLogLineInfo() {
+    return hasLogLineInfo;
+  }
+
+  public short getHouseholdRotation() {
+    return householdRotation;
+  }
+
+  public short getCycle() {
+    return cycle;
+  }
+
+  public short getPeriod() {
+    return period;
+  }
+
+  public short getDayOfPeriod() {
+    return dayOfPeriod;
+  }
+
+  /**
+   * @return the time of day within the period, as the number of seconds since midnight.
+   */
+  public int getSecondOfDay() {
+    return secondOfDay;
+  }
+
+  public double getMaxVolts() {
+    return maxVolts;
+  }
+
+  public double getSteadyStateVolts() {
+    return steadyStateVolts;
+  }
+
+  public double getMinVolts() {
+    return minVolts;
+  }
+
+  /**
+   * @return a new LogFilePosition for this line.
+   */
+  public LogFilePosition getLogFilePosition() {
+    return new LogFilePosition(fileName, lineNumber);
+  }
+
+  /**
+   * @return a new LogLineInfo with the values from the start of this line, or null if they could not be parsed.
+   */
+  public LogLineInfo getLogLineInfo() {
+    if (!hasLogLineInfo) {
+      return null;
+    }
+    return new LogLineInfo(householdRotation, cycle, period, dayOfPeriod,
+      LocalTime.fromMillisOfDay(secondOfDay * 1000L), maxVolts, steadyStateVolts, minVolts);
   }
 
   @Override
@@ -30,18 +189,48 @@ public class LogLineContext {
     LogLineContext that = (LogLineContext) o;
 
     if (context != null ? !context.equals(that.context) : that.context != null) return false;
-    if (logFilePosition != null ? !logFilePosition.equals(that.logFilePosition) : that.logFilePosition != null)
-      return false;
-    if (logLineInfo != null ? !logLineInfo.equals(that.logLineInfo) : that.logLineInfo != null) return false;
+    if (lineNumber != that.lineNumber) return false;
+    if (fileName != null ? !fileName.equals(that.fileName) : that.fileName != null) return false;
+    if (hasLogLineInfo != that.hasLogLineInfo) return false;
+    if (!hasLogLineInfo) return true;
+
+    if (householdRotation != that.householdRotation) return false;
+    if (cycle != that.cycle) return false;
+    if (period != that.period) return false;
+    if (dayOfPeriod != that.dayOfPeriod) return false;
+    if (secondOfDay != that.secondOfDay) return false;
+    if (Double.compare(that.maxVolts, maxVolts) != 0) return false;
+    if (Double.compare(that.steadyStateVolts, steadyStateVolts) != 0) return false;
+    if (Double.compare(that.minVolts, minVolts) != 0) return false;
 
     return true;
   }
 
   @Override
   public int hashCode() {
-    int result = logLineInfo != null ? logLineInfo.hashCode() : 0;
-    result = 31 * result + (logFilePosition != null ? logFilePosition.hashCode() : 0);
+    int result = 0;
+    if (hasLogLineInfo) {
+      long temp;
+      result = householdRotation;
+      result = 31 * result + cycle;
+      result = 31 * result + period;
+      result = 31 * result + dayOfPeriod;
+      result = 31 * result + secondOfDay;
+      temp = maxVolts != +0.0d ? Double.doubleToLongBits(maxVolts) : 0L;
+      result = 31 * result + (int) (temp ^ (temp >>> 32));
+      temp = steadyStateVolts != +0.0d ? Double.doubleToLongBits(steadyStateVolts) : 0L;
+      result = 31 * result + (int) (temp ^ (temp >>> 32));
+      temp = minVolts != +0.0d ? Double.doubleToLongBits(minVolts) : 0L;
+      result = 31 * result + (int) (temp ^ (temp >>> 32));
+    }
+    result = 31 * result + (fileName != null ? fileName.hashCode() : 0);
+    result = 31 * result + lineNumber;
     result = 31 * result + (context != null ? context.hashCode() : 0);
     return result;
   }
+
+  @Override
+  public String toString() {
+    return fileName + ":" + lineNumber;
+  }
 }
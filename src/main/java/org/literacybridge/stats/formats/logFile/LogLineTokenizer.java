@@ -0,0 +1,467 @@
+package org.literacybridge.stats.formats.logFile;
+
+/**
+ * A hand-written, single pass tokenizer for Talking Book log lines.  It decodes the same grammar as
+ * {@link LogFileParser#LOG_LINE_PATTERN}, {@link LogFileParser#NEW_LINE_PATTERN},
+ * {@link LogFileParser#LOG_LINE_START_PATTERN} and the various REST_OF_* patterns, but walks the line once
+ * with a cursor and does not allocate anything for the numeric fields.
+ * <p/>
+ * The tokenizer is deliberately conservative.  Whenever a line is not exactly in the common, well-formed
+ * shape the methods return false, and the caller is expected to fall back to the regular expressions, which
+ * remain the reference for how odd and corrupt lines are treated.
+ * <p/>
+ * Instances are not thread safe, and hold on to the line between {@link #reset(CharSequence)} calls.
+ */
+final class LogLineTokenizer {
+
+  /**
+   * Longest run of digits we will convert ourselves.  Anything longer could overflow an int, and the regex
+   * path knows how to report that.
+   */
+  private static final int MAX_DIGITS = 9;
+
+  private static final String VOLTAGE_DROP = "VOLTAGE DROP:";
+
+  private CharSequence line;
+  private int          length;
+  private int          pos;
+
+  //Prelude, e.g. 2r0096c008p023d18h18m53s401/314/314V
+  private int preludeEnd;
+  short householdRotation;
+  short cycle;
+  short period;
+  short dayOfPeriod;
+  int   hourOfPeriod;
+  int   minuteOfPeriod;
+  int   secondOfPeriod;
+  int   maxVolts;
+  int   steadyStateVolts;
+  int   minVolts;
+
+  //Action, e.g. PLAY
+  int actionStart;
+  int actionEnd;
+
+  //Everything after the action, the colons and the whitespace.
+  int argsStart;
+
+  //Decoded arguments.  Which of these are valid depends on the decode* method that was last called.
+  int     tokenStart;
+  int     tokenEnd;
+  int     firstNumber;
+  int     secondNumber;
+  int     volume;
+  int     voltage;
+  boolean ended;
+  int     voltageDropStart;
+  int     voltageDropEnd;
+
+  /**
+   * Points the tokenizer at a new line, and splits it into the prelude, action and argument sections, the
+   * same way LOG_LINE_PATTERN would.
+   *
+   * @param line the raw line
+   * @return false if the line has no action section at all (LOG_LINE_PATTERN would not match), or if it
+   * contains characters that the regular expressions treat specially.
+   */
+  boolean reset(CharSequence line) {
+    this.line = line;
+    this.length = line.length();
+
+    int colon = -1;
+    for (int i = 0; i < length; i++) {
+      if (line.charAt(i) == ':') {
+        colon = i;
+        break;
+      }
+    }
+    if (colon < 0) {
+      return false;
+    }
+    preludeEnd = colon;
+
+    pos = colon + 1;
+    actionStart = pos;
+    while (pos < length && isWordChar(line.charAt(pos))) {
+      pos++;
+    }
+    actionEnd = pos;
+    if (actionEnd == actionStart) {
+      return false;
+    }
+
+    while (pos < length && line.charAt(pos) == ':') {
+      pos++;
+    }
+    while (pos < length && isWhitespace(line.charAt(pos))) {
+      pos++;
+    }
+    argsStart = pos;
+
+    //'.' in (.*) does not match line terminators, so a line with one of those is not a log line.
+    for (int i = argsStart; i < length; i++) {
+      if (isLineTerminator(line.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Decodes the prelude into the householdRotation ... minVolts fields.
+   *
+   * @return false if the prelude is not a well formed, in range prelude.
+   */
+  boolean decodePrelude() {
+    pos = 0;
+    final int end = preludeEnd;
+
+    //Newer firmware prefixes the line with "<digits>p"
+    int digitsEnd = skipDigits(0, end);
+    if (digitsEnd > 0 && digitsEnd < end && line.charAt(digitsEnd) == 'p') {
+      pos = digitsEnd + 1;
+      digitsEnd = skipDigits(pos, end);
+    }
+
+    //Either "<rotation>r<cycle>c" or, for old logs, "0<cycle>c"
+    if (digitsEnd == pos || digitsEnd >= end) {
+      return false;
+    }
+    final char afterDigits = line.charAt(digitsEnd);
+    int value;
+    if (afterDigits == 'r') {
+      if ((value = readShort('r', end)) < 0) return false;
+      householdRotation = (short) value;
+      if ((value = readShort('c', end)) < 0) return false;
+      cycle = (short) value;
+    } else if (afterDigits == 'c' && line.charAt(pos) == '0' && digitsEnd - pos >= 2) {
+      pos++;
+      householdRotation = 0;
+      if ((value = readShort('c', end)) < 0) return false;
+      cycle = (short) value;
+    } else {
+      return false;
+    }
+
+    if ((value = readShort('p', end)) < 0) return false;
+    period = (short) value;
+
+    //Some logs have a letter between the period and the day ("pS18d").  The regex allows any run of
+    //non-digits; we only take letters and leave anything stranger to the regex.
+    while (pos < end && isAsciiLetter(line.charAt(pos))) {
+      pos++;
+    }
+
+    if ((value = readShort('d', end)) < 0) return false;
+    dayOfPeriod = (short) value;
+    if ((hourOfPeriod = readInt('h', end)) < 0) return false;
+    if ((minuteOfPeriod = readInt('m', end)) < 0) return false;
+    if ((secondOfPeriod = readInt('s', end)) < 0) return false;
+    if ((maxVolts = readInt('/', end)) < 0) return false;
+    if ((steadyStateVolts = readInt('/', end)) < 0) return false;
+    if ((minVolts = readInt('V', end)) < 0) return false;
+
+    return pos == end;
+  }
+
+  /**
+   * @return true if the action token is exactly (case sensitive) the given text.
+   */
+  boolean actionIs(String text) {
+    return regionEquals(actionStart, actionEnd, text, false);
+  }
+
+  /**
+   * @return true if the arguments are exactly (ignoring case) the given text.
+   */
+  boolean argsEqualIgnoreCase(String text) {
+    return regionEquals(argsStart, length, text, true);
+  }
+
+  /**
+   * @return true if the arguments start the way a voltage drop does, whether or not the rest is well formed.
+   */
+  boolean hasVoltageDrop() {
+    pos = argsStart;
+    return expect(VOLTAGE_DROP);
+  }
+
+  String action() {
+    return line.subSequence(actionStart, actionEnd).toString();
+  }
+
+  String args() {
+    return line.subSequence(argsStart, length).toString();
+  }
+
+  String voltageDropText() {
+    return line.subSequence(voltageDropStart, voltageDropEnd).toString();
+  }
+
+  /**
+   * @return true if Double.parseDouble would take voltageDropText().  It is only digits and '.'s, so that is
+   *         the case if it has at least one digit and at most one '.'.
+   */
+  boolean voltageDropIsNumber() {
+    boolean digit = false;
+    boolean dot = false;
+    for (int i = voltageDropStart; i < voltageDropEnd; i++) {
+      if (line.charAt(i) != '.') {
+        digit = true;
+      } else if (dot) {
+        return false;
+      } else {
+        dot = true;
+      }
+    }
+    return digit;
+  }
+
+  /**
+   * VOLTAGE DROP:\s*([0-9.]+)v\s*in\s*(\d+)\s+sec
+   * <p/>
+   * Fills in voltageDropStart/voltageDropEnd (the text of the dropped voltage, which the caller hands to
+   * Double.parseDouble just like the regex path does) and firstNumber (the time).
+   */
+  boolean decodeVoltageDrop() {
+    pos = argsStart;
+    if (!expect(VOLTAGE_DROP)) return false;
+    skipWhitespace();
+    voltageDropStart = pos;
+    while (pos < length && (isDigit(line.charAt(pos)) || line.charAt(pos) == '.')) {
+      pos++;
+    }
+    voltageDropEnd = pos;
+    if (voltageDropEnd == voltageDropStart || !expect("v")) return false;
+    skipWhitespace();
+    if (!expect("in")) return false;
+    skipWhitespace();
+    if ((firstNumber = readNumber()) < 0) return false;
+    if (skipWhitespace() == 0) return false;
+    return expect("sec") && pos == length;
+  }
+
+  /**
+   * (\S+)\s+@VOL=(\d+)\s+@Volt=(\S+)\s*
+   * <p/>
+   * Only takes a purely numeric voltage.
+   */
+  boolean decodePlay() {
+    pos = argsStart;
+    if (!readToken()) return false;
+    if (skipWhitespace() == 0 || !expect("@VOL=")) return false;
+    if ((volume = readNumber()) < 0) return false;
+    if (skipWhitespace() == 0 || !expect("@Volt=")) return false;
+    if ((voltage = readNumber()) < 0) return false;
+    skipWhitespace();
+    return pos == length;
+  }
+
+  /**
+   * (\S+)\s+(\d+)/(\d+)sec\s+@VOL=(\d+)\s+@Volt=(\S+)\s*
+   * <p/>
+   * Only takes a voltage that is either numeric, or numeric followed by a single '-' and some letters,
+   * since that is what voltageString.split("-") handles in the simple way.
+   */
+  boolean decodePlayed() {
+    pos = argsStart;
+    if (!readToken()) return false;
+    if (skipWhitespace() == 0) return false;
+    if ((firstNumber = readNumber()) < 0 || firstNumber > Short.MAX_VALUE || !expect("/")) return false;
+    if ((secondNumber = readNumber()) < 0 || secondNumber > Short.MAX_VALUE || !expect("sec")) return false;
+    if (skipWhitespace() == 0 || !expect("@VOL=")) return false;
+    if ((volume = readNumber()) < 0) return false;
+    if (skipWhitespace() == 0 || !expect("@Volt=")) return false;
+    if ((voltage = readNumber()) < 0) return false;
+
+    ended = false;
+    if (pos < length && line.charAt(pos) == '-') {
+      pos++;
+      final int suffixStart = pos;
+      while (pos < length && isAsciiLetter(line.charAt(pos))) {
+        pos++;
+      }
+      ended = regionEquals(suffixStart, pos, "ended", true);
+    }
+    if (pos < length && !isWhitespace(line.charAt(pos))) {
+      return false;
+    }
+    skipWhitespace();
+    return pos == length;
+  }
+
+  /**
+   * (\S+)\s+->\s+(\$?\d+(?:-\d)*)\s*
+   * <p/>
+   * firstNumber receives the value the regex path would pass on: the number if the category is a plain
+   * number, or 0 for things like "$1-0".
+   */
+  boolean decodeRecord() {
+    pos = argsStart;
+    if (!readToken()) return false;
+    if (skipWhitespace() == 0 || !expect("->") || skipWhitespace() == 0) return false;
+
+    boolean plainNumber = true;
+    if (pos < length && line.charAt(pos) == '$') {
+      plainNumber = false;
+      pos++;
+    }
+    if ((firstNumber = readNumber()) < 0) return false;
+    while (pos + 1 < length && line.charAt(pos) == '-' && isDigit(line.charAt(pos + 1))) {
+      plainNumber = false;
+      pos += 2;
+    }
+    skipWhitespace();
+    if (pos != length) return false;
+
+    if (!plainNumber) {
+      firstNumber = 0;
+    }
+    return true;
+  }
+
+  /**
+   * RECORDED\s+\(secs\):\s*(\d+)\s*
+   */
+  boolean decodeRecorded() {
+    pos = argsStart;
+    if (!expect("RECORDED") || skipWhitespace() == 0 || !expect("(secs):")) return false;
+    skipWhitespace();
+    if ((firstNumber = readNumber()) < 0) return false;
+    skipWhitespace();
+    return pos == length;
+  }
+
+  /**
+   * JUMP_TIME:(\d+)->(\d+)
+   */
+  boolean decodeJumpTime() {
+    pos = argsStart;
+    if (!expect("JUMP_TIME:")) return false;
+    if ((firstNumber = readNumber()) < 0 || !expect("->")) return false;
+    if ((secondNumber = readNumber()) < 0) return false;
+    return pos == length;
+  }
+
+  //+++++++++++++++ Cursor helpers ++++++++++++++++++//
+
+  private boolean readToken() {
+    tokenStart = pos;
+    while (pos < length && !isWhitespace(line.charAt(pos))) {
+      pos++;
+    }
+    tokenEnd = pos;
+    return tokenEnd > tokenStart;
+  }
+
+  private int skipWhitespace() {
+    final int start = pos;
+    while (pos < length && isWhitespace(line.charAt(pos))) {
+      pos++;
+    }
+    return pos - start;
+  }
+
+  private boolean expect(String text) {
+    final int textLength = text.length();
+    if (pos + textLength > length) {
+      return false;
+    }
+    for (int i = 0; i < textLength; i++) {
+      if (line.charAt(pos + i) != text.charAt(i)) {
+        return false;
+      }
+    }
+    pos += textLength;
+    return true;
+  }
+
+  /**
+   * Reads a run of digits.
+   *
+   * @return the value, or -1 if there are no digits or too many to safely convert.
+   */
+  private int readNumber() {
+    final int start = pos;
+    int value = 0;
+    while (pos < length) {
+      final char c = line.charAt(pos);
+      if (!isDigit(c)) {
+        break;
+      }
+      value = value * 10 + (c - '0');
+      pos++;
+    }
+    final int digits = pos - start;
+    return (digits == 0 || digits > MAX_DIGITS) ? -1 : value;
+  }
+
+  private int readInt(char terminator, int end) {
+    final int value = readNumber();
+    if (value < 0 || pos >= end || line.charAt(pos) != terminator) {
+      return -1;
+    }
+    pos++;
+    return value;
+  }
+
+  private int readShort(char terminator, int end) {
+    final int value = readInt(terminator, end);
+    return value > Short.MAX_VALUE ? -1 : value;
+  }
+
+  private int skipDigits(int from, int end) {
+    while (from < end && isDigit(line.charAt(from))) {
+      from++;
+    }
+    return from;
+  }
+
+  private boolean regionEquals(int start, int end, String text, boolean ignoreCase) {
+    if (end - start != text.length()) {
+      return false;
+    }
+    for (int i = 0; i < text.length(); i++) {
+      char a = line.charAt(start + i);
+      char b = text.charAt(i);
+      if (a != b && !(ignoreCase && toLowerAscii(a) == toLowerAscii(b))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  static boolean isAsciiLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  /**
+   * The regex \w, without UNICODE_CHARACTER_CLASS.
+   */
+  static boolean isWordChar(char c) {
+    return isAsciiLetter(c) || isDigit(c) || c == '_';
+  }
+
+  /**
+   * The regex \s, without UNICODE_CHARACTER_CLASS.
+   */
+  static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  /**
+   * The characters that '.' does not match, without DOTALL or UNIX_LINES.
+   */
+  static boolean isLineTerminator(char c) {
+    return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
+
+  static char toLowerAscii(char c) {
+    return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+  }
+}
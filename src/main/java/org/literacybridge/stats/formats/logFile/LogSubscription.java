@@ -0,0 +1,125 @@
+package org.literacybridge.stats.formats.logFile;
+
+import org.literacybridge.stats.api.LogSubscriber;
+import org.literacybridge.stats.api.TalkingBookDataProcessor;
+
+import java.util.Collection;
+import java.util.EnumSet;
+
+/**
+ * Which log events, and which parts of them, a processor uses.  A LogFileParser only raises the events that one
+ * of its processors subscribes to, and only fills in the fields one of them wants, which saves decoding the
+ * start of every line, looking up content IDs, and handing out events that are just going to be ignored.
+ * <p/>
+ * The actions are the actions whose events are wanted: play for onPlay, survey for onSurvey and
+ * onSurveyCompleted, and so on.  Voltage drops are logged on top of the other actions, and are subscribed to
+ * with the VOLTAGE_DROPS field instead.
+ * <p/>
+ * Subscribing to less never changes which lines a parser counts as errors.  The arguments of every known action
+ * are still checked; they just aren't passed on if nobody wants them.
+ */
+public final class LogSubscription {
+
+  /**
+   * The values from the start of each line (rotation, cycle, period, day, time and voltages).  Without this,
+   * the LogLineContexts passed to the callbacks only have the file name and line number, and hasLogLineInfo()
+   * is false.
+   */
+  public static final int LINE_INFO     = 1;
+  /**
+   * The content IDs passed to the callbacks.  Without this, they are all ContentIdDictionary.EMPTY ("").
+   */
+  public static final int CONTENT_IDS   = 1 << 1;
+  /**
+   * The onVoltageDrop events, whatever the action they are logged on.
+   */
+  public static final int VOLTAGE_DROPS = 1 << 2;
+
+  public static final int ALL_FIELDS = LINE_INFO | CONTENT_IDS | VOLTAGE_DROPS;
+
+  public static final LogSubscription ALL = new LogSubscription(EnumSet.allOf(LogAction.class), ALL_FIELDS);
+
+  private final EnumSet<LogAction> actions;
+  private final int                fields;
+
+  private LogSubscription(EnumSet<LogAction> actions, int fields) {
+    this.actions = actions;
+    this.fields = fields;
+  }
+
+  /**
+   * @param actions the actions whose events are wanted
+   * @param fields  any of LINE_INFO, CONTENT_IDS and VOLTAGE_DROPS, or'ed together
+   */
+  public static LogSubscription of(EnumSet<LogAction> actions, int fields) {
+    if ((fields & ~ALL_FIELDS) != 0) {
+      throw new IllegalArgumentException("Unknown fields in " + Integer.toBinaryString(fields));
+    }
+    return new LogSubscription(EnumSet.copyOf(actions), fields);
+  }
+
+  /**
+   * @return the subscription of a processor: its own if it is a {@link LogSubscriber}, otherwise ALL.
+   */
+  public static LogSubscription of(TalkingBookDataProcessor processor) {
+    if (processor instanceof LogSubscriber) {
+      final LogSubscription subscription = ((LogSubscriber) processor).getLogSubscription();
+      if (subscription != null) {
+        return subscription;
+      }
+    }
+    return ALL;
+  }
+
+  /**
+   * @return everything that any of the processors subscribes to.
+   */
+  public static LogSubscription of(Collection<? extends TalkingBookDataProcessor> processors) {
+    final EnumSet<LogAction> actions = EnumSet.noneOf(LogAction.class);
+    int fields = 0;
+    for (TalkingBookDataProcessor processor : processors) {
+      final LogSubscription subscription = of(processor);
+      actions.addAll(subscription.actions);
+      fields |= subscription.fields;
+    }
+    return new LogSubscription(actions, fields);
+  }
+
+  public boolean wants(LogAction action) {
+    return actions.contains(action);
+  }
+
+  /**
+   * @return true if all of the given fields are wanted.
+   */
+  public boolean wantsFields(int fields) {
+    return (this.fields & fields) == fields;
+  }
+
+  public EnumSet<LogAction> getActions() {
+    return EnumSet.copyOf(actions);
+  }
+
+  public int getFields() {
+    return fields;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof LogSubscription)) return false;
+
+    LogSubscription that = (LogSubscription) o;
+    return fields == that.fields && actions.equals(that.actions);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * actions.hashCode() + fields;
+  }
+
+  @Override
+  public String toString() {
+    return "LogSubscription{actions=" + actions + ", fields=" + Integer.toBinaryString(fields) + "}";
+  }
+}
@@ -1,23 +1,29 @@
 package org.literacybridge.stats.formats.syncDirectory;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
-import org.apache.commons.io.FileUtils;
+import com.google.common.hash.Hashing;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.filefilter.FalseFileFilter;
-import org.apache.commons.io.filefilter.RegexFileFilter;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
 import org.apache.commons.lang.StringUtils;
 import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
 import org.joda.time.LocalDateTime;
 import org.literacybridge.dashboard.processes.ContentUsageUpdateProcess;
+import org.literacybridge.stats.ArchiveIndex;
 import org.literacybridge.stats.DirectoryIterator;
+import org.literacybridge.stats.api.DirectoryCallbacks;
+import org.literacybridge.stats.api.ForkableDirectoryCallbacks;
+import org.literacybridge.stats.api.IngestedLogProcessor;
+import org.literacybridge.stats.api.IngestedLogRegistry;
 import org.literacybridge.stats.api.TalkingBookDataProcessor;
 import org.literacybridge.stats.formats.exceptions.CorruptFileException;
 import org.literacybridge.stats.formats.flashData.FlashData;
-import org.literacybridge.stats.formats.flashData.SystemData;
+import org.literacybridge.stats.formats.logFile.ContentIdDictionary;
+import org.literacybridge.stats.formats.logFile.LogEventRecorder;
 import org.literacybridge.stats.formats.logFile.LogFileParser;
+import org.literacybridge.stats.formats.logFile.LogSubscription;
 import org.literacybridge.stats.formats.statsFile.StatsFile;
+import org.literacybridge.stats.formats.tbData.TbDataLineHandler;
 import org.literacybridge.stats.formats.tbData.TbDataParser;
 import org.literacybridge.stats.model.DeploymentPerDevice;
 import org.literacybridge.stats.model.DirectoryFormat;
@@ -27,27 +33,33 @@ import org.literacybridge.stats.model.SyncDirId;
 import org.literacybridge.stats.model.SyncProcessingContext;
 import org.literacybridge.dashboard.dbTables.TbDataLine;
 import org.literacybridge.stats.processors.AbstractDirectoryProcessor;
+import org.literacybridge.utils.FileTree;
 import org.literacybridge.utils.FsUtils;
+import org.literacybridge.utils.LocalFileTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileFilter;
-import java.io.FileInputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.regex.Matcher;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 /**
  */
-public class DirectoryProcessor extends AbstractDirectoryProcessor {
+public class DirectoryProcessor extends AbstractDirectoryProcessor implements ForkableDirectoryCallbacks {
   public static final Map<String, String> CATEGORY_MAP = ImmutableMap.<String, String>builder()
     .put("1", "AGRIC")
     .put("1-2", "LIVESTOCK")
@@ -56,38 +68,108 @@ public class DirectoryProcessor extends AbstractDirectoryProcessor {
     .put("0", "OTHER")
     .put("$0-1", "TB")
     .build();
-  private static final Pattern ARCHIVED_LOG_PATTERN = Pattern.compile("log_(.*).txt");
   protected static final Logger logger = LoggerFactory.getLogger(DirectoryProcessor.class);
   private static final String statExtension = ".stat";
-
-  //Stats files don't have any "."s in them (because they have no file extensions) (other than ".stat", you mean?)
-  private static final Pattern STATS_FILE_PATTERN = Pattern.compile("(.*)" + statExtension);
+  private static final Pattern ASCII = Pattern.compile("^\\p{ASCII}*$");
 
   private static final String PROGRESS_ROOT_FORMAT    = "%s%n";
   private static final String PROGRESS_TBDATA_FORMAT  = "  parsing %s%n";
   private static final String PROGRESS_DEPL_FORMAT    = "    %s (%s)%n";
   private static final String PROGRESS_VILLAGE_FORMAT = "      %s%n";
   private static final String PROGRESS_TB_FORMAT      = "        %s%n";
+  // What completeLogFile gives for an archived log already ingested by an earlier import, in place of its number of
+  // errors.
+  private static final int ALREADY_INGESTED = -1;
 
   private final Collection<TalkingBookDataProcessor> dataProcessorEventListeners;
+  private final ContentIdDictionary contentIds;
+  // The archived logs already ingested, whose events aren't written out again.  Null to not check them.
+  private final IngestedLogRegistry ingestedLogs;
   private ProcessingContext currProcessingContext;
   private Set<String> processedLogFiles = new HashSet<>();
+  // What the syncs of the current Talking Book say about its deployment, by what it was worked out from.
+  private final Map<List<Object>, SyncProcessingContext> deploymentContexts = new HashMap<>();
+  private ExecutorService logParsingPool;
+  private int maxBufferedLogFiles;
+  // In a fork, the only listener, recording the events for the real listeners.  Null otherwise.
+  private final LogEventRecorder forkEvents;
+  private String forkTalkingBook;
 
     public DirectoryProcessor(
       Collection<TalkingBookDataProcessor> dataProcessorEventListeners,
       ContentUsageUpdateProcess.UpdateUsageContext context) {
       super(context);
     this.dataProcessorEventListeners = dataProcessorEventListeners;
+    this.contentIds = context.getContentIds();
+    this.ingestedLogs = context.getIngestedLogs();
+    this.forkEvents = null;
+  }
+
+  private DirectoryProcessor(DirectoryProcessor parent, LogEventRecorder forkEvents) {
+    super(parent.context);
+    this.dataProcessorEventListeners = Collections.<TalkingBookDataProcessor>singletonList(forkEvents);
+    this.contentIds = parent.contentIds;
+    this.ingestedLogs = parent.ingestedLogs;
+    this.forkEvents = forkEvents;
+  }
+
+  /**
+   * The fork processes its Talking Book's sync dirs one after the other, on its own thread, recording what it
+   * would have told the listeners.  The log parsing pool isn't used by forks.
+   */
+  @Override
+  public DirectoryCallbacks fork() {
+    LogEventRecorder recorder = new LogEventRecorder(LogSubscription.of(dataProcessorEventListeners));
+    return inCurrentScope(new DirectoryProcessor(this, recorder));
+  }
+
+  /**
+   * Replays the fork's events to the listeners, so they see the Talking Books one at a time and in order, as
+   * they would have without forking.
+   */
+  @Override
+  public void join(DirectoryCallbacks fork) throws Exception {
+    DirectoryProcessor forked = (DirectoryProcessor) fork;
+    if (forked.forkTalkingBook != null) {
+      System.out.print(String.format(PROGRESS_TB_FORMAT, forked.forkTalkingBook));
+    }
+    forked.forkEvents.replay(dataProcessorEventListeners);
+    joinResult(forked);
+  }
+
+  /**
+   * Parses the log files of each sync directory on the given pool, rather than one after the other on the
+   * calling thread.  The listeners still see every file's events on the calling thread, in the same order as
+   * when parsing sequentially, so they don't need to be thread safe.
+   *
+   * @param logParsingPool      the pool to parse on, or null to parse sequentially.  The caller owns the pool
+   *                            and is responsible for shutting it down.
+   * @param maxBufferedLogFiles how many log files may be parsed and held in memory ahead of the one whose
+   *                            events are being delivered.
+   */
+  public void setLogParsingPool(@Nullable ExecutorService logParsingPool, int maxBufferedLogFiles) {
+    if (logParsingPool != null && maxBufferedLogFiles < 1) {
+      throw new IllegalArgumentException("maxBufferedLogFiles must be at least 1");
+    }
+    this.logParsingPool = logParsingPool;
+    this.maxBufferedLogFiles = maxBufferedLogFiles;
   }
 
   static public int runCallbacksOnLogFile(File file, LogFileParser parser) throws IOException {
-    FileInputStream fis = new FileInputStream(file);
-    try {
-      return parser.parse(file.getAbsolutePath(), fis);
-    } finally {
-      IOUtils.closeQuietly(fis);
+    return parser.parse(file.toPath());
+  }
+
+  static public int runCallbacksOnLogFile(FileTree tree, File file, LogFileParser parser) throws IOException {
+    final Path path = tree.toPath(file);
+    if (path != null) {
+      return parser.parse(path);
     }
+    return parser.parse(file.getAbsolutePath(), ByteBuffer.wrap(tree.readFully(file)));
+  }
 
+  private static ByteBuffer readLogFile(FileTree tree, File file, LogFileParser parser) throws IOException {
+    final Path path = tree.toPath(file);
+    return path != null ? parser.read(path) : ByteBuffer.wrap(tree.readFully(file));
   }
 
   /**
@@ -99,13 +181,17 @@ public class DirectoryProcessor extends AbstractDirectoryProcessor {
    * @throws java.io.IOException
    */
   static public FlashData loadFlashDataFile(File syncDir) throws IOException {
+    return loadFlashDataFile(LocalFileTree.INSTANCE, syncDir);
+  }
+
+  static public FlashData loadFlashDataFile(FileTree tree, File syncDir) throws IOException {
     final File flashDataFile = new File(syncDir, FsUtils.FsAgnostify("statistics/flashData.bin"));
 
     FlashData retVal = null;
-    FileInputStream fis = null;
+    InputStream fis = null;
     try {
-      if (flashDataFile.exists() && flashDataFile.length() == 6708) {
-        fis = new FileInputStream(flashDataFile);
+      if (tree.exists(flashDataFile) && tree.length(flashDataFile) == 6708) {
+        fis = tree.open(flashDataFile);
         retVal = FlashData.parseFromStream(fis);
 
         LinkedList<String> errors = new LinkedList<>();
@@ -144,10 +230,14 @@ public class DirectoryProcessor extends AbstractDirectoryProcessor {
      * @return a Properties object, or null if there is no such file.
      */
   static public Properties loadDeploymentProperties(File syncDir) {
+      return loadDeploymentProperties(LocalFileTree.INSTANCE, syncDir);
+  }
+
+  static public Properties loadDeploymentProperties(FileTree tree, File syncDir) {
       File propertiesFile = new File(syncDir, FsUtils.FsAgnostify("system/deployment.properties"));
-      if (propertiesFile.exists()) {
+      if (tree.exists(propertiesFile)) {
           Properties result = new Properties();
-          try (FileInputStream propertiesStream = new FileInputStream(propertiesFile) ) {
+          try (InputStream propertiesStream = tree.open(propertiesFile) ) {
               result.load(propertiesStream);
               return result;
           } catch (Exception e) {
@@ -164,7 +254,10 @@ public class DirectoryProcessor extends AbstractDirectoryProcessor {
      * @return the package name.
      */
   static public String findContentIdByPackage(File syncDir, String defaultContentId) {
-      return findValueByMarkerFile(syncDir, ".pkg", defaultContentId);
+      return findContentIdByPackage(LocalFileTree.INSTANCE, syncDir, defaultContentId);
+  }
+  static public String findContentIdByPackage(FileTree tree, File syncDir, String defaultContentId) {
+      return findValueByMarkerFile(tree, syncDir, ".pkg", defaultContentId);
   }
   static public String findContentIdByPackage(File syncDir) {
       return findContentIdByPackage(syncDir, null);
@@ -176,7 +269,22 @@ public class DirectoryProcessor extends AbstractDirectoryProcessor {
      * @return the project name, or null if not found.
      */
     static public String findProjectByTbFs(File syncDir) {
-        return findValueByMarkerFile(syncDir, ".prj", null);
+        return findProjectByTbFs(LocalFileTree.INSTANCE, syncDir);
+    }
+    static public String findProjectByTbFs(FileTree tree, File syncDir) {
+        return findValueByMarkerFile(tree, syncDir, ".prj", null);
+    }
+
+    // Marker file filters, by extension.
+    private static final ConcurrentMap<String, FilenameFilter> markerFileFilters = new ConcurrentHashMap<>();
+
+    private static FilenameFilter markerFileFilter(String extension) {
+        FilenameFilter filter = markerFileFilters.get(extension);
+        if (filter == null) {
+            filter = new WildcardFileFilter("*" + extension);
+            markerFileFilters.putIfAbsent(extension, filter);
+        }
+        return filter;
     }
 
     /**
@@ -188,12 +296,14 @@ public class DirectoryProcessor extends AbstractDirectoryProcessor {
      * @return the first file with the extension, or defaultValue is none is found.
      */
     static public String findValueByMarkerFile(File syncDir, String extension, String defaultValue) {
+        return findValueByMarkerFile(LocalFileTree.INSTANCE, syncDir, extension, defaultValue);
+    }
+    static public String findValueByMarkerFile(FileTree tree, File syncDir, String extension, String defaultValue) {
         File systemDir = new File(syncDir, "system");
         if (!extension.startsWith(".")) throw new IllegalArgumentException("Extension must begin with '.'");
         String result = defaultValue;
-        if (systemDir.exists()) {
-            FileFilter fileFilter = new WildcardFileFilter("*"+extension);
-            File[] files = systemDir.listFiles(fileFilter);
+        if (tree.exists(systemDir)) {
+            File[] files = tree.list(systemDir, markerFileFilter(extension));
             if (files != null && files.length > 0) {
                 String name = files[0].getName();
                 result = name.substring(0, name.lastIndexOf('.'));
@@ -203,42 +313,19 @@ public class DirectoryProcessor extends AbstractDirectoryProcessor {
     }
 
     static public LocalDateTime findLastUpdateTime(File syncDir) {
-        File systemDir = new File(syncDir, "system");
-        File lastUpdateFile = new File(systemDir, "last_updated.txt");
-        if (lastUpdateFile.exists()) {
-            try (FileInputStream lastUpdateStream = new FileInputStream(lastUpdateFile);
-                InputStreamReader lastUpdateReader = new InputStreamReader(lastUpdateStream);
-                BufferedReader bufferedReader = new BufferedReader(lastUpdateReader)) {
-                String lastUpdate = bufferedReader.readLine().trim();
-                return DirectoryIterator.lbToIsoTimestamp(lastUpdate);
-            } catch (Exception e) {
-                // Ignore exception, and continue without value.
-            }
-        }
-        return null;
+        return findLastUpdateTime(LocalFileTree.INSTANCE, syncDir);
+    }
+    static public LocalDateTime findLastUpdateTime(FileTree tree, File syncDir) {
+        File lastUpdateFile = new File(syncDir, FsUtils.FsAgnostify("system/last_updated.txt"));
+        return tree.exists(lastUpdateFile) ? SyncDirMetadata.readLastUpdated(tree, lastUpdateFile) : null;
     }
 
     static public String findValueInSysData(File syncDir, String key) {
-        File systemDir = new File(syncDir, "system");
-        File lastUpdateFile = new File(systemDir, "sysdata.txt");
-        Pattern pattern = Pattern.compile("^" + key + ":([a-zA-Z0-9_-]+)");
-        if (lastUpdateFile.exists()) {
-            try (FileInputStream lastUpdateStream = new FileInputStream(lastUpdateFile);
-                InputStreamReader lastUpdateReader = new InputStreamReader(lastUpdateStream);
-                BufferedReader bufferedReader = new BufferedReader(lastUpdateReader)) {
-                String line;
-                while ((line = bufferedReader.readLine()) != null) {
-                    Matcher matcher = pattern.matcher(line.trim());
-                    if (matcher.matches()) {
-                        return matcher.group(1);
-                    }
-                }
-            } catch (Exception e) {
-                // Ignore exception, and continue without properties file.
-            }
-        }
-        return null;
-
+        return findValueInSysData(LocalFileTree.INSTANCE, syncDir, key);
+    }
+    static public String findValueInSysData(FileTree tree, File syncDir, String key) {
+        File sysDataFile = new File(syncDir, FsUtils.FsAgnostify("system/sysdata.txt"));
+        return tree.exists(sysDataFile) ? SyncDirMetadata.readSysData(tree, sysDataFile).get(key) : null;
     }
 
   /**
@@ -262,7 +349,7 @@ public class DirectoryProcessor extends AbstractDirectoryProcessor {
    * @param deployment    The Deployment name, from the File System directory structure.
    * @param villageName   the village name the talking book was deployed in, as determined from the file system
    * @param flashData     the flashdata file, if it exists for this sync.
-   * @param deploymentProperties the deployment.properties file, if it is present on the TB file system.
+   * @param metadata      what the TB file system's system directory says about the deployment.
    * @return
    */
    public SyncProcessingContext determineProcessingContext(
@@ -272,7 +359,46 @@ public class DirectoryProcessor extends AbstractDirectoryProcessor {
       String deployment,
       String villageName,
       @Nullable FlashData flashData,
-      @Nullable Properties deploymentProperties) {
+      SyncDirMetadata metadata) {
+
+      String flashDataPackage = null;
+      if (flashData != null) {
+          String pkg = flashData.getSystemData().getContentPackage();
+          if (StringUtils.isNotEmpty(pkg) && ASCII.matcher(pkg).matches()) {
+              flashDataPackage = pkg;
+          }
+      }
+
+      // The syncs of a Talking Book mostly have the same system files, so what they say is only worked out once.
+      List<Object> key = Arrays.<Object>asList(syncDevice, talkingBookId, deployment, villageName, flashDataPackage,
+                                               metadata);
+      SyncProcessingContext deploymentContext = deploymentContexts.get(key);
+      if (deploymentContext == null) {
+          deploymentContext = determineDeploymentContext(syncDevice, syncDir, talkingBookId, deployment, villageName,
+                                                         flashDataPackage, metadata);
+          deploymentContexts.put(key, deploymentContext);
+      }
+
+      return new SyncProcessingContext(syncDir.getName(),
+          deploymentContext.talkingBookId,
+          deploymentContext.village,
+          deploymentContext.contentPackage,
+          deploymentContext.deploymentId.id,
+          deploymentContext.project,
+          syncDevice,
+          deploymentContext.recipientId,
+          deploymentContext.deploymentTime,
+          deploymentContext.deploymentUuid);
+  }
+
+  private SyncProcessingContext determineDeploymentContext(
+      String syncDevice,
+      File syncDir,
+      String talkingBookId,
+      String deployment,
+      String villageName,
+      @Nullable String flashDataPackage,
+      SyncDirMetadata metadata) {
 
       String project = null;
       String packageName = null;
@@ -281,59 +407,43 @@ public class DirectoryProcessor extends AbstractDirectoryProcessor {
       String deploymentUuid = null;
 
       // Get the package name. Use the deployment name if there isn't a discernible package
-      if (deploymentProperties != null) {
-          project = deploymentProperties.getProperty("PROJECT", null);
-          deployment = deploymentProperties.getProperty("DEPLOYMENT", deployment);
-          packageName = deploymentProperties.getProperty("PACKAGE", null);
-          villageName = deploymentProperties.getProperty("COMMUNITY", villageName);
-          talkingBookId = deploymentProperties.getProperty("TALKINGBOOKID", talkingBookId);
-          recipientId = deploymentProperties.getProperty("RECIPIENTID", null);
-          String deploymentTimeStr = deploymentProperties.getProperty("TIMESTAMP", null);
-          if (deploymentTimeStr != null) {
-              SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss.SSSX");
-              Date date;
-              try {
-                  date = simpleDateFormat.parse(deploymentTimeStr);
-                  deploymentTime = new LocalDateTime(date, DateTimeZone.UTC);
-              } catch (ParseException e) {
-                  // ignore: we can't parse the time.
-              }
-          }
-          deploymentUuid = deploymentProperties.getProperty("DEPLOYEDUUID");
+      if (metadata.deploymentProperties != null) {
+          project = metadata.getProperty("PROJECT", null);
+          deployment = metadata.getProperty("DEPLOYMENT", deployment);
+          packageName = metadata.getProperty("PACKAGE", null);
+          villageName = metadata.getProperty("COMMUNITY", villageName);
+          talkingBookId = metadata.getProperty("TALKINGBOOKID", talkingBookId);
+          recipientId = metadata.getProperty("RECIPIENTID", null);
+          deploymentTime = metadata.getDeploymentTime();
+          deploymentUuid = metadata.getProperty("DEPLOYEDUUID", null);
       }
 
       // If we didn't get project from deployment properties, try to get from marker file, else file system.
        if (project == null) {
-          project = findProjectByTbFs(syncDir);
+          project = metadata.projectMarker;
        }
        if (project == null) {
-          project = findValueInSysData(syncDir, "PROJECT");
+          project = metadata.sysData.get("PROJECT");
        }
        if (project == null) project = currRoot.getName();
 
       // If we didn't get the Package from the deployment properties, try to get it from the TB
       if (packageName == null) {
           // From the flash data on the TB file system.
-          if (flashData != null) {
-              final SystemData systemData = flashData.getSystemData();
-              String pkg = systemData.getContentPackage();
-              if (StringUtils.isNotEmpty(pkg) && pkg.matches("^\\p{ASCII}*$")) {
-                  packageName = pkg;
-              }
-          }
+          packageName = flashDataPackage;
           // Or else from the .pkg file. If not .pkg file, fall back to the deployment.
           if (packageName == null) {
-              packageName = findContentIdByPackage(syncDir);
+              packageName = metadata.packageMarker;
           }
           if (packageName == null) {
-              packageName = findValueInSysData(syncDir, "IMAGE");
+              packageName = metadata.sysData.get("IMAGE");
           }
           if (packageName == null) packageName = deployment; // last gasp effort.
       }
 
       // If we didn't get the deployment time from deployment properties, try to get it from the TB
        if (deploymentTime == null) {
-           deploymentTime = findLastUpdateTime(syncDir);
+           deploymentTime = metadata.lastUpdated;
        }
 
 
@@ -385,18 +495,27 @@ public class DirectoryProcessor extends AbstractDirectoryProcessor {
   public void processTbDataFile(File tbdataFile, boolean includesHeaders) throws IOException {
     TbDataParser parser = new TbDataParser();
       System.out.print(String.format(PROGRESS_TBDATA_FORMAT, tbdataFile.getName()));
-    List<TbDataLine> lines = parser.parseTbDataFile(tbdataFile, true);
-    for (TbDataLine line : lines) {
-      for (TalkingBookDataProcessor processor : dataProcessorEventListeners) {
-        processor.processTbDataLine(line);
+    context.getTbDataCache().parse(fileTree(), tbdataFile, true, parser, new TbDataLineHandler() {
+      @Override
+      public void onTbDataLine(TbDataLine line) {
+        for (TalkingBookDataProcessor processor : dataProcessorEventListeners) {
+          processor.processTbDataLine(line);
+        }
       }
-    }
+    });
+    //Writing the lines to the db is the last use of them.
+    context.getTbDataCache().release(fileTree(), tbdataFile, true);
   }
 
   @Override
   public boolean startTalkingBook(String talkingBook) throws Exception {
     super.startTalkingBook(talkingBook);
+    if (forkEvents != null) {
+      //Printed when the fork is joined, to keep the progress in order.
+      forkTalkingBook = talkingBook;
+    } else {
       System.out.print(String.format(PROGRESS_TB_FORMAT, talkingBook));
+    }
 
     currTalkingBook = talkingBook;
 
@@ -406,6 +525,7 @@ public class DirectoryProcessor extends AbstractDirectoryProcessor {
     }
 
     processedLogFiles.clear();
+    deploymentContexts.clear();
     return true;
   }
 
@@ -422,8 +542,7 @@ public class DirectoryProcessor extends AbstractDirectoryProcessor {
 
   @Override
   public void processSyncDir(SyncDirId syncDirId, File syncDir) throws Exception {
-      final FlashData flashData = loadFlashDataFile(syncDir);
-      final Properties deploymentProperties = loadDeploymentProperties(syncDir);
+      final FlashData flashData = loadFlashDataFile(fileTree(), syncDir);
       final SyncProcessingContext syncProcessingContext = determineProcessingContext(
           currDeploymentPerDevice.device,
           syncDir,
@@ -431,7 +550,7 @@ public class DirectoryProcessor extends AbstractDirectoryProcessor {
           currDeploymentPerDevice.deployment,
           currVillage,
           flashData,
-          deploymentProperties);
+          SyncDirMetadata.load(fileTree(), syncDir));
 
       for (TalkingBookDataProcessor processor : dataProcessorEventListeners) {
           processor.onSyncProcessingStart(syncProcessingContext);
@@ -484,41 +603,42 @@ public class DirectoryProcessor extends AbstractDirectoryProcessor {
   public void processSyncDir(final File syncDir, final SyncProcessingContext syncProcessingContext,
                              final Set<String> processedFiles, final boolean processInProcessLog) throws
     IOException {
+    final ArchiveIndex.SyncDir contents = syncDirContents(null, syncDir);
     int numLogFiles = 0;
     int numLogFilesWithErrors = 0;
     int numLogFileErrors = 0;
 
-    //Create a list of LogFileParsers that take the callback interfaces and the syncProcessingContexts.
-    LogFileParser parser = new LogFileParser(dataProcessorEventListeners, syncProcessingContext);
+    final List<File> logFiles = new ArrayList<>();
 
     //Process the current log and the flashData files, if this is the latest dir
-    if (processInProcessLog) {
-      final File logFile = new File(new File(syncDir, "log"), "log.txt");
-      if (logFile.canRead()) {
-          numLogFiles++;
-          numLogFileErrors += processLogFile(logFile, parser, processedFiles);
-          if (numLogFileErrors > 0) numLogFilesWithErrors++;
-      }
+    if (processInProcessLog && contents.currentLog != null) {
+      logFiles.add(contents.currentLog.file);
+    }
+
+    //Process all the Archive Files, telling the listeners which were already ingested from an earlier sync or upload.
+    final int firstArchivedLog = logFiles.size();
+    for (ArchiveIndex.IndexedFile archivedLog : contents.archivedLogs) {
+      logFiles.add(archivedLog.file);
     }
 
-    //Process all the Archive Files
-    final File logArchives = new File(syncDir, "log-archive");
-    if (logArchives.isDirectory()) {
-      final Iterator<File> archivedLogFiles = FileUtils.iterateFiles(logArchives,
-        new RegexFileFilter(ARCHIVED_LOG_PATTERN),
-        FalseFileFilter.FALSE);
-      while (archivedLogFiles.hasNext()) {
-        final File archivedFile = archivedLogFiles.next();
-        int numErrors = processLogFile(archivedFile, parser, processedFiles);
-        numLogFiles++;
-        if (numErrors > 0)
-            numLogFilesWithErrors++;
-        numLogFileErrors += numErrors;
+    final int[] errorsPerFile = (logParsingPool != null && logFiles.size() > 1)
+                                ? processLogFilesInParallel(logFiles, firstArchivedLog, syncProcessingContext, processedFiles)
+                                : processLogFiles(logFiles, firstArchivedLog, syncProcessingContext, processedFiles);
+    int numLogFilesAlreadyIngested = 0;
+    for (int numErrors : errorsPerFile) {
+      if (numErrors == ALREADY_INGESTED) {
+        numLogFilesAlreadyIngested++;
+        continue;
       }
+      numLogFiles++;
+      if (numErrors > 0)
+        numLogFilesWithErrors++;
+      numLogFileErrors += numErrors;
     }
       result.addCountLogFiles(currRoot.getName(), currDeploymentPerDevice.device, currDeploymentPerDevice.deployment, currVillage, currTalkingBook, numLogFiles);
       result.addCountLogFilesWithErrors(currRoot.getName(), currDeploymentPerDevice.device, currDeploymentPerDevice.deployment, currVillage, currTalkingBook, numLogFilesWithErrors);
       result.addCountLogFileErrors(currRoot.getName(), currDeploymentPerDevice.device, currDeploymentPerDevice.deployment, currVillage, currTalkingBook, numLogFileErrors);
+      result.addCountLogFilesAlreadyIngested(currRoot.getName(), currDeploymentPerDevice.device, currDeploymentPerDevice.deployment, currVillage, currTalkingBook, numLogFilesAlreadyIngested);
 
       //Process all the Stats files
       final File statDir = new File(syncDir, "statistics");
@@ -528,13 +648,10 @@ public class DirectoryProcessor extends AbstractDirectoryProcessor {
       //  just for backward compatibilty; but that compensation appears not to
       //  have happened in first MEDA update).
       //final File statDir = new File(syncDir, "statistics");
-      if (statDir.canRead()) {
-          if (statDir.isDirectory()) {
-              final Iterator<File> statsFiles = FileUtils.iterateFiles(statDir,
-                  new RegexFileFilter(STATS_FILE_PATTERN),
-                  FalseFileFilter.FALSE);
-              while (statsFiles.hasNext()) {
-                  doProcessStatsFile(syncProcessingContext, statsFiles.next());
+      if (contents.statisticsExists) {
+          if (contents.statsFiles != null) {
+              for (ArchiveIndex.IndexedFile statsFile : contents.statsFiles) {
+                  doProcessStatsFile(syncProcessingContext, statsFile.file);
               }
           } else {
               result.addCorruptStatisticsDir(currRoot.getName(), currDeploymentPerDevice.device,
@@ -550,31 +667,194 @@ public class DirectoryProcessor extends AbstractDirectoryProcessor {
       }
   }
 
-  public int processLogFile(File file, LogFileParser parser, Set<String> processedFiles) {
-    int numErrors = 0;
-    final String fileProcessingName = file.getParent() + "/" + file.getName();
-    // TODO: Does this do anything?
-    if (!processedFiles.contains(fileProcessingName)) {
+  /**
+   * @return the number of errors of each log file, or ALREADY_INGESTED for the archived logs (those from
+   * firstArchivedLog on) that were already ingested.
+   */
+  private int[] processLogFiles(List<File> logFiles, int firstArchivedLog,
+                                SyncProcessingContext syncProcessingContext, Set<String> processedFiles) {
+    //Create a list of LogFileParsers that take the callback interfaces and the syncProcessingContexts.
+    final LogFileParser parser = new LogFileParser(dataProcessorEventListeners, syncProcessingContext, contentIds);
+
+    final int[] errorsPerFile = new int[logFiles.size()];
+    for (int i = 0; i < errorsPerFile.length; i++) {
+      errorsPerFile[i] = processLogFile(logFiles.get(i), parser, dataProcessorEventListeners,
+                                        i >= firstArchivedLog ? ingestedLogs : null,
+                                        syncProcessingContext.talkingBookId, processedFiles);
+    }
+    return errorsPerFile;
+  }
+
+  /**
+   * Parses the log files on the log parsing pool, each into its own LogEventRecorder, and replays the recorded
+   * events to the listeners one file at a time, in the same order processLogFiles would have parsed them.  At
+   * most maxBufferedLogFiles files are parsed ahead of the one being replayed, to bound the memory used.
+   */
+  private int[] processLogFilesInParallel(List<File> logFiles, int firstArchivedLog,
+                                          final SyncProcessingContext syncProcessingContext,
+                                          Set<String> processedFiles) throws IOException {
+    //Only record what the listeners will use.
+    final LogSubscription subscription = LogSubscription.of(dataProcessorEventListeners);
+    final FileTree tree = fileTree();
+    final int[] errorsPerFile = new int[logFiles.size()];
+    final List<Future<ParsedLogFile>> parsing = new ArrayList<>(
+      Collections.<Future<ParsedLogFile>>nCopies(logFiles.size(), null));
+    int nextToSubmit = 0;
+
+    try {
+      for (int i = 0; i < errorsPerFile.length; i++) {
+        while (nextToSubmit < logFiles.size() && nextToSubmit - i <= maxBufferedLogFiles) {
+          final File logFile = logFiles.get(nextToSubmit);
+          final IngestedLogRegistry registry = nextToSubmit >= firstArchivedLog ? ingestedLogs : null;
+          if (!processedFiles.contains(logFileProcessingName(logFile))) {
+            parsing.set(nextToSubmit, logParsingPool.submit(new Callable<ParsedLogFile>() {
+              @Override
+              public ParsedLogFile call() {
+                final LogEventRecorder recorder = new LogEventRecorder(subscription);
+                final LogFileParser parser = new LogFileParser(recorder, syncProcessingContext, contentIds);
+                return ParsedLogFile.parse(tree, logFile, parser, recorder,
+                                           Collections.singletonList(recorder), registry,
+                                           syncProcessingContext.talkingBookId);
+              }
+            }));
+          }
+          nextToSubmit++;
+        }
+
+        final Future<ParsedLogFile> future = parsing.set(i, null);
+        if (future != null) {
+          final ParsedLogFile parsed = future.get();
+          parsed.recorder.replay(dataProcessorEventListeners);
+          errorsPerFile[i] = completeLogFile(parsed, syncProcessingContext.talkingBookId, processedFiles);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while parsing log files for " + currTalkingBook);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new RuntimeException(e.getCause());
+    } finally {
+      for (Future<ParsedLogFile> future : parsing) {
+        if (future != null) {
+          future.cancel(true);
+        }
+      }
+    }
+    return errorsPerFile;
+  }
+
+  /**
+   * The outcome of parsing one log file, and the events it recorded if it was parsed off of the processing thread.
+   */
+  private static final class ParsedLogFile {
+    final File             file;
+    // Null if the file was parsed straight to the listeners.
+    final LogEventRecorder recorder;
+    final int              numErrors;
+    final IOException      error;
+    // The SHA-256 of an archived log, to mark it ingested once it has been processed.  Null if it wasn't checked.
+    final String           sha256;
+    final boolean          alreadyIngested;
+
+    private ParsedLogFile(File file, LogEventRecorder recorder, int numErrors, IOException error, String sha256,
+                          boolean alreadyIngested) {
+      this.file = file;
+      this.recorder = recorder;
+      this.numErrors = numErrors;
+      this.error = error;
+      this.sha256 = sha256;
+      this.alreadyIngested = alreadyIngested;
+    }
+
+    /**
+     * Parses a log file, first telling the IngestedLogProcessors among the listeners whether it was already
+     * ingested.  Its events are parsed either way, so what is worked out from all of them stays whole.  The file is
+     * read once, and its SHA-256 is taken from the same bytes that are parsed.
+     *
+     * @param listeners    the processors the parser sends the events to
+     * @param ingestedLogs the logs to check the file against, or null to not check it
+     */
+    static ParsedLogFile parse(FileTree tree, File file, LogFileParser parser, @Nullable LogEventRecorder recorder,
+                               Collection<? extends TalkingBookDataProcessor> listeners,
+                               @Nullable IngestedLogRegistry ingestedLogs, String talkingBookId) {
       try {
-        numErrors = runCallbacksOnLogFile(file, parser);
-        processedFiles.add(fileProcessingName);
+        if (ingestedLogs == null) {
+          checked(listeners, false);
+          return new ParsedLogFile(file, recorder, runCallbacksOnLogFile(tree, file, parser), null, null, false);
+        }
+        final ByteBuffer bytes = readLogFile(tree, file, parser);
+        final String sha256 = Hashing.sha256()
+                                     .hashBytes(bytes.array(), bytes.arrayOffset() + bytes.position(),
+                                                bytes.remaining())
+                                     .toString();
+        final boolean alreadyIngested = ingestedLogs.isIngested(talkingBookId, sha256);
+        checked(listeners, alreadyIngested);
+        return new ParsedLogFile(file, recorder, parser.parse(file.getAbsolutePath(), bytes), null, sha256,
+                                 alreadyIngested);
       } catch (IOException ioe) {
-        final String errorString = String.format("Unable to process %s.  Error=%s", file.getAbsolutePath(),
-          ioe.getMessage());
-        logger.error(errorString, ioe);
-        numErrors = 1; // the whole file...
+        return new ParsedLogFile(file, recorder, 0, ioe, null, false);
+      }
+    }
+
+    private static void checked(Collection<? extends TalkingBookDataProcessor> listeners, boolean alreadyIngested) {
+      for (TalkingBookDataProcessor listener : listeners) {
+        if (listener instanceof IngestedLogProcessor) {
+          ((IngestedLogProcessor) listener).onLogFileChecked(alreadyIngested);
+        }
       }
     }
+  }
+
+  private static String logFileProcessingName(File file) {
+    return file.getParent() + "/" + file.getName();
+  }
+
+  /**
+   * @return the number of errors in the file, or ALREADY_INGESTED if an earlier import ingested it.  Only a file
+   * that was processed is marked as ingested, so one that couldn't be read is tried again by the next import.
+   */
+  private int completeLogFile(ParsedLogFile parsed, String talkingBookId, Set<String> processedFiles) {
+    if (parsed.error != null) {
+      final String errorString = String.format("Unable to process %s.  Error=%s", parsed.file.getAbsolutePath(),
+        parsed.error.getMessage());
+      logger.error(errorString, parsed.error);
+      return 1; // the whole file...
+    }
+    processedFiles.add(logFileProcessingName(parsed.file));
+    if (parsed.alreadyIngested) {
+      return ALREADY_INGESTED;
+    }
+    if (parsed.sha256 != null) {
+      ingestedLogs.markIngested(talkingBookId, parsed.sha256);
+    }
+    return parsed.numErrors;
+  }
+
+  public int processLogFile(File file, LogFileParser parser, Set<String> processedFiles) {
+    return processLogFile(file, parser, dataProcessorEventListeners, null, null, processedFiles);
+  }
+
+  private int processLogFile(File file, LogFileParser parser,
+                             Collection<? extends TalkingBookDataProcessor> listeners,
+                             @Nullable IngestedLogRegistry registry, String talkingBookId,
+                             Set<String> processedFiles) {
+    int numErrors = 0;
+    // TODO: Does this do anything?
+    if (!processedFiles.contains(logFileProcessingName(file))) {
+      numErrors = completeLogFile(ParsedLogFile.parse(fileTree(), file, parser, null, listeners, registry,
+                                                      talkingBookId),
+                                  talkingBookId, processedFiles);
+    }
     return numErrors;
   }
 
   public void doProcessStatsFile(final SyncProcessingContext syncProcessingContext, final File file) {
 
-    try {
-      FileInputStream fis = new FileInputStream(file);
+    try (InputStream is = fileTree().open(file)) {
 
       try {
-        StatsFile statsFile = StatsFile.read(fis);
+        StatsFile statsFile = StatsFile.read(is);
         for (TalkingBookDataProcessor processor : dataProcessorEventListeners) {
           int delimeterPosition = file.getName().indexOf('^');
           String contentId = file.getName().substring(delimeterPosition + 1, file.getName().length() - statExtension.length());
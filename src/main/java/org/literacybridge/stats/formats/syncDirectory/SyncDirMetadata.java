@@ -0,0 +1,203 @@
+package org.literacybridge.stats.formats.syncDirectory;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDateTime;
+import org.literacybridge.stats.DirectoryIterator;
+import org.literacybridge.utils.FileTree;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * What the system directory of a sync dir says about the deployment on the Talking Book: its deployment.properties,
+ * the names of its .prj and .pkg marker files, last_updated.txt and sysdata.txt.  The directory is listed once, and
+ * each file is read at most once.
+ * <p/>
+ * Two sync dirs with the same system files have equal metadata.
+ */
+public final class SyncDirMetadata {
+
+  static final String SYSTEM_DIR              = "system";
+  static final String DEPLOYMENT_PROPERTIES   = "deployment.properties";
+  static final String LAST_UPDATED            = "last_updated.txt";
+  static final String SYSDATA                 = "sysdata.txt";
+  private static final String PROJECT_MARKER  = ".prj";
+  private static final String PACKAGE_MARKER  = ".pkg";
+
+  // "KEY:value", a line of sysdata.txt.
+  private static final Pattern SYSDATA_LINE = Pattern.compile("^([^:]*):([a-zA-Z0-9_-]+)");
+
+  // The deployment.properties TIMESTAMP.  SimpleDateFormat isn't thread safe, so each thread gets its own.
+  private static final ThreadLocal<SimpleDateFormat> TIMESTAMP_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+    @Override
+    protected SimpleDateFormat initialValue() {
+      return new SimpleDateFormat("yyyyMMdd'T'HHmmss.SSSX");
+    }
+  };
+
+  public static final SyncDirMetadata NONE = new SyncDirMetadata(null, null, null, null, ImmutableMap.<String, String>of());
+
+  @Nullable
+  public final ImmutableMap<String, String> deploymentProperties;
+  // The names of the first .prj and .pkg files, without the extension.
+  @Nullable
+  public final String                       projectMarker;
+  @Nullable
+  public final String                       packageMarker;
+  @Nullable
+  public final LocalDateTime                lastUpdated;
+  public final ImmutableMap<String, String> sysData;
+
+  private SyncDirMetadata(@Nullable ImmutableMap<String, String> deploymentProperties,
+                          @Nullable String projectMarker, @Nullable String packageMarker,
+                          @Nullable LocalDateTime lastUpdated, ImmutableMap<String, String> sysData) {
+    this.deploymentProperties = deploymentProperties;
+    this.projectMarker = projectMarker;
+    this.packageMarker = packageMarker;
+    this.lastUpdated = lastUpdated;
+    this.sysData = sysData;
+  }
+
+  /**
+   * Reads the metadata of a sync dir.  Files that are missing, or can't be read, are left out.
+   */
+  public static SyncDirMetadata load(FileTree tree, File syncDir) {
+    File[] files = tree.list(new File(syncDir, SYSTEM_DIR), null);
+    if (files == null) {
+      return NONE;
+    }
+
+    File deploymentProperties = null;
+    File lastUpdated = null;
+    File sysData = null;
+    String projectMarker = null;
+    String packageMarker = null;
+    for (File file : files) {
+      String name = file.getName();
+      if (name.equals(DEPLOYMENT_PROPERTIES)) {
+        deploymentProperties = file;
+      } else if (name.equals(LAST_UPDATED)) {
+        lastUpdated = file;
+      } else if (name.equals(SYSDATA)) {
+        sysData = file;
+      }
+      if (projectMarker == null && name.endsWith(PROJECT_MARKER)) {
+        projectMarker = name.substring(0, name.lastIndexOf('.'));
+      }
+      if (packageMarker == null && name.endsWith(PACKAGE_MARKER)) {
+        packageMarker = name.substring(0, name.lastIndexOf('.'));
+      }
+    }
+
+    return new SyncDirMetadata(deploymentProperties != null ? readProperties(tree, deploymentProperties) : null,
+                               projectMarker, packageMarker,
+                               lastUpdated != null ? readLastUpdated(tree, lastUpdated) : null,
+                               sysData != null ? readSysData(tree, sysData) : ImmutableMap.<String, String>of());
+  }
+
+  /**
+   * @return the value of a deployment.properties property, or defaultValue if it isn't there.
+   */
+  public String getProperty(String key, @Nullable String defaultValue) {
+    if (deploymentProperties == null) {
+      return defaultValue;
+    }
+    String value = deploymentProperties.get(key);
+    return value != null ? value : defaultValue;
+  }
+
+  /**
+   * @return the deployment.properties TIMESTAMP, or null if there isn't one that can be parsed.
+   */
+  @Nullable
+  public LocalDateTime getDeploymentTime() {
+    String timestamp = getProperty("TIMESTAMP", null);
+    if (timestamp == null) {
+      return null;
+    }
+    try {
+      return new LocalDateTime(TIMESTAMP_FORMAT.get().parse(timestamp), DateTimeZone.UTC);
+    } catch (ParseException e) {
+      // ignore: we can't parse the time.
+      return null;
+    }
+  }
+
+  @Nullable
+  static ImmutableMap<String, String> readProperties(FileTree tree, File file) {
+    Properties properties = new Properties();
+    try {
+      properties.load(new ByteArrayInputStream(tree.readFully(file)));
+    } catch (Exception e) {
+      // Ignore exception, and continue without properties file.
+      return null;
+    }
+    ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+    for (String key : properties.stringPropertyNames()) {
+      builder.put(key, properties.getProperty(key));
+    }
+    return builder.build();
+  }
+
+  @Nullable
+  static LocalDateTime readLastUpdated(FileTree tree, File file) {
+    try {
+      String lastUpdate = new BufferedReader(new StringReader(new String(tree.readFully(file)))).readLine().trim();
+      return DirectoryIterator.lbToIsoTimestamp(lastUpdate);
+    } catch (Exception e) {
+      // Ignore exception, and continue without value.
+      return null;
+    }
+  }
+
+  /**
+   * @return the KEY:value lines of a sysdata.txt, the first value of each key.
+   */
+  static ImmutableMap<String, String> readSysData(FileTree tree, File file) {
+    Map<String, String> values = new LinkedHashMap<>();
+    try {
+      BufferedReader reader = new BufferedReader(new StringReader(new String(tree.readFully(file))));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Matcher matcher = SYSDATA_LINE.matcher(line.trim());
+        if (matcher.matches() && !values.containsKey(matcher.group(1))) {
+          values.put(matcher.group(1), matcher.group(2));
+        }
+      }
+    } catch (IOException e) {
+      // Ignore exception, and continue with what was read.
+    }
+    return ImmutableMap.copyOf(values);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof SyncDirMetadata)) return false;
+
+    SyncDirMetadata that = (SyncDirMetadata) o;
+    return Objects.equal(deploymentProperties, that.deploymentProperties)
+           && Objects.equal(projectMarker, that.projectMarker)
+           && Objects.equal(packageMarker, that.packageMarker)
+           && Objects.equal(lastUpdated, that.lastUpdated)
+           && sysData.equals(that.sysData);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(deploymentProperties, projectMarker, packageMarker, lastUpdated, sysData);
+  }
+}
@@ -0,0 +1,263 @@
+package org.literacybridge.stats.formats.tbData;
+
+import com.google.common.base.Charsets;
+import org.literacybridge.utils.FileTree;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The parsed tbData files of one import, so that validating it and writing it to the db don't both parse the same
+ * CSVs.  A file is parsed the first time it is asked for, and its rows (after the fixes for old TB-Loader bugs) are
+ * kept; later requests for it replay them through a fresh TbDataLine each, without reading the CSV again.
+ * <p/>
+ * The rows are kept on the heap until they pass the heap budget, after which a file's rows go to a temp file, to
+ * be read back from there.  A file that won't be asked for again should be {@link #release}d, which frees its
+ * part of the budget and deletes its temp file.
+ */
+public class TbDataCache implements Closeable {
+
+  // Rough cost on the heap of a row, and of each of its cells, beyond the characters themselves.
+  private static final int ROW_OVERHEAD  = 32;
+  private static final int CELL_OVERHEAD = 48;
+
+  @Nullable
+  private final File spillDir;
+  private final long heapBudgetBytes;
+
+  // By file path, length and whether it has headers.  The files of an import don't change while it is processed.
+  private final ConcurrentMap<String, Entry> entries   = new ConcurrentHashMap<>();
+  // What the rows of the entries still cached take up.
+  private final AtomicLong                   heapBytes = new AtomicLong();
+
+  /**
+   * @param spillDir        where to put the rows that don't fit in the budget, or null for the default temp dir.
+   * @param heapBudgetBytes about how much of the heap the rows may take up.
+   */
+  public TbDataCache(@Nullable File spillDir, long heapBudgetBytes) {
+    this.spillDir = spillDir;
+    this.heapBudgetBytes = heapBudgetBytes;
+  }
+
+  /**
+   * Hands the lines of a tbData file to the handler, parsing it only if it hasn't been parsed before.
+   */
+  public void parse(FileTree tree, File tbdataFile, boolean includesHeaders, TbDataParser parser,
+                    TbDataLineHandler handler) throws IOException {
+    Entry entry = entries.get(key(tree, tbdataFile, includesHeaders));
+    if (entry != null) {
+      entry.replay(tbdataFile.getName(), handler);
+    } else {
+      record(tree, tbdataFile, includesHeaders, parser, handler);
+    }
+  }
+
+  /**
+   * Parses a tbData file into the cache, ahead of it being asked for, unless it already is there.  Thread safe, so
+   * that several files can be parsed at once.
+   */
+  public void preload(FileTree tree, File tbdataFile, boolean includesHeaders, TbDataParser parser)
+    throws IOException {
+    if (!entries.containsKey(key(tree, tbdataFile, includesHeaders))) {
+      record(tree, tbdataFile, includesHeaders, parser, null);
+    }
+  }
+
+  /**
+   * Forgets a tbData file, once its lines won't be asked for again.  If they are, the file is parsed again.
+   */
+  public void release(FileTree tree, File tbdataFile, boolean includesHeaders) {
+    Entry entry = entries.remove(key(tree, tbdataFile, includesHeaders));
+    if (entry != null) {
+      entry.discard();
+    }
+  }
+
+  private static String key(FileTree tree, File tbdataFile, boolean includesHeaders) {
+    return tbdataFile.getPath() + '|' + tree.length(tbdataFile) + '|' + includesHeaders;
+  }
+
+  private void record(FileTree tree, File tbdataFile, boolean includesHeaders, TbDataParser parser,
+                      @Nullable final TbDataLineHandler handler) throws IOException {
+    final Entry recording = new Entry(handler == null);
+    final TbDataDateDecoder dates = new TbDataDateDecoder();
+    try (InputStreamReader reader = new InputStreamReader(tree.open(tbdataFile))) {
+      parser.parseTbDataRows(reader, tbdataFile.getName(), includesHeaders, new TbDataParser.RowHandler() {
+        @Override
+        public void onRow(TbDataLineBinder binder, String[] row) throws IOException {
+          recording.add(binder, row);
+          if (handler != null) {
+            handler.onTbDataLine(binder.bind(row, dates));
+          }
+        }
+      });
+    } catch (IOException | RuntimeException e) {
+      recording.discard();
+      throw e;
+    }
+    if (handler != null) {
+      TbDataParser.reportDates(tbdataFile.getName(), dates);
+    }
+    recording.finish();
+    Entry existing = entries.putIfAbsent(key(tree, tbdataFile, includesHeaders), recording);
+    if (existing != null) {
+      recording.discard();
+    }
+  }
+
+  /**
+   * @return how much of the heap the cached rows take up, roughly.
+   */
+  public long getHeapBytes() {
+    return heapBytes.get();
+  }
+
+  /**
+   * Forgets the cached files, and deletes any spilled rows.
+   */
+  @Override
+  public void close() {
+    for (Entry entry : entries.values()) {
+      entry.discard();
+    }
+    entries.clear();
+  }
+
+  private static long sizeOf(String[] row) {
+    long size = ROW_OVERHEAD;
+    for (String cell : row) {
+      size += CELL_OVERHEAD + (cell != null ? 2L * cell.length() : 0);
+    }
+    return size;
+  }
+
+  /**
+   * The rows of one file, on the heap or spilled to a temp file.
+   */
+  private class Entry {
+    private TbDataLineBinder binder;
+    private List<String[]>   rows = new ArrayList<>();
+    private long             rowBytes;
+    private File             spillFile;
+    private DataOutputStream spillOut;
+    private int              numRows;
+    // Whether the invalid dates are still to be reported, when the file was only preloaded.
+    private final AtomicBoolean reportDates;
+
+    Entry(boolean reportDates) {
+      this.reportDates = new AtomicBoolean(reportDates);
+    }
+
+    void add(TbDataLineBinder binder, String[] row) throws IOException {
+      this.binder = binder;
+      numRows++;
+      if (spillOut != null) {
+        write(row);
+        return;
+      }
+      rows.add(row);
+      long size = sizeOf(row);
+      rowBytes += size;
+      if (heapBytes.addAndGet(size) > heapBudgetBytes) {
+        spill();
+      }
+    }
+
+    private void spill() throws IOException {
+      spillFile = File.createTempFile("tbData", ".rows", spillDir);
+      spillOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+      for (String[] row : rows) {
+        write(row);
+      }
+      rows = null;
+      heapBytes.addAndGet(-rowBytes);
+      rowBytes = 0;
+    }
+
+    private void write(String[] row) throws IOException {
+      spillOut.writeInt(row.length);
+      for (String cell : row) {
+        if (cell == null) {
+          spillOut.writeInt(-1);
+        } else {
+          byte[] bytes = cell.getBytes(Charsets.UTF_8);
+          spillOut.writeInt(bytes.length);
+          spillOut.write(bytes);
+        }
+      }
+    }
+
+    void finish() throws IOException {
+      if (spillOut != null) {
+        spillOut.close();
+        spillOut = null;
+      }
+    }
+
+    void replay(String fileName, TbDataLineHandler handler) throws IOException {
+      TbDataDateDecoder dates = new TbDataDateDecoder();
+      if (rows != null) {
+        for (String[] row : rows) {
+          handler.onTbDataLine(binder.bind(row, dates));
+        }
+      } else {
+        replaySpilled(handler, dates);
+      }
+      // Reported the first time the lines are handed out.
+      if (reportDates.compareAndSet(true, false)) {
+        TbDataParser.reportDates(fileName, dates);
+      }
+    }
+
+    private void replaySpilled(TbDataLineHandler handler, TbDataDateDecoder dates) throws IOException {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)))) {
+        for (int i = 0; i < numRows; i++) {
+          String[] row = new String[in.readInt()];
+          for (int j = 0; j < row.length; j++) {
+            int length = in.readInt();
+            if (length >= 0) {
+              byte[] bytes = new byte[length];
+              in.readFully(bytes);
+              row[j] = new String(bytes, Charsets.UTF_8);
+            }
+          }
+          handler.onTbDataLine(binder.bind(row, dates));
+        }
+      }
+    }
+
+    void discard() {
+      if (rows != null) {
+        heapBytes.addAndGet(-rowBytes);
+        rows = null;
+        rowBytes = 0;
+      }
+      if (spillOut != null) {
+        try {
+          spillOut.close();
+        } catch (IOException ignored) {
+        }
+        spillOut = null;
+      }
+      if (spillFile != null) {
+        spillFile.delete();
+        spillFile = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,367 @@
+package org.literacybridge.stats.formats.tbData;
+
+import javax.annotation.Nullable;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Decodes the dates in tbData columns.  The formats the TB-Loaders have written are read directly:
+ * <ul>
+ * <li>Date.toString(), like "Thu Jun 16 00:00:00 GMT 2022"</li>
+ * <li>"2022/2/25" and "2/25/2022"</li>
+ * <li>TB-Loader timestamps, like "2022Y06M16D10H01M55S" or "2022y06m16d"</li>
+ * <li>ISO 8601, like "2022-06-16" or "2022-06-16T10:01:55Z"</li>
+ * </ul>
+ * Anything else is left to the deprecated {@link Date#Date(String)}, which these formats used to go through, and
+ * which gives the same dates for the ones it can read.  Empty and malformed values are counted rather than thrown.
+ * <p/>
+ * Many lines of a file share the same dates, so the last few values decoded are remembered.  Not thread safe; use
+ * one per file.
+ */
+public class TbDataDateDecoder {
+
+  private static final int  CACHE_SIZE = 64;   // A power of 2.
+  private static final long MALFORMED  = Long.MIN_VALUE;
+
+  private static final String[] MONTHS = {
+    "jan", "feb", "mar", "apr", "may", "jun", "jul", "aug", "sep", "oct", "nov", "dec"
+  };
+
+  private final String[] cachedValues = new String[CACHE_SIZE];
+  private final long[]   cachedMillis = new long[CACHE_SIZE];
+
+  private final Calendar localCalendar = new GregorianCalendar();
+  private final Calendar utcCalendar   = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+
+  // Where the next number starts, for the scanning helpers.
+  private int pos;
+
+  private int numDecoded;
+  private int numCached;
+  private int numEmpty;
+  private int numMalformed;
+
+  /**
+   * @return the date, or null if the value is empty or malformed.
+   */
+  @Nullable
+  public Date decode(@Nullable String value) {
+    if (value == null || value.isEmpty()) {
+      numEmpty++;
+      return null;
+    }
+
+    int slot = value.hashCode() & (CACHE_SIZE - 1);
+    long millis;
+    if (value.equals(cachedValues[slot])) {
+      numCached++;
+      millis = cachedMillis[slot];
+    } else {
+      millis = parse(value);
+      cachedValues[slot] = value;
+      cachedMillis[slot] = millis;
+    }
+
+    if (millis == MALFORMED) {
+      numMalformed++;
+      return null;
+    }
+    numDecoded++;
+    return new Date(millis);
+  }
+
+  /**
+   * @return how many values were decoded into dates.
+   */
+  public int getNumDecoded() {
+    return numDecoded;
+  }
+
+  /**
+   * @return how many of the values were found among the recently decoded ones.
+   */
+  public int getNumCached() {
+    return numCached;
+  }
+
+  public int getNumEmpty() {
+    return numEmpty;
+  }
+
+  public int getNumMalformed() {
+    return numMalformed;
+  }
+
+  private long parse(String value) {
+    long millis = MALFORMED;
+    char first = value.charAt(0);
+    if (isDigit(first)) {
+      millis = parseNumeric(value);
+    } else if (Character.isLetter(first)) {
+      millis = parseToString(value);
+    }
+    return millis != MALFORMED ? millis : parseLegacy(value);
+  }
+
+  /**
+   * The formats that start with a number: slashes, TB-Loader timestamps and ISO 8601.
+   */
+  private long parseNumeric(String value) {
+    pos = 0;
+    int first = number(value);
+    if (pos >= value.length()) {
+      return MALFORMED;
+    }
+    char separator = value.charAt(pos);
+    if (separator == '/') {
+      pos++;
+      int second = number(value);
+      if (!skip(value, '/')) {
+        return MALFORMED;
+      }
+      int thirdStart = pos;
+      int third = number(value);
+      if (pos != value.length()) {
+        return MALFORMED;
+      }
+      if (value.indexOf('/') == 4) {
+        return local(first, second, third, 0, 0, 0, 0);
+      } else if (pos - thirdStart == 4) {
+        return local(third, first, second, 0, 0, 0, 0);
+      }
+      return MALFORMED;
+
+    } else if (separator == 'Y' || separator == 'y') {
+      pos++;
+      int month = number(value);
+      if (!skipIgnoreCase(value, 'm')) {
+        return MALFORMED;
+      }
+      int day = number(value);
+      if (!skipIgnoreCase(value, 'd')) {
+        return MALFORMED;
+      }
+      if (pos == value.length()) {
+        return local(first, month, day, 0, 0, 0, 0);
+      }
+      int hour = number(value);
+      if (!skipIgnoreCase(value, 'h')) {
+        return MALFORMED;
+      }
+      int minute = number(value);
+      if (!skipIgnoreCase(value, 'm')) {
+        return MALFORMED;
+      }
+      int second = number(value);
+      if (!skipIgnoreCase(value, 's') || pos != value.length()) {
+        return MALFORMED;
+      }
+      return local(first, month, day, hour, minute, second, 0);
+
+    } else if (separator == '-' && pos == 4) {
+      pos++;
+      int month = number(value);
+      if (!skip(value, '-')) {
+        return MALFORMED;
+      }
+      int day = number(value);
+      if (pos == value.length()) {
+        return local(first, month, day, 0, 0, 0, 0);
+      }
+      char t = value.charAt(pos++);
+      if (t != 'T' && t != ' ') {
+        return MALFORMED;
+      }
+      int hour = number(value);
+      if (!skip(value, ':')) {
+        return MALFORMED;
+      }
+      int minute = number(value);
+      int second = 0;
+      int milli = 0;
+      if (pos < value.length() && value.charAt(pos) == ':') {
+        pos++;
+        second = number(value);
+        if (pos < value.length() && value.charAt(pos) == '.') {
+          pos++;
+          int start = pos;
+          milli = number(value);
+          for (int digits = pos - start; digits < 3; digits++) {
+            milli *= 10;
+          }
+          for (int digits = pos - start; digits > 3; digits--) {
+            milli /= 10;
+          }
+        }
+      }
+      if (pos == value.length()) {
+        return local(first, month, day, hour, minute, second, milli);
+      }
+      char zone = value.charAt(pos++);
+      int offsetMinutes;
+      if (zone == 'Z' && pos == value.length()) {
+        offsetMinutes = 0;
+      } else if (zone == '+' || zone == '-') {
+        int offsetHours = number(value);
+        int offset = 0;
+        if (skip(value, ':')) {
+          offset = number(value);
+        }
+        if (pos != value.length()) {
+          return MALFORMED;
+        }
+        offsetMinutes = (zone == '-' ? -1 : 1) * (offsetHours * 60 + offset);
+      } else {
+        return MALFORMED;
+      }
+      return utc(first, month, day, hour, minute, second, milli, offsetMinutes);
+    }
+    return MALFORMED;
+  }
+
+  /**
+   * Date.toString(), "EEE MMM dd HH:mm:ss zzz yyyy", for the zones {@link Date#parse(String)} knows.
+   */
+  private long parseToString(String value) {
+    // "Thu Jun 16 00:00:00 GMT 2022"
+    if (value.length() < 26 || value.charAt(3) != ' ' || value.charAt(7) != ' ') {
+      return MALFORMED;
+    }
+    int month = -1;
+    for (int i = 0; i < MONTHS.length; i++) {
+      if (value.regionMatches(true, 4, MONTHS[i], 0, 3)) {
+        month = i + 1;
+        break;
+      }
+    }
+    pos = 8;
+    int day = number(value);
+    if (month < 0 || !skip(value, ' ')) {
+      return MALFORMED;
+    }
+    int hour = number(value);
+    if (!skip(value, ':')) {
+      return MALFORMED;
+    }
+    int minute = number(value);
+    if (!skip(value, ':')) {
+      return MALFORMED;
+    }
+    int second = number(value);
+    if (!skip(value, ' ')) {
+      return MALFORMED;
+    }
+    int zoneStart = pos;
+    int zoneEnd = value.indexOf(' ', zoneStart);
+    if (zoneEnd < 0) {
+      return MALFORMED;
+    }
+    pos = zoneEnd + 1;
+    int year = number(value);
+    if (pos != value.length()) {
+      return MALFORMED;
+    }
+    Integer offsetMinutes = zoneOffset(value.substring(zoneStart, zoneEnd));
+    if (offsetMinutes == null) {
+      return MALFORMED;
+    }
+    return utc(year, month, day, hour, minute, second, 0, offsetMinutes);
+  }
+
+  /**
+   * @return the offset of the zones {@link Date#parse(String)} knows, in minutes, or null for the others.
+   */
+  @Nullable
+  private static Integer zoneOffset(String zone) {
+    switch (zone) {
+    case "GMT":
+    case "UT":
+    case "UTC":
+      return 0;
+    case "EDT":
+      return -4 * 60;
+    case "EST":
+    case "CDT":
+      return -5 * 60;
+    case "CST":
+    case "MDT":
+      return -6 * 60;
+    case "MST":
+    case "PDT":
+      return -7 * 60;
+    case "PST":
+      return -8 * 60;
+    default:
+      return null;
+    }
+  }
+
+  @SuppressWarnings("deprecation")
+  private static long parseLegacy(String value) {
+    try {
+      return Date.parse(value);
+    } catch (IllegalArgumentException e) {
+      return MALFORMED;
+    }
+  }
+
+  private long local(int year, int month, int day, int hour, int minute, int second, int milli) {
+    if (!inRange(month, day, hour, minute, second)) {
+      return MALFORMED;
+    }
+    localCalendar.clear();
+    localCalendar.set(year, month - 1, day, hour, minute, second);
+    localCalendar.set(Calendar.MILLISECOND, milli);
+    return localCalendar.getTimeInMillis();
+  }
+
+  private long utc(int year, int month, int day, int hour, int minute, int second, int milli, int offsetMinutes) {
+    if (!inRange(month, day, hour, minute, second)) {
+      return MALFORMED;
+    }
+    utcCalendar.clear();
+    utcCalendar.set(year, month - 1, day, hour, minute, second);
+    utcCalendar.set(Calendar.MILLISECOND, milli);
+    return utcCalendar.getTimeInMillis() - offsetMinutes * 60000L;
+  }
+
+  private static boolean inRange(int month, int day, int hour, int minute, int second) {
+    return month >= 1 && month <= 12 && day >= 1 && day <= 31 && hour >= 0 && hour <= 23
+      && minute >= 0 && minute <= 59 && second >= 0 && second <= 59;
+  }
+
+  /**
+   * @return the number at pos, moving pos past it, or -1 if there isn't one there.
+   */
+  private int number(String value) {
+    int start = pos;
+    int n = 0;
+    while (pos < value.length() && isDigit(value.charAt(pos)) && pos - start < 9) {
+      n = n * 10 + (value.charAt(pos) - '0');
+      pos++;
+    }
+    return pos > start ? n : -1;
+  }
+
+  private boolean skip(String value, char c) {
+    if (pos < value.length() && value.charAt(pos) == c) {
+      pos++;
+      return true;
+    }
+    return false;
+  }
+
+  private boolean skipIgnoreCase(String value, char c) {
+    if (pos < value.length() && Character.toLowerCase(value.charAt(pos)) == c) {
+      pos++;
+      return true;
+    }
+    return false;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+}
@@ -0,0 +1,211 @@
+package org.literacybridge.stats.formats.tbData;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.lang.WordUtils;
+import org.literacybridge.dashboard.dbTables.TbDataLine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Fills a {@link TbDataLine} from the columns of a tbData line.  The setter for each of the
+ * {@link TbDataParser#V3_FIELD_NAMES} is looked up once for a header layout, so binding a line is just a call through
+ * an array of method handles, by column.
+ */
+class TbDataLineBinder {
+  private static final Logger logger = LoggerFactory.getLogger(TbDataLineBinder.class);
+
+  private static final char[] FIELD_DELIMITERS = new char[]{'-'};
+
+  private static final MethodType STRING_SETTER = MethodType.methodType(void.class, TbDataLine.class, String.class);
+  private static final MethodType INT_SETTER    = MethodType.methodType(void.class, TbDataLine.class, int.class);
+  private static final MethodType DATE_SETTER   = MethodType.methodType(void.class, TbDataLine.class, Date.class);
+
+  private static final Set<String> missingPropertySetters = Collections.synchronizedSet(new HashSet<String>());
+
+  // The binders of the header layouts seen so far.  There are normally only a few: the V0, V1 and V3 maps, and the
+  // headers the TB-Loaders have written over the years.  Past MAX_LAYOUTS of them, binders aren't kept, so odd
+  // headers can't make it grow without end.
+  private static final int MAX_LAYOUTS = 64;
+  private static final ConcurrentMap<Map<String, Integer>, TbDataLineBinder> binders = new ConcurrentHashMap<>();
+
+  // For the lines bound one at a time, without a file whose decoder they could share.  Decoders aren't thread safe.
+  private static final ThreadLocal<TbDataDateDecoder> lineDates = new ThreadLocal<TbDataDateDecoder>() {
+    @Override
+    protected TbDataDateDecoder initialValue() {
+      return new TbDataDateDecoder();
+    }
+  };
+
+  private final Column[] columns;
+
+  /**
+   * @return the binder for a header layout, which maps the header names to their column.
+   */
+  static TbDataLineBinder forLayout(Map<String, Integer> headerToIndex) {
+    TbDataLineBinder binder = binders.get(headerToIndex);
+    if (binder == null) {
+      binder = new TbDataLineBinder(headerToIndex);
+      if (binders.size() >= MAX_LAYOUTS) {
+        return binder;
+      }
+      TbDataLineBinder existing = binders.putIfAbsent(ImmutableMap.copyOf(headerToIndex), binder);
+      if (existing != null) {
+        binder = existing;
+      }
+    }
+    return binder;
+  }
+
+  private TbDataLineBinder(Map<String, Integer> headerToIndex) {
+    List<Column> columns = new ArrayList<>();
+    for (String fieldName : TbDataParser.V3_FIELD_NAMES) {
+      Integer index = headerToIndex.get(fieldName);
+      if (index == null) {
+        continue;
+      }
+      Method setter = findSetter(fieldName);
+      if (setter == null) {
+        continue;
+      }
+      MethodHandle handle;
+      try {
+        handle = MethodHandles.publicLookup().unreflect(setter);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+      Class<?> type = setter.getParameterTypes()[0];
+      if (type.equals(Date.class)) {
+        columns.add(new DateColumn(fieldName, index, handle));
+      } else if (type.equals(int.class)) {
+        columns.add(new IntColumn(fieldName, index, handle));
+      } else {
+        columns.add(new StringColumn(fieldName, index, handle));
+      }
+    }
+    this.columns = columns.toArray(new Column[columns.size()]);
+  }
+
+  /**
+   * @return a new TbDataLine with the values of a line's columns.  Columns past the end of the line are left unset.
+   */
+  TbDataLine bind(String[] line) {
+    return bind(line, lineDates.get());
+  }
+
+  /**
+   * Same as {@link #bind(String[])}, decoding the dates with the decoder of the line's file.
+   */
+  TbDataLine bind(String[] line, TbDataDateDecoder dates) {
+    TbDataLine retVal = new TbDataLine();
+    try {
+      for (Column column : columns) {
+        if (line.length > column.index) {
+          column.bind(retVal, line[column.index], dates);
+        }
+      }
+    } catch (Throwable t) {
+      throw Throwables.propagate(t);
+    }
+    return retVal;
+  }
+
+  /**
+   * @return the TbDataLine setter of a tbData field, by the convention that OUT-FW-REV is set by setOutFwRev, or
+   * null if it doesn't have one.
+   */
+  private static Method findSetter(String fieldName) {
+    String[] propertyNameParts = fieldName.toLowerCase().split("[? _-]");
+
+    StringBuilder javaSetterNameBuilder = new StringBuilder("set");
+    for (String propertyNamePart : propertyNameParts) {
+      javaSetterNameBuilder.append(WordUtils.capitalize(propertyNamePart, FIELD_DELIMITERS));
+    }
+
+    String javaSetterName = javaSetterNameBuilder.toString();
+    for (Method method : TbDataLine.class.getMethods()) {
+      if (method.getName().equals(javaSetterName)) {
+        return method;
+      }
+    }
+
+    // Don't warn for every freaking layout with the property.
+    if (missingPropertySetters.add(javaSetterName)) {
+      logger.warn("No setter for " + javaSetterName);
+    }
+    return null;
+  }
+
+  private static abstract class Column {
+    final String       fieldName;
+    final int          index;
+    final MethodHandle setter;
+
+    Column(String fieldName, int index, MethodHandle setter, MethodType type) {
+      this.fieldName = fieldName;
+      this.index = index;
+      this.setter = setter.asType(type);
+    }
+
+    abstract void bind(TbDataLine line, String value, TbDataDateDecoder dates) throws Throwable;
+  }
+
+  private static class StringColumn extends Column {
+    StringColumn(String fieldName, int index, MethodHandle setter) {
+      super(fieldName, index, setter, STRING_SETTER);
+    }
+
+    @Override
+    void bind(TbDataLine line, String value, TbDataDateDecoder dates) throws Throwable {
+      setter.invokeExact(line, value);
+    }
+  }
+
+  private static class IntColumn extends Column {
+    IntColumn(String fieldName, int index, MethodHandle setter) {
+      super(fieldName, index, setter, INT_SETTER);
+    }
+
+    @Override
+    void bind(TbDataLine line, String value, TbDataDateDecoder dates) throws Throwable {
+      int intValue;
+      try {
+        intValue = Integer.parseInt(value);
+      } catch (NumberFormatException e) {
+        logger.error("Invalid integer value " + value + ".  Ignoring field " + fieldName + ".");
+        return;
+      }
+      setter.invokeExact(line, intValue);
+    }
+  }
+
+  private static class DateColumn extends Column {
+    DateColumn(String fieldName, int index, MethodHandle setter) {
+      super(fieldName, index, setter, DATE_SETTER);
+    }
+
+    @Override
+    void bind(TbDataLine line, String value, TbDataDateDecoder dates) throws Throwable {
+      // Empty and malformed dates are counted by the decoder, and left unset.
+      Date date = dates.decode(value);
+      if (date == null) {
+        return;
+      }
+      setter.invokeExact(line, date);
+    }
+  }
+}
@@ -0,0 +1,13 @@
+package org.literacybridge.stats.formats.tbData;
+
+import org.literacybridge.dashboard.dbTables.TbDataLine;
+
+import java.io.IOException;
+
+/**
+ * Receives the lines of a tbData file from {@link TbDataParser}, one at a time, as they are parsed.
+ */
+public interface TbDataLineHandler {
+
+  void onTbDataLine(TbDataLine line) throws IOException;
+}
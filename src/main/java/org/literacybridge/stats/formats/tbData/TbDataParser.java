@@ -2,7 +2,6 @@ package org.literacybridge.stats.formats.tbData;
 
 import au.com.bytecode.opencsv.CSVReader;
 import com.google.common.collect.ImmutableMap;
-import org.apache.commons.lang.WordUtils;
 import org.literacybridge.dashboard.dbTables.TbDataLine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,8 +9,7 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.Reader;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -20,8 +18,6 @@ import java.util.regex.Pattern;
  * Parses a tbData file.  Does some work to try to work for older formats.
  */
 public class TbDataParser {
-  private static final Set<String> missingPropertySetters = new HashSet<>();
-
   protected static final Logger logger = LoggerFactory.getLogger(TbDataParser.class);
 
   protected static final Map<String, Integer> V3_TB_MAP = ImmutableMap.<String, Integer>builder()
@@ -128,8 +124,6 @@ public class TbDataParser {
     "FLASH-VOLT-R3", "FLASH-MINUTES-R4", "FLASH-PERIOD-R4", "FLASH-HRS-POST-UPDATE-R4", "FLASH-VOLT-R"
   };
 
-  protected static final char[] FIELD_DELIMITERS = new char[]{'-'};
-
     // **************** set up for "stats-only" hack ****************
     private static final String updateDateTimeHeading = "UPDATE_DATE_TIME";
     private static final String actionHeading = "ACTION";
@@ -159,20 +153,91 @@ public class TbDataParser {
   }
 
   public List<TbDataLine> parseTbDataFile(File tbdataFile, boolean includesHeaders) throws IOException {
+    final List<TbDataLine> retVal = new ArrayList<>();
+    parseTbDataFile(tbdataFile, includesHeaders, collector(retVal));
+    return retVal;
+  }
+
+  /**
+   * Parses a tbData file, handing each line to the handler as soon as it is read, so that the file never has to
+   * fit in memory.
+   */
+  public void parseTbDataFile(File tbdataFile, boolean includesHeaders, TbDataLineHandler handler) throws IOException {
+    try (FileReader fileReader = new FileReader(tbdataFile)) {
+      parseTbData(fileReader, tbdataFile.getName(), includesHeaders, handler);
+    }
+  }
 
-    List<TbDataLine> retVal = new ArrayList<>();
-    FileReader fileReader = new FileReader(tbdataFile);
-    CSVReader csvReader = new CSVReader(fileReader);
+  /**
+   * Same as {@link #parseTbDataFile(File, boolean)}, for a tbData file that isn't on disk.
+   *
+   * @param reader   the contents of the file.  It is read to the end, but not closed.
+   * @param fileName the name of the file, which says what version the file is.
+   */
+  public List<TbDataLine> parseTbData(Reader reader, String fileName, boolean includesHeaders) throws IOException {
+    final List<TbDataLine> retVal = new ArrayList<>();
+    parseTbData(reader, fileName, includesHeaders, collector(retVal));
+    return retVal;
+  }
+
+  private static TbDataLineHandler collector(final List<TbDataLine> lines) {
+    return new TbDataLineHandler() {
+      @Override
+      public void onTbDataLine(TbDataLine line) {
+        lines.add(line);
+      }
+    };
+  }
+
+  /**
+   * Same as {@link #parseTbDataFile(File, boolean, TbDataLineHandler)}, for a tbData file that isn't on disk.
+   *
+   * @param reader   the contents of the file.  It is read a line at a time to the end, but not closed.
+   * @param fileName the name of the file, which says what version the file is.
+   */
+  public void parseTbData(Reader reader, String fileName, boolean includesHeaders, final TbDataLineHandler handler)
+    throws IOException {
+    final TbDataDateDecoder dates = new TbDataDateDecoder();
+    parseTbDataRows(reader, fileName, includesHeaders, new RowHandler() {
+      @Override
+      public void onRow(TbDataLineBinder binder, String[] row) throws IOException {
+        handler.onTbDataLine(binder.bind(row, dates));
+      }
+    });
+    reportDates(fileName, dates);
+  }
+
+  /**
+   * Logs the dates of a file that couldn't be decoded, once for the file rather than for every field.
+   */
+  static void reportDates(String fileName, TbDataDateDecoder dates) {
+    if (dates.getNumMalformed() > 0) {
+      logger.error(String.format("%d invalid date values in %s.  Ignoring those fields.", dates.getNumMalformed(),
+                                 fileName));
+    }
+  }
+
+  /**
+   * Receives the rows of a tbData file, after the fixes for old TB-Loader bugs, with the binder for its layout.
+   */
+  interface RowHandler {
+    void onRow(TbDataLineBinder binder, String[] row) throws IOException;
+  }
+
+  void parseTbDataRows(Reader reader, String fileName, boolean includesHeaders, RowHandler handler)
+    throws IOException {
+
+    CSVReader csvReader = new CSVReader(reader);
 
     int lineNumber = 1;
-    List<String[]> lines = csvReader.readAll();
 
       Map<String, Integer> headerMap = V3_TB_MAP;
       boolean isV3Header = true;
-      if (getTBdataVersion(tbdataFile) == 1) {
+      int version = getTBdataVersion(fileName);
+      if (version == 1) {
           headerMap = V1_TB_MAP;
           isV3Header = false;
-      } else if (getTBdataVersion(tbdataFile) == 0) {
+      } else if (version == 0) {
           headerMap = V0_TB_MAP;
           isV3Header = false;
       }
@@ -190,7 +255,10 @@ public class TbDataParser {
       int inFwRevIx = 0;
       int multipleImagesLength = 999;   // We'll look for lines longer than this.
 
-    for (String[] line : lines) {
+    TbDataLineBinder binder = TbDataLineBinder.forLayout(headerMap);
+
+    String[] line;
+    while ((line = csvReader.readNext()) != null) {
 
       // Is this supposed to be a header line?
       if (lineNumber == 1 && includesHeaders) {
@@ -200,6 +268,7 @@ public class TbDataParser {
         String firstHeaderActual = line[0];
         if (firstHeaderActual.equalsIgnoreCase(firstHeaderDefined)) {
             headerMap = processHeader(line);
+            binder = TbDataLineBinder.forLayout(headerMap);
 
             // **************** set up for "stats-only" hack ****************
             // Count duplicated headings.
@@ -240,158 +309,76 @@ public class TbDataParser {
         }
       }
       if (!(lineNumber == 1 && includesHeaders)) {
-        try {
-          if (line.length == lengthToExamine
-                  && line[actionIx].equalsIgnoreCase(statsAction)
-                  && line[updateDateTimeIx].compareToIgnoreCase(hackStartDate) > 0
-                  // If we're ever sure that no more will be produced, uncomment next line
-                  // && line[updateDateTimeIx].compareToIgnoreCase(hackEndDate) < 0
-                  && line[firstMissingIx].matches(snRegex)) {
-              // **************** "stats-only" hack ****************
-              // Fix for a bug in TB-Loader from 2017-07-24 through 2017-10-19.
-              // 5 columns were missing from the tbdata file when the operation was "stats-only":
-              //     OUT-DEPLOYMENT, OUT-IMAGE, OUT-FW-REV, OUT-COMMUNITY, and OUT-ROTATION-DATE
-              // were omitted from columns 8, 9, 10, 11, and 12 (starting with 1).
-              // This caused 'IN-SN' to be written in the column for 'OUT-DEPLOYMENT'.
-              // So, if the number of elements is 5 less than it should be and
-              //     ACTION is "stats-only", and
-              //     UPDATE_DATE_TIME >= "2017Y07M24" and
-              //     OUT-DEPLOYMENT matches (?i)[AB]-[0-9a-f]{8} then
-              //   Insert 5 blank elements before the column 'OUT-DEPLOYMENT', to slide 'IN-SN' into
-              //     the correct column.
-              // Someday we may be able to add another predicate like <= "2017Y10M20" and, but as
-              // of 2017/12, bad data is still coming in.
-              logger.warn("Applying 'stats-only' hack. (See source for details.)");
-              String[] newLine = new String[line.length+numMissingFields];
-              System.arraycopy(line, 0, newLine, 0, firstMissingIx);
-              System.arraycopy(line, firstMissingIx, newLine, firstMissingIx+numMissingFields, line.length-firstMissingIx);
-              for (int ix=0; ix<numMissingFields; ix++) {
-                  newLine[firstMissingIx+ix] = "";
-              }
-              line = newLine;
-          } else if (line.length >= multipleImagesLength) {
-              // **************** "multiple images" hack ****************
-              // When support for multiple images was added to the TB-Loader (it had always been in the TB),
-              // the tbdata entry for the image included both images, separated by a comma. So, in a .CSV,
-              // it looks like two columns. Solution is to enclose them in quotes. Meanwhile, we have some
-              // tbdata files with an image name in what should be a firmware revision column (up to two
-              // of those, one for input and one for output). The hack is to look at the firmware revision
-              // columns, and if they don't look like good revisions, but the next column does, collapse the
-              // images into a single column, and shift the remaining data left by one.
-              int newLen = line.length;
-              if (!FW_REV_PATTERN.matcher(line[outFwRevIx]).matches() && FW_REV_PATTERN.matcher(line[outFwRevIx+1]).matches()) {
-                  line[outImageIx] = line[outImageIx] + "," + line[outFwRevIx];
-                  newLen -= 1;
-                  System.arraycopy(line, outFwRevIx+1, line, outFwRevIx, newLen-outFwRevIx);
-              }
-              if (!FW_REV_PATTERN.matcher(line[inFwRevIx]).matches() && FW_REV_PATTERN.matcher(line[inFwRevIx+1]).matches()) {
-                  line[inImageIx] = line[inImageIx] + "," + line[inFwRevIx];
-                  newLen -= 1;
-                  System.arraycopy(line, inFwRevIx+1, line, inFwRevIx, newLen-inFwRevIx);
-              }
-              if (line.length != newLen) {
-                  logger.warn("Applying 'multiple image' hack. (See source for details.)");
-                  String[] newLine = new String[newLen];
-                  System.arraycopy(line, 0, newLine, 0, newLen);
-                  line = newLine;
-              }
-          }
-
-          retVal.add(processLine(line, headerMap));
-          processLine(line, headerMap);
-        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
-          throw new IOException(e);
+        if (line.length == lengthToExamine
+                && line[actionIx].equalsIgnoreCase(statsAction)
+                && line[updateDateTimeIx].compareToIgnoreCase(hackStartDate) > 0
+                // If we're ever sure that no more will be produced, uncomment next line
+                // && line[updateDateTimeIx].compareToIgnoreCase(hackEndDate) < 0
+                && line[firstMissingIx].matches(snRegex)) {
+            // **************** "stats-only" hack ****************
+            // Fix for a bug in TB-Loader from 2017-07-24 through 2017-10-19.
+            // 5 columns were missing from the tbdata file when the operation was "stats-only":
+            //     OUT-DEPLOYMENT, OUT-IMAGE, OUT-FW-REV, OUT-COMMUNITY, and OUT-ROTATION-DATE
+            // were omitted from columns 8, 9, 10, 11, and 12 (starting with 1).
+            // This caused 'IN-SN' to be written in the column for 'OUT-DEPLOYMENT'.
+            // So, if the number of elements is 5 less than it should be and
+            //     ACTION is "stats-only", and
+            //     UPDATE_DATE_TIME >= "2017Y07M24" and
+            //     OUT-DEPLOYMENT matches (?i)[AB]-[0-9a-f]{8} then
+            //   Insert 5 blank elements before the column 'OUT-DEPLOYMENT', to slide 'IN-SN' into
+            //     the correct column.
+            // Someday we may be able to add another predicate like <= "2017Y10M20" and, but as
+            // of 2017/12, bad data is still coming in.
+            logger.warn("Applying 'stats-only' hack. (See source for details.)");
+            String[] newLine = new String[line.length+numMissingFields];
+            System.arraycopy(line, 0, newLine, 0, firstMissingIx);
+            System.arraycopy(line, firstMissingIx, newLine, firstMissingIx+numMissingFields, line.length-firstMissingIx);
+            for (int ix=0; ix<numMissingFields; ix++) {
+                newLine[firstMissingIx+ix] = "";
+            }
+            line = newLine;
+        } else if (line.length >= multipleImagesLength) {
+            // **************** "multiple images" hack ****************
+            // When support for multiple images was added to the TB-Loader (it had always been in the TB),
+            // the tbdata entry for the image included both images, separated by a comma. So, in a .CSV,
+            // it looks like two columns. Solution is to enclose them in quotes. Meanwhile, we have some
+            // tbdata files with an image name in what should be a firmware revision column (up to two
+            // of those, one for input and one for output). The hack is to look at the firmware revision
+            // columns, and if they don't look like good revisions, but the next column does, collapse the
+            // images into a single column, and shift the remaining data left by one.
+            int newLen = line.length;
+            if (!FW_REV_PATTERN.matcher(line[outFwRevIx]).matches() && FW_REV_PATTERN.matcher(line[outFwRevIx+1]).matches()) {
+                line[outImageIx] = line[outImageIx] + "," + line[outFwRevIx];
+                newLen -= 1;
+                System.arraycopy(line, outFwRevIx+1, line, outFwRevIx, newLen-outFwRevIx);
+            }
+            if (!FW_REV_PATTERN.matcher(line[inFwRevIx]).matches() && FW_REV_PATTERN.matcher(line[inFwRevIx+1]).matches()) {
+                line[inImageIx] = line[inImageIx] + "," + line[inFwRevIx];
+                newLen -= 1;
+                System.arraycopy(line, inFwRevIx+1, line, inFwRevIx, newLen-inFwRevIx);
+            }
+            if (line.length != newLen) {
+                logger.warn("Applying 'multiple image' hack. (See source for details.)");
+                String[] newLine = new String[newLen];
+                System.arraycopy(line, 0, newLine, 0, newLen);
+                line = newLine;
+            }
         }
 
-      }
-
-      lineNumber++;
-    }
-    return retVal;
-  }
-
-  public TbDataLine processLine(String[] line, Map<String, Integer> headerToIndex) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
-    TbDataLine retVal = new TbDataLine();
-    Map<String, String> lineValues = buildLineMap(line, headerToIndex);
-
-    for (String fieldName : V3_FIELD_NAMES) {
-      setProperty(fieldName, lineValues, retVal);
-    }
-    return retVal;
-  }
-
-  @SuppressWarnings("RedundantThrows")
-  protected void setProperty(String propertyName, Map<String, String> lineValues, TbDataLine line) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
-
-    if (lineValues.containsKey(propertyName)) {
-      String[] propertyNameParts = propertyName.toLowerCase().split("[? _-]");
+        handler.onRow(binder, line);
 
-      StringBuilder javaSetterNameBuilder = new StringBuilder("set");
-      for (String propertyNamePart : propertyNameParts) {
-        javaSetterNameBuilder.append(WordUtils.capitalize(propertyNamePart, FIELD_DELIMITERS));
       }
 
-      Method setter = null;
-      Method[] methods = line.getClass().getMethods();
-      String javaSetterName = javaSetterNameBuilder.toString();
-      for (Method method : methods) {
-        if (method.getName().equals(javaSetterName)) {
-          setter = method;
-          break;
-        }
-      }
-
-      if (setter == null) {
-        // Don't warn for every freaking instance of the property.
-        if (!missingPropertySetters.contains(javaSetterName)) {
-            missingPropertySetters.add(javaSetterName);
-            logger.warn("No setter for " + javaSetterName);
-        }
-        return;
-      }
-
-      Class<?> type = setter.getParameterTypes()[0];
-      String value = null;
-      if (type.equals(Date.class)) {
-        try {
-          value = lineValues.get(propertyName);
-          // TODO: we need to fix this.  We have lots of dates like "Thu Apr 21 00:00:00 WAT 2016"
-          // that this can't parse.
-          setter.invoke(line, new Date(value));
-        } catch (IllegalArgumentException e) {
-          // Don't log for empty strings. That's just "no value".
-          if (value == null || value.length()>0) {
-              logger.error(
-                      "Invalid date value " + lineValues.get(propertyName) + ".  Ignoring field " + propertyName + ".");
-          }
-        }
-      } else if (type.equals(int.class) || type.equals(Integer.TYPE)) {
-        try {
-          setter.invoke(line, Integer.valueOf(lineValues.get(propertyName)));
-        } catch (NumberFormatException e) {
-          logger.error("Invalid integer value " + lineValues.get(propertyName) + ".  Ignoring field " + propertyName + ".");
-        }
-      } else {
-        setter.invoke(line, lineValues.get(propertyName));
-      }
+      lineNumber++;
     }
   }
 
-  public Map<String, String> buildLineMap(String[] line, Map<String, Integer> headerToIndex) {
-    Map<String, String> lineValueMap = new HashMap<>();
-    for (String fieldName : V3_FIELD_NAMES) {
-      if (headerToIndex.containsKey(fieldName)) {
-        int headerIndex = headerToIndex.get(fieldName);
-        if (line.length > headerIndex) {
-          lineValueMap.put(fieldName, line[headerIndex]);
-        }
-      }
-    }
-    return lineValueMap;
+  public TbDataLine processLine(String[] line, Map<String, Integer> headerToIndex) {
+    return TbDataLineBinder.forLayout(headerToIndex).bind(line);
   }
 
-  private int getTBdataVersion(File f) {
-        Matcher matcher = TBDATA_PATTERN_V2.matcher(f.getName());
+  private int getTBdataVersion(String fileName) {
+        Matcher matcher = TBDATA_PATTERN_V2.matcher(fileName);
         if (matcher.matches()) {
             return Integer.parseInt(matcher.group(1));
         }
@@ -1,7 +1,8 @@
 package org.literacybridge.stats.model;
 
 import org.literacybridge.stats.DirectoryIterator;
-import org.literacybridge.utils.FsUtils;
+import org.literacybridge.utils.FileTree;
+import org.literacybridge.utils.LocalFileTree;
 
 import java.io.File;
 import java.util.Comparator;
@@ -51,15 +52,27 @@ public class DeploymentPerDevice {
   }
 
   public File getRoot(File basePath, DirectoryFormat format) {
-    return format == DirectoryFormat.Archive ? getArchiveRoot(basePath) : getSyncRoot(basePath);
+    return getRoot(LocalFileTree.INSTANCE, basePath, format);
+  }
+
+  public File getRoot(FileTree tree, File basePath, DirectoryFormat format) {
+    return format == DirectoryFormat.Archive ? getArchiveRoot(tree, basePath) : getSyncRoot(tree, basePath);
   }
 
   public File getSyncRoot(File basePath) {
-    return FsUtils.FileIgnoreCase(basePath, DirectoryIterator.UPDATE_ROOT_V1, deployment);
+    return getSyncRoot(LocalFileTree.INSTANCE, basePath);
+  }
+
+  public File getSyncRoot(FileTree tree, File basePath) {
+    return tree.fileIgnoreCase(basePath, DirectoryIterator.UPDATE_ROOT_V1, deployment);
   }
 
   public File getArchiveRoot(File basePath) {
-    return FsUtils.FileIgnoreCase(basePath, DirectoryIterator.TALKING_BOOK_ROOT_V2, deployment, device);
+    return getArchiveRoot(LocalFileTree.INSTANCE, basePath);
+  }
+
+  public File getArchiveRoot(FileTree tree, File basePath) {
+    return tree.fileIgnoreCase(basePath, DirectoryIterator.TALKING_BOOK_ROOT_V2, deployment, device);
   }
 
 
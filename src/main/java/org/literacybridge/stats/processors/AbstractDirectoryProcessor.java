@@ -2,8 +2,10 @@ package org.literacybridge.stats.processors;
 
 import org.literacybridge.main.ProcessingResult;
 import org.literacybridge.dashboard.processes.ContentUsageUpdateProcess;
+import org.literacybridge.stats.ArchiveIndex;
 import org.literacybridge.stats.api.DirectoryCallbacks;
 import org.literacybridge.stats.model.*;
+import org.literacybridge.utils.FileTree;
 
 import javax.annotation.Nonnull;
 import java.io.File;
@@ -13,7 +15,7 @@ import java.io.IOException;
  */
 abstract public class AbstractDirectoryProcessor implements DirectoryCallbacks {
   protected ProcessingResult result;
-  ContentUsageUpdateProcess.UpdateUsageContext context;
+  protected ContentUsageUpdateProcess.UpdateUsageContext context;
 
   protected File currRoot;
   protected DirectoryFormat format;
@@ -29,6 +31,45 @@ abstract public class AbstractDirectoryProcessor implements DirectoryCallbacks {
       this.context = context;
   }
 
+  /**
+   * @return the tree the files passed to the callbacks are in.
+   */
+  protected FileTree fileTree() {
+    return context.getFileTree();
+  }
+
+  /**
+   * @return what is in a sync directory, from the index of the package if it is in it.
+   */
+  protected ArchiveIndex.SyncDir syncDirContents(SyncDirId syncDirId, File syncDir) {
+    ArchiveIndex index = context.getArchiveIndex();
+    ArchiveIndex.SyncDir indexed = index != null ? index.getSyncDir(syncDir) : null;
+    return indexed != null ? indexed : ArchiveIndex.SyncDir.scan(fileTree(), syncDirId, syncDir);
+  }
+
+  /**
+   * Sets a fork up in this processor's current scope (root, manifest, format, device, deployment and village),
+   * with a result of its own.  For {@link org.literacybridge.stats.api.ForkableDirectoryCallbacks#fork}.
+   */
+  protected <T extends AbstractDirectoryProcessor> T inCurrentScope(T fork) {
+    fork.result = result.newFork();
+    fork.currRoot = currRoot;
+    fork.format = format;
+    fork.manifest = manifest;
+    fork.currDevice = currDevice;
+    fork.currDeploymentPerDevice = currDeploymentPerDevice;
+    fork.deploymentId = deploymentId;
+    fork.currVillage = currVillage;
+    return fork;
+  }
+
+  /**
+   * Merges the result of a fork made by {@link #inCurrentScope} into this processor's.
+   */
+  protected void joinResult(AbstractDirectoryProcessor fork) {
+    result.merge(fork.result);
+  }
+
   @Override
   public boolean startProcessing(@Nonnull File root, StatsPackageManifest manifest, @Nonnull DirectoryFormat format) throws Exception {
     this.currRoot = root;
@@ -2,6 +2,8 @@ package org.literacybridge.stats.processors;
 
 import org.joda.time.LocalDateTime;
 import org.literacybridge.dashboard.processes.ContentUsageUpdateProcess;
+import org.literacybridge.stats.api.DirectoryCallbacks;
+import org.literacybridge.stats.api.ForkableDirectoryCallbacks;
 import org.literacybridge.stats.model.DirectoryFormat;
 import org.literacybridge.stats.model.StatsPackageManifest;
 import org.literacybridge.stats.model.SyncDirId;
@@ -16,7 +18,7 @@ import java.util.Set;
 
 /**
  */
-public class ManifestCreationCallbacks extends AbstractDirectoryProcessor {
+public class ManifestCreationCallbacks extends AbstractDirectoryProcessor implements ForkableDirectoryCallbacks {
 
   Map<String, LocalDateTime> latestSyncs = new HashMap<>();
   Map<String, LocalDateTime> earliestSyncs = new HashMap<>();
@@ -33,20 +35,46 @@ public class ManifestCreationCallbacks extends AbstractDirectoryProcessor {
   @Override
   public void processSyncDir(SyncDirId syncDirId, File syncDir) throws Exception {
     if (syncDirId.dateTime != null) {
+      addSync(currDeploymentPerDevice.device, syncDirId.dateTime);
+    }
+  }
+
+  private void addSync(String device, LocalDateTime dateTime) {
+    LocalDateTime latestSync = latestSyncs.get(device);
+    if (latestSync == null || dateTime.isAfter(latestSync)) {
+      latestSyncs.put(device, dateTime);
+    }
+
+    LocalDateTime eariestSync = earliestSyncs.get(device);
+    if (eariestSync == null || dateTime.isBefore(eariestSync)) {
+      earliestSyncs.put(device, dateTime);
+    }
+  }
 
-      LocalDateTime latestSync = latestSyncs.get(currDeploymentPerDevice.device);
-      if (latestSync == null || syncDirId.dateTime.isAfter(latestSync)) {
-        latestSyncs.put(currDeploymentPerDevice.device, syncDirId.dateTime);
-      }
+  @Override
+  public DirectoryCallbacks fork() {
+    return inCurrentScope(new ManifestCreationCallbacks(context));
+  }
 
-      LocalDateTime eariestSync = earliestSyncs.get(currDeploymentPerDevice.device);
-      if (eariestSync == null || syncDirId.dateTime.isBefore(eariestSync)) {
-        earliestSyncs.put(currDeploymentPerDevice.device, syncDirId.dateTime);
-      }
+  @Override
+  public void join(DirectoryCallbacks fork) {
+    ManifestCreationCallbacks forked = (ManifestCreationCallbacks) fork;
+    for (String device : forked.latestSyncs.keySet()) {
+      addSync(device, forked.earliestSyncs.get(device));
+      addSync(device, forked.latestSyncs.get(device));
     }
+    joinResult(forked);
   }
 
   public StatsPackageManifest generateManifest(DirectoryFormat format) {
+    return toManifest(format, earliestSyncs, latestSyncs);
+  }
+
+  /**
+   * @return a manifest with a sync range for each device, from its earliest to its latest sync.
+   */
+  public static StatsPackageManifest toManifest(DirectoryFormat format, Map<String, LocalDateTime> earliestSyncs,
+                                                Map<String, LocalDateTime> latestSyncs) {
     Set<String> deviceNameSet = latestSyncs.keySet();
     Map<String, SyncRange> devices = new HashMap<>();
 
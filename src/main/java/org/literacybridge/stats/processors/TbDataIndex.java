@@ -0,0 +1,114 @@
+package org.literacybridge.stats.processors;
+
+import org.literacybridge.stats.model.OperationalInfo;
+import org.literacybridge.stats.model.SyncDirId;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+
+/**
+ * The operational tbData entries of an import, to match the sync directories to.  The entries are kept in time
+ * order, both all together and by the device that wrote them, so finding a sync dir's entry is a lookup rather than
+ * a scan.  Entries for the same sync dir time are all kept, the one added last first, so that it is the one found
+ * for that time; as before, when each such entry took the place of the one before and moved it a millisecond later.
+ * <p/>
+ * Not thread safe while entries are added.  They all are before any Talking Book is validated, which only reads it.
+ */
+class TbDataIndex {
+
+  /**
+   * Where an entry is in the index: its sync dir, and its place among the entries added for the same time, where
+   * later ones come first.
+   */
+  static final class Key implements Comparable<Key> {
+    final SyncDirId syncDirId;
+    final int       sequence;
+
+    private Key(SyncDirId syncDirId, int sequence) {
+      this.syncDirId = syncDirId;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(Key o) {
+      int retVal = SyncDirId.TIME_COMPARATOR.compare(syncDirId, o.syncDirId);
+      if (retVal == 0) {
+        retVal = Integer.compare(o.sequence, sequence);
+      }
+      return retVal;
+    }
+
+    @Override
+    public String toString() {
+      return String.valueOf(syncDirId);
+    }
+  }
+
+  private final TreeMap<Key, OperationalInfo>                    entries         = new TreeMap<>();
+  private final Map<String, NavigableMap<Key, OperationalInfo>> entriesByDevice = new HashMap<>();
+  private int numAdded;
+
+  /**
+   * @return the key of the new entry, which never replaces one that is already there.
+   */
+  Key add(SyncDirId syncDirId, OperationalInfo operationalInfo) {
+    Key key = new Key(syncDirId, numAdded++);
+    entries.put(key, operationalInfo);
+
+    NavigableMap<Key, OperationalInfo> deviceEntries = entriesByDevice.get(operationalInfo.deviceName);
+    if (deviceEntries == null) {
+      deviceEntries = new TreeMap<>();
+      entriesByDevice.put(operationalInfo.deviceName, deviceEntries);
+    }
+    deviceEntries.put(key, operationalInfo);
+    return key;
+  }
+
+  OperationalInfo get(Key key) {
+    return entries.get(key);
+  }
+
+  /**
+   * @return the first entry of a device at or after the time of a sync dir, or null if there isn't one.  Of the
+   * entries for the same time, that is the one added last.
+   */
+  @Nullable
+  Key findAtOrAfter(String device, SyncDirId syncDirId) {
+    NavigableMap<Key, OperationalInfo> deviceEntries = entriesByDevice.get(device);
+    return deviceEntries != null ? deviceEntries.ceilingKey(first(syncDirId)) : null;
+  }
+
+  /**
+   * @return the last entry added for exactly the time (and TBCD id) of a sync dir, or null if there isn't one.
+   */
+  @Nullable
+  Key find(SyncDirId syncDirId) {
+    Key key = entries.ceilingKey(first(syncDirId));
+    if (key != null && SyncDirId.TIME_COMPARATOR.compare(key.syncDirId, syncDirId) == 0) {
+      return key;
+    }
+    return null;
+  }
+
+  /**
+   * @return all the entries' keys, in time order, and the last added first for the same time.
+   */
+  NavigableSet<Key> keys() {
+    return entries.navigableKeySet();
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return a key that comes before all the entries for the time of a sync dir, and after all those before it.
+   */
+  private static Key first(SyncDirId syncDirId) {
+    return new Key(syncDirId, Integer.MAX_VALUE);
+  }
+}
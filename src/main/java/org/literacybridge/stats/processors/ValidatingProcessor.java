@@ -6,6 +6,9 @@ import org.joda.time.LocalDateTime;
 import org.literacybridge.dashboard.dbTables.TbDataLine;
 import org.literacybridge.dashboard.processes.ContentUsageUpdateProcess;
 import org.literacybridge.stats.DirectoryIterator;
+import org.literacybridge.stats.api.DirectoryCallbacks;
+import org.literacybridge.stats.api.ForkableDirectoryCallbacks;
+import org.literacybridge.stats.formats.tbData.TbDataLineHandler;
 import org.literacybridge.stats.formats.tbData.TbDataParser;
 import org.literacybridge.stats.model.*;
 import org.literacybridge.stats.model.validation.*;
@@ -20,7 +23,7 @@ import java.util.regex.Matcher;
 
 /**
  */
-public class ValidatingProcessor extends AbstractDirectoryProcessor {
+public class ValidatingProcessor extends AbstractDirectoryProcessor implements ForkableDirectoryCallbacks {
 
     private static final String DEPLOY_ID_EXPECTED = "YYYY-XX formatted string with YYYYY being the year and XX being the current deployment in this year.";
     private static final String SYNC_DIR_EXPECTED = "Sync directory could not be parsed correct.  Look at https://docs.google.com/document/d/12Q0a7x15FqeZ4ys0gYy4O2MtWYrvGDUegOXwlsG9ZQY for a desciption of the appropriate formats.";
@@ -32,16 +35,93 @@ public class ValidatingProcessor extends AbstractDirectoryProcessor {
     protected static final Logger logger = LoggerFactory.getLogger(ValidatingProcessor.class);
     public final List<ValidationError> validationErrors = new ArrayList<>();
 
-    private final TreeMap<SyncDirId, OperationalInfo> tbDataInfo = new TreeMap<>(SyncDirId.TIME_COMPARATOR);
+    // Only read while Talking Books are processed, so shared with the forks.
+    private final TbDataIndex tbDataIndex;
     private final int maxTimeWindow = 10;
-    private final IdentityHashMap<SyncDirId, SyncDirId> foundSyncDirs = new IdentityHashMap<>();
+    private final IdentityHashMap<TbDataIndex.Key, TbDataIndex.Key> foundSyncDirs = new IdentityHashMap<>();
     private final Set<String> deviceIncorrectlyInManifest = new HashSet<>();
     private final TbDataParser tbDataParser = new TbDataParser();
+    // In a fork, what validating its Talking Book came to, to be applied when it is joined.  Null otherwise.
+    private final List<Outcome> outcomes;
 
     private String currOperationalDevice = null;
 
+    /**
+     * Something that validating a sync dir came to, that depends on what was found in the sync dirs before it:
+     * a matched tbData entry, which is an error if it was matched before, an error about a device's entry in
+     * the manifest, which is only reported once per device, or any other error.
+     */
+    private static final class Outcome {
+        final boolean         matched;
+        final TbDataIndex.Key tbDataEntry;
+        final String          manifestDevice;
+        final ValidationError error;
+
+        Outcome(boolean matched, TbDataIndex.Key tbDataEntry, String manifestDevice, ValidationError error) {
+            this.matched = matched;
+            this.tbDataEntry = tbDataEntry;
+            this.manifestDevice = manifestDevice;
+            this.error = error;
+        }
+    }
+
     public ValidatingProcessor(ContentUsageUpdateProcess.UpdateUsageContext context) {
         super(context);
+        this.tbDataIndex = new TbDataIndex();
+        this.outcomes = null;
+    }
+
+    private ValidatingProcessor(ValidatingProcessor parent) {
+        super(parent.context);
+        this.tbDataIndex = parent.tbDataIndex;
+        this.outcomes = new ArrayList<>();
+    }
+
+    @Override
+    public DirectoryCallbacks fork() {
+        return inCurrentScope(new ValidatingProcessor(this));
+    }
+
+    @Override
+    public void join(DirectoryCallbacks fork) throws Exception {
+        ValidatingProcessor forked = (ValidatingProcessor) fork;
+        for (Outcome outcome : forked.outcomes) {
+            apply(outcome);
+        }
+        joinResult(forked);
+    }
+
+    private void record(Outcome outcome) {
+        if (outcomes != null) {
+            outcomes.add(outcome);
+        } else {
+            apply(outcome);
+        }
+    }
+
+    private void apply(Outcome outcome) {
+        if (outcome.matched) {
+            TbDataIndex.Key previousSyncDir = foundSyncDirs.put(outcome.tbDataEntry, outcome.tbDataEntry);
+            if (previousSyncDir != null) {
+                validationErrors.add(new MultipleTbDatasMatchError(outcome.tbDataEntry.syncDirId.dirName,
+                                                                   tbDataIndex.get(
+                                                                           outcome.tbDataEntry).deviceName));
+            }
+        } else if (outcome.manifestDevice == null || deviceIncorrectlyInManifest.add(outcome.manifestDevice)) {
+            validationErrors.add(outcome.error);
+        }
+    }
+
+    private void matched(TbDataIndex.Key tbDataEntry) {
+        record(new Outcome(true, tbDataEntry, null, null));
+    }
+
+    private void syncDirError(ValidationError error) {
+        record(new Outcome(false, null, null, error));
+    }
+
+    private void manifestError(String device, ValidationError error) {
+        record(new Outcome(false, null, device, error));
     }
 
     @Override
@@ -58,16 +138,18 @@ public class ValidatingProcessor extends AbstractDirectoryProcessor {
     }
 
     @Override
-    public void processTbDataFile(File tbdataFile, boolean includesHeaders) throws IOException {
-
-        int lineNumber = 1;
-        List<IncorrectFilePropertyValue> incorrectFilePropertyValues = new ArrayList<>();
-        final List<TbDataLine> tbDataLines = tbDataParser.parseTbDataFile(tbdataFile,
-                                                                          includesHeaders);
-
-        for (TbDataLine tbDataLine : tbDataLines) {
-            processLine(tbDataLine, tbdataFile, lineNumber, incorrectFilePropertyValues);
-        }
+    public void processTbDataFile(final File tbdataFile, boolean includesHeaders) throws IOException {
+
+        final int lineNumber = 1;
+        final List<IncorrectFilePropertyValue> incorrectFilePropertyValues = new ArrayList<>();
+        // Read as if it might have headers, the same as writing it to the db does, so that the lines checked are the
+        // lines written, and the file is only parsed once for both.
+        context.getTbDataCache().parse(fileTree(), tbdataFile, true, tbDataParser, new TbDataLineHandler() {
+            @Override
+            public void onTbDataLine(TbDataLine tbDataLine) {
+                processLine(tbDataLine, tbdataFile, lineNumber, incorrectFilePropertyValues);
+            }
+        });
 
         if (!incorrectFilePropertyValues.isEmpty()) {
             validationErrors.add(
@@ -153,15 +235,11 @@ public class ValidatingProcessor extends AbstractDirectoryProcessor {
                                                                       line.getInCommunity(),
                                                                       line.getOutCommunity());
 
-                //Theoretically, we can have dups, but it is unlikely.  In this case, log and add at a later millisecond.
+                //Theoretically, we can have dups, but it is unlikely.  The index keeps them all, in the order read.
                 logger.debug(
                         String.format("    operationalData for sync dir '%s', ts: %s", syncDirId,
                                       syncDirId.dateTime));
-                while ((operationalInfo = tbDataInfo.put(syncDirId, operationalInfo)) != null) {
-                    // This seems wrong. The key is the timestamp + tbcd id. We just replaced the previous value for that key,
-                    // and are now about to add that other value with a new (& different) key.
-                    syncDirId = syncDirId.addMilli();
-                }
+                tbDataIndex.add(syncDirId, operationalInfo);
             } else {
                 result.addUnexpectedOperationalAction(currRoot.getName(), currOperationalDevice, tbdataFile.getName(),
                                                       line.getAction());
@@ -179,7 +257,7 @@ public class ValidatingProcessor extends AbstractDirectoryProcessor {
     public void processSyncDir(SyncDirId syncDirId, File syncDir) throws Exception {
 
         //Find closest matching TbData entry
-        SyncDirId tbDataEntry = findMatchingTbDataEntry(syncDirId);
+        TbDataIndex.Key tbDataEntry = findMatchingTbDataEntry(syncDirId);
         logger.debug(String.format("    validating talkingbookData sync dir '%s': %s", syncDirId,
                                    tbDataEntry));
 
@@ -188,43 +266,32 @@ public class ValidatingProcessor extends AbstractDirectoryProcessor {
 
         //If this file is due to major corruption, just bail out.
         File chkdiskFile = new File(syncDir, CHECK_DISK_REFORMAT);
-        if (chkdiskFile.exists()) {
-            SyncDirId previousSyncDir = foundSyncDirs.put(tbDataEntry, tbDataEntry);
-            if (previousSyncDir != null) {
-                validationErrors.add(new MultipleTbDatasMatchError(tbDataEntry.dirName,
-                                                                   tbDataInfo.get(
-                                                                           tbDataEntry).deviceName));
-            }
-
+        if (fileTree().exists(chkdiskFile)) {
+            matched(tbDataEntry);
             return;
         }
 
-        if (syncDir.list().length == 0) {
-            validationErrors.add(new EmptySyncDirectory(syncDir));
+        if (syncDirContents(syncDirId, syncDir).empty) {
+            syncDirError(new EmptySyncDirectory(syncDir));
             return;
         }
 
         if (tbDataEntry == null || (manifest.formatVersion == 1 && maxAllowableTimeV1.isBefore(
-                tbDataEntry.dateTime))) {
+                tbDataEntry.syncDirId.dateTime))) {
             result.addSyncDirButNoOperationalData(currRoot.getName(), currDeploymentPerDevice.device,
                                                   currDeploymentPerDevice.deployment, currVillage,
                                                   currTalkingBook, syncDir.getName());
             logger.debug(String.format(
                     "    directory in TalkingBookData with no matching OperationalData: %s",
                     syncDir.getName()));
-            validationErrors.add(new NoMatchingTbDataError(syncDirId.dirName, syncDir,
+            syncDirError(new NoMatchingTbDataError(syncDirId.dirName, syncDir,
                                                            manifest.formatVersion == 1 ?
                                                            SyncDirId.SYNC_VERSION_1 :
                                                            SyncDirId.SYNC_VERSION_2));
         } else {
-            SyncDirId previousSyncDir = foundSyncDirs.put(tbDataEntry, tbDataEntry);
-            if (previousSyncDir != null) {
-                validationErrors.add(new MultipleTbDatasMatchError(tbDataEntry.dirName,
-                                                                   tbDataInfo.get(
-                                                                           tbDataEntry).deviceName));
-            }
+            matched(tbDataEntry);
 
-            OperationalInfo operationalInfo = tbDataInfo.get(tbDataEntry);
+            OperationalInfo operationalInfo = tbDataIndex.get(tbDataEntry);
             List<IncorrectPropertyValue> incorrectPropertyValues = new LinkedList<>();
 
             if (!currVillage.equalsIgnoreCase(operationalInfo.inVillage)
@@ -262,12 +329,11 @@ public class ValidatingProcessor extends AbstractDirectoryProcessor {
                 result.addIncorrectPropertyValues(currRoot.getName(), currDeploymentPerDevice.device,
                                                   currDeploymentPerDevice.deployment, currVillage,
                                                   currTalkingBook, syncDir.getName());
-                File destFile = FileUtils.getFile(currDeploymentPerDevice.getRoot(currRoot, format),
+                File destFile = FileUtils.getFile(currDeploymentPerDevice.getRoot(fileTree(), currRoot, format),
                                                   operationalInfo.inVillage,
                                                   operationalInfo.inTalkingBook, syncDirId.dirName);
 
-                validationErrors.add(
-                        new InvalidSyncDirError(syncDir, destFile, incorrectPropertyValues));
+                syncDirError(new InvalidSyncDirError(syncDir, destFile, incorrectPropertyValues));
             }
         }
 
@@ -276,57 +342,36 @@ public class ValidatingProcessor extends AbstractDirectoryProcessor {
         Date startTime = range != null ? range.getStartTime() : null;
         Date endTime = range != null ? range.getEndTime() : null;
         if (startTime == null || endTime == null) {
-
-            if (!deviceIncorrectlyInManifest.contains(currDeploymentPerDevice.device)) {
-                validationErrors.add(
-                        new ManfestDoesNotContainDevice(currDeploymentPerDevice.device));
-                deviceIncorrectlyInManifest.add(currDeploymentPerDevice.device);
-            }
+            manifestError(currDeploymentPerDevice.device,
+                          new ManfestDoesNotContainDevice(currDeploymentPerDevice.device));
         } else {
             Date syncDirDate = syncDirId.dateTime.toDate();
             int startCompare = startTime.compareTo(syncDirDate);
             int endCompare = endTime.compareTo(syncDirDate);
 
             if (startCompare > 0 || endCompare < 0) {
-                if (!deviceIncorrectlyInManifest.contains(currDeploymentPerDevice.device)) {
-                    validationErrors.add(
-                            new ManifestHasWrongDeviceRanges(currDeploymentPerDevice.device,
-                                                             startTime, endTime, syncDirId.dateTime,
-                                                             syncDir));
-                    deviceIncorrectlyInManifest.add(currDeploymentPerDevice.device);
-                }
+                manifestError(currDeploymentPerDevice.device,
+                              new ManifestHasWrongDeviceRanges(currDeploymentPerDevice.device,
+                                                               startTime, endTime, syncDirId.dateTime,
+                                                               syncDir));
             }
         }
     }
 
-    private SyncDirId findMatchingTbDataEntry(SyncDirId syncDirId) {
+    private TbDataIndex.Key findMatchingTbDataEntry(SyncDirId syncDirId) {
 
-        SyncDirId currSync = null;
-        //If the manifest is from the older version, just need to verify there is an entry shortly after the syncDir time, and
-        //that there are not duplicate directories going to the same one.  For the newer format, there needs to be an exact match.
+        TbDataIndex.Key currSync;
+        //If the manifest is from the older version, just need to verify there is an entry of the device shortly after the
+        //syncDir time, and that there are not duplicate directories going to the same one.  For the newer format, there
+        //needs to be an exact match.
         if (manifest.formatVersion == 1) {
-            NavigableMap<SyncDirId, OperationalInfo> laterOperations = tbDataInfo.tailMap(syncDirId,
-                                                                                          true);
-            Iterator<SyncDirId> iter = laterOperations.navigableKeySet().iterator();
-
-            while (iter.hasNext()) {
-                currSync = iter.next();
-                if (currDeploymentPerDevice.device.equals(tbDataInfo.get(currSync).deviceName)) {
-                    break;
-                } else {
-                    currSync = null;
-                }
-            }
-
+            currSync = tbDataIndex.findAtOrAfter(currDeploymentPerDevice.device, syncDirId);
         } else {
             if (syncDirId.version != SyncDirId.SYNC_VERSION_2) {
-                validationErrors.add(new InvalidSyncDirFormat());
+                syncDirError(new InvalidSyncDirFormat());
             }
 
-            if (tbDataInfo.containsKey(syncDirId)) {
-                //Make sure currSync is the same identity as in the map for the validation test below
-                currSync = tbDataInfo.tailMap(syncDirId, true).firstKey();
-            }
+            currSync = tbDataIndex.find(syncDirId);
         }
 
         return currSync;
@@ -338,18 +383,18 @@ public class ValidatingProcessor extends AbstractDirectoryProcessor {
         super.endProcessing();
 
         //Check to see if anything was in the TBData files, but not on the file systems
-        Set<SyncDirId> idsInTbDataNotUsed = Sets.difference(tbDataInfo.keySet(),
-                                                            foundSyncDirs.keySet());
+        Set<TbDataIndex.Key> idsInTbDataNotUsed = Sets.difference(tbDataIndex.keys(),
+                                                                  foundSyncDirs.keySet());
         if (!idsInTbDataNotUsed.isEmpty()) {
             List<NonMatchingTbDataEntry> nonMatchingTbDataEntries = new ArrayList<>();
-            for (SyncDirId id : idsInTbDataNotUsed) {
-                OperationalInfo opInfo = tbDataInfo.get(id);
+            for (TbDataIndex.Key id : idsInTbDataNotUsed) {
+                OperationalInfo opInfo = tbDataIndex.get(id);
                 result.addOperationalDataButNoSyncDir(project, opInfo.deviceName, opInfo.outDeploymentId,
                                                       opInfo.outVillage, opInfo.outTalkingBook, opInfo.syncDirName);
                 logger.debug(String.format(
                         "    operationalData entry with no TalkingBookData directory: %s",
                         opInfo));
-                nonMatchingTbDataEntries.add(new NonMatchingTbDataEntry(id, opInfo));
+                nonMatchingTbDataEntries.add(new NonMatchingTbDataEntry(id.syncDirId, opInfo));
             }
 
             validationErrors.add(new UnmatchedTbDataEntries(nonMatchingTbDataEntries));
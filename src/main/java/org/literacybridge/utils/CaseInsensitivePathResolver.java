@@ -0,0 +1,119 @@
+package org.literacybridge.utils;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves paths the same way as {@link FsUtils#FileIgnoreCase(File, String...)}, but lists each directory at
+ * most once, and answers from the listing after that.  Meant to be shared by everything that resolves paths
+ * during one import; anything that changes a directory that may have been listed must {@link #invalidate} it.
+ */
+public final class CaseInsensitivePathResolver {
+
+  /**
+   * The names in a directory, as they are and lower-cased.
+   */
+  private static final class Listing {
+    final Map<String, File> exact  = new HashMap<>();
+    final Map<String, File> folded = new HashMap<>();
+  }
+
+  private final ConcurrentMap<String, Listing> listings          = new ConcurrentHashMap<>();
+  private final AtomicInteger                  directoriesListed = new AtomicInteger();
+  // Where directories are listed from, if not straight from the file system.
+  private final FileAttributeCache             cache;
+
+  public CaseInsensitivePathResolver() {
+    this(null);
+  }
+
+  CaseInsensitivePathResolver(FileAttributeCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * @see FsUtils#FileIgnoreCase(File, String...)
+   */
+  public File resolve(File parent, String... pathToChild) {
+    File file = parent;
+    for (String child : pathToChild) {
+      file = resolveChild(file, child);
+    }
+    return file;
+  }
+
+  private File resolveChild(File parent, String child) {
+    Listing listing = listing(parent);
+    File file = listing.exact.get(child);
+    if (file == null) {
+      file = listing.folded.get(child.toLowerCase(Locale.ROOT));
+    }
+    return file != null ? file : new File(parent, child);
+  }
+
+  private Listing listing(File dir) {
+    Listing listing = listings.get(dir.getPath());
+    if (listing == null) {
+      listing = new Listing();
+      for (File file : children(dir)) {
+        String name = file.getName();
+        listing.exact.put(name, file);
+        // The first one that matches, same as FileIgnoreCase.
+        String folded = name.toLowerCase(Locale.ROOT);
+        if (!listing.folded.containsKey(folded)) {
+          listing.folded.put(folded, file);
+        }
+      }
+      directoriesListed.incrementAndGet();
+      Listing raced = listings.putIfAbsent(dir.getPath(), listing);
+      if (raced != null) {
+        listing = raced;
+      }
+    }
+    return listing;
+  }
+
+  private List<File> children(File dir) {
+    if (cache != null) {
+      List<File> children = cache.children(dir);
+      return children != null ? children : Collections.<File>emptyList();
+    }
+    File[] children = dir.listFiles();
+    return children != null ? Arrays.asList(children) : Collections.<File>emptyList();
+  }
+
+  /**
+   * Forgets what is known about a file or directory, everything under it, and the directory it is in.
+   */
+  public void invalidate(File file) {
+    String path = file.getPath();
+    String under = path + File.separator;
+    File parent = file.getParentFile();
+    if (parent != null) {
+      listings.remove(parent.getPath());
+    }
+    Iterator<String> it = listings.keySet().iterator();
+    while (it.hasNext()) {
+      String listed = it.next();
+      if (listed.equals(path) || listed.startsWith(under)) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * @return how many times a directory has been listed.
+   */
+  public int getDirectoriesListed() {
+    return directoriesListed.get();
+  }
+}
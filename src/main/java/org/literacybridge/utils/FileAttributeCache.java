@@ -0,0 +1,153 @@
+package org.literacybridge.utils;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The directory listings and file attributes of a LocalFileTree, each read from the file system once.  A
+ * directory is listed with a one level walkFileTree, which hands over the attributes of every entry as it is
+ * listed, so asking whether the entries exist, are directories, or how long they are needs no more stat calls.
+ * <p/>
+ * Changes made to the file system behind the cache's back aren't noticed unless they are {@link #invalidate}d.
+ */
+final class FileAttributeCache {
+
+  /**
+   * The attributes of a file, or null ones if it doesn't exist (or they couldn't be read).
+   */
+  private static final class Attributes {
+    final BasicFileAttributes attributes;
+
+    Attributes(BasicFileAttributes attributes) {
+      this.attributes = attributes;
+    }
+  }
+
+  private static final Attributes MISSING          = new Attributes(null);
+  private static final List<File> NOT_A_DIRECTORY = Collections.unmodifiableList(new ArrayList<File>());
+
+  private static final EnumSet<FileVisitOption> FOLLOW_LINKS = EnumSet.of(FileVisitOption.FOLLOW_LINKS);
+
+  // By path, sorted so that everything under a directory can be forgotten without looking at the rest.
+  private final ConcurrentNavigableMap<String, Attributes> attributes = new ConcurrentSkipListMap<>();
+  private final ConcurrentNavigableMap<String, List<File>> listings   = new ConcurrentSkipListMap<>();
+
+  /**
+   * @return the attributes of a file, or null if it doesn't exist.
+   */
+  @Nullable
+  BasicFileAttributes attributes(File file) {
+    Attributes cached = attributes.get(file.getPath());
+    if (cached == null) {
+      try {
+        cached = new Attributes(Files.readAttributes(file.toPath(), BasicFileAttributes.class));
+      } catch (IOException e) {
+        cached = MISSING;
+      }
+      attributes.putIfAbsent(file.getPath(), cached);
+    }
+    return cached.attributes;
+  }
+
+  boolean exists(File file) {
+    return attributes(file) != null;
+  }
+
+  boolean isDirectory(File file) {
+    BasicFileAttributes attributes = attributes(file);
+    return attributes != null && attributes.isDirectory();
+  }
+
+  boolean isFile(File file) {
+    BasicFileAttributes attributes = attributes(file);
+    return attributes != null && attributes.isRegularFile();
+  }
+
+  long length(File file) {
+    BasicFileAttributes attributes = attributes(file);
+    return attributes != null ? attributes.size() : 0;
+  }
+
+  /**
+   * @return the files and directories in a directory, in the order File.listFiles would have them, or null if
+   * it isn't a directory or can't be read.
+   */
+  @Nullable
+  List<File> children(File dir) {
+    List<File> children = listings.get(dir.getPath());
+    if (children == null) {
+      children = list(dir);
+      List<File> raced = listings.putIfAbsent(dir.getPath(), children);
+      if (raced != null) {
+        children = raced;
+      }
+    }
+    return children != NOT_A_DIRECTORY ? children : null;
+  }
+
+  private List<File> list(final File dir) {
+    if (!isDirectory(dir)) {
+      return NOT_A_DIRECTORY;
+    }
+    final Path start = dir.toPath();
+    final List<File> children = new ArrayList<>();
+    try {
+      Files.walkFileTree(start, FOLLOW_LINKS, 1, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          File child = new File(dir, file.getFileName().toString());
+          children.add(child);
+          attributes.put(child.getPath(), new Attributes(attrs));
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+          if (file.equals(start)) {
+            throw e;
+          }
+          File child = new File(dir, file.getFileName().toString());
+          children.add(child);
+          attributes.put(child.getPath(), MISSING);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      return NOT_A_DIRECTORY;
+    }
+    return Collections.unmodifiableList(children);
+  }
+
+  /**
+   * Forgets what is known about a file or directory, everything under it, and the listing of the directory it
+   * is in.
+   */
+  void invalidate(File file) {
+    String path = file.getPath();
+    File parent = file.getParentFile();
+    if (parent != null) {
+      listings.remove(parent.getPath());
+    }
+    removeUnder(attributes, path);
+    removeUnder(listings, path);
+  }
+
+  private static void removeUnder(ConcurrentNavigableMap<String, ?> cache, String path) {
+    cache.remove(path);
+    String under = path + File.separator;
+    cache.subMap(under, under + Character.MAX_VALUE).clear();
+  }
+}
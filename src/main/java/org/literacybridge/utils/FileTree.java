@@ -0,0 +1,76 @@
+package org.literacybridge.utils;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * The file system a stats update package is read from.  Files are still named by java.io.File paths, but
+ * everything about them (whether they exist, what is in a directory, their contents) is asked of the tree, so
+ * the same processing can run over an exploded directory ({@link LocalFileTree}) or straight out of the
+ * uploaded zip ({@link ZipFileTree}).
+ */
+public interface FileTree extends Closeable {
+
+  boolean exists(File file);
+
+  boolean isDirectory(File file);
+
+  boolean isHidden(File file);
+
+  /**
+   * @return the size of a file in bytes, or 0 if it doesn't exist.
+   */
+  long length(File file);
+
+  /**
+   * @return the total size of the files under a directory.
+   */
+  long sizeOfDirectory(File dir);
+
+  /**
+   * @param filter only children whose name it accepts, or null for all of them.
+   * @return the files and directories in a directory, or null if it isn't a directory.
+   */
+  File[] list(File dir, @Nullable FilenameFilter filter);
+
+  /**
+   * @return the subdirectories of a directory, or an empty array if it isn't a directory.
+   */
+  File[] listDirectories(File dir);
+
+  /**
+   * @return the plain files in a directory whose name the filter accepts, or an empty array if it isn't a
+   * directory.
+   */
+  File[] listFiles(File dir, FilenameFilter filter);
+
+  /**
+   * Like {@link FsUtils#FileIgnoreCase(File, String...)}, but looking in this tree.
+   */
+  File fileIgnoreCase(File parent, String... pathToChild);
+
+  InputStream open(File file) throws IOException;
+
+  byte[] readFully(File file) throws IOException;
+
+  /**
+   * @return the file on the local file system, or null if it only exists in this tree.
+   */
+  @Nullable
+  Path toPath(File file);
+
+  /**
+   * Expands a zip file in the tree into the directory it is in, first removing the directory with the same
+   * name as the zip (less ".zip"), if there is one.
+   *
+   * @throws java.util.zip.ZipException if the zip is corrupt.
+   */
+  void expandZip(File zip) throws IOException;
+
+  boolean delete(File file);
+}
@@ -2,11 +2,26 @@ package org.literacybridge.utils;
 
 import com.google.common.hash.Hashing;
 import com.google.common.hash.HashingInputStream;
+import com.google.common.base.Throwables;
 import com.google.common.io.CountingInputStream;
-import org.apache.commons.compress.utils.IOUtils;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -76,28 +91,154 @@ public class FsUtils {
   }
 
 
+  /**
+   * Unzips a zip file into a directory, on the calling thread.
+   *
+   * @throws java.util.zip.ZipException if the zip is corrupt.
+   */
   public static void unzip(File zipFile, File rootDir) throws IOException {
-    ZipFile zip = new ZipFile(zipFile);
-    Enumeration<? extends ZipEntry> entries = zip.entries();
-    while (entries.hasMoreElements()) {
-      ZipEntry entry = entries.nextElement();
-      java.io.File f = new java.io.File(rootDir, entry.getName());
-      if (entry.isDirectory()) {
-        continue;
+    unzip(zipFile, rootDir, 1);
+  }
+
+  /**
+   * Unzips a zip file into a directory.  The directories are all created first, from the zip's central
+   * directory, and then the files are inflated by {@code threads} workers, each reading the zip through its own
+   * ZipFile.  Directory entries are ignored, so directories only exist if there are files in them.
+   *
+   * @param threads how many threads to inflate the files on.  With 1, they are inflated on the calling thread.
+   * @return how much was unzipped, and how fast.
+   * @throws java.util.zip.ZipException if the zip is corrupt.
+   */
+  public static UnzipStats unzip(final File zipFile, final File rootDir, int threads) throws IOException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be at least 1");
+    }
+    long start = System.nanoTime();
+
+    // Later entries with the same name replace earlier ones, the same as when they were written one by one.
+    final Map<String, ZipEntry> entries = new LinkedHashMap<>();
+    Set<File> dirs = new HashSet<>();
+    long bytes = 0;
+    try (ZipFile zip = new ZipFile(zipFile)) {
+      Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+      while (zipEntries.hasMoreElements()) {
+        ZipEntry entry = zipEntries.nextElement();
+        if (entry.isDirectory()) {
+          continue;
+        }
+        entries.put(entry.getName(), entry);
+        dirs.add(new File(rootDir, entry.getName()).getParentFile());
+        bytes += Math.max(0, entry.getSize());
+      }
+
+      for (File dir : dirs) {
+        dir.mkdirs();
+      }
+
+      if (threads == 1 || entries.size() < 2) {
+        byte[] buffer = borrowBuffer();
+        try {
+          for (ZipEntry entry : entries.values()) {
+            extract(zip, entry, rootDir, buffer);
+          }
+        } finally {
+          returnBuffer(buffer);
+        }
+        return new UnzipStats(entries.size(), bytes, System.nanoTime() - start);
+      }
+    }
+
+    final List<String> names = new ArrayList<>(entries.keySet());
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicBoolean failed = new AtomicBoolean();
+    int workers = Math.min(threads, names.size());
+    ExecutorService pool = Executors.newFixedThreadPool(workers);
+    try {
+      List<Future<Void>> futures = new ArrayList<>(workers);
+      for (int i = 0; i < workers; i++) {
+        futures.add(pool.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            byte[] buffer = borrowBuffer();
+            try (ZipFile zip = new ZipFile(zipFile)) {
+              for (int index = next.getAndIncrement(); index < names.size() && !failed.get();
+                   index = next.getAndIncrement()) {
+                extract(zip, entries.get(names.get(index)), rootDir, buffer);
+              }
+            } catch (IOException | RuntimeException e) {
+              failed.set(true);
+              throw e;
+            } finally {
+              returnBuffer(buffer);
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          Throwables.propagateIfPossible(e.getCause(), IOException.class);
+          throw new IOException(e.getCause());
+        }
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted unzipping " + zipFile.getName());
+    } finally {
+      pool.shutdownNow();
+    }
+    return new UnzipStats(names.size(), bytes, System.nanoTime() - start);
+  }
 
-      File parentFile = f.getParentFile();
-      if (!parentFile.exists()) {
-        parentFile.mkdirs();
+  private static void extract(ZipFile zip, ZipEntry entry, File rootDir, byte[] buffer) throws IOException {
+    File f = new File(rootDir, entry.getName());
+    try (InputStream is = zip.getInputStream(entry);
+         OutputStream os = new FileOutputStream(f)) {
+      for (int n = is.read(buffer); n != -1; n = is.read(buffer)) {
+        os.write(buffer, 0, n);
       }
+    }
+    f.setLastModified(entry.getTime());
+  }
+
+  private static final int UNZIP_BUFFER_SIZE = 64 * 1024;
 
-      BufferedInputStream bis = new BufferedInputStream(zip.getInputStream(entry)); // get the input stream
-      BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(f));
-      IOUtils.copy(bis, bos);
+  // Copy buffers, kept between unzips.  At most one per thread that is unzipping.
+  private static final Queue<byte[]> unzipBuffers = new ConcurrentLinkedQueue<>();
+
+  private static byte[] borrowBuffer() {
+    byte[] buffer = unzipBuffers.poll();
+    return buffer != null ? buffer : new byte[UNZIP_BUFFER_SIZE];
+  }
+
+  private static void returnBuffer(byte[] buffer) {
+    unzipBuffers.offer(buffer);
+  }
+
+  /**
+   * What an unzip did.
+   */
+  public static final class UnzipStats {
+    public final int  files;
+    public final long bytes;
+    public final long nanos;
+
+    UnzipStats(int files, long bytes, long nanos) {
+      this.files = files;
+      this.bytes = bytes;
+      this.nanos = nanos;
+    }
+
+    public double bytesPerSecond() {
+      return nanos > 0 ? bytes * 1e9 / nanos : 0;
+    }
 
-      f.setLastModified(entry.getTime());
-      bos.close();
-      bis.close();
+    @Override
+    public String toString() {
+      return String.format("%d files, %d bytes in %.3f s (%.2f MiB/s)", files, bytes, nanos / 1e9,
+                           bytesPerSecond() / (1024 * 1024));
     }
   }
 }
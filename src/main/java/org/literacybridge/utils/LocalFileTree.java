@@ -0,0 +1,195 @@
+package org.literacybridge.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.DirectoryFileFilter;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The local file system, for packages that have been exploded to disk.
+ * <p/>
+ * The tree made for an import by {@link #withPathCache()} reads each directory listing and the attributes of each
+ * file once, and resolves case-insensitive paths from those listings.  {@link #INSTANCE} goes to the file system
+ * every time.
+ */
+public final class LocalFileTree implements FileTree {
+
+  public static final LocalFileTree INSTANCE = new LocalFileTree(null, null);
+
+  private static final File[] NO_FILES = new File[0];
+
+  // Both null if nothing is cached.
+  private final CaseInsensitivePathResolver resolver;
+  private final FileAttributeCache          cache;
+
+  private LocalFileTree(CaseInsensitivePathResolver resolver, FileAttributeCache cache) {
+    this.resolver = resolver;
+    this.cache = cache;
+  }
+
+  /**
+   * @return a tree that remembers the directories it has listed and the attributes of the files in them.  For use
+   * during a single import: only the changes made through the tree (expandZip and delete) are noticed.
+   */
+  public static LocalFileTree withPathCache() {
+    FileAttributeCache cache = new FileAttributeCache();
+    return new LocalFileTree(new CaseInsensitivePathResolver(cache), cache);
+  }
+
+  @Override
+  public boolean exists(File file) {
+    return cache != null ? cache.exists(file) : file.exists();
+  }
+
+  @Override
+  public boolean isDirectory(File file) {
+    return cache != null ? cache.isDirectory(file) : file.isDirectory();
+  }
+
+  @Override
+  public boolean isHidden(File file) {
+    return file.isHidden();
+  }
+
+  @Override
+  public long length(File file) {
+    return cache != null ? cache.length(file) : file.length();
+  }
+
+  @Override
+  public long sizeOfDirectory(File dir) {
+    List<File> children = cache != null ? cache.children(dir) : null;
+    if (children == null) {
+      return FileUtils.sizeOfDirectory(dir);
+    }
+    // Lists every directory in the tree into the cache, which the iteration that follows will want anyway.
+    long size = 0;
+    for (File child : children) {
+      size += cache.isDirectory(child) ? sizeOfDirectory(child) : cache.length(child);
+    }
+    return size;
+  }
+
+  @Override
+  public File[] list(File dir, @Nullable FilenameFilter filter) {
+    if (cache == null) {
+      return filter == null ? dir.listFiles() : dir.listFiles(filter);
+    }
+    List<File> children = cache.children(dir);
+    if (children == null) {
+      return null;
+    }
+    List<File> files = new ArrayList<>(children.size());
+    for (File child : children) {
+      if (filter == null || filter.accept(dir, child.getName())) {
+        files.add(child);
+      }
+    }
+    return files.toArray(new File[files.size()]);
+  }
+
+  @Override
+  public File[] listDirectories(File dir) {
+    if (cache == null) {
+      File[] dirs = dir.listFiles((FileFilter) DirectoryFileFilter.DIRECTORY);
+      return dirs != null ? dirs : NO_FILES;
+    }
+    return listChildren(dir, null, true);
+  }
+
+  @Override
+  public File[] listFiles(File dir, FilenameFilter filter) {
+    if (cache == null) {
+      File[] candidates = dir.listFiles(filter);
+      if (candidates == null) {
+        return NO_FILES;
+      }
+      List<File> files = new ArrayList<>(candidates.length);
+      for (File candidate : candidates) {
+        if (candidate.isFile()) {
+          files.add(candidate);
+        }
+      }
+      return files.toArray(new File[files.size()]);
+    }
+    return listChildren(dir, filter, false);
+  }
+
+  private File[] listChildren(File dir, @Nullable FilenameFilter filter, boolean directories) {
+    List<File> children = cache.children(dir);
+    if (children == null) {
+      return NO_FILES;
+    }
+    List<File> files = new ArrayList<>(children.size());
+    for (File child : children) {
+      if ((directories ? cache.isDirectory(child) : cache.isFile(child))
+          && (filter == null || filter.accept(dir, child.getName()))) {
+        files.add(child);
+      }
+    }
+    return files.toArray(new File[files.size()]);
+  }
+
+  @Override
+  public File fileIgnoreCase(File parent, String... pathToChild) {
+    return resolver != null ? resolver.resolve(parent, pathToChild) : FsUtils.FileIgnoreCase(parent, pathToChild);
+  }
+
+  @Override
+  public InputStream open(File file) throws IOException {
+    return new FileInputStream(file);
+  }
+
+  @Override
+  public byte[] readFully(File file) throws IOException {
+    return Files.readAllBytes(file.toPath());
+  }
+
+  @Override
+  public Path toPath(File file) {
+    return file.toPath();
+  }
+
+  @Override
+  public void expandZip(File zip) throws IOException {
+    String filename = zip.getName().substring(0, zip.getName().length() - 4);
+    File folder = new File(zip.getParentFile(), filename);
+    if (folder.exists() && folder.isDirectory()) {
+      FileUtils.deleteDirectory(folder);
+    }
+    try {
+      FsUtils.unzip(zip, zip.getParentFile());
+    } finally {
+      invalidate(zip.getParentFile());
+    }
+  }
+
+  @Override
+  public boolean delete(File file) {
+    boolean deleted = file.delete();
+    invalidate(file);
+    return deleted;
+  }
+
+  private void invalidate(File file) {
+    if (resolver != null) {
+      resolver.invalidate(file);
+      cache.invalidate(file);
+    }
+  }
+
+  @Override
+  public void close() {
+    //Nothing to release.
+  }
+}
@@ -0,0 +1,399 @@
+package org.literacybridge.utils;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A stats update package read straight out of its zip, without exploding it to disk.  The tree is built from the
+ * zip's central directory, and mounted at a root directory that need not exist; the files under it are read from
+ * the zip's entries as they are needed.
+ * <p/>
+ * The zips of the Talking Book sync directories inside the package are mounted the same way by
+ * {@link #expandZip(File)}.  Since a ZipFile can only be opened on a file, the bytes of a nested zip are copied
+ * (still compressed) to a temporary file, which is deleted when the tree is closed.  Only a few of the nested zips
+ * are kept open at a time.
+ * <p/>
+ * Like FsUtils.unzip, directories only exist if there are files in them.  The tree may be read from several
+ * threads at once, but must only be changed (expandZip and delete) while nothing else is using it.
+ */
+public final class ZipFileTree implements FileTree {
+  static protected final Logger logger = LoggerFactory.getLogger(ZipFileTree.class);
+
+  public static final int DEFAULT_MAX_OPEN_NESTED_ZIPS = 16;
+
+  private static final File[] NO_FILES = new File[0];
+
+  /**
+   * A zip file, and the ZipFile it is open as, if it is.
+   */
+  private static final class Archive {
+    final File file;
+    ZipFile zipFile;
+    int     users;
+
+    Archive(File file, ZipFile zipFile) {
+      this.file = file;
+      this.zipFile = zipFile;
+    }
+  }
+
+  /**
+   * A file or directory in the tree.  Files have the entry and the zip they are read from.
+   */
+  private static final class Node {
+    final File              file;
+    final Node              parent;
+    final ZipEntry          entry;
+    final Archive           archive;
+    final Map<String, Node> children;
+
+    Node(File file, Node parent, ZipEntry entry, Archive archive) {
+      this.file = file;
+      this.parent = parent;
+      this.entry = entry;
+      this.archive = archive;
+      this.children = entry == null ? new LinkedHashMap<String, Node>() : null;
+    }
+
+    boolean isDirectory() {
+      return children != null;
+    }
+  }
+
+  private final File    root;
+  private final File    spoolDir;
+  private final int     maxOpenNestedZips;
+  private final Archive outer;
+
+  // Every file and directory, by path.
+  private final Map<String, Node>        nodes          = new HashMap<>();
+  private final List<Archive>            nestedArchives = new ArrayList<>();
+  // The nested zips that are open, least recently used first.
+  private final LinkedHashMap<Archive, Boolean> openNested = new LinkedHashMap<>(16, 0.75f, true);
+
+  public ZipFileTree(File zip, File root, @Nullable File spoolDir) throws IOException {
+    this(zip, root, spoolDir, DEFAULT_MAX_OPEN_NESTED_ZIPS);
+  }
+
+  /**
+   * @param zip               the package
+   * @param root              the directory the package is to appear to be expanded in
+   * @param spoolDir          where to copy nested zips to, or null for the default temp directory
+   * @param maxOpenNestedZips how many nested zips may be open at once.  Any more are closed, least recently
+   *                          used first, and opened again when they are next read from.
+   */
+  public ZipFileTree(File zip, File root, @Nullable File spoolDir, int maxOpenNestedZips) throws IOException {
+    if (maxOpenNestedZips < 1) {
+      throw new IllegalArgumentException("maxOpenNestedZips must be at least 1");
+    }
+    this.root = root;
+    this.spoolDir = spoolDir;
+    this.maxOpenNestedZips = maxOpenNestedZips;
+    this.outer = new Archive(zip, new ZipFile(zip));
+
+    Node rootNode = new Node(root, null, null, null);
+    nodes.put(root.getPath(), rootNode);
+    mount(rootNode, outer);
+  }
+
+  public File getRoot() {
+    return root;
+  }
+
+  @Override
+  public boolean exists(File file) {
+    return nodes.containsKey(file.getPath());
+  }
+
+  @Override
+  public boolean isDirectory(File file) {
+    Node node = nodes.get(file.getPath());
+    return node != null && node.isDirectory();
+  }
+
+  @Override
+  public boolean isHidden(File file) {
+    return file.getName().startsWith(".");
+  }
+
+  @Override
+  public long length(File file) {
+    Node node = nodes.get(file.getPath());
+    return node != null && !node.isDirectory() ? Math.max(0, node.entry.getSize()) : 0;
+  }
+
+  @Override
+  public long sizeOfDirectory(File dir) {
+    Node node = nodes.get(dir.getPath());
+    return node != null ? sizeOf(node) : 0;
+  }
+
+  private static long sizeOf(Node node) {
+    if (!node.isDirectory()) {
+      return Math.max(0, node.entry.getSize());
+    }
+    long size = 0;
+    for (Node child : node.children.values()) {
+      size += sizeOf(child);
+    }
+    return size;
+  }
+
+  @Override
+  public File[] list(File dir, @Nullable FilenameFilter filter) {
+    Node node = nodes.get(dir.getPath());
+    if (node == null || !node.isDirectory()) {
+      return null;
+    }
+    List<File> files = new ArrayList<>(node.children.size());
+    for (Map.Entry<String, Node> child : node.children.entrySet()) {
+      if (filter == null || filter.accept(dir, child.getKey())) {
+        files.add(child.getValue().file);
+      }
+    }
+    return files.toArray(new File[files.size()]);
+  }
+
+  @Override
+  public File[] listDirectories(File dir) {
+    return listChildren(dir, null, true);
+  }
+
+  @Override
+  public File[] listFiles(File dir, FilenameFilter filter) {
+    return listChildren(dir, filter, false);
+  }
+
+  private File[] listChildren(File dir, @Nullable FilenameFilter filter, boolean directories) {
+    Node node = nodes.get(dir.getPath());
+    if (node == null || !node.isDirectory()) {
+      return NO_FILES;
+    }
+    List<File> files = new ArrayList<>(node.children.size());
+    for (Map.Entry<String, Node> child : node.children.entrySet()) {
+      if (child.getValue().isDirectory() == directories
+          && (filter == null || filter.accept(dir, child.getKey()))) {
+        files.add(child.getValue().file);
+      }
+    }
+    return files.toArray(new File[files.size()]);
+  }
+
+  @Override
+  public File fileIgnoreCase(File parent, String... pathToChild) {
+    File file = parent;
+    for (String child : pathToChild) {
+      File exact = new File(file, child);
+      Node dir = nodes.get(file.getPath());
+      file = exact;
+      if (!exists(exact) && dir != null && dir.isDirectory()) {
+        for (Map.Entry<String, Node> candidate : dir.children.entrySet()) {
+          if (candidate.getKey().equalsIgnoreCase(child)) {
+            file = candidate.getValue().file;
+            break;
+          }
+        }
+      }
+    }
+    return file;
+  }
+
+  @Override
+  public InputStream open(File file) throws IOException {
+    Node node = fileNode(file);
+    if (node.archive == outer) {
+      //The package's own zip is open until the tree is closed.
+      return outer.zipFile.getInputStream(node.entry);
+    }
+    return new ByteArrayInputStream(read(node));
+  }
+
+  @Override
+  public byte[] readFully(File file) throws IOException {
+    return read(fileNode(file));
+  }
+
+  @Override
+  public Path toPath(File file) {
+    return null;
+  }
+
+  @Override
+  public void expandZip(File zip) throws IOException {
+    Node zipNode = fileNode(zip);
+    Node dir = zipNode.parent;
+    Node folder = dir.children.get(zip.getName().substring(0, zip.getName().length() - 4));
+    if (folder != null && folder.isDirectory()) {
+      remove(folder);
+    }
+
+    File spool = File.createTempFile("nested", ".zip", spoolDir);
+    ZipFile zipFile;
+    try {
+      try (InputStream is = open(zip)) {
+        Files.copy(is, spool.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      zipFile = new ZipFile(spool);
+    } catch (IOException e) {
+      spool.delete();
+      throw e;
+    }
+
+    Archive archive = new Archive(spool, zipFile);
+    synchronized (this) {
+      nestedArchives.add(archive);
+      openNested.put(archive, Boolean.TRUE);
+      mount(dir, archive);
+      closeIdleNestedZips();
+    }
+  }
+
+  @Override
+  public boolean delete(File file) {
+    Node node = nodes.get(file.getPath());
+    if (node == null || node.parent == null) {
+      return false;
+    }
+    remove(node);
+    return true;
+  }
+
+  @Override
+  public synchronized void close() {
+    IOUtils.closeQuietly(outer.zipFile);
+    for (Archive archive : nestedArchives) {
+      IOUtils.closeQuietly(archive.zipFile);
+      archive.zipFile = null;
+      if (!archive.file.delete()) {
+        logger.warn("Could not delete " + archive.file.getAbsolutePath());
+      }
+    }
+    nestedArchives.clear();
+    openNested.clear();
+    nodes.clear();
+  }
+
+  /**
+   * Adds the files of a zip under a directory.  Same as FsUtils.unzip, files replace any that are already there,
+   * and directory entries are ignored.
+   */
+  private void mount(Node dir, Archive archive) {
+    Enumeration<? extends ZipEntry> entries = archive.zipFile.entries();
+    while (entries.hasMoreElements()) {
+      ZipEntry entry = entries.nextElement();
+      if (entry.isDirectory()) {
+        continue;
+      }
+
+      Node parent = dir;
+      String[] path = entry.getName().split("/");
+      for (int i = 0; i < path.length - 1; i++) {
+        if (!path[i].isEmpty() && !path[i].equals(".")) {
+          parent = child(parent, path[i], null, null);
+        }
+      }
+      child(parent, path[path.length - 1], entry, archive);
+    }
+  }
+
+  /**
+   * @return the existing subdirectory, if entry is null and there is one, otherwise a new node in place of
+   * whatever was there.
+   */
+  private Node child(Node parent, String name, ZipEntry entry, Archive archive) {
+    Node existing = parent.children.get(name);
+    if (existing != null) {
+      if (entry == null && existing.isDirectory()) {
+        return existing;
+      }
+      remove(existing);
+    }
+    Node node = new Node(new File(parent.file, name), parent, entry, archive);
+    parent.children.put(name, node);
+    nodes.put(node.file.getPath(), node);
+    return node;
+  }
+
+  private void remove(Node node) {
+    node.parent.children.remove(node.file.getName());
+    forget(node);
+  }
+
+  private void forget(Node node) {
+    nodes.remove(node.file.getPath());
+    if (node.isDirectory()) {
+      for (Node child : node.children.values()) {
+        forget(child);
+      }
+    }
+  }
+
+  private Node fileNode(File file) throws FileNotFoundException {
+    Node node = nodes.get(file.getPath());
+    if (node == null || node.isDirectory()) {
+      throw new FileNotFoundException(file.getPath());
+    }
+    return node;
+  }
+
+  private byte[] read(Node node) throws IOException {
+    ZipFile zipFile = acquire(node.archive);
+    try (InputStream is = zipFile.getInputStream(node.entry)) {
+      long size = node.entry.getSize();
+      return size >= 0 ? IOUtils.toByteArray(is, size) : IOUtils.toByteArray(is);
+    } finally {
+      release(node.archive);
+    }
+  }
+
+  private synchronized ZipFile acquire(Archive archive) throws IOException {
+    if (archive.zipFile == null) {
+      archive.zipFile = new ZipFile(archive.file);
+    }
+    archive.users++;
+    if (archive != outer) {
+      openNested.put(archive, Boolean.TRUE);
+      closeIdleNestedZips();
+    }
+    return archive.zipFile;
+  }
+
+  private synchronized void release(Archive archive) {
+    archive.users--;
+    closeIdleNestedZips();
+  }
+
+  // Called holding the lock.  Zips that are being read from are left open, even if there are too many.
+  private void closeIdleNestedZips() {
+    Iterator<Archive> it = openNested.keySet().iterator();
+    while (openNested.size() > maxOpenNestedZips && it.hasNext()) {
+      Archive archive = it.next();
+      if (archive.users == 0) {
+        IOUtils.closeQuietly(archive.zipFile);
+        archive.zipFile = null;
+        it.remove();
+      }
+    }
+  }
+}
@@ -2,6 +2,7 @@ package org.literacybridge.dashboard.aggregation;
 
 import junit.framework.TestCase;
 import org.junit.Test;
+import org.literacybridge.stats.formats.logFile.ContentIdDictionary;
 
 /**
  * Created by willpugh on 2/9/14.
@@ -103,5 +104,32 @@ public class TestUpdateAggregations {
             AggregationOf.surveyTaken));
     }
 
+    @Test
+    public void testAddingByContentIdIndex() {
+        ContentIdDictionary contentIds = new ContentIdDictionary();
+        int testContentId = contentIds.idOf("TestContentId");
+        int testContentId2 = contentIds.idOf("TestContentId2");
+
+        UpdateAggregations  updateAggregations = new UpdateAggregations();
+        updateAggregations.add(AggregationOf.tenSecondPlays, testContentId, contentIds, "TestVillage", "TestTalkingBook", 100);
+        updateAggregations.add(AggregationOf.tenSecondPlays, "TestContentId", "TestVillage", "TestTalkingBook", 200);
+        updateAggregations.add(AggregationOf.finishedPlays, testContentId2, contentIds, "TestVillage", "TestTalkingBook", 300);
+
+        TestCase.assertEquals(2, updateAggregations.getAggregationMap(Grouping.contentId).size());
+        TestCase.assertEquals(300,updateAggregations.getAggregationMap(Grouping.contentId).get("TestContentId").get(
+            AggregationOf.tenSecondPlays));
+        TestCase.assertEquals(300,updateAggregations.getAggregationMap(Grouping.contentId).get("TestContentId2").get(
+            AggregationOf.finishedPlays));
+        TestCase.assertEquals(300,updateAggregations.getAggregationMap(Grouping.village).get("TestVillage").get(
+            AggregationOf.tenSecondPlays));
+        TestCase.assertEquals(300,updateAggregations.getAggregationMap(Grouping.village).get("TestVillage").get(
+            AggregationOf.finishedPlays));
+
+        //Adding after the map was asked for goes to the same entry, whichever way it is added.
+        updateAggregations.add(AggregationOf.tenSecondPlays, testContentId, contentIds, "TestVillage", "TestTalkingBook", 1);
+        updateAggregations.add(AggregationOf.tenSecondPlays, "TestContentId", "TestVillage", "TestTalkingBook", 2);
+        TestCase.assertEquals(303,updateAggregations.getAggregationMap(Grouping.contentId).get("TestContentId").get(
+            AggregationOf.tenSecondPlays));
+    }
 
 }
@@ -0,0 +1,109 @@
+package org.literacybridge.stats;
+
+import org.apache.commons.io.FileUtils;
+import org.literacybridge.dashboard.processes.ContentUsageUpdateProcess;
+import org.literacybridge.main.ProcessingResult;
+import org.literacybridge.stats.model.DirectoryFormat;
+import org.literacybridge.stats.model.SyncDirId;
+import org.literacybridge.stats.processors.AbstractDirectoryProcessor;
+import org.literacybridge.utils.FileTree;
+import org.literacybridge.utils.FsUtils;
+import org.literacybridge.utils.LocalFileTree;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Not a unit test; run it by hand to see how long a DirectoryIterator takes to walk a big exploded package, going
+ * to the file system for every listing and probe (LocalFileTree.INSTANCE) and with the listings and attributes
+ * cached for the import (LocalFileTree.withPathCache()).
+ * <p/>
+ * The package is the test1-archive fixture, with its Talking Book data scaled up to the given number of sync dirs,
+ * each with a current log, an archived log and a stats file.  It is built in a temp directory, and deleted after.
+ * <p/>
+ * Usage: DirectoryIteratorBenchmark [syncDirs] [rounds]
+ */
+public class DirectoryIteratorBenchmark {
+
+  private static final int SYNC_DIRS_PER_TB  = 10;
+  private static final int TBS_PER_VILLAGE   = 50;
+
+  public static void main(String[] args) throws Exception {
+    final int syncDirs = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+    File root = Files.createTempDirectory("DirectoryIteratorBenchmark").toFile();
+    try {
+      long start = System.nanoTime();
+      createPackage(root, syncDirs);
+      System.out.println(String.format("Created %d sync dirs in %d ms", syncDirs, (System.nanoTime() - start) / 1000000));
+
+      long bestUncached = Long.MAX_VALUE;
+      long bestCached = Long.MAX_VALUE;
+      for (int round = 0; round < rounds; round++) {
+        long uncached = iterate(root, LocalFileTree.INSTANCE, syncDirs);
+        long cached = iterate(root, LocalFileTree.withPathCache(), syncDirs);
+        bestUncached = Math.min(bestUncached, uncached);
+        bestCached = Math.min(bestCached, cached);
+        System.out.println(String.format("Round %d: uncached %d ms, cached %d ms", round, uncached / 1000000,
+                                         cached / 1000000));
+      }
+      System.out.println(String.format("Best: uncached %,d sync dirs/sec, cached %,d sync dirs/sec",
+                                       (long) (syncDirs / (bestUncached / 1e9)), (long) (syncDirs / (bestCached / 1e9))));
+    } finally {
+      FileUtils.deleteDirectory(root);
+    }
+  }
+
+  private static long iterate(File root, FileTree tree, int syncDirs) throws Exception {
+    ProcessingResult result = new ProcessingResult("benchmark", "benchmark.zip");
+    ContentUsageUpdateProcess.UpdateUsageContext context =
+      new ContentUsageUpdateProcess().new UpdateUsageContext(null, null, result);
+    context.setFileTree(tree);
+
+    CountingProcessor counter = new CountingProcessor(context);
+    long start = System.nanoTime();
+    new DirectoryIterator(root, DirectoryFormat.Archive, false, context).process(counter);
+    long elapsed = System.nanoTime() - start;
+    if (counter.syncDirs != syncDirs) {
+      throw new IllegalStateException("Expected " + syncDirs + " sync dirs, found " + counter.syncDirs);
+    }
+    return elapsed;
+  }
+
+  private static void createPackage(File root, int syncDirs) throws IOException {
+    File template = new File(TestDirectoryIterator.TEST1_ARCHIVE, FsUtils.FsAgnostify(
+      "TalkingBookData/2013-03/device1/village1/TB1/2013y07m15d17h01m50s-device1/notempty.txt"));
+    byte[] contents = Files.readAllBytes(template.toPath());
+
+    File deviceDir = new File(root, FsUtils.FsAgnostify("TalkingBookData/2013-03/device1"));
+    for (int i = 0; i < syncDirs; i++) {
+      int tb = i / SYNC_DIRS_PER_TB;
+      File tbDir = new File(deviceDir, "village" + (tb / TBS_PER_VILLAGE) + File.separator + "TB" + tb);
+      File syncDir = new File(tbDir, String.format("2013y07m15d%02dh%02dm50s-device1", i % SYNC_DIRS_PER_TB, tb % 60));
+      new File(syncDir, "log").mkdirs();
+      new File(syncDir, "log-archive").mkdir();
+      new File(syncDir, "statistics").mkdir();
+      Files.write(new File(syncDir, "notempty.txt").toPath(), contents);
+      Files.write(new File(syncDir, FsUtils.FsAgnostify("log/log.txt")).toPath(), contents);
+      Files.write(new File(syncDir, FsUtils.FsAgnostify("log-archive/log_1.txt")).toPath(), contents);
+      Files.write(new File(syncDir, FsUtils.FsAgnostify("statistics/content.stat")).toPath(), contents);
+    }
+  }
+
+  private static final class CountingProcessor extends AbstractDirectoryProcessor {
+    int syncDirs;
+
+    CountingProcessor(ContentUsageUpdateProcess.UpdateUsageContext context) {
+      super(context);
+    }
+
+    @Override
+    public void processSyncDir(SyncDirId syncDirId, File syncDir) throws Exception {
+      if (!syncDirContents(syncDirId, syncDir).empty) {
+        syncDirs++;
+      }
+    }
+  }
+}
@@ -1,15 +1,28 @@
 package org.literacybridge.stats;
 
+import junit.framework.TestCase;
 import org.easymock.EasyMock;
 import org.junit.Test;
 import org.literacybridge.main.ProcessingResult;
 import org.literacybridge.dashboard.processes.ContentUsageUpdateProcess;
 import org.literacybridge.stats.api.DirectoryCallbacks;
 import org.literacybridge.stats.model.*;
+import org.literacybridge.stats.processors.ManifestCreationCallbacks;
+import org.apache.commons.io.FileUtils;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.literacybridge.utils.FsUtils;
+import org.literacybridge.utils.TestZipFileTree;
+import org.literacybridge.utils.ZipFileTree;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
 import java.util.HashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static org.easymock.EasyMock.*;
 
@@ -182,5 +195,186 @@ public class TestDirectoryIterator {
 
   }
 
+  @Test
+  public void testIteratorArchiveZipNative() throws Exception {
+    ProcessingResult result = new ProcessingResult("test", "test.zip");
+    ContentUsageUpdateProcess.UpdateUsageContext context = new ContentUsageUpdateProcess().new UpdateUsageContext(null, null, result);
+
+    File tempDir = Files.createTempDirectory("TestDirectoryIterator").toFile();
+    try {
+      File zip = new File(tempDir, "package.zip");
+      TestZipFileTree.zipPackage(TEST1_ARCHIVE, zip);
+      File root = new File(tempDir, "expanded");
+
+      try (ZipFileTree tree = new ZipFileTree(zip, root, tempDir)) {
+        context.setFileTree(tree);
+        StatsPackageManifest manifest = new StatsPackageManifest(2, new HashMap<String, SyncRange>());
+        DirectoryCallbacks callbacks = setupMock(root, DirectoryFormat.Archive, manifest);
+        DirectoryIterator iterator = new DirectoryIterator(root, DirectoryFormat.Archive, false, context);
+        iterator.process(callbacks);
+        verify(callbacks);
+      }
+      //Nothing was expanded to disk.
+      TestCase.assertFalse(root.exists());
+    } finally {
+      FileUtils.deleteDirectory(tempDir);
+    }
+  }
+
+  @Test
+  public void testIndexIsReused() throws Exception {
+    ProcessingResult result = new ProcessingResult("test", "test.zip");
+    ContentUsageUpdateProcess.UpdateUsageContext context = new ContentUsageUpdateProcess().new UpdateUsageContext(null, null, result);
+
+    File root = Files.createTempDirectory("TestDirectoryIterator").toFile();
+    try {
+      FileUtils.copyDirectory(TEST1_ARCHIVE, root);
+      StatsPackageManifest manifest = new StatsPackageManifest(2, new HashMap<String, SyncRange>());
+
+      DirectoryCallbacks callbacks = setupMock(root, DirectoryFormat.Archive, manifest);
+      new DirectoryIterator(root, DirectoryFormat.Archive, false, context).process(callbacks);
+      verify(callbacks);
+      ArchiveIndex index = context.getArchiveIndex();
+      TestCase.assertNotNull(index);
+
+      //The second pass is replayed from the index, without looking at the directories again.
+      FileUtils.deleteDirectory(new File(root, "TalkingBookData"));
+      callbacks = setupMock(root, DirectoryFormat.Archive, manifest);
+      new DirectoryIterator(root, DirectoryFormat.Archive, false, context).process(callbacks);
+      verify(callbacks);
+      TestCase.assertSame(index, context.getArchiveIndex());
+    } finally {
+      FileUtils.deleteDirectory(root);
+    }
+  }
+
+  @Test
+  public void testSyncZipsArePrefetched() throws Exception {
+    ProcessingResult result = new ProcessingResult("test", "test.zip");
+    ContentUsageUpdateProcess process = new ContentUsageUpdateProcess();
+    process.setSyncZipLookahead(2);
+    //Small enough that only one Talking Book is ever expanded ahead.
+    process.setSyncZipPrefetchBytes(1);
+    ContentUsageUpdateProcess.UpdateUsageContext context = process.new UpdateUsageContext(null, null, result);
+
+    File root = Files.createTempDirectory("TestDirectoryIterator").toFile();
+    try {
+      FileUtils.copyDirectory(TEST1_ARCHIVE, root);
+      int zipped = zipSyncDirs(root);
+      TestCase.assertTrue(zipped > 2);
+      File tb3 = new File(root, FsUtils.FsAgnostify("TalkingBookData/2013-03/device1/village2/TB3"));
+      FileUtils.writeStringToFile(new File(tb3, "2013y07m15d20h01m50s-device1.zip"), "not a zip");
+
+      StatsPackageManifest manifest = new StatsPackageManifest(2, new HashMap<String, SyncRange>());
+      DirectoryCallbacks callbacks = setupMock(root, DirectoryFormat.Archive, manifest);
+      new DirectoryIterator(root, DirectoryFormat.Archive, false, context).process(callbacks);
+      verify(callbacks);
+
+      TestCase.assertTrue(FileUtils.listFiles(root, new String[] { "zip" }, true).isEmpty());
+      ByteArrayOutputStream report = new ByteArrayOutputStream();
+      result.report(new PrintStream(report));
+      TestCase.assertTrue(report.toString().contains("2013y07m15d20h01m50s-device1.zip"));
+    } finally {
+      FileUtils.deleteDirectory(root);
+    }
+  }
+
+  @Test
+  public void testPrefetchingPastSkippedTalkingBooks() throws Exception {
+    ProcessingResult result = new ProcessingResult("test", "test.zip");
+    ContentUsageUpdateProcess process = new ContentUsageUpdateProcess();
+    process.setSyncZipLookahead(1);
+    process.setSyncZipPrefetchBytes(1);
+    ContentUsageUpdateProcess.UpdateUsageContext context = process.new UpdateUsageContext(null, null, result);
+
+    File root = Files.createTempDirectory("TestDirectoryIterator").toFile();
+    try {
+      FileUtils.copyDirectory(TEST1_ARCHIVE, root);
+      zipSyncDirs(root);
+      //With a manifest, nothing else expands the zips first.
+      new ObjectMapper().writeValue(new File(root, "StatsPackageManifest.json"),
+                                    new StatsPackageManifest(2, new HashMap<String, SyncRange>()));
+
+      //Skips every Talking Book, so none of the expanded zips are used, and most of the expansions are still
+      //waiting when the iterator is done.
+      ManifestCreationCallbacks skipping = new ManifestCreationCallbacks(context) {
+        @Override
+        public boolean startTalkingBook(String talkingBook) {
+          return false;
+        }
+      };
+      new DirectoryIterator(root, DirectoryFormat.Archive, false, context).process(skipping);
+      TestCase.assertFalse(FileUtils.listFiles(root, new String[] { "zip" }, true).isEmpty());
+
+      //The next pass uses what was expanded, and expands what wasn't.
+      new DirectoryIterator(root, DirectoryFormat.Archive, false, context).process(new ManifestCreationCallbacks(context));
+      TestCase.assertTrue(FileUtils.listFiles(root, new String[] { "zip" }, true).isEmpty());
+    } finally {
+      FileUtils.deleteDirectory(root);
+    }
+  }
+
+  @Test
+  public void testTalkingBooksInParallel() throws Exception {
+    File root = Files.createTempDirectory("TestDirectoryIterator").toFile();
+    try {
+      String sequential = null;
+      for (int traversalThreads : new int[] { 1, 4 }) {
+        FileUtils.cleanDirectory(root);
+        FileUtils.copyDirectory(TEST1_ARCHIVE, root);
+        zipSyncDirs(root);
+        File tb3 = new File(root, FsUtils.FsAgnostify("TalkingBookData/2013-03/device1/village2/TB3"));
+        FileUtils.writeStringToFile(new File(tb3, "2013y07m15d20h01m50s-device1.zip"), "not a zip");
+
+        ProcessingResult result = new ProcessingResult("test", "test.zip");
+        ContentUsageUpdateProcess process = new ContentUsageUpdateProcess();
+        process.setTraversalThreads(traversalThreads);
+        ContentUsageUpdateProcess.UpdateUsageContext context = process.new UpdateUsageContext(null, null, result);
+        ManifestCreationCallbacks callbacks = new ManifestCreationCallbacks(context);
+        new DirectoryIterator(root, DirectoryFormat.Archive, false, context).process(callbacks);
+
+        TestCase.assertTrue(FileUtils.listFiles(root, new String[] { "zip" }, true).isEmpty());
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        result.report(new PrintStream(report));
+        String outcome = new ObjectMapper().writeValueAsString(
+          callbacks.generateManifest(DirectoryFormat.Archive)) + report;
+        TestCase.assertTrue(outcome.contains("2013y07m15d20h01m50s-device1.zip"));
+        if (sequential == null) {
+          sequential = outcome;
+        } else {
+          TestCase.assertEquals(sequential, outcome);
+        }
+      }
+    } finally {
+      FileUtils.deleteDirectory(root);
+    }
+  }
+
+  /**
+   * Replaces each sync directory under a directory with a zip of it, the way they are uploaded.
+   */
+  private static int zipSyncDirs(File dir) throws IOException {
+    int zipped = 0;
+    for (File child : dir.listFiles()) {
+      if (!child.isDirectory()) {
+        continue;
+      }
+      if (DirectoryIterator.SYNC_TIME_PATTERN_V2.matcher(child.getName()).matches()) {
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(new File(dir, child.getName() + ".zip")))) {
+          for (File file : FileUtils.listFiles(child, null, true)) {
+            String name = child.getName() + file.getAbsolutePath().substring(child.getAbsolutePath().length());
+            zos.putNextEntry(new ZipEntry(name.replace(File.separatorChar, '/')));
+            zos.write(Files.readAllBytes(file.toPath()));
+            zos.closeEntry();
+          }
+        }
+        FileUtils.deleteDirectory(child);
+        zipped++;
+      } else {
+        zipped += zipSyncDirs(child);
+      }
+    }
+    return zipped;
+  }
 
 }
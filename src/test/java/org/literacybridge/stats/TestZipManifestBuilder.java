@@ -0,0 +1,105 @@
+package org.literacybridge.stats;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.literacybridge.dashboard.processes.ContentUsageUpdateProcess;
+import org.literacybridge.main.ProcessingResult;
+import org.literacybridge.stats.model.DirectoryFormat;
+import org.literacybridge.stats.model.StatsPackageManifest;
+import org.literacybridge.stats.model.SyncDirId;
+import org.literacybridge.stats.model.SyncRange;
+import org.literacybridge.stats.processors.AbstractDirectoryProcessor;
+import org.literacybridge.stats.processors.ManifestCreationCallbacks;
+import org.literacybridge.utils.TestZipFileTree;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+
+/**
+ */
+public class TestZipManifestBuilder {
+
+  @Test
+  public void testMatchesGeneratedManifest() throws Exception {
+    ContentUsageUpdateProcess.UpdateUsageContext context = newContext();
+    ManifestCreationCallbacks callbacks = new ManifestCreationCallbacks(context);
+    new DirectoryIterator(TestDirectoryIterator.TEST1_ARCHIVE, DirectoryFormat.Archive, false, context).process(callbacks);
+    StatsPackageManifest generated = callbacks.generateManifest(DirectoryFormat.Archive);
+
+    File tempDir = Files.createTempDirectory("TestZipManifestBuilder").toFile();
+    try {
+      //The sync dirs are nested zips, as they are uploaded.
+      File zip = new File(tempDir, "package.zip");
+      TestZipFileTree.zipPackage(TestDirectoryIterator.TEST1_ARCHIVE, zip);
+      File root = new File(tempDir, "expanded");
+      StatsPackageManifest fromZip = ZipManifestBuilder.fromZip(zip, root).manifestFor(root, DirectoryFormat.Archive);
+
+      TestCase.assertEquals(generated.formatVersion, fromZip.formatVersion);
+      TestCase.assertFalse(generated.devices.isEmpty());
+      TestCase.assertEquals(generated.devices.keySet(), fromZip.devices.keySet());
+      for (Map.Entry<String, SyncRange> device : generated.devices.entrySet()) {
+        SyncRange range = fromZip.devices.get(device.getKey());
+        TestCase.assertEquals(device.getValue().getStartTime(), range.getStartTime());
+        TestCase.assertEquals(device.getValue().getEndTime(), range.getEndTime());
+      }
+    } finally {
+      FileUtils.deleteDirectory(tempDir);
+    }
+  }
+
+  @Test
+  public void testIgnoresEntriesOutsideSyncDirs() throws Exception {
+    File root = new File("expanded");
+    ZipManifestBuilder builder = new ZipManifestBuilder(root);
+    builder.addEntry("TalkingBookData/2013-03/device1/village1/TB1/notes.txt");
+    builder.addEntry("TalkingBookData/2013-03/device1/village1/TB1/notASyncDir/log/log.txt");
+    builder.addEntry("TalkingBookData/not a deployment/device2/village1/TB1/2013y07m15d17h01m50s-device2/log/log.txt");
+    builder.addEntry("OperationalData/device3/tbdata/tbData-v00-2013y07m15d-device3.csv");
+    builder.addEntry("project/TalkingBookData/2013-03/device4/village1/TB1/2013y07m15d17h01m50s-device4/");
+
+    TestCase.assertTrue(builder.manifestFor(root, DirectoryFormat.Archive).devices.isEmpty());
+    TestCase.assertEquals(1, builder.manifestFor(new File(root, "project"), DirectoryFormat.Archive).devices.size());
+    TestCase.assertNull(builder.manifestFor(root, DirectoryFormat.Sync));
+    TestCase.assertNull(builder.manifestFor(new File("elsewhere"), DirectoryFormat.Archive));
+  }
+
+  @Test
+  public void testIteratorUsesZipManifest() throws Exception {
+    ContentUsageUpdateProcess.UpdateUsageContext context = newContext();
+    ZipManifestBuilder builder = new ZipManifestBuilder(TestDirectoryIterator.TEST1_ARCHIVE);
+    builder.addEntry("TalkingBookData/2013-03/device9/village1/TB1/2013y01m01d00h00m00s-device9.zip");
+    context.setZipManifests(builder);
+
+    ManifestRecorder recorder = new ManifestRecorder(context);
+    new DirectoryIterator(TestDirectoryIterator.TEST1_ARCHIVE, DirectoryFormat.Archive, false, context).process(recorder);
+    TestCase.assertEquals(1, recorder.manifest.devices.size());
+    TestCase.assertTrue(recorder.manifest.devices.containsKey("device9"));
+  }
+
+  private static ContentUsageUpdateProcess.UpdateUsageContext newContext() {
+    ProcessingResult result = new ProcessingResult("test", "test.zip");
+    return new ContentUsageUpdateProcess().new UpdateUsageContext(null, null, result);
+  }
+
+  private static final class ManifestRecorder extends AbstractDirectoryProcessor {
+    StatsPackageManifest manifest;
+
+    ManifestRecorder(ContentUsageUpdateProcess.UpdateUsageContext context) {
+      super(context);
+    }
+
+    @Override
+    public boolean startProcessing(@Nonnull File root, StatsPackageManifest manifest, @Nonnull DirectoryFormat format)
+        throws Exception {
+      this.manifest = manifest;
+      return false;
+    }
+
+    @Override
+    public void processSyncDir(SyncDirId syncDirId, File syncDir) throws Exception {
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package org.literacybridge.stats.formats.formats.logFile;
+
+import org.literacybridge.dashboard.processors.AbstractLogProcessor;
+import org.literacybridge.dashboard.processors.LogAggregationProcessor;
+import org.literacybridge.stats.formats.logFile.LogFileParser;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Not a unit test; run it by hand to see how many lines a second the parser gets through on a log that looks like
+ * the ones that come back from the field, which are mostly noise: garbage and truncated actions, corrupted
+ * preludes, junk bytes, and voltage drops on every sort of action.
+ * <p/>
+ * Also prints the bytes allocated per line, which is a lot less noisy than the timings on a busy machine.
+ * <p/>
+ * With "aggregate", the parser only has a LogAggregationProcessor, which subscribes to just the played and
+ * survey events, like an aggregate-only import.  Otherwise it has a processor that subscribes to everything.
+ * <p/>
+ * Usage: LogFileParserBenchmark [lines] [rounds] [all|aggregate]
+ */
+public class LogFileParserBenchmark {
+
+  private static final String[] GOOD_LINES = {
+    "0r0032c012p015d02h44m41s297/221/209V:PLAY TB0003a2_2156B516 @VOL=03 @Volt=221",
+    "0r0032c012p015d02h44m27s302/228/222V:PLAYED TB000248_AA94FE16 0732/0732sec @VOL=03 @Volt=228-Ended",
+    "0r0039c012p018d14h27m59s305/221/221V:PLAYING:VOLTAGE DROP: 0.04v in 0136 sec",
+    "0r0033c012p018d03h09m25s315/229/229V:Category: $0-1",
+    "0r0039c012p018d14h27m59s305/221/221V:PAUSED",
+    "0r0039c012p018d14h27m59s305/221/221V:SURVEY:taken",
+  };
+
+  private static final String[] NOISE_ACTIONS = {
+    "NOISE", "Record", "PLAYIN", "PLAYEDX", "SHUTTING", "pl@y", "CATEGORYY", "TIMER", "JUMP", "Feedback", "AUDIO",
+    "LOAD", "Menu", "UNPAUSE", "SLOWERR", "BOOT"
+  };
+
+  public static void main(String[] args) throws UnsupportedEncodingException {
+    final int lines = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+    final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    final boolean aggregateOnly = args.length > 2 && "aggregate".equals(args[2]);
+
+    final ByteBuffer log = ByteBuffer.wrap(createCorruptLog(lines, new Random(42)).getBytes("UTF-8"));
+    final LogFileParser parser = new LogFileParser(
+      aggregateOnly ? new LogAggregationProcessor() : new AbstractLogProcessor() {},
+      TestLogFileParser.TEST_FILE_CONTEXT);
+
+    final com.sun.management.ThreadMXBean threads =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    final long threadId = Thread.currentThread().getId();
+
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < rounds; round++) {
+      final long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+      final long start = System.nanoTime();
+      final int errors = parser.parse(TestLogFileParser.TEST_FILE_NAME, log);
+      final long elapsed = System.nanoTime() - start;
+      final long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+      best = Math.min(best, elapsed);
+      System.out.println(String.format("Round %d: %d lines (%d errors) in %d ms, %d bytes allocated per line", round,
+        lines, errors, elapsed / 1000000, allocated / lines));
+    }
+    System.out.println(String.format("Best: %,d lines/sec", (long) (lines / (best / 1e9))));
+  }
+
+  /**
+   * Roughly a third good lines, with the rest split between unknown actions, voltage drops on random actions,
+   * corrupted preludes, and truncated or binary junk.
+   */
+  static String createCorruptLog(int lines, Random random) {
+    final StringBuilder log = new StringBuilder(lines * 64);
+    for (int i = 0; i < lines; i++) {
+      final String good = GOOD_LINES[random.nextInt(GOOD_LINES.length)];
+      final String prelude = good.substring(0, good.indexOf(':'));
+      switch (random.nextInt(6)) {
+        case 0:
+        case 1:
+          log.append(good);
+          break;
+        case 2:
+          log.append(prelude).append(':').append(NOISE_ACTIONS[random.nextInt(NOISE_ACTIONS.length)])
+             .append(' ').append(Integer.toHexString(random.nextInt()));
+          break;
+        case 3:
+          log.append(prelude).append(':').append(NOISE_ACTIONS[random.nextInt(NOISE_ACTIONS.length)])
+             .append(":VOLTAGE DROP: 0.0").append(random.nextInt(10)).append("v in 00")
+             .append(10 + random.nextInt(90)).append(" sec");
+          break;
+        case 4:
+          //Corrupted prelude, e.g. a digit flipped to a letter
+          final char[] chars = good.toCharArray();
+          chars[random.nextInt(prelude.length())] = (char) ('a' + random.nextInt(26));
+          log.append(chars);
+          break;
+        default:
+          //Truncated line followed by junk
+          log.append(good, 0, random.nextInt(good.length()));
+          for (int j = random.nextInt(20); j > 0; j--) {
+            log.append((char) (' ' + random.nextInt(95)));
+          }
+          break;
+      }
+      log.append('\n');
+    }
+    return log.toString();
+  }
+}
@@ -0,0 +1,95 @@
+package org.literacybridge.stats.formats.formats.logFile;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.literacybridge.stats.formats.logFile.ContentIdDictionary;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class TestContentIdDictionary {
+
+  @Test
+  public void testEmptyIsAlwaysThere() {
+    final ContentIdDictionary contentIds = new ContentIdDictionary();
+    TestCase.assertEquals(1, contentIds.size());
+    TestCase.assertEquals(ContentIdDictionary.EMPTY, contentIds.idOf(""));
+    TestCase.assertEquals("", contentIds.get(ContentIdDictionary.EMPTY));
+  }
+
+  @Test
+  public void testLookupFromRange() {
+    final ContentIdDictionary contentIds = new ContentIdDictionary();
+    final String line = "PLAY TB0003a2_2156B516 @VOL=03";
+
+    final int id = contentIds.idOf(line, 5, 22);
+    TestCase.assertEquals("TB0003a2_2156B516", contentIds.get(id));
+    TestCase.assertEquals(id, contentIds.idOf("TB0003a2_2156B516"));
+    TestCase.assertEquals(id, contentIds.idOf(new StringBuilder(line), 5, 22));
+    TestCase.assertSame(contentIds.get(id), contentIds.get(contentIds.idOf(line, 5, 22)));
+    TestCase.assertEquals(2, contentIds.size());
+  }
+
+  @Test
+  public void testManyContentIds() {
+    final ContentIdDictionary contentIds = new ContentIdDictionary();
+    for (int i = 0; i < 10000; i++) {
+      TestCase.assertEquals(i + 1, contentIds.idOf("LB-2_" + i));
+    }
+    for (int i = 0; i < 10000; i++) {
+      TestCase.assertEquals(i + 1, contentIds.idOf("LB-2_" + i));
+      TestCase.assertEquals("LB-2_" + i, contentIds.get(i + 1));
+    }
+    TestCase.assertEquals(10001, contentIds.size());
+  }
+
+  @Test
+  public void testUnknownId() {
+    try {
+      new ContentIdDictionary().get(1);
+      TestCase.fail("Only IDs that were handed out can be looked up");
+    } catch (IllegalArgumentException e) {
+      //Expected
+    }
+  }
+
+  @Test
+  public void testSharedBetweenThreads() throws Exception {
+    final ContentIdDictionary contentIds = new ContentIdDictionary();
+    final int numContentIds = 2000;
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<int[]>> lookups = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        final int offset = t * 500;
+        lookups.add(pool.submit(new Callable<int[]>() {
+          @Override
+          public int[] call() {
+            int[] ids = new int[numContentIds];
+            for (int i = 0; i < numContentIds; i++) {
+              int n = (i + offset) % numContentIds;
+              ids[n] = contentIds.idOf("LB-2_" + n);
+            }
+            return ids;
+          }
+        }));
+      }
+
+      int[] first = lookups.get(0).get();
+      for (Future<int[]> lookup : lookups) {
+        int[] ids = lookup.get();
+        for (int n = 0; n < numContentIds; n++) {
+          TestCase.assertEquals(first[n], ids[n]);
+          TestCase.assertEquals("LB-2_" + n, contentIds.get(ids[n]));
+        }
+      }
+      TestCase.assertEquals(numContentIds + 1, contentIds.size());
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
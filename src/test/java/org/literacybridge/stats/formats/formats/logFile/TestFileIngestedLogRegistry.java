@@ -0,0 +1,68 @@
+package org.literacybridge.stats.formats.formats.logFile;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.literacybridge.stats.formats.logFile.FileIngestedLogRegistry;
+
+import java.io.File;
+
+/**
+ */
+public class TestFileIngestedLogRegistry {
+
+  @Test
+  public void testRemembersOnlyCommittedLogs() throws Exception {
+    File file = File.createTempFile("TestFileIngestedLogRegistry", ".txt");
+    file.delete();
+    try {
+      FileIngestedLogRegistry registry = new FileIngestedLogRegistry(file);
+      TestCase.assertFalse(registry.isIngested("tb-1", "aaaa"));
+      registry.markIngested("tb-1", "aaaa");
+      TestCase.assertTrue(registry.isIngested("tb-1", "aaaa"));
+      TestCase.assertFalse(registry.isIngested("tb-2", "aaaa"));
+
+      //Not remembered beyond this import until it is committed.
+      TestCase.assertFalse(new FileIngestedLogRegistry(file).isIngested("tb-1", "aaaa"));
+
+      registry.commit();
+      registry.markIngested("tb-1", "bbbb");
+
+      FileIngestedLogRegistry reloaded = new FileIngestedLogRegistry(file);
+      TestCase.assertTrue(reloaded.isIngested("tb-1", "aaaa"));
+      TestCase.assertFalse(reloaded.isIngested("tb-1", "bbbb"));
+      TestCase.assertFalse(reloaded.isIngested("tb-2", "aaaa"));
+
+      //Committing again only appends what is new.
+      registry.markIngested("tb-1", "aaaa");
+      registry.commit();
+      registry.commit();
+      TestCase.assertEquals(2, FileUtils.readLines(file).size());
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testReingestIgnoresRememberedLogs() throws Exception {
+    File file = File.createTempFile("TestFileIngestedLogRegistry", ".txt");
+    file.delete();
+    try {
+      FileIngestedLogRegistry registry = new FileIngestedLogRegistry(file);
+      registry.markIngested("tb-1", "aaaa");
+      registry.commit();
+
+      FileIngestedLogRegistry forced = new FileIngestedLogRegistry(file);
+      forced.setReingest(true);
+      TestCase.assertFalse(forced.isIngested("tb-1", "aaaa"));
+
+      //What the forced import marks itself still counts.
+      forced.markIngested("tb-1", "aaaa");
+      TestCase.assertTrue(forced.isIngested("tb-1", "aaaa"));
+      forced.commit();
+      TestCase.assertTrue(new FileIngestedLogRegistry(file).isIngested("tb-1", "aaaa"));
+    } finally {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package org.literacybridge.stats.formats.formats.logFile;
+
+import junit.framework.TestCase;
+import org.easymock.EasyMock;
+import org.joda.time.LocalTime;
+import org.junit.Test;
+import org.literacybridge.dashboard.dbTables.TbDataLine;
+import org.literacybridge.stats.api.TalkingBookDataProcessor;
+import org.literacybridge.stats.formats.logFile.LogEventRecorder;
+import org.literacybridge.stats.formats.logFile.LogLineContext;
+import org.literacybridge.stats.formats.logFile.LogLineInfo;
+
+import java.util.Collections;
+
+import static org.literacybridge.stats.formats.formats.logFile.TestLogFileParser.*;
+
+/**
+ */
+public class TestLogEventRecorder {
+
+  @Test
+  public void testReplaysEventsMadeOneAtATime() throws Exception {
+    final LogLineInfo logLineInfo = new LogLineInfo((byte) 0, (byte) 32, (short) 12, (short) 15,
+                                                    new LocalTime(2, 44, 41), 2.97, 2.21, 2.09);
+    final LogLineContext context = new LogLineContext(logLineInfo, TEST_FILE_POSITION, TEST_FILE_CONTEXT);
+    final TbDataLine tbDataLine = new TbDataLine();
+
+    LogEventRecorder recorder = new LogEventRecorder();
+    recorder.onLogFileStart(TEST_FILE_NAME);
+    recorder.onPlay(context, "TB0003a2_2156B516", 3, 2.21);
+    recorder.onFaster(context);
+    recorder.onLogFileEnd();
+    recorder.processTbDataLine(tbDataLine);
+    TestCase.assertEquals(2, recorder.size());
+
+    final TalkingBookDataProcessor processor = EasyMock.createMock(TalkingBookDataProcessor.class);
+    processor.onLogFileStart(TEST_FILE_NAME);
+    processor.onPlay(context, "TB0003a2_2156B516", 3, 2.21);
+    processor.onFaster(context);
+    processor.onLogFileEnd();
+    processor.processTbDataLine(tbDataLine);
+    EasyMock.replay(processor);
+
+    recorder.replay(Collections.singletonList(processor));
+    EasyMock.verify(processor);
+  }
+}
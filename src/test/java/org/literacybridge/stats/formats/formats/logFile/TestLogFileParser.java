@@ -4,16 +4,30 @@ import junit.framework.TestCase;
 import org.easymock.EasyMock;
 import org.joda.time.LocalTime;
 import org.junit.Test;
+import org.literacybridge.dashboard.processors.AbstractLogProcessor;
+import org.literacybridge.stats.api.BatchTalkingBookDataProcessor;
 import org.literacybridge.stats.api.TalkingBookDataProcessor;
+import org.literacybridge.stats.formats.logFile.ContentIdDictionary;
+import org.literacybridge.stats.formats.logFile.EventBatch;
+import org.literacybridge.stats.formats.logFile.LogAction;
 import org.literacybridge.stats.formats.logFile.LogFileParser;
 import org.literacybridge.stats.formats.logFile.LogFilePosition;
 import org.literacybridge.stats.formats.logFile.LogLineContext;
 import org.literacybridge.stats.formats.logFile.LogLineInfo;
+import org.literacybridge.stats.formats.logFile.LogSubscription;
 import org.literacybridge.stats.model.SyncProcessingContext;
+import org.literacybridge.utils.FsUtils;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
 
 public class TestLogFileParser {
 
@@ -418,4 +432,349 @@ public class TestLogFileParser {
     EasyMock.verify(eventInterface);
   }
 
+  @Test
+  public void testVoltageDrop() throws IOException {
+
+    final String testline = "0r0039c012pS18d14h27m59s305/221/221V:PAUSED:VOLTAGE DROP: 0.04v in 0136 sec";
+    final InputStream is = new ByteArrayInputStream(testline.getBytes());
+
+    final LogLineInfo expectedLogLineInfo = new LogLineInfo((byte) 0, (byte) 39, (short) 12, (short) 18, new LocalTime(14, 27, 59), 3.05, 2.21, 2.21);
+    final LogLineContext context = new LogLineContext(expectedLogLineInfo, TEST_FILE_POSITION, TEST_FILE_CONTEXT);
+
+    final TalkingBookDataProcessor eventInterface = EasyMock.createMock(TalkingBookDataProcessor.class);
+    eventInterface.onLogFileStart(TEST_FILE_NAME);
+    eventInterface.onVoltageDrop(context, LogAction.paused, 0.04, 136);
+    eventInterface.onLogFileEnd();
+    EasyMock.replay(eventInterface);
+
+    final LogFileParser logFileParser = new LogFileParser(eventInterface, TEST_FILE_CONTEXT);
+    TestCase.assertEquals(0, logFileParser.parse(TEST_FILE_NAME, is));
+    EasyMock.verify(eventInterface);
+  }
+
+  @Test
+  public void testCorruptLinesStillCountAsErrors() throws IOException {
+
+    //A non-numeric voltage, and a PLAYED with a time that does not fit in a short.
+    final String testline = "0r0032c012pS15d02h44m41s297/221/209V:PLAY TB0003a2_2156B516 @VOL=03 @Volt=2x1\n" +
+      "0r0032c012pS15d02h45m47s295/214/214V:PLAYED H_0172_FC0929CA 99999/0753sec @VOL=02 @Volt=214\n" +
+      "0r0032c012pS15d02h45m47s295/214/214V:NOT_AN_ACTION whatever";
+    final InputStream is = new ByteArrayInputStream(testline.getBytes());
+
+    final TalkingBookDataProcessor eventInterface = EasyMock.createMock(TalkingBookDataProcessor.class);
+    eventInterface.onLogFileStart(TEST_FILE_NAME);
+    eventInterface.onLogFileEnd();
+    EasyMock.replay(eventInterface);
+
+    final LogFileParser logFileParser = new LogFileParser(eventInterface, TEST_FILE_CONTEXT);
+    TestCase.assertEquals(2, logFileParser.parse(TEST_FILE_NAME, is));
+    EasyMock.verify(eventInterface);
+
+    //The regex path records the content id before it fails on the numbers.
+    TestCase.assertEquals("H_0172_FC0929CA", logFileParser.getContentLastPlayed());
+  }
+
+  @Test
+  public void testPausedFromByteBuffer() throws IOException {
+
+    final String testline = "0r0039c012pS18d14h27m59s305/221/221V:PAUSED\r\n" +
+      "0r0039c012pS18d14h27m59s305/221/221V:PLAY TB0003a2_2156B516 @VOL=03 @Volt=221\r\n" +
+      "0r0039c012pS18d14h27m59s305/221/221V:PAUSED\r\n";
+    final ByteBuffer buffer = ByteBuffer.wrap(testline.getBytes("US-ASCII"));
+
+    final LogLineInfo expectedLogLineInfo = new LogLineInfo((byte) 0, (byte) 39, (short) 12, (short) 18, new LocalTime(14, 27, 59), 3.05, 2.21, 2.21);
+    final LogLineContext contextFirstPause = new LogLineContext(expectedLogLineInfo, TEST_FILE_POSITION, TEST_FILE_CONTEXT);
+    final LogLineContext contextPlayed = new LogLineContext(expectedLogLineInfo, TEST_FILE_POSITION_2, TEST_FILE_CONTEXT);
+    final LogLineContext contextPaused = new LogLineContext(expectedLogLineInfo, TEST_FILE_POSITION_3, TEST_FILE_CONTEXT);
+
+    final TalkingBookDataProcessor eventInterface = EasyMock.createMock(TalkingBookDataProcessor.class);
+    eventInterface.onLogFileStart(TEST_FILE_NAME);
+    eventInterface.onPause(contextFirstPause, "");
+    eventInterface.onPlay(contextPlayed, "TB0003a2_2156B516", 3, 2.21);
+    eventInterface.onPause(contextPaused, "TB0003a2_2156B516");
+    eventInterface.onLogFileEnd();
+    EasyMock.replay(eventInterface);
+
+    final LogFileParser logFileParser = new LogFileParser(eventInterface, TEST_FILE_CONTEXT);
+    TestCase.assertEquals(0, logFileParser.parse(TEST_FILE_NAME, buffer));
+    EasyMock.verify(eventInterface);
+  }
+
+  @Test
+  public void testParsePathMatchesStream() throws IOException {
+
+    final File logFile = new File(FsUtils.FsAgnostify(
+      "src/test/resources/testSyncDir/testDevice/collected-data/2013-03/Baazu-Jirapa/TB0002FE/8m30d17h9m8s/log-archive/log_TB0002FE_0003_0000.txt"));
+
+    final List<String> fromStream = new ArrayList<>();
+    final InputStream is = new FileInputStream(logFile);
+    final int streamErrors;
+    try {
+      streamErrors = new LogFileParser(new RecordingProcessor(fromStream), TEST_FILE_CONTEXT).parse(
+        logFile.getAbsolutePath(), is);
+    } finally {
+      is.close();
+    }
+
+    final List<String> fromPath = new ArrayList<>();
+    final int pathErrors = new LogFileParser(new RecordingProcessor(fromPath), TEST_FILE_CONTEXT).parse(
+      logFile.toPath());
+
+    TestCase.assertEquals(streamErrors, pathErrors);
+    TestCase.assertFalse(fromStream.isEmpty());
+    TestCase.assertEquals(fromStream, fromPath);
+  }
+
+  @Test
+  public void testSnapshotOutlivesReusedContext() throws IOException {
+    final String log = "0r0039c012p018d14h27m59s305/221/221V:PAUSED\n"
+      + "0r0039c012p018d14h28m01s303/221/221V:UNPAUSED\n";
+
+    final List<LogLineContext> seen = new ArrayList<>();
+    final List<LogLineContext> snapshots = new ArrayList<>();
+    final LogFileParser parser = new LogFileParser(new AbstractLogProcessor() {
+      @Override
+      public void onPause(LogLineContext context, String contentId) {
+        seen.add(context);
+        snapshots.add(context.snapshot());
+      }
+
+      @Override
+      public void onUnPause(LogLineContext context, String contentId) {
+        seen.add(context);
+        snapshots.add(context.snapshot());
+      }
+    }, TEST_FILE_CONTEXT);
+    parser.parse(TEST_FILE_NAME, new ByteArrayInputStream(log.getBytes("UTF-8")));
+
+    TestCase.assertEquals(2, seen.size());
+    TestCase.assertSame(seen.get(0), seen.get(1));
+
+    final LogLineContext first = snapshots.get(0);
+    TestCase.assertEquals(1, first.getLineNumber());
+    TestCase.assertEquals(14 * 3600 + 27 * 60 + 59, first.getSecondOfDay());
+    TestCase.assertEquals(3.05, first.getMaxVolts());
+    TestCase.assertEquals(new LocalTime(14, 27, 59), first.getLogLineInfo().timeInPeriod);
+    TestCase.assertEquals(2, snapshots.get(1).getLineNumber());
+    TestCase.assertSame(first, first.snapshot());
+  }
+
+  @Test
+  public void testContentIdsSharedBetweenParsers() throws IOException {
+    final String log = "0r0039c012p018d14h27m59s305/221/221V:PAUSED\n"
+      + "0r0039c012p018d14h28m01s303/221/221V:PLAY TB0003a2_2156B516 @VOL=03 @Volt=221\n"
+      + "0r0039c012p018d14h28m03s303/221/221V:PAUSED\n";
+
+    final ContentIdDictionary contentIds = new ContentIdDictionary();
+    final List<Integer> ids = new ArrayList<>();
+    final AbstractLogProcessor processor = new AbstractLogProcessor() {
+      @Override
+      public void onPlay(LogLineContext context, int contentId, int volume, double voltage) {
+        TestCase.assertSame(contentIds, context.getContentIds());
+        ids.add(contentId);
+      }
+
+      @Override
+      public void onPause(LogLineContext context, int contentId) {
+        ids.add(contentId);
+      }
+    };
+
+    new LogFileParser(processor, TEST_FILE_CONTEXT, contentIds).parse(TEST_FILE_NAME,
+      new ByteArrayInputStream(log.getBytes("UTF-8")));
+    new LogFileParser(processor, TEST_FILE_CONTEXT, contentIds).parse(TEST_FILE_NAME,
+      ByteBuffer.wrap(log.getBytes("UTF-8")));
+
+    TestCase.assertEquals(6, ids.size());
+    TestCase.assertEquals(ContentIdDictionary.EMPTY, (int) ids.get(0));
+    TestCase.assertEquals("TB0003a2_2156B516", contentIds.get(ids.get(1)));
+    TestCase.assertEquals(ids.subList(0, 3), ids.subList(3, 6));
+    TestCase.assertEquals(2, contentIds.size());
+  }
+
+  @Test
+  public void testBatchesReplayToTheSameCallbacks() throws IOException {
+    final File logFile = new File(FsUtils.FsAgnostify(
+      "src/test/resources/testSyncDir/testDevice/collected-data/2013-03/Baazu-Jirapa/TB0002FE/8m30d17h9m8s/log-archive/log_TB0002FE_0003_0000.txt"));
+
+    final List<String> perEvent = new ArrayList<>();
+    new LogFileParser(new RecordingProcessor(perEvent), TEST_FILE_CONTEXT).parse(logFile.toPath());
+
+    final List<String> replayed = new ArrayList<>();
+    final RecordingProcessor recorder = new RecordingProcessor(replayed);
+    new LogFileParser(new BatchRecordingProcessor(recorder, new ArrayList<EventBatch>()), TEST_FILE_CONTEXT).parse(
+      logFile.toPath());
+
+    TestCase.assertFalse(perEvent.isEmpty());
+    TestCase.assertEquals(perEvent, replayed);
+  }
+
+  @Test
+  public void testLargeFilesAreSplitIntoBatches() throws IOException {
+    final int numLines = EventBatch.DEFAULT_CAPACITY * 2 + 10;
+    final StringBuilder log = new StringBuilder();
+    for (int i = 0; i < numLines; i++) {
+      log.append("0r0039c012p018d14h27m59s305/221/221V:PAUSED\n");
+    }
+
+    final List<String> events = new ArrayList<>();
+    final List<EventBatch> batches = new ArrayList<>();
+    new LogFileParser(new BatchRecordingProcessor(new RecordingProcessor(events), batches), TEST_FILE_CONTEXT).parse(
+      TEST_FILE_NAME, ByteBuffer.wrap(log.toString().getBytes("UTF-8")));
+
+    TestCase.assertEquals(3, batches.size());
+    TestCase.assertEquals(EventBatch.DEFAULT_CAPACITY, batches.get(0).size());
+    TestCase.assertEquals(EventBatch.DEFAULT_CAPACITY, batches.get(1).size());
+    TestCase.assertEquals(10, batches.get(2).size());
+
+    final EventBatch last = batches.get(2);
+    TestCase.assertEquals(EventBatch.PAUSE, last.types[9]);
+    TestCase.assertEquals(numLines, last.lineNumbers[9]);
+    TestCase.assertEquals(numLines, last.lineContext(9).getLineNumber());
+    TestCase.assertEquals(14 * 3600 + 27 * 60 + 59, last.secondsOfDay[9]);
+    TestCase.assertEquals("end", events.get(events.size() - 1));
+  }
+
+  @Test
+  public void testOnlySubscribedEventsAreRaised() throws IOException {
+    //A play, a played, a category, a voltage drop, a played with a bad number and a play with a bad prelude.
+    final String log = "0r0032c012p015d02h44m41s297/221/209V:PLAY TB0003a2_2156B516 @VOL=03 @Volt=221\n" +
+      "0r0032c012p015d02h44m27s302/228/222V:PLAYED TB000248_AA94FE16 0732/0732sec @VOL=03 @Volt=228-Ended\n" +
+      "0r0033c012p018d03h09m25s315/229/229V:Category: $0-1\n" +
+      "0r0039c012p018d14h27m59s305/221/221V:PLAYING:VOLTAGE DROP: 0.0.4v in 0136 sec\n" +
+      "0r0032c012pS15d02h45m47s295/214/214V:PLAYED H_0172_FC0929CA 99999/0753sec @VOL=02 @Volt=214\n" +
+      "0r00x2c012p015d02h44m41s297/221/209V:PLAY TB0003a2_2156B516 @VOL=03 @Volt=2x1\n";
+
+    final List<String> all = new ArrayList<>();
+    final int allErrors = new LogFileParser(new RecordingProcessor(all), TEST_FILE_CONTEXT).parse(
+      TEST_FILE_NAME, ByteBuffer.wrap(log.getBytes("UTF-8")));
+
+    final List<String> played = new ArrayList<>();
+    final RecordingProcessor playedOnly = new RecordingProcessor(played) {
+      @Override
+      public LogSubscription getLogSubscription() {
+        return LogSubscription.of(EnumSet.of(LogAction.played), 0);
+      }
+
+      @Override
+      public void onPlayed(LogLineContext context, String contentId, short secondsPlayed, short secondsSomething,
+                           int volume, double voltage, boolean ended) {
+        TestCase.assertFalse(context.hasLogLineInfo());
+        super.onPlayed(context, contentId, secondsPlayed, secondsSomething, volume, voltage, ended);
+      }
+    };
+    final int playedErrors = new LogFileParser(playedOnly, TEST_FILE_CONTEXT).parse(
+      TEST_FILE_NAME, ByteBuffer.wrap(log.getBytes("UTF-8")));
+
+    //Not subscribing to something doesn't stop it being an error.
+    TestCase.assertEquals(3, allErrors);
+    TestCase.assertEquals(allErrors, playedErrors);
+    TestCase.assertEquals(Arrays.asList("start " + TEST_FILE_NAME, "1 play TB0003a2_2156B516 3 2.21",
+                                        "2 played TB000248_AA94FE16 732/732 true", "3 category $0-1", "end"), all);
+    TestCase.assertEquals(Arrays.asList("start " + TEST_FILE_NAME, "2 played  732/732 true", "end"), played);
+  }
+
+  @Test
+  public void testParserSubscribesToWhatAnyProcessorWants() {
+    final TalkingBookDataProcessor plays = new AbstractLogProcessor() {
+      @Override
+      public LogSubscription getLogSubscription() {
+        return LogSubscription.of(EnumSet.of(LogAction.play), LogSubscription.CONTENT_IDS);
+      }
+    };
+    final TalkingBookDataProcessor surveys = new AbstractLogProcessor() {
+      @Override
+      public LogSubscription getLogSubscription() {
+        return LogSubscription.of(EnumSet.of(LogAction.survey), LogSubscription.LINE_INFO);
+      }
+    };
+
+    final LogSubscription subscription = new LogFileParser(
+      Arrays.asList(plays, surveys), TEST_FILE_CONTEXT).getSubscription();
+    TestCase.assertEquals(EnumSet.of(LogAction.play, LogAction.survey), subscription.getActions());
+    TestCase.assertEquals(LogSubscription.CONTENT_IDS | LogSubscription.LINE_INFO, subscription.getFields());
+
+    //Processors that don't say what they want get everything.
+    final TalkingBookDataProcessor mock = EasyMock.createMock(TalkingBookDataProcessor.class);
+    TestCase.assertEquals(LogSubscription.ALL,
+      new LogFileParser(Arrays.asList(plays, mock), TEST_FILE_CONTEXT).getSubscription());
+  }
+
+  /**
+   * Takes the events in batches, keeps a copy of each and replays it to another processor.
+   */
+  private static class BatchRecordingProcessor extends AbstractLogProcessor implements BatchTalkingBookDataProcessor {
+    private final TalkingBookDataProcessor replayTo;
+    private final List<EventBatch>         batches;
+
+    BatchRecordingProcessor(TalkingBookDataProcessor replayTo, List<EventBatch> batches) {
+      this.replayTo = replayTo;
+      this.batches = batches;
+    }
+
+    @Override
+    public void onLogFileStart(String fileName) {
+      replayTo.onLogFileStart(fileName);
+    }
+
+    @Override
+    public void onEventBatch(EventBatch batch) {
+      batches.add(batch.copy());
+      batch.replay(replayTo);
+    }
+
+    @Override
+    public void onLogFileEnd() {
+      replayTo.onLogFileEnd();
+    }
+
+    @Override
+    public void onPause(LogLineContext context, String contentId) {
+      TestCase.fail("Only batches should be sent to a batch processor");
+    }
+
+    @Override
+    public void onPlay(LogLineContext context, String contentId, int volume, double voltage) {
+      TestCase.fail("Only batches should be sent to a batch processor");
+    }
+  }
+
+  /**
+   * Records the play events it is sent, along with where they came from.
+   */
+  private static class RecordingProcessor extends AbstractLogProcessor {
+    private final List<String> events;
+
+    RecordingProcessor(List<String> events) {
+      this.events = events;
+    }
+
+    @Override
+    public void onLogFileStart(String fileName) {
+      events.add("start " + fileName);
+    }
+
+    @Override
+    public void onPlay(LogLineContext context, String contentId, int volume, double voltage) {
+      events.add(context.getLineNumber() + " play " + contentId + " " + volume + " " + voltage);
+    }
+
+    @Override
+    public void onPlayed(LogLineContext context, String contentId, short secondsPlayed, short secondsSomething,
+                         int volume, double voltage, boolean ended) {
+      events.add(context.getLineNumber() + " played " + contentId + " " + secondsPlayed + "/" +
+                 secondsSomething + " " + ended);
+    }
+
+    @Override
+    public void onCategory(LogLineContext context, String categoryId) {
+      events.add(context.getLineNumber() + " category " + categoryId);
+    }
+
+    @Override
+    public void onLogFileEnd() {
+      events.add("end");
+    }
+  }
+
 }
@@ -2,10 +2,50 @@ package org.literacybridge.stats.formats.formats.syncDirectory;
 
 import junit.framework.TestCase;
 import org.junit.Test;
+import org.literacybridge.dashboard.api.TalkingBookSyncWriter;
+import org.literacybridge.dashboard.dbTables.TbDataLine;
+import org.literacybridge.dashboard.dbTables.contentUsage.SyncAggregation;
+import org.literacybridge.dashboard.dbTables.events.FasterEvent;
+import org.literacybridge.dashboard.dbTables.events.JumpEvent;
+import org.literacybridge.dashboard.dbTables.events.PlayedEvent;
+import org.literacybridge.dashboard.dbTables.events.RecordEvent;
+import org.literacybridge.dashboard.dbTables.events.SlowerEvent;
+import org.literacybridge.dashboard.dbTables.events.SurveyEvent;
+import org.literacybridge.dashboard.dbTables.syncOperations.SyncOperationLog;
+import org.literacybridge.dashboard.dbTables.syncOperations.TalkingBookCorruption;
+import org.literacybridge.dashboard.processes.ContentUsageUpdateProcess;
+import org.literacybridge.dashboard.processors.AbstractLogProcessor;
+import org.literacybridge.dashboard.processors.DbPersistenceProcessor;
+import org.literacybridge.main.ProcessingResult;
+import org.literacybridge.stats.DirectoryIterator;
+import org.literacybridge.stats.TestDirectoryIterator;
+import org.literacybridge.stats.api.IngestedLogProcessor;
+import org.literacybridge.stats.api.IngestedLogRegistry;
+import org.literacybridge.stats.api.TalkingBookDataProcessor;
+import org.literacybridge.stats.formats.logFile.FileIngestedLogRegistry;
+import org.literacybridge.stats.formats.logFile.LogAction;
+import org.literacybridge.stats.formats.logFile.LogLineContext;
 import org.literacybridge.stats.formats.syncDirectory.DirectoryProcessor;
+import org.literacybridge.stats.model.DeploymentPerDevice;
+import org.literacybridge.stats.model.DirectoryFormat;
+import org.literacybridge.stats.model.ProcessingContext;
+import org.literacybridge.stats.model.SyncDirId;
+import org.literacybridge.stats.model.SyncProcessingContext;
+import org.apache.commons.io.FileUtils;
+import org.literacybridge.utils.FileTree;
 import org.literacybridge.utils.FsUtils;
+import org.literacybridge.utils.LocalFileTree;
+import org.literacybridge.utils.TestZipFileTree;
+import org.literacybridge.utils.ZipFileTree;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  */
@@ -21,6 +61,330 @@ public class TestDirectoryProcessorNew {
   }
 
 
+  @Test
+  public void testParallelLogParsingKeepsFileOrder() throws Exception {
+    final List<String> sequentialEvents = processTestSyncDir(null);
+
+    final ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      TestCase.assertEquals(sequentialEvents, processTestSyncDir(pool));
+    } finally {
+      pool.shutdownNow();
+    }
+
+    //Two log.txt's and two archived logs, each bracketed by a start and an end
+    TestCase.assertEquals(4, Collections.frequency(sequentialEvents, "end"));
+    TestCase.assertTrue(sequentialEvents.contains("play LB-2_x6g9tv0p3e_m"));
+  }
+
+  @Test
+  public void testZipNativeMatchesExploded() throws Exception {
+    final List<String> explodedEvents = processTestSyncDir(null);
+
+    final File tempDir = Files.createTempDirectory("TestDirectoryProcessorNew").toFile();
+    final ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      final File zip = new File(tempDir, "testSyncDir.zip");
+      TestZipFileTree.zipPackage(TEST_SYNC_DIR, zip);
+      final File root = new File(tempDir, "expanded");
+      try (ZipFileTree tree = new ZipFileTree(zip, root, tempDir)) {
+        TestCase.assertEquals(explodedEvents, processTestSyncDir(null, tree, root));
+        TestCase.assertEquals(explodedEvents, processTestSyncDir(pool, tree, root));
+      }
+    } finally {
+      pool.shutdownNow();
+      FileUtils.deleteDirectory(tempDir);
+    }
+  }
+
+  private static final File TEST_SYNC_DIR = new File(FsUtils.FsAgnostify("src/test/resources/testSyncDir"));
+
+  @Test
+  public void testSkipsArchivedLogsAlreadyIngested() throws Exception {
+    final File registryFile = File.createTempFile("TestDirectoryProcessorNew", ".txt");
+    registryFile.delete();
+    try {
+      final List<String> allEvents = processTestSyncDir(null);
+      final FileIngestedLogRegistry registry = new FileIngestedLogRegistry(registryFile);
+      TestCase.assertEquals(allEvents, processTestSyncDir(null, LocalFileTree.INSTANCE, TEST_SYNC_DIR, registry));
+      TestCase.assertTrue(allEvents.contains("start log_TB0002FE_0003_0000.txt"));
+
+      //The second time around, the archived logs are still processed, but the listeners are told they were ingested.
+      final List<String> events = processTestSyncDir(null, LocalFileTree.INSTANCE, TEST_SYNC_DIR, registry);
+      TestCase.assertEquals("ingested", events.get(events.indexOf("start log_TB0002FE_0003_0000.txt") - 1));
+      TestCase.assertEquals("ingested", events.get(events.indexOf("start log_TB0002FE_0004_0000.txt") - 1));
+      TestCase.assertFalse("ingested".equals(events.get(events.indexOf("start log.txt") - 1)));
+      final List<String> eventsOfLogs = new ArrayList<>(events);
+      eventsOfLogs.removeAll(Collections.singleton("ingested"));
+      TestCase.assertEquals(allEvents, eventsOfLogs);
+
+      final ExecutorService pool = Executors.newFixedThreadPool(4);
+      try {
+        TestCase.assertEquals(events, processTestSyncDir(pool, LocalFileTree.INSTANCE, TEST_SYNC_DIR, registry));
+      } finally {
+        pool.shutdownNow();
+      }
+    } finally {
+      registryFile.delete();
+    }
+  }
+
+  @Test
+  public void testOnlyMarksArchivedLogsThatWereProcessed() throws Exception {
+    final List<String> checked = new ArrayList<>();
+    final List<String> marked = new ArrayList<>();
+    final IngestedLogRegistry registry = new IngestedLogRegistry() {
+      @Override
+      public boolean isIngested(String talkingBook, String sha256) throws IOException {
+        checked.add(sha256);
+        if (checked.size() == 1) {
+          throw new IOException("Can't check " + sha256);
+        }
+        return false;
+      }
+
+      @Override
+      public void markIngested(String talkingBook, String sha256) {
+        marked.add(sha256);
+      }
+
+      @Override
+      public void commit() {
+      }
+    };
+
+    final List<String> events = processTestSyncDir(null, LocalFileTree.INSTANCE, TEST_SYNC_DIR, registry);
+    TestCase.assertEquals(2, checked.size());
+    TestCase.assertFalse(events.contains("ingested"));
+    TestCase.assertEquals(checked.subList(1, 2), marked);
+    TestCase.assertFalse(events.contains("start log_TB0002FE_0003_0000.txt"));
+    TestCase.assertTrue(events.contains("start log_TB0002FE_0004_0000.txt"));
+  }
+
+  @Test
+  public void testReimportKeepsLogEventCounts() throws Exception {
+    final File registryFile = File.createTempFile("TestDirectoryProcessorNew", ".txt");
+    registryFile.delete();
+    try {
+      final FileIngestedLogRegistry registry = new FileIngestedLogRegistry(registryFile);
+      final List<String> firstPlayed = new ArrayList<>();
+      final List<String> firstCounts = persistTestSyncDir(registry, firstPlayed);
+      registry.commit();
+      TestCase.assertFalse(firstCounts.isEmpty());
+
+      //The same Talking Book again, as in a later upload.  The events of its archived logs aren't written out again,
+      //but still count towards its aggregations, which replace the earlier ones.
+      final List<String> secondPlayed = new ArrayList<>();
+      TestCase.assertEquals(firstCounts, persistTestSyncDir(registry, secondPlayed));
+      TestCase.assertTrue(secondPlayed.size() < firstPlayed.size());
+      TestCase.assertTrue(firstPlayed.containsAll(secondPlayed));
+    } finally {
+      registryFile.delete();
+    }
+  }
+
+  /**
+   * @return the LOG_EVENTS aggregations a DbPersistenceProcessor writes for the test sync dirs.
+   */
+  private static List<String> persistTestSyncDir(IngestedLogRegistry registry, List<String> played)
+    throws Exception {
+    final CapturingWriter writer = new CapturingWriter();
+    processTestSyncDir(null, LocalFileTree.INSTANCE, TEST_SYNC_DIR, registry, new DbPersistenceProcessor(writer));
+
+    for (PlayedEvent event : writer.played) {
+      played.add(event.getContentId() + " " + event.getTimePlayed());
+    }
+    final List<String> counts = new ArrayList<>();
+    for (SyncAggregation aggregation : writer.aggregations) {
+      if (aggregation.getContentSyncUniqueId().getDataSource() == SyncAggregation.Source.LOG_EVENTS.value) {
+        counts.add(aggregation.getContentSyncUniqueId().getContentId() + " " + aggregation.getCountStarted()
+                   + " " + aggregation.getCountCompleted() + " " + aggregation.getTotalTimePlayed());
+      }
+    }
+    return counts;
+  }
+
+  private static class CapturingWriter implements TalkingBookSyncWriter {
+    final List<PlayedEvent>     played       = new ArrayList<>();
+    final List<SyncAggregation> aggregations = new ArrayList<>();
+
+    @Override
+    public void writePlayEvent(PlayedEvent playEvent, LogLineContext context) {
+      played.add(playEvent);
+    }
+
+    @Override
+    public void writeAggregation(SyncAggregation aggregation, SyncProcessingContext context) {
+      aggregations.add(aggregation);
+    }
+
+    @Override
+    public void writeRecordEvent(RecordEvent recordEvent, LogLineContext context) {
+    }
+
+    @Override
+    public void writeSurveyEvent(SurveyEvent surveyEvent, LogLineContext context) {
+    }
+
+    @Override
+    public void writeJumpEvent(JumpEvent jumpEvent, LogLineContext context) {
+    }
+
+    @Override
+    public void writeFasterEvent(FasterEvent fasterEvent, LogLineContext context) {
+    }
+
+    @Override
+    public void writeSlowerEvent(SlowerEvent slowerEvent, LogLineContext context) {
+    }
+
+    @Override
+    public void writeOperationLog(SyncOperationLog operationLog) {
+    }
+
+    @Override
+    public void writeTalkingBookCorruption(TalkingBookCorruption talkingBookCorruption) {
+    }
+
+    @Override
+    public void writeTbDataLog(TbDataLine tbDataLine) {
+    }
+  }
+
+  private static List<String> processTestSyncDir(ExecutorService pool) throws Exception {
+    return processTestSyncDir(pool, LocalFileTree.INSTANCE, TEST_SYNC_DIR);
+  }
+
+  @Test
+  public void testParallelTalkingBooksKeepEventOrder() throws Exception {
+    final List<String> sequentialEvents = processTestArchive(1);
+    TestCase.assertEquals(sequentialEvents, processTestArchive(4));
+    TestCase.assertTrue(sequentialEvents.contains("tb TB3"));
+    TestCase.assertTrue(sequentialEvents.contains("tbdata 2013y08m15d18h11m50s TB6"));
+  }
+
+  private static List<String> processTestArchive(int traversalThreads) throws Exception {
+    final List<String> events = new ArrayList<>();
+    final ProcessingResult result = new ProcessingResult("test", "test.zip");
+    final ContentUsageUpdateProcess process = new ContentUsageUpdateProcess();
+    process.setTraversalThreads(traversalThreads);
+    final ContentUsageUpdateProcess.UpdateUsageContext context = process.new UpdateUsageContext(null, null, result);
+    final DirectoryProcessor processor = new DirectoryProcessor(Collections.singletonList(recorder(events)), context);
+    new DirectoryIterator(TestDirectoryIterator.TEST1_ARCHIVE, DirectoryFormat.Archive, false, context)
+      .process(processor);
+    return events;
+  }
+
+  private static List<String> processTestSyncDir(ExecutorService pool, FileTree tree, File testSyncDir)
+    throws Exception {
+    return processTestSyncDir(pool, tree, testSyncDir, null);
+  }
+
+  private static List<String> processTestSyncDir(ExecutorService pool, FileTree tree, File testSyncDir,
+                                                 IngestedLogRegistry ingestedLogs) throws Exception {
+    final List<String> events = new ArrayList<>();
+    processTestSyncDir(pool, tree, testSyncDir, ingestedLogs, recorder(events));
+    return events;
+  }
+
+  private static void processTestSyncDir(ExecutorService pool, FileTree tree, File testSyncDir,
+                                         IngestedLogRegistry ingestedLogs, TalkingBookDataProcessor listener)
+    throws Exception {
+    final ProcessingResult result = new ProcessingResult("test", "test.zip");
+    final ContentUsageUpdateProcess.UpdateUsageContext context =
+      new ContentUsageUpdateProcess().new UpdateUsageContext(null, null, result);
+    context.setFileTree(tree);
+    context.setIngestedLogs(ingestedLogs);
+    final DirectoryProcessor processor =
+      new DirectoryProcessor(Collections.singletonList(listener), context);
+    processor.setLogParsingPool(pool, 1);
+
+    final File testRoot = new File(testSyncDir, "testDevice");
+    final DeploymentPerDevice deploymentPerDevice = new DeploymentPerDevice("2013-03", "testDevice");
+    final File talkingBookDir = new File(deploymentPerDevice.getSyncRoot(testRoot),
+      FsUtils.FsAgnostify("Baazu-Jirapa/TB0002FE"));
+
+    processor.startProcessing(testRoot, null, DirectoryFormat.Sync);
+    processor.startDeviceAndDeployment(deploymentPerDevice);
+    processor.startVillage("Baazu-Jirapa");
+    processor.startTalkingBook("TB0002FE");
+    for (String syncDirName : new String[] {"8m30d17h9m8s", "11m14d18h45m55s"}) {
+      processor.processSyncDir(SyncDirId.parseSyncDir(deploymentPerDevice.deploymentId, syncDirName),
+        new File(talkingBookDir, syncDirName));
+    }
+    processor.endTalkingBook();
+  }
+
+  private static TalkingBookDataProcessor recorder(final List<String> events) {
+    return new EventRecorder(events);
+  }
+
+  private static class EventRecorder extends AbstractLogProcessor implements IngestedLogProcessor {
+    private final List<String> events;
+
+    EventRecorder(List<String> events) {
+      this.events = events;
+    }
+
+    @Override
+    public void onLogFileChecked(boolean alreadyIngested) {
+      if (alreadyIngested) {
+        events.add("ingested");
+      }
+    }
+
+    @Override
+    public void onTalkingBookStart(ProcessingContext context) {
+      events.add("tb " + context.talkingBookId);
+    }
+
+    @Override
+    public void onTalkingBookEnd(ProcessingContext context) {
+      events.add("tb end");
+    }
+
+    @Override
+    public void onSyncProcessingStart(SyncProcessingContext context) {
+      events.add("sync " + context.syncTime);
+    }
+
+    @Override
+    public void processTbDataLine(TbDataLine tbDataLine) {
+      events.add("tbdata " + tbDataLine.getUpdateDateTime() + " " + tbDataLine.getOutSn());
+    }
+
+    @Override
+    public void onLogFileStart(String fileName) {
+      events.add("start " + new File(fileName).getName());
+    }
+
+    @Override
+    public void onLogFileEnd() {
+      events.add("end");
+    }
+
+    @Override
+    public void onPlay(LogLineContext context, String contentId, int volume, double voltage) {
+      events.add("play " + contentId);
+    }
+
+    @Override
+    public void onPlayed(LogLineContext context, String contentId, short secondsPlayed, short secondsSomething,
+                         int volume, double voltage, boolean ended) {
+      events.add("played " + contentId + " " + secondsPlayed + " " + ended);
+    }
+
+    @Override
+    public void onCategory(LogLineContext context, String categoryId) {
+      events.add("category " + categoryId + " " + context.getLineNumber());
+    }
+
+    @Override
+    public void onVoltageDrop(LogLineContext context, LogAction action, double voltageDropped, int time) {
+      events.add("drop " + action + " " + voltageDropped);
+    }
+  }
+
   @Test
   public void testEndToEnd() throws Exception {
 /*
@@ -0,0 +1,60 @@
+package org.literacybridge.stats.formats.formats.syncDirectory;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+import org.literacybridge.stats.formats.syncDirectory.DirectoryProcessor;
+import org.literacybridge.stats.formats.syncDirectory.SyncDirMetadata;
+import org.literacybridge.utils.LocalFileTree;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ */
+public class TestSyncDirMetadata {
+
+  @Test
+  public void testReadsSystemFiles() throws Exception {
+    File syncDir = Files.createTempDirectory("TestSyncDirMetadata").toFile();
+    try {
+      File system = new File(syncDir, "system");
+      FileUtils.writeStringToFile(new File(system, "deployment.properties"),
+                                  "PROJECT=UNICEF-2\nTIMESTAMP=20170815T101530.250Z\n");
+      FileUtils.writeStringToFile(new File(system, "last_updated.txt"), "2017y08m15d10h15m30s\n");
+      FileUtils.writeStringToFile(new File(system, "sysdata.txt"), "IMAGE:pkg-1\nPROJECT:CARE\nIMAGE:pkg-2\n");
+      FileUtils.writeStringToFile(new File(system, "CARE.prj"), "");
+      FileUtils.writeStringToFile(new File(system, "pkg-1.pkg"), "");
+
+      SyncDirMetadata metadata = SyncDirMetadata.load(LocalFileTree.INSTANCE, syncDir);
+      TestCase.assertEquals("UNICEF-2", metadata.getProperty("PROJECT", null));
+      TestCase.assertEquals("fallback", metadata.getProperty("PACKAGE", "fallback"));
+      TestCase.assertEquals(new LocalDateTime(2017, 8, 15, 10, 15, 30, 250), metadata.getDeploymentTime());
+      TestCase.assertEquals(new LocalDateTime(2017, 8, 15, 10, 15, 30), metadata.lastUpdated);
+      TestCase.assertEquals("CARE", metadata.projectMarker);
+      TestCase.assertEquals("pkg-1", metadata.packageMarker);
+      TestCase.assertEquals("pkg-1", metadata.sysData.get("IMAGE"));
+
+      //The same answers as the one file at a time helpers.
+      TestCase.assertEquals(DirectoryProcessor.findValueInSysData(syncDir, "IMAGE"), metadata.sysData.get("IMAGE"));
+      TestCase.assertEquals(DirectoryProcessor.findProjectByTbFs(syncDir), metadata.projectMarker);
+      TestCase.assertEquals(DirectoryProcessor.findLastUpdateTime(syncDir), metadata.lastUpdated);
+
+      TestCase.assertEquals(metadata, SyncDirMetadata.load(LocalFileTree.withPathCache(), syncDir));
+    } finally {
+      FileUtils.deleteDirectory(syncDir);
+    }
+  }
+
+  @Test
+  public void testMissingSystemDir() throws Exception {
+    SyncDirMetadata metadata = SyncDirMetadata.load(LocalFileTree.INSTANCE, new File("no such sync dir"));
+    TestCase.assertSame(SyncDirMetadata.NONE, metadata);
+    TestCase.assertNull(metadata.getDeploymentTime());
+
+    metadata = SyncDirMetadata.load(LocalFileTree.INSTANCE, TestDirectoryProcessorNew.TEST1_SYNC);
+    TestCase.assertEquals("2014-01-ssl", metadata.packageMarker);
+    TestCase.assertNull(metadata.deploymentProperties);
+  }
+}
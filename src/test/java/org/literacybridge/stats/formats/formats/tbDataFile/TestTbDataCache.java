@@ -0,0 +1,103 @@
+package org.literacybridge.stats.formats.formats.tbDataFile;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.literacybridge.dashboard.dbTables.TbDataLine;
+import org.literacybridge.stats.formats.tbData.TbDataCache;
+import org.literacybridge.stats.formats.tbData.TbDataLineHandler;
+import org.literacybridge.stats.formats.tbData.TbDataParser;
+import org.literacybridge.utils.LocalFileTree;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ */
+public class TestTbDataCache {
+
+  private static final File TBDATA_FILE = new File("src/test/resources/tbDataFiles/tbData-v03-2022y05m31d-0073.csv");
+
+  @Test
+  public void testReplaysFromHeap() throws Exception {
+    TbDataCache cache = new TbDataCache(null, Long.MAX_VALUE);
+    try {
+      List<String> parsed = parse(cache);
+      TestCase.assertTrue(cache.getHeapBytes() > 0);
+      TestCase.assertEquals(expected(), parsed);
+      TestCase.assertEquals(parsed, parse(cache));
+    } finally {
+      cache.close();
+    }
+    TestCase.assertEquals(0, cache.getHeapBytes());
+  }
+
+  @Test
+  public void testReplaysSpilledRows() throws Exception {
+    TbDataCache cache = new TbDataCache(null, 0);
+    try {
+      List<String> parsed = parse(cache);
+      TestCase.assertEquals(0, cache.getHeapBytes());
+      TestCase.assertEquals(expected(), parsed);
+      TestCase.assertEquals(parsed, parse(cache));
+    } finally {
+      cache.close();
+    }
+  }
+
+  @Test
+  public void testReleaseFreesRows() throws Exception {
+    TbDataCache cache = new TbDataCache(null, Long.MAX_VALUE);
+    try {
+      List<String> parsed = parse(cache);
+      cache.release(LocalFileTree.INSTANCE, TBDATA_FILE, true);
+      TestCase.assertEquals(0, cache.getHeapBytes());
+      TestCase.assertEquals(parsed, parse(cache));
+      TestCase.assertTrue(cache.getHeapBytes() > 0);
+    } finally {
+      cache.close();
+    }
+  }
+
+  @Test
+  public void testReleaseDeletesSpilledRows() throws Exception {
+    File spillDir = Files.createTempDirectory("TestTbDataCache").toFile();
+    TbDataCache cache = new TbDataCache(spillDir, 0);
+    try {
+      parse(cache);
+      TestCase.assertEquals(1, spillDir.list().length);
+      cache.release(LocalFileTree.INSTANCE, TBDATA_FILE, true);
+      TestCase.assertEquals(0, spillDir.list().length);
+    } finally {
+      cache.close();
+      FileUtils.deleteDirectory(spillDir);
+    }
+  }
+
+  private static List<String> expected() throws Exception {
+    List<String> lines = new ArrayList<>();
+    for (TbDataLine line : new TbDataParser().parseTbDataFile(TBDATA_FILE, true)) {
+      lines.add(describe(line));
+    }
+    TestCase.assertFalse(lines.isEmpty());
+    return lines;
+  }
+
+  private static List<String> parse(TbDataCache cache) throws Exception {
+    final List<String> lines = new ArrayList<>();
+    cache.parse(LocalFileTree.INSTANCE, TBDATA_FILE, true, new TbDataParser(), new TbDataLineHandler() {
+      @Override
+      public void onTbDataLine(TbDataLine line) {
+        lines.add(describe(line));
+      }
+    });
+    return lines;
+  }
+
+  private static String describe(TbDataLine line) {
+    return line.getUpdateDateTime() + " " + line.getInSn() + " " + line.getOutImage() + " " + line.getOutFwRev()
+      + " " + line.getFlashCumDays() + " " + line.getInLastUpdated();
+  }
+}
@@ -0,0 +1,71 @@
+package org.literacybridge.stats.formats.formats.tbDataFile;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.literacybridge.stats.formats.tbData.TbDataDateDecoder;
+
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ */
+public class TestTbDataDateDecoder {
+
+  // Formats that new Date(String) reads as well.
+  private static final String[] LEGACY_DATES = {
+    "Thu Jun 16 00:00:00 GMT 2022", "Mon Aug 19 00:00:00 GMT 2013", "Sat Feb 05 13:04:59 PST 2022",
+    "Tue Jul 04 23:59:01 EDT 2017", "2022/2/25", "2017/12/31", "2/25/2022", "12/1/2016",
+    "Jun 16, 2022", "16 Jun 2022 10:01:55 GMT"
+  };
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void testMatchesLegacyParsing() throws Exception {
+    TimeZone defaultZone = TimeZone.getDefault();
+    try {
+      for (String zone : new String[] {"GMT", "Africa/Accra", "America/Los_Angeles", "Asia/Kolkata"}) {
+        TimeZone.setDefault(TimeZone.getTimeZone(zone));
+        TbDataDateDecoder decoder = new TbDataDateDecoder();
+        for (String value : LEGACY_DATES) {
+          TestCase.assertEquals(zone + " " + value, new Date(value), decoder.decode(value));
+        }
+        TestCase.assertEquals(LEGACY_DATES.length, decoder.getNumDecoded());
+      }
+    } finally {
+      TimeZone.setDefault(defaultZone);
+    }
+  }
+
+  @Test
+  public void testTbLoaderAndIsoDates() throws Exception {
+    TbDataDateDecoder decoder = new TbDataDateDecoder();
+    TestCase.assertEquals(new GregorianCalendar(2022, 5, 16, 10, 1, 55).getTime(),
+                          decoder.decode("2022Y06M16D10H01M55S"));
+    TestCase.assertEquals(new GregorianCalendar(2017, 6, 24).getTime(), decoder.decode("2017y07m24d"));
+    TestCase.assertEquals(new GregorianCalendar(2022, 1, 25).getTime(), decoder.decode("2022-02-25"));
+    TestCase.assertEquals(new GregorianCalendar(2022, 1, 25, 8, 30, 0).getTime(), decoder.decode("2022-02-25T08:30"));
+    TestCase.assertEquals(new Date(1645778096250L), decoder.decode("2022-02-25T08:34:56.25Z"));
+    TestCase.assertEquals(new Date(1645778096000L), decoder.decode("2022-02-25T10:04:56+01:30"));
+    TestCase.assertEquals(6, decoder.getNumDecoded());
+  }
+
+  @Test
+  public void testCountsEmptyAndMalformedValues() throws Exception {
+    TbDataDateDecoder decoder = new TbDataDateDecoder();
+    TestCase.assertNull(decoder.decode(""));
+    TestCase.assertNull(decoder.decode("309D4604AF886E73"));
+    TestCase.assertNull(decoder.decode("309D4604AF886E73"));
+    TestCase.assertNull(decoder.decode("Thu Apr 21 00:00:00 WAT 2016"));
+    TestCase.assertNull(decoder.decode("2022Y13M16D"));
+    TestCase.assertEquals(1, decoder.getNumEmpty());
+    TestCase.assertEquals(4, decoder.getNumMalformed());
+    TestCase.assertEquals(1, decoder.getNumCached());
+
+    Date first = decoder.decode("2022/2/25");
+    Date second = decoder.decode("2022/2/25");
+    TestCase.assertEquals(first, second);
+    TestCase.assertNotSame("Dates are mutable, so each is new", first, second);
+    TestCase.assertEquals(2, decoder.getNumCached());
+  }
+}
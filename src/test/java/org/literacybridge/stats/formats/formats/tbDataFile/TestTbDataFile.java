@@ -5,6 +5,7 @@ import org.apache.commons.lang.WordUtils;
 import org.h2.util.StringUtils;
 import org.junit.Test;
 import org.literacybridge.dashboard.dbTables.TbDataLine;
+import org.literacybridge.stats.formats.tbData.TbDataLineHandler;
 import org.literacybridge.stats.formats.tbData.TbDataParser;
 
 import java.io.BufferedReader;
@@ -78,6 +79,29 @@ public class TestTbDataFile {
         testStatsFile("2022y06m16d-005d");
     }
 
+    @Test
+    public void testStreamedLinesMatchList() throws Exception {
+        File tbDataFile = new File("src/test/resources/tbDataFiles/tbData-v03-2022y05m31d-0073.csv");
+        TbDataParser parser = new TbDataParser();
+        List<TbDataLine> lines = parser.parseTbDataFile(tbDataFile, true);
+
+        final List<TbDataLine> streamed = new ArrayList<>();
+        parser.parseTbDataFile(tbDataFile, true, new TbDataLineHandler() {
+            @Override
+            public void onTbDataLine(TbDataLine line) {
+                streamed.add(line);
+            }
+        });
+
+        TestCase.assertFalse(lines.isEmpty());
+        TestCase.assertEquals(lines.size(), streamed.size());
+        for (int i = 0; i < lines.size(); i++) {
+            TestCase.assertEquals(lines.get(i).getInSn(), streamed.get(i).getInSn());
+            TestCase.assertEquals(lines.get(i).getOutImage(), streamed.get(i).getOutImage());
+            TestCase.assertEquals(lines.get(i).getUpdateDateTime(), streamed.get(i).getUpdateDateTime());
+        }
+    }
+
     @SuppressWarnings("deprecation")
     public void testStatsFile(String fileId) throws IOException, IllegalAccessException, InvocationTargetException {
         // Parse the tbdata-v3-.csv file with the TbDataParser.
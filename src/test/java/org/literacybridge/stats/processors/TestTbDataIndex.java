@@ -0,0 +1,110 @@
+package org.literacybridge.stats.processors;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.literacybridge.stats.model.DeploymentId;
+import org.literacybridge.stats.model.OperationalInfo;
+import org.literacybridge.stats.model.SyncDirId;
+
+/**
+ */
+public class TestTbDataIndex {
+
+  private static final String DEVICE_1 = "tbcd000c";
+  private static final String DEVICE_2 = "tbcd000d";
+
+  private static final DeploymentId DEPLOYMENT = DeploymentId.parseContentUpdate("2013-5");
+
+  @Test
+  public void testFindsEntryAtOrAfterByDevice() {
+    TbDataIndex index = new TbDataIndex();
+    TbDataIndex.Key first = add(index, DEVICE_1, "08m15d18h11m50s");
+    TbDataIndex.Key other = add(index, DEVICE_2, "08m15d18h15m00s");
+    TbDataIndex.Key second = add(index, DEVICE_1, "08m15d18h20m00s");
+
+    TestCase.assertSame(first, index.findAtOrAfter(DEVICE_1, parse("08m15d18h11m50s")));
+    TestCase.assertSame(second, index.findAtOrAfter(DEVICE_1, parse("08m15d18h12m00s")));
+    TestCase.assertSame(other, index.findAtOrAfter(DEVICE_2, parse("08m15d18h00m00s")));
+    TestCase.assertNull(index.findAtOrAfter(DEVICE_1, parse("08m15d18h20m01s")));
+    TestCase.assertNull(index.findAtOrAfter("tbcd000e", parse("08m15d18h00m00s")));
+  }
+
+  @Test
+  public void testKeepsEntriesForTheSameTime() {
+    TbDataIndex index = new TbDataIndex();
+    TbDataIndex.Key first = add(index, DEVICE_1, "08m15d18h11m50s");
+    TbDataIndex.Key second = add(index, DEVICE_1, "08m15d18h11m50s");
+
+    TestCase.assertEquals(2, index.size());
+    TestCase.assertNotSame(index.get(first), index.get(second));
+    TestCase.assertEquals(first.syncDirId.dateTime, second.syncDirId.dateTime);
+    // The one added last is found, as when it replaced the other.
+    TestCase.assertSame(second, index.find(parse("08m15d18h11m50s")));
+    TestCase.assertSame(second, index.findAtOrAfter(DEVICE_1, parse("08m15d18h11m00s")));
+    TestCase.assertSame(second, index.keys().first());
+    TestCase.assertSame(first, index.keys().last());
+  }
+
+  @Test
+  public void testFindsExactV2Entry() {
+    TbDataIndex index = new TbDataIndex();
+    TbDataIndex.Key entry = add(index, DEVICE_1, "2016y02m03d04h05m06s-" + DEVICE_1);
+    add(index, DEVICE_2, "2016y02m03d04h05m06s-" + DEVICE_2);
+
+    TestCase.assertSame(entry, index.find(parse("2016y02m03d04h05m06s-TBCD000C")));
+    TestCase.assertNull(index.find(parse("2016y02m03d04h05m07s-" + DEVICE_1)));
+  }
+
+  /**
+   * The entries of one device all come after those of the other, and the later half of them are read twice.
+   */
+  @Test
+  public void testManyEntries() {
+    final int numEntries = 100000;
+    TbDataIndex index = new TbDataIndex();
+    TbDataIndex.Key[] keys = new TbDataIndex.Key[numEntries];
+    for (int i = 0; i < numEntries; i++) {
+      String device = i < numEntries / 2 ? DEVICE_2 : DEVICE_1;
+      keys[i] = add(index, device, v2Name(i, device, 0));
+    }
+    // And a copy of each of the later ones, read again from another file, which is the one found.
+    for (int i = numEntries / 2; i < numEntries; i++) {
+      keys[i] = add(index, DEVICE_1, v2Name(i, DEVICE_1, 0));
+    }
+    TestCase.assertEquals(numEntries + numEntries / 2, index.size());
+
+    for (int i = 0; i < numEntries; i++) {
+      String device = i < numEntries / 2 ? DEVICE_2 : DEVICE_1;
+      SyncDirId syncDirId = parse(v2Name(i, device, 0));
+      TestCase.assertSame(keys[i], index.find(syncDirId));
+      TestCase.assertSame(keys[i], index.findAtOrAfter(device, syncDirId));
+      TestCase.assertNull(index.find(parse(v2Name(i, device, 30))));
+      if (i > 0) {
+        // Between the entry before and this one.
+        TestCase.assertSame(keys[i], index.findAtOrAfter(device, parse(v2Name(i - 1, device, 30))));
+      }
+    }
+    // The first entry of a device is found past all of the other device's.
+    TestCase.assertSame(keys[numEntries / 2], index.findAtOrAfter(DEVICE_1, parse("01m01d00h00m00s")));
+    TestCase.assertNull(index.findAtOrAfter(DEVICE_2, parse(v2Name(numEntries / 2, DEVICE_2, 0))));
+  }
+
+  private static String v2Name(int i, String device, int second) {
+    int minute = i % 60;
+    int hour = (i / 60) % 24;
+    int day = (i / (60 * 24)) % 28 + 1;
+    int month = (i / (60 * 24 * 28)) % 12 + 1;
+    int year = 2014 + i / (60 * 24 * 28 * 12);
+    return String.format("%dy%02dm%02dd%02dh%02dm%02ds-%s", year, month, day, hour, minute, second, device);
+  }
+
+  private static SyncDirId parse(String syncDirName) {
+    return SyncDirId.parseSyncDir(DEPLOYMENT, syncDirName);
+  }
+
+  private static TbDataIndex.Key add(TbDataIndex index, String device, String syncDirName) {
+    SyncDirId syncDirId = parse(syncDirName);
+    return index.add(syncDirId, new OperationalInfo(device, syncDirName, syncDirId.dateTime, "TB6", "TB6",
+                                                    "2013-01", "2013-02", "village", "village"));
+  }
+}
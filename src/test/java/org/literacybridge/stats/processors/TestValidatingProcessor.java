@@ -3,6 +3,8 @@ package org.literacybridge.stats.processors;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Collections2;
 import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.joda.time.LocalDateTime;
 import org.junit.Test;
 import org.literacybridge.main.ProcessingResult;
 import org.literacybridge.dashboard.processes.ContentUsageUpdateProcess;
@@ -11,11 +13,22 @@ import org.literacybridge.stats.TestDirectoryIterator;
 import org.literacybridge.stats.model.DirectoryFormat;
 import org.literacybridge.stats.model.validation.TbDataHasInvalidProperties;
 import org.literacybridge.stats.model.validation.ValidationError;
+import org.literacybridge.utils.FileTree;
 import org.literacybridge.utils.FsUtils;
+import org.literacybridge.utils.ZipFileTree;
 
 import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Collection;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  */
@@ -127,4 +140,119 @@ public class TestValidatingProcessor {
 
   }
 
+  @Test
+  public void testTalkingBooksInParallel() throws Exception {
+    ProcessingResult sequentialResult = new ProcessingResult("test", "test.zip");
+    ValidatingProcessor sequential = validate(ERROR_TEST1_ARCHIVE, 1, sequentialResult);
+    ProcessingResult parallelResult = new ProcessingResult("test", "test.zip");
+    ValidatingProcessor parallel = validate(ERROR_TEST1_ARCHIVE, 4, parallelResult);
+
+    TestCase.assertFalse(sequential.validationErrors.isEmpty());
+    TestCase.assertEquals(sequential.validationErrors.toString(), parallel.validationErrors.toString());
+    TestCase.assertEquals(report(sequentialResult), report(parallelResult));
+  }
+
+  /**
+   * Every one of many tbData rows has its own sync dir, in each format.  Looking through all of the rows for each
+   * sync dir, this would take far too long to finish.  The packages are zips, read in place, as writing out so many
+   * directories would take longer than validating them.
+   */
+  @Test
+  public void testMatchesManySyncDirs() throws Exception {
+    final int numRows = 100000;
+    File tempDir = Files.createTempDirectory("TestValidatingProcessor").toFile();
+    try {
+      for (int formatVersion = 1; formatVersion <= 2; formatVersion++) {
+        File zip = new File(tempDir, "v" + formatVersion + ".zip");
+        writeManySyncDirs(zip, formatVersion, numRows);
+        File root = new File(tempDir, "v" + formatVersion);
+        try (ZipFileTree tree = new ZipFileTree(zip, root, tempDir)) {
+          ValidatingProcessor validatingProcessor = validate(tree, root,
+                                                             formatVersion == 2 ? DirectoryFormat.Archive
+                                                                                : DirectoryFormat.Sync);
+          TestCase.assertEquals(0, validatingProcessor.validationErrors.size());
+        }
+      }
+    } finally {
+      FileUtils.deleteDirectory(tempDir);
+    }
+  }
+
+  /**
+   * Writes a package of the given format version, with a tbData file of numRows updates by device1, a minute
+   * apart and spread over 100 Talking Books, and a sync dir for each.  A version 2 sync dir is named for its row,
+   * and a version 1 sync dir for 30 seconds before it, which the row is found after.
+   */
+  private static void writeManySyncDirs(File zip, int formatVersion, int numRows) throws IOException {
+    String syncDirs;
+    String tbData;
+    StringBuilder rows = new StringBuilder();
+    if (formatVersion == 2) {
+      syncDirs = "TalkingBookData/2013-05/device1/village1/";
+      tbData = "OperationalData/device1/tbdata/tbData-v00-2013y03m01d-device1.csv";
+      rows.append("UPDATE_DATE_TIME,LOCATION,OUT-SN,ACTION,OUT-DEPLOYMENT,OUT-COMMUNITY,OUT-IMAGE,OUT-FW-REV,IN-SN,")
+          .append("IN-DEPLOYMENT,IN-COMMUNITY,IN-LAST-UPDATED,A,B,C,D,E,F,G,H,I,J,K,L,M,N,O,P,Q,R,S,T,U,V,W,X\n");
+    } else {
+      syncDirs = "device1/collected-data/2013-05/village1/";
+      tbData = "device1/collected-data/tbData-v00-2013-03-01.csv";
+    }
+
+    try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zip)))) {
+      addEntry(zos, "StatsPackageManifest.json",
+               "{ \"formatVersion\" : " + formatVersion + ", \"devices\" : { \"device1\" : {"
+               + " \"startTime\" : \"2013-01-01T0:00:00\", \"endTime\" : \"2014-01-01T0:00:00\","
+               + " \"incomplete\" : false } } }");
+
+      LocalDateTime start = new LocalDateTime(2013, 3, 1, 0, 0, 30);
+      for (int i = 0; i < numRows; i++) {
+        LocalDateTime updateTime = start.plusMinutes(i);
+        String talkingBook = "TB" + i % 100;
+        String syncDirName;
+        if (formatVersion == 2) {
+          rows.append(updateTime.toString("yyyy'y'MM'm'dd'd'HH'h'mm'm'ss's'"));
+          syncDirName = updateTime.toString("yyyy'y'MM'm'dd'd'HH'h'mm'm'ss's'") + "-device1";
+        } else {
+          rows.append(updateTime.toString("MM'm'dd'd'HH'h'mm'm'ss's'"));
+          syncDirName = updateTime.minusSeconds(30).toString("MM'm'dd'd'HH'h'mm'm'ss's'");
+        }
+        rows.append(",Jirapa office,").append(talkingBook).append(",update,2013-06,village1,2013//10,r977,")
+            .append(talkingBook).append(",2013-05,village1,Mon Aug 19 00:00:00 GMT 2013,r1059,FALSE,FALSE,TRUE,")
+            .append("0,0,null,null,null,-1,0,0,0,0,0,0,0,0,0,0,0,0,0,^@\n");
+        addEntry(zos, syncDirs + talkingBook + "/" + syncDirName + "/notempty.txt", "x");
+      }
+      addEntry(zos, tbData, rows.toString());
+    }
+  }
+
+  private static void addEntry(ZipOutputStream zos, String name, String contents) throws IOException {
+    zos.putNextEntry(new ZipEntry(name));
+    zos.write(contents.getBytes(StandardCharsets.UTF_8));
+    zos.closeEntry();
+  }
+
+  private static ValidatingProcessor validate(FileTree tree, File root, DirectoryFormat format) throws Exception {
+    ContentUsageUpdateProcess.UpdateUsageContext context =
+      new ContentUsageUpdateProcess().new UpdateUsageContext(null, null, new ProcessingResult("test", "test.zip"));
+    context.setFileTree(tree);
+    ValidatingProcessor validatingProcessor = new ValidatingProcessor(context);
+    new DirectoryIterator(root, format, true, context).process(validatingProcessor);
+    return validatingProcessor;
+  }
+
+  private static ValidatingProcessor validate(File root, int traversalThreads, ProcessingResult result)
+      throws Exception {
+    ContentUsageUpdateProcess process = new ContentUsageUpdateProcess();
+    process.setTraversalThreads(traversalThreads);
+    ContentUsageUpdateProcess.UpdateUsageContext context = process.new UpdateUsageContext(null, null, result);
+    ValidatingProcessor validatingProcessor = new ValidatingProcessor(context);
+    new DirectoryIterator(root, null, true, context).process(validatingProcessor);
+    return validatingProcessor;
+  }
+
+  private static String report(ProcessingResult result) {
+    ByteArrayOutputStream report = new ByteArrayOutputStream();
+    result.report(new PrintStream(report));
+    return report.toString();
+  }
+
 }
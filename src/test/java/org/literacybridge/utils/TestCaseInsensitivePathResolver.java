@@ -0,0 +1,70 @@
+package org.literacybridge.utils;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ */
+public class TestCaseInsensitivePathResolver {
+
+  private File tempDir;
+
+  @Before
+  public void setUp() throws IOException {
+    tempDir = Files.createTempDirectory("TestCaseInsensitivePathResolver").toFile();
+    new File(tempDir, FsUtils.FsAgnostify("TalkingBookData/2013-03/Device1")).mkdirs();
+    new File(tempDir, FsUtils.FsAgnostify("OperationalData/device1/tbData")).mkdirs();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(tempDir);
+  }
+
+  @Test
+  public void testResolvesLikeFileIgnoreCase() {
+    CaseInsensitivePathResolver resolver = new CaseInsensitivePathResolver();
+    String[][] paths = {
+      { "talkingbookdata" },
+      { "TalkingBookData", "2013-03", "device1" },
+      { "OPERATIONALDATA", "Device1", "tbdata" },
+      { "OperationalData", "missing", "tbdata" },
+      { "nothere" },
+    };
+    for (String[] path : paths) {
+      TestCase.assertEquals(FsUtils.FileIgnoreCase(tempDir, path), resolver.resolve(tempDir, path));
+    }
+  }
+
+  @Test
+  public void testListsEachDirectoryOnce() {
+    CaseInsensitivePathResolver resolver = new CaseInsensitivePathResolver();
+    for (int i = 0; i < 10; i++) {
+      resolver.resolve(tempDir, "operationaldata", "device1", "tbdata");
+      resolver.resolve(tempDir, "TALKINGBOOKDATA");
+    }
+    TestCase.assertEquals(3, resolver.getDirectoriesListed());
+  }
+
+  @Test
+  public void testInvalidate() {
+    CaseInsensitivePathResolver resolver = new CaseInsensitivePathResolver();
+    File talkingBookData = resolver.resolve(tempDir, "talkingbookdata");
+    TestCase.assertEquals(new File(talkingBookData, "unknown"), resolver.resolve(talkingBookData, "unknown"));
+
+    //Not noticed until it is invalidated.
+    File created = new File(talkingBookData, "UNKNOWN");
+    created.mkdir();
+    TestCase.assertEquals(new File(talkingBookData, "unknown"), resolver.resolve(talkingBookData, "unknown"));
+    resolver.invalidate(created);
+    TestCase.assertEquals(created, resolver.resolve(tempDir, "TALKINGBOOKDATA", "unknown"));
+    TestCase.assertEquals(3, resolver.getDirectoriesListed());
+  }
+}
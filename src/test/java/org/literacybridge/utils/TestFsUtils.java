@@ -0,0 +1,96 @@
+package org.literacybridge.utils;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+/**
+ */
+public class TestFsUtils {
+
+  private File tempDir;
+
+  @Before
+  public void setUp() throws IOException {
+    tempDir = Files.createTempDirectory("TestFsUtils").toFile();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(tempDir);
+  }
+
+  @Test
+  public void testParallelUnzipMatchesSequential() throws Exception {
+    File zip = new File(tempDir, "package.zip");
+    TestZipFileTree.zipPackage(TestZipFileTree.TEST1_ARCHIVE, zip);
+
+    File sequential = new File(tempDir, "sequential");
+    FsUtils.unzip(zip, sequential);
+    File parallel = new File(tempDir, "parallel");
+    FsUtils.UnzipStats stats = FsUtils.unzip(zip, parallel, 4);
+
+    Collection<File> files = FileUtils.listFiles(sequential, null, true);
+    TestCase.assertEquals(files.size(), stats.files);
+    TestCase.assertEquals(files.size(), FileUtils.listFiles(parallel, null, true).size());
+    for (File file : files) {
+      String relative = file.getAbsolutePath().substring(sequential.getAbsolutePath().length());
+      File other = new File(parallel, relative);
+      TestCase.assertTrue(Arrays.equals(Files.readAllBytes(file.toPath()), Files.readAllBytes(other.toPath())));
+      TestCase.assertEquals(file.lastModified(), other.lastModified());
+    }
+  }
+
+  @Test
+  public void testCorruptZip() throws Exception {
+    File zip = new File(tempDir, "corrupt.zip");
+    FileUtils.writeStringToFile(zip, "not a zip");
+    for (int threads : new int[] { 1, 4 }) {
+      try {
+        FsUtils.unzip(zip, new File(tempDir, "out" + threads), threads);
+        TestCase.fail("Expected a ZipException");
+      } catch (ZipException e) {
+        //expected
+      }
+    }
+  }
+
+  @Test
+  public void testCorruptEntry() throws Exception {
+    File zip = new File(tempDir, "entry.zip");
+    try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip))) {
+      for (int i = 0; i < 8; i++) {
+        zos.putNextEntry(new ZipEntry("dir" + i + "/file.txt"));
+        zos.write(("contents of file " + i + " which is long enough to be deflated").getBytes("UTF-8"));
+        zos.closeEntry();
+      }
+    }
+    //Break the deflated data of the entries, leaving the central directory alone.
+    byte[] bytes = Files.readAllBytes(zip.toPath());
+    for (int i = 40; i < bytes.length / 2; i++) {
+      bytes[i] = (byte) 0xff;
+    }
+    Files.write(zip.toPath(), bytes);
+
+    for (int threads : new int[] { 1, 4 }) {
+      try {
+        FsUtils.unzip(zip, new File(tempDir, "out" + threads), threads);
+        TestCase.fail("Expected a ZipException");
+      } catch (ZipException e) {
+        //expected
+      }
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package org.literacybridge.utils;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.WildcardFileFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.literacybridge.stats.DirectoryIterator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+/**
+ */
+public class TestZipFileTree {
+
+  public static final File TEST1_ARCHIVE = new File(FsUtils.FsAgnostify("src/test/resources/testPackages/test1-archive"));
+
+  private File tempDir;
+
+  @Before
+  public void setUp() throws IOException {
+    tempDir = Files.createTempDirectory("TestZipFileTree").toFile();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(tempDir);
+  }
+
+  /**
+   * Zips up a directory the way packages are uploaded: every sync directory (named like
+   * 2013y07m15d17h01m50s-device1) goes in a zip of its own, next to where the directory was.
+   */
+  public static void zipPackage(File dir, File zip) throws IOException {
+    try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip))) {
+      addToZip(zos, dir, "");
+    }
+  }
+
+  private static void addToZip(ZipOutputStream zos, File dir, String prefix) throws IOException {
+    File[] children = dir.listFiles();
+    Arrays.sort(children);
+    for (File child : children) {
+      String name = prefix + child.getName();
+      if (child.isDirectory()) {
+        if (DirectoryIterator.SYNC_TIME_PATTERN_V2.matcher(child.getName()).matches()) {
+          ByteArrayOutputStream nested = new ByteArrayOutputStream();
+          try (ZipOutputStream nestedZos = new ZipOutputStream(nested)) {
+            addToZip(nestedZos, child, child.getName() + "/");
+          }
+          addEntry(zos, name + ".zip", nested.toByteArray());
+        } else {
+          addToZip(zos, child, name + "/");
+        }
+      } else {
+        addEntry(zos, name, Files.readAllBytes(child.toPath()));
+      }
+    }
+  }
+
+  private static void addEntry(ZipOutputStream zos, String name, byte[] contents) throws IOException {
+    zos.putNextEntry(new ZipEntry(name));
+    zos.write(contents);
+    zos.closeEntry();
+  }
+
+  @Test
+  public void testTreeMatchesPackage() throws Exception {
+    File zip = new File(tempDir, "package.zip");
+    zipPackage(TEST1_ARCHIVE, zip);
+    File root = new File(tempDir, "expanded");
+
+    try (ZipFileTree tree = new ZipFileTree(zip, root, tempDir)) {
+      TestCase.assertTrue(tree.isDirectory(root));
+      TestCase.assertFalse(root.exists());
+      TestCase.assertEquals(new File(root, "TalkingBookData"), tree.fileIgnoreCase(root, "talkingbookdata"));
+      TestCase.assertEquals(new File(root, "missing"), tree.fileIgnoreCase(root, "missing"));
+
+      File tbdata = new File(root, FsUtils.FsAgnostify("OperationalData/device1/tbdata"));
+      TestCase.assertEquals(3, tree.listFiles(tbdata, new WildcardFileFilter("*.csv")).length);
+      File csv = new File(tbdata, "tbData-v00-2013y07m15d-device1.csv");
+      byte[] expected = Files.readAllBytes(new File(TEST1_ARCHIVE, FsUtils.FsAgnostify(
+        "OperationalData/device1/tbdata/tbData-v00-2013y07m15d-device1.csv")).toPath());
+      TestCase.assertTrue(Arrays.equals(expected, tree.readFully(csv)));
+      TestCase.assertEquals(expected.length, tree.length(csv));
+
+      File tb2 = new File(root, FsUtils.FsAgnostify("TalkingBookData/2013-04/device1/village2/TB2"));
+      File[] zips = tree.listFiles(tb2, new WildcardFileFilter("*.zip"));
+      TestCase.assertEquals(2, zips.length);
+      TestCase.assertEquals(0, tree.listDirectories(tb2).length);
+
+      for (File syncZip : zips) {
+        tree.expandZip(syncZip);
+        TestCase.assertTrue(tree.delete(syncZip));
+      }
+      TestCase.assertEquals(0, tree.listFiles(tb2, new WildcardFileFilter("*.zip")).length);
+      TestCase.assertEquals(2, tree.listDirectories(tb2).length);
+
+      File notEmpty = new File(tb2, FsUtils.FsAgnostify("2013y08m15d18h01m50s-device1/notempty.txt"));
+      expected = Files.readAllBytes(new File(TEST1_ARCHIVE, FsUtils.FsAgnostify(
+        "TalkingBookData/2013-04/device1/village2/TB2/2013y08m15d18h01m50s-device1/notempty.txt")).toPath());
+      TestCase.assertTrue(Arrays.equals(expected, tree.readFully(notEmpty)));
+      TestCase.assertNull(tree.toPath(notEmpty));
+    }
+  }
+
+  @Test
+  public void testNestedZipsAreReopened() throws Exception {
+    File zip = new File(tempDir, "package.zip");
+    zipPackage(TEST1_ARCHIVE, zip);
+    File root = new File(tempDir, "expanded");
+    File spoolDir = new File(tempDir, "spool");
+    spoolDir.mkdir();
+
+    File tb2 = new File(root, FsUtils.FsAgnostify("TalkingBookData/2013-04/device1/village2/TB2"));
+    try (ZipFileTree tree = new ZipFileTree(zip, root, spoolDir, 1)) {
+      for (File syncZip : tree.listFiles(tb2, new WildcardFileFilter("*.zip"))) {
+        tree.expandZip(syncZip);
+      }
+      TestCase.assertEquals(2, spoolDir.list().length);
+
+      //Only one of them can be open at a time.
+      for (int i = 0; i < 2; i++) {
+        for (File syncDir : tree.listDirectories(tb2)) {
+          TestCase.assertTrue(tree.readFully(new File(syncDir, "notempty.txt")).length > 0);
+        }
+      }
+    }
+    TestCase.assertEquals(0, spoolDir.list().length);
+  }
+
+  @Test
+  public void testCorruptNestedZip() throws Exception {
+    File zip = new File(tempDir, "package.zip");
+    try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip))) {
+      addEntry(zos, "TB/sync/old.txt", "old".getBytes("UTF-8"));
+      addEntry(zos, "TB/sync.zip", "not a zip".getBytes("UTF-8"));
+    }
+    File root = new File(tempDir, "expanded");
+
+    try (ZipFileTree tree = new ZipFileTree(zip, root, tempDir)) {
+      File tb = new File(root, "TB");
+      try {
+        tree.expandZip(new File(tb, "sync.zip"));
+        TestCase.fail("Expected a ZipException");
+      } catch (ZipException e) {
+        //expected
+      }
+      //Same as expanding it locally, the directory it was going to replace is gone.
+      TestCase.assertFalse(tree.exists(new File(tb, "sync")));
+      TestCase.assertTrue(tree.exists(new File(tb, "sync.zip")));
+    }
+  }
+}